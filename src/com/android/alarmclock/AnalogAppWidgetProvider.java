@@ -52,24 +52,44 @@ public class AnalogAppWidgetProvider extends AppWidgetProvider {
     }
 
     /**
-     * Called when widgets must provide remote views.
+     * Called when widgets must provide remote views. Widgets whose remote views would not change
+     * are not sent them again.
      */
     @Override
     public void onUpdate(Context context, AppWidgetManager wm, int[] widgetIds) {
         super.onUpdate(context, wm, widgetIds);
 
+        final WidgetUpdateCoordinator coordinator = WidgetUpdateCoordinator.getInstance();
         for (int widgetId : widgetIds) {
+            final boolean clickable = Utils.isWidgetClickable(wm, widgetId);
+            final long fingerprint = WidgetUpdateCoordinator.fingerprint(
+                    WidgetUpdateCoordinator.FINGERPRINT_INITIAL, clickable);
+            final int updateType = coordinator.getUpdateType(widgetId, fingerprint,
+                    WidgetUpdateCoordinator.FINGERPRINT_INITIAL);
+            if (updateType == WidgetUpdateCoordinator.UPDATE_NONE) {
+                continue;
+            }
+
             final String packageName = context.getPackageName();
             final RemoteViews widget = new RemoteViews(packageName, R.layout.analog_appwidget);
 
             // Tapping on the widget opens the app (if not on the lock screen).
-            if (Utils.isWidgetClickable(wm, widgetId)) {
+            if (clickable) {
                 final Intent openApp = new Intent(context, DeskClock.class);
                 final PendingIntent pi = PendingIntent.getActivity(context, 0, openApp, 0);
                 widget.setOnClickPendingIntent(R.id.analog_appwidget, pi);
             }
 
             wm.updateAppWidget(widgetId, widget);
+            coordinator.onUpdated(widgetId, fingerprint,
+                    WidgetUpdateCoordinator.FINGERPRINT_INITIAL, false /* partialUpdatable */);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void onDeleted(Context context, int[] widgetIds) {
+        super.onDeleted(context, widgetIds);
+
+        WidgetUpdateCoordinator.getInstance().onDeleted(widgetIds);
+    }
+}
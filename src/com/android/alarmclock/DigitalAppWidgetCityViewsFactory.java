@@ -30,17 +30,15 @@ import com.android.deskclock.R;
 import com.android.deskclock.Utils;
 import com.android.deskclock.data.City;
 import com.android.deskclock.data.DataModel;
+import com.android.deskclock.uidata.CityStrings;
+import com.android.deskclock.uidata.UiDataModel;
 
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
-import java.util.Locale;
-import java.util.TimeZone;
 
 import static android.appwidget.AppWidgetManager.EXTRA_APPWIDGET_ID;
 import static android.appwidget.AppWidgetManager.INVALID_APPWIDGET_ID;
-import static java.util.Calendar.DAY_OF_WEEK;
 
 /**
  * This factory produces entries in the world cities list view displayed at the bottom of the
@@ -56,11 +54,12 @@ public class DigitalAppWidgetCityViewsFactory implements RemoteViewsFactory {
     private final float m12HourFontSize;
     private final float m24HourFontSize;
     private final int mWidgetId;
-    private float mFontScale = 1;
 
-    private City mHomeCity;
-    private boolean mShowHomeClock;
-    private List<City> mCities = Collections.emptyList();
+    /**
+     * The clocks displayed by the list. Replaced as a whole by {@link #onDataSetChanged}, so rows
+     * are read without locking.
+     */
+    private volatile RefreshRunnable mData = new RefreshRunnable();
 
     public DigitalAppWidgetCityViewsFactory(Context context, Intent intent) {
         mContext = context;
@@ -81,57 +80,37 @@ public class DigitalAppWidgetCityViewsFactory implements RemoteViewsFactory {
         LOGGER.i("DigitalAppWidgetCityViewsFactory onDestroy " + mWidgetId);
     }
 
-    /**
-     * <p>Synchronized to ensure single-threaded reading/writing of mCities, mHomeCity and
-     * mShowHomeClock.</p>
-     *
-     * {@inheritDoc}
-     */
     @Override
-    public synchronized int getCount() {
-        final int homeClockCount = mShowHomeClock ? 1 : 0;
-        final int worldClockCount = mCities.size();
-        final double totalClockCount = homeClockCount + worldClockCount;
-
-        // number of clocks / 2 clocks per row
-        return (int) Math.ceil(totalClockCount / 2);
+    public int getCount() {
+        return getCount(mData);
     }
 
-    /**
-     * <p>Synchronized to ensure single-threaded reading/writing of mCities, mHomeCity and
-     * mShowHomeClock.</p>
-     *
-     * {@inheritDoc}
-     */
     @Override
-    public synchronized RemoteViews getViewAt(int position) {
-        final int homeClockOffset = mShowHomeClock ? -1 : 0;
-        final int leftIndex = position * 2 + homeClockOffset;
+    public RemoteViews getViewAt(int position) {
+        final RefreshRunnable data = mData;
+        final int leftIndex = position * 2;
         final int rightIndex = leftIndex + 1;
 
-        final City left = leftIndex == -1 ? mHomeCity :
-                (leftIndex < mCities.size() ? mCities.get(leftIndex) : null);
-        final City right = rightIndex < mCities.size() ? mCities.get(rightIndex) : null;
-
         final RemoteViews rv =
                 new RemoteViews(mContext.getPackageName(), R.layout.world_clock_remote_list_item);
 
         // Show the left clock if one exists.
-        if (left != null) {
-            update(rv, left, R.id.left_clock, R.id.city_name_left, R.id.city_day_left);
+        if (leftIndex < data.mCities.size()) {
+            update(rv, data, leftIndex, R.id.left_clock, R.id.city_name_left, R.id.city_day_left);
         } else {
             hide(rv, R.id.left_clock, R.id.city_name_left, R.id.city_day_left);
         }
 
         // Show the right clock if one exists.
-        if (right != null) {
-            update(rv, right, R.id.right_clock, R.id.city_name_right, R.id.city_day_right);
+        if (rightIndex < data.mCities.size()) {
+            update(rv, data, rightIndex, R.id.right_clock, R.id.city_name_right,
+                    R.id.city_day_right);
         } else {
             hide(rv, R.id.right_clock, R.id.city_name_right, R.id.city_day_right);
         }
 
         // Hide last spacer in last row; show for all others.
-        final boolean lastRow = position == getCount() - 1;
+        final boolean lastRow = position == getCount(data) - 1;
         rv.setViewVisibility(R.id.city_spacer, lastRow ? View.GONE : View.VISIBLE);
 
         rv.setOnClickFillInIntent(R.id.widget_item, mFillInIntent);
@@ -158,49 +137,51 @@ public class DigitalAppWidgetCityViewsFactory implements RemoteViewsFactory {
         return false;
     }
 
-    /**
-     * <p>Synchronized to ensure single-threaded reading/writing of mCities, mHomeCity and
-     * mShowHomeClock.</p>
-     *
-     * {@inheritDoc}
-     */
     @Override
-    public synchronized void onDataSetChanged() {
+    public void onDataSetChanged() {
         // Fetch the data on the main Looper.
         final RefreshRunnable refreshRunnable = new RefreshRunnable();
         DataModel.getDataModel().run(refreshRunnable);
 
-        // Store the data in local variables.
-        mHomeCity = refreshRunnable.mHomeCity;
-        mCities = refreshRunnable.mCities;
-        mShowHomeClock = refreshRunnable.mShowHomeClock;
-        mFontScale = WidgetUtils.getScaleRatio(mContext, null, mWidgetId, mCities.size());
+        // Compute the values shared by all rows once rather than for each row.
+        final int worldClockCount =
+                refreshRunnable.mCities.size() - (refreshRunnable.mShowHomeClock ? 1 : 0);
+        refreshRunnable.mFontScale =
+                WidgetUtils.getScaleRatio(mContext, null, mWidgetId, worldClockCount);
+        refreshRunnable.mIs24HourFormat = DateFormat.is24HourFormat(mContext);
+        refreshRunnable.m12HourFormat = Utils.get12ModeFormat(0.4f, false);
+        refreshRunnable.m24HourFormat = Utils.get24ModeFormat(false);
+
+        // Publish the data to the rows.
+        mData = refreshRunnable;
     }
 
-    private void update(RemoteViews rv, City city, int clockId, int labelId, int dayId) {
-        rv.setCharSequence(clockId, "setFormat12Hour", Utils.get12ModeFormat(0.4f, false));
-        rv.setCharSequence(clockId, "setFormat24Hour", Utils.get24ModeFormat(false));
+    /**
+     * @return the number of rows needed to display the clocks of the {@code data}
+     */
+    private static int getCount(RefreshRunnable data) {
+        // number of clocks / 2 clocks per row
+        return (data.mCities.size() + 1) / 2;
+    }
+
+    private void update(RemoteViews rv, RefreshRunnable data, int index, int clockId, int labelId,
+            int dayId) {
+        final City city = data.mCities.get(index);
+        rv.setCharSequence(clockId, "setFormat12Hour", data.m12HourFormat);
+        rv.setCharSequence(clockId, "setFormat24Hour", data.m24HourFormat);
 
-        final boolean is24HourFormat = DateFormat.is24HourFormat(mContext);
-        final float fontSize = is24HourFormat ? m24HourFontSize : m12HourFontSize;
-        rv.setTextViewTextSize(clockId, TypedValue.COMPLEX_UNIT_PX, fontSize * mFontScale);
+        final float fontSize = data.mIs24HourFormat ? m24HourFontSize : m12HourFontSize;
+        rv.setTextViewTextSize(clockId, TypedValue.COMPLEX_UNIT_PX, fontSize * data.mFontScale);
         rv.setString(clockId, "setTimeZone", city.getTimeZone().getID());
         rv.setTextViewText(labelId, city.getName());
 
-        // Compute if the city week day matches the weekday of the current timezone.
-        final Calendar localCal = Calendar.getInstance(TimeZone.getDefault());
-        final Calendar cityCal = Calendar.getInstance(city.getTimeZone());
-        final boolean displayDayOfWeek = localCal.get(DAY_OF_WEEK) != cityCal.get(DAY_OF_WEEK);
-
-        // Bind the week day display.
-        if (displayDayOfWeek) {
-            final Locale locale = Locale.getDefault();
-            final String weekday = cityCal.getDisplayName(DAY_OF_WEEK, Calendar.SHORT, locale);
-            final String slashDay = mContext.getString(R.string.world_day_of_week_label, weekday);
-            rv.setTextViewText(dayId, slashDay);
+        // Bind the week day display if the city week day differs from the local week day.
+        final String dayOfWeekLabel = data.mCityStrings.get(index).getDayOfWeekLabel();
+        if (dayOfWeekLabel != null) {
+            rv.setTextViewText(dayId, dayOfWeekLabel);
         }
 
-        rv.setViewVisibility(dayId, displayDayOfWeek ? View.VISIBLE : View.GONE);
+        rv.setViewVisibility(dayId, dayOfWeekLabel != null ? View.VISIBLE : View.GONE);
         rv.setViewVisibility(clockId, View.VISIBLE);
         rv.setViewVisibility(labelId, View.VISIBLE);
     }
@@ -213,19 +194,40 @@ public class DigitalAppWidgetCityViewsFactory implements RemoteViewsFactory {
 
     /**
      * This Runnable fetches data for this factory on the main thread to ensure all DataModel reads
-     * occur on the main thread.
+     * occur on the main thread. Once run, it holds the data displayed by the list and is no longer
+     * modified.
      */
     private static final class RefreshRunnable implements Runnable {
 
-        private City mHomeCity;
-        private List<City> mCities;
+        /** The cities displayed, led by the home city if it is shown. */
+        private List<City> mCities = Collections.emptyList();
+
+        /** The strings describing each of {@link #mCities}, formatted for the current minute. */
+        private List<CityStrings> mCityStrings = Collections.emptyList();
+
         private boolean mShowHomeClock;
+        private float mFontScale = 1;
+        private boolean mIs24HourFormat;
+        private CharSequence m12HourFormat;
+        private CharSequence m24HourFormat;
 
         @Override
         public void run() {
-            mHomeCity = DataModel.getDataModel().getHomeCity();
-            mCities = new ArrayList<>(DataModel.getDataModel().getSelectedCities());
-            mShowHomeClock = DataModel.getDataModel().getShowHomeClock();
+            final DataModel dm = DataModel.getDataModel();
+            final List<City> selectedCities = dm.getSelectedCities();
+            mShowHomeClock = dm.getShowHomeClock();
+
+            mCities = new ArrayList<>(selectedCities.size() + 1);
+            if (mShowHomeClock) {
+                mCities.add(dm.getHomeCity());
+            }
+            mCities.addAll(selectedCities);
+
+            final UiDataModel uidm = UiDataModel.getUiDataModel();
+            mCityStrings = new ArrayList<>(mCities.size());
+            for (City city : mCities) {
+                mCityStrings.add(uidm.getCityStrings(city));
+            }
         }
     }
 }
@@ -108,6 +108,21 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
     /** Intent used to deliver the {@link #ACTION_ON_DAY_CHANGE} callback. */
     private static final Intent DAY_CHANGE_INTENT = new Intent(ACTION_ON_DAY_CHANGE);
 
+    /** Lays out every widget again once the triggering broadcasts have been coalesced. */
+    private static final WidgetUpdateCoordinator.Updater RELAYOUT =
+            new WidgetUpdateCoordinator.Updater() {
+                @Override
+                public void updateWidgets(Context context, boolean citiesChanged) {
+                    final AppWidgetManager wm = AppWidgetManager.getInstance(context);
+                    final ComponentName provider =
+                            new ComponentName(context, DigitalAppWidgetProvider.class);
+                    for (int widgetId : wm.getAppWidgetIds(provider)) {
+                        relayoutWidget(context, wm, widgetId, wm.getAppWidgetOptions(widgetId),
+                                citiesChanged);
+                    }
+                }
+            };
+
     @Override
     public void onEnabled(Context context) {
         super.onEnabled(context);
@@ -137,20 +152,27 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         final ComponentName provider = new ComponentName(context, getClass());
         final int[] widgetIds = wm.getAppWidgetIds(provider);
 
-        final String action = intent.getAction();
-        switch (action) {
-            case ACTION_NEXT_ALARM_CLOCK_CHANGED:
-            case ACTION_DATE_CHANGED:
-            case ACTION_LOCALE_CHANGED:
-            case ACTION_SCREEN_ON:
-            case ACTION_TIME_CHANGED:
-            case ACTION_TIMEZONE_CHANGED:
-            case ACTION_ALARM_CHANGED:
-            case ACTION_ON_DAY_CHANGE:
-            case ACTION_WORLD_CITIES_CHANGED:
-                for (int widgetId : widgetIds) {
-                    relayoutWidget(context, wm, widgetId, wm.getAppWidgetOptions(widgetId));
-                }
+        if (widgetIds.length > 0) {
+            // Bursts of these broadcasts, e.g. after the time zone changes, are coalesced into a
+            // single relayout of each widget.
+            final String action = intent.getAction();
+            switch (action) {
+                case ACTION_NEXT_ALARM_CLOCK_CHANGED:
+                case ACTION_SCREEN_ON:
+                case ACTION_ALARM_CHANGED:
+                    WidgetUpdateCoordinator.getInstance()
+                            .requestUpdate(context, RELAYOUT, false /* citiesChanged */, goAsync());
+                    break;
+                case ACTION_DATE_CHANGED:
+                case ACTION_LOCALE_CHANGED:
+                case ACTION_TIME_CHANGED:
+                case ACTION_TIMEZONE_CHANGED:
+                case ACTION_ON_DAY_CHANGE:
+                case ACTION_WORLD_CITIES_CHANGED:
+                    WidgetUpdateCoordinator.getInstance()
+                            .requestUpdate(context, RELAYOUT, true /* citiesChanged */, goAsync());
+                    break;
+            }
         }
 
         final DataModel dm = DataModel.getDataModel();
@@ -169,7 +191,7 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         super.onUpdate(context, wm, widgetIds);
 
         for (int widgetId : widgetIds) {
-            relayoutWidget(context, wm, widgetId, wm.getAppWidgetOptions(widgetId));
+            relayoutWidget(context, wm, widgetId, wm.getAppWidgetOptions(widgetId), false);
         }
     }
 
@@ -182,57 +204,106 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         super.onAppWidgetOptionsChanged(context, wm, widgetId, options);
 
         // scale the fonts of the clock to fit inside the new size
-        relayoutWidget(context, AppWidgetManager.getInstance(context), widgetId, options);
+        relayoutWidget(context, AppWidgetManager.getInstance(context), widgetId, options, false);
     }
 
-    /**
-     * Compute optimal font and icon sizes offscreen for both portrait and landscape orientations
-     * using the last known widget size and apply them to the widget.
-     */
-    private static void relayoutWidget(Context context, AppWidgetManager wm, int widgetId,
-            Bundle options) {
-        final RemoteViews portrait = relayoutWidget(context, wm, widgetId, options, true);
-        final RemoteViews landscape = relayoutWidget(context, wm, widgetId, options, false);
-        final RemoteViews widget = new RemoteViews(landscape, portrait);
-        wm.updateAppWidget(widgetId, widget);
-        wm.notifyAppWidgetViewDataChanged(widgetId, R.id.world_city_list);
+    @Override
+    public void onDeleted(Context context, int[] widgetIds) {
+        super.onDeleted(context, widgetIds);
+
+        WidgetUpdateCoordinator.getInstance().onDeleted(widgetIds);
     }
 
     /**
-     * Compute optimal font and icon sizes offscreen for the given orientation.
+     * Compute optimal font and icon sizes offscreen for both portrait and landscape orientations
+     * using the last known widget size and apply them to the widget. Nothing is sent to the widget
+     * if none of its content changed, and only its text is sent if nothing else changed and both
+     * orientations share a single layout.
+     *
+     * @param citiesChanged {@code true} if the world city list must be refreshed regardless
      */
-    private static RemoteViews relayoutWidget(Context context, AppWidgetManager wm, int widgetId,
-            Bundle options, boolean portrait) {
-        // Create a remote view for the digital clock.
-        final String packageName = context.getPackageName();
-        final RemoteViews rv = new RemoteViews(packageName, R.layout.digital_widget);
+    private static void relayoutWidget(Context context, AppWidgetManager wm, int widgetId,
+            Bundle options, boolean citiesChanged) {
+        final DigitalWidgetSizeCache cache = DigitalWidgetSizeCache.getInstance(context);
+        final int hitCount = cache.getHitCount();
+        final int lookupCount = cache.getLookupCount();
 
-        // Tapping on the widget opens the app (if not on the lock screen).
-        if (Utils.isWidgetClickable(wm, widgetId)) {
-            final Intent openApp = new Intent(context, DeskClock.class);
-            final PendingIntent pi = PendingIntent.getActivity(context, 0, openApp, 0);
-            rv.setOnClickPendingIntent(R.id.digital_widget, pi);
+        if (options == null) {
+            options = wm.getAppWidgetOptions(widgetId);
         }
 
-        // Configure child views of the remote view.
+        final boolean clickable = Utils.isWidgetClickable(wm, widgetId);
         final CharSequence dateFormat = getDateFormat(context);
-        rv.setCharSequence(R.id.date, "setFormat12Hour", dateFormat);
-        rv.setCharSequence(R.id.date, "setFormat24Hour", dateFormat);
-
         final String nextAlarmTime = Utils.getNextAlarm(context);
-        if (TextUtils.isEmpty(nextAlarmTime)) {
-            rv.setViewVisibility(R.id.nextAlarm, GONE);
-            rv.setViewVisibility(R.id.nextAlarmIcon, GONE);
-        } else  {
-            rv.setTextViewText(R.id.nextAlarm, nextAlarmTime);
-            rv.setViewVisibility(R.id.nextAlarm, VISIBLE);
-            rv.setViewVisibility(R.id.nextAlarmIcon, VISIBLE);
+        final Sizes portraitSizes = getSizes(context, options, dateFormat, nextAlarmTime, true);
+        final Sizes landscapeSizes = getSizes(context, options, dateFormat, nextAlarmTime, false);
+        final boolean portraitListVisible = isWorldCityListVisible(context, portraitSizes);
+        final boolean landscapeListVisible = isWorldCityListVisible(context, landscapeSizes);
+
+        // Both orientations display identical views if they chose identical sizes.
+        final boolean singleLayout =
+                portraitSizes.getClockFontSizePx() == landscapeSizes.getClockFontSizePx()
+                && portraitListVisible == landscapeListVisible;
+
+        // Fingerprint everything that is displayed apart from the text.
+        long layoutFingerprint = WidgetUpdateCoordinator.FINGERPRINT_INITIAL;
+        layoutFingerprint = WidgetUpdateCoordinator.fingerprint(layoutFingerprint, clickable);
+        layoutFingerprint = WidgetUpdateCoordinator.fingerprint(layoutFingerprint,
+                Locale.getDefault().toString());
+        layoutFingerprint = WidgetUpdateCoordinator.fingerprint(layoutFingerprint,
+                TextUtils.isEmpty(nextAlarmTime));
+        layoutFingerprint = WidgetUpdateCoordinator.fingerprint(layoutFingerprint,
+                portraitSizes.getClockFontSizePx());
+        layoutFingerprint = WidgetUpdateCoordinator.fingerprint(layoutFingerprint,
+                portraitListVisible);
+        layoutFingerprint = WidgetUpdateCoordinator.fingerprint(layoutFingerprint,
+                landscapeSizes.getClockFontSizePx());
+        layoutFingerprint = WidgetUpdateCoordinator.fingerprint(layoutFingerprint,
+                landscapeListVisible);
+
+        long textFingerprint = WidgetUpdateCoordinator.FINGERPRINT_INITIAL;
+        textFingerprint = WidgetUpdateCoordinator.fingerprint(textFingerprint, dateFormat);
+        textFingerprint = WidgetUpdateCoordinator.fingerprint(textFingerprint, nextAlarmTime);
+
+        final WidgetUpdateCoordinator coordinator = WidgetUpdateCoordinator.getInstance();
+        final int updateType =
+                coordinator.getUpdateType(widgetId, layoutFingerprint, textFingerprint);
+        switch (updateType) {
+            case WidgetUpdateCoordinator.UPDATE_FULL: {
+                final RemoteViews portrait = createRemoteViews(context, widgetId, clickable,
+                        dateFormat, nextAlarmTime, portraitSizes, portraitListVisible);
+                if (singleLayout) {
+                    wm.updateAppWidget(widgetId, portrait);
+                } else {
+                    final RemoteViews landscape = createRemoteViews(context, widgetId, clickable,
+                            dateFormat, nextAlarmTime, landscapeSizes, landscapeListVisible);
+                    wm.updateAppWidget(widgetId, new RemoteViews(landscape, portrait));
+                }
+                break;
+            }
+            case WidgetUpdateCoordinator.UPDATE_PARTIAL: {
+                final String packageName = context.getPackageName();
+                final RemoteViews rv = new RemoteViews(packageName, R.layout.digital_widget);
+                setText(rv, dateFormat, nextAlarmTime);
+                wm.partiallyUpdateAppWidget(widgetId, rv);
+                break;
+            }
         }
+        coordinator.onUpdated(widgetId, layoutFingerprint, textFingerprint, singleLayout);
 
-        if (options == null) {
-            options = wm.getAppWidgetOptions(widgetId);
+        if (updateType == WidgetUpdateCoordinator.UPDATE_FULL || citiesChanged) {
+            wm.notifyAppWidgetViewDataChanged(widgetId, R.id.world_city_list);
         }
 
+        cache.logUpdate(widgetId, cache.getHitCount() - hitCount,
+                cache.getLookupCount() - lookupCount);
+    }
+
+    /**
+     * Compute optimal font and icon sizes offscreen for the given orientation.
+     */
+    private static Sizes getSizes(Context context, Bundle options, CharSequence dateFormat,
+            String nextAlarmTime, boolean portrait) {
         // Fetch the widget size selected by the user.
         final Resources resources = context.getResources();
         final float density = resources.getDisplayMetrics().density;
@@ -249,10 +320,40 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         final Sizes template = new Sizes(targetWidthPx, targetHeightPx, largestClockFontSizePx);
 
         // Compute optimal font sizes and icon sizes to fit within the widget bounds.
-        final Sizes sizes = optimizeSizes(context, template, nextAlarmTime);
+        final Sizes sizes = getSizes(context, template, dateFormat, nextAlarmTime);
         if (LOGGER.isVerboseLoggable()) {
             LOGGER.v(sizes.toString());
         }
+        return sizes;
+    }
+
+    /**
+     * @return {@code true} if the given sizes leave sufficient space for the world city list
+     */
+    private static boolean isWorldCityListVisible(Context context, Sizes sizes) {
+        final int smallestWorldCityListSizePx = context.getResources()
+                .getDimensionPixelSize(R.dimen.widget_min_world_city_list_size);
+        return sizes.getListHeight() > smallestWorldCityListSizePx;
+    }
+
+    /**
+     * Create the remote views that display the widget at the given sizes.
+     */
+    private static RemoteViews createRemoteViews(Context context, int widgetId, boolean clickable,
+            CharSequence dateFormat, String nextAlarmTime, Sizes sizes, boolean listVisible) {
+        // Create a remote view for the digital clock.
+        final String packageName = context.getPackageName();
+        final RemoteViews rv = new RemoteViews(packageName, R.layout.digital_widget);
+
+        // Tapping on the widget opens the app (if not on the lock screen).
+        if (clickable) {
+            final Intent openApp = new Intent(context, DeskClock.class);
+            final PendingIntent pi = PendingIntent.getActivity(context, 0, openApp, 0);
+            rv.setOnClickPendingIntent(R.id.digital_widget, pi);
+        }
+
+        // Configure child views of the remote view.
+        setText(rv, dateFormat, nextAlarmTime);
 
         // Apply the computed sizes to the remote views.
         rv.setImageViewBitmap(R.id.nextAlarmIcon, sizes.mIconBitmap);
@@ -260,9 +361,7 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         rv.setTextViewTextSize(R.id.nextAlarm, COMPLEX_UNIT_PX, sizes.mFontSizePx);
         rv.setTextViewTextSize(R.id.clock, COMPLEX_UNIT_PX, sizes.mClockFontSizePx);
 
-        final int smallestWorldCityListSizePx =
-                resources.getDimensionPixelSize(R.dimen.widget_min_world_city_list_size);
-        if (sizes.getListHeight() <= smallestWorldCityListSizePx) {
+        if (!listVisible) {
             // Insufficient space; hide the world city list.
             rv.setViewVisibility(R.id.world_city_list, GONE);
         } else {
@@ -274,7 +373,7 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
             rv.setViewVisibility(R.id.world_city_list, VISIBLE);
 
             // Tapping on the widget opens the city selection activity (if not on the lock screen).
-            if (Utils.isWidgetClickable(wm, widgetId)) {
+            if (clickable) {
                 final Intent selectCity = new Intent(context, CitySelectionActivity.class);
                 final PendingIntent pi = PendingIntent.getActivity(context, 0, selectCity, 0);
                 rv.setPendingIntentTemplate(R.id.world_city_list, pi);
@@ -284,11 +383,130 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         return rv;
     }
 
+    /**
+     * Apply the date format and next alarm time to the remote views. These are all that a partial
+     * update of the widget sends.
+     */
+    private static void setText(RemoteViews rv, CharSequence dateFormat, String nextAlarmTime) {
+        rv.setCharSequence(R.id.date, "setFormat12Hour", dateFormat);
+        rv.setCharSequence(R.id.date, "setFormat24Hour", dateFormat);
+
+        if (TextUtils.isEmpty(nextAlarmTime)) {
+            rv.setViewVisibility(R.id.nextAlarm, GONE);
+            rv.setViewVisibility(R.id.nextAlarmIcon, GONE);
+        } else  {
+            rv.setTextViewText(R.id.nextAlarm, nextAlarmTime);
+            rv.setViewVisibility(R.id.nextAlarm, VISIBLE);
+            rv.setViewVisibility(R.id.nextAlarmIcon, VISIBLE);
+        }
+    }
+
+    /**
+     * Look up the optimal sizes for the widget bounds among those previously computed, and only
+     * if they have not been computed before, measure them offscreen and remember them.
+     */
+    private static Sizes getSizes(Context context, Sizes template, CharSequence dateFormat,
+            String nextAlarmTime) {
+        final DigitalWidgetSizeCache cache = DigitalWidgetSizeCache.getInstance(context);
+        final String key = cache.createKey(context, template.mTargetWidthPx,
+                template.mTargetHeightPx, template.getLargestClockFontSizePx(), dateFormat,
+                nextAlarmTime);
+        final long solution = cache.get(key);
+
+        if (solution == -1) {
+            final long startNanos = System.nanoTime();
+            final Sizes sizes = optimizeSizes(context, template, nextAlarmTime);
+            cache.put(key, DigitalWidgetSizeCache.pack(sizes.getClockFontSizePx(),
+                    sizes.mMeasuredWidthPx, sizes.mMeasuredHeightPx),
+                    System.nanoTime() - startNanos);
+            if (sizes.mIconBitmap != null) {
+                cache.putIcon(sizes.mIconFontSizePx, sizes.mIconPaddingPx, sizes.mIconBitmap);
+            }
+            return sizes;
+        }
+
+        // Rebuild the sizes from the remembered solution.
+        final Sizes sizes = template.newSize();
+        sizes.setClockFontSizePx(DigitalWidgetSizeCache.unpackClockFontSizePx(solution));
+        sizes.mMeasuredWidthPx = DigitalWidgetSizeCache.unpackMeasuredWidthPx(solution);
+        sizes.mMeasuredHeightPx = DigitalWidgetSizeCache.unpackMeasuredHeightPx(solution);
+
+        if (!TextUtils.isEmpty(nextAlarmTime)) {
+            sizes.mIconBitmap = cache.getIcon(sizes.mIconFontSizePx, sizes.mIconPaddingPx);
+            if (sizes.mIconBitmap == null) {
+                // Render the icon once at the known size, e.g. after the process restarts.
+                final View sizer = inflateSizer(context, nextAlarmTime);
+                measure(template, sizes.getClockFontSizePx(), sizer);
+                sizes.mIconBitmap = Utils.createBitmap(sizer.findViewById(R.id.nextAlarmIcon));
+                cache.putIcon(sizes.mIconFontSizePx, sizes.mIconPaddingPx, sizes.mIconBitmap);
+            }
+        }
+
+        return sizes;
+    }
+
     /**
      * Inflate an offscreen copy of the widget views. Binary search through the range of sizes until
      * the optimal sizes that fit within the widget bounds are located.
      */
     private static Sizes optimizeSizes(Context context, Sizes template, String nextAlarmTime) {
+        final View sizer = inflateSizer(context, nextAlarmTime);
+
+        // Measure the widget at the largest possible size.
+        Sizes high = measure(template, template.getLargestClockFontSizePx(), sizer);
+        Sizes last = high;
+        Sizes optimal = null;
+        if (!high.hasViolations()) {
+            optimal = high;
+        }
+
+        // Measure the widget at the smallest possible size.
+        Sizes low = null;
+        if (optimal == null) {
+            low = measure(template, template.getSmallestClockFontSizePx(), sizer);
+            last = low;
+            if (low.hasViolations()) {
+                optimal = low;
+            }
+        }
+
+        // Binary search between the smallest and largest sizes until an optimum size is found.
+        while (optimal == null && low.getClockFontSizePx() != high.getClockFontSizePx()) {
+            final int midFontSize = (low.getClockFontSizePx() + high.getClockFontSizePx()) / 2;
+            if (midFontSize == low.getClockFontSizePx()) {
+                break;
+            }
+
+            final Sizes midSize = measure(template, midFontSize, sizer);
+            last = midSize;
+            if (midSize.hasViolations()) {
+                high = midSize;
+            } else {
+                low = midSize;
+            }
+        }
+        if (optimal == null) {
+            optimal = low;
+        }
+
+        // If an alarm icon is required, generate one at the optimal size from the TextView with
+        // the special font.
+        final View nextAlarmIcon = sizer.findViewById(R.id.nextAlarmIcon);
+        if (nextAlarmIcon.getVisibility() == VISIBLE) {
+            if (last != optimal) {
+                measure(template, optimal.getClockFontSizePx(), sizer);
+            }
+            optimal.mIconBitmap = Utils.createBitmap(nextAlarmIcon);
+        }
+
+        return optimal;
+    }
+
+    /**
+     * Inflate an offscreen copy of the widget views that displays the current date and the given
+     * next alarm time.
+     */
+    private static View inflateSizer(Context context, String nextAlarmTime) {
         // Inflate a test layout to compute sizes at different font sizes.
         final LayoutInflater inflater = LayoutInflater.from(context);
         @SuppressLint("InflateParams")
@@ -313,34 +531,7 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
             nextAlarmIcon.setTypeface(UiDataModel.getUiDataModel().getAlarmIconTypeface());
         }
 
-        // Measure the widget at the largest possible size.
-        Sizes high = measure(template, template.getLargestClockFontSizePx(), sizer);
-        if (!high.hasViolations()) {
-            return high;
-        }
-
-        // Measure the widget at the smallest possible size.
-        Sizes low = measure(template, template.getSmallestClockFontSizePx(), sizer);
-        if (low.hasViolations()) {
-            return low;
-        }
-
-        // Binary search between the smallest and largest sizes until an optimum size is found.
-        while (low.getClockFontSizePx() != high.getClockFontSizePx()) {
-            final int midFontSize = (low.getClockFontSizePx() + high.getClockFontSizePx()) / 2;
-            if (midFontSize == low.getClockFontSizePx()) {
-                return low;
-            }
-
-            final Sizes midSize = measure(template, midFontSize, sizer);
-            if (midSize.hasViolations()) {
-                high = midSize;
-            } else {
-                low = midSize;
-            }
-        }
-
-        return low;
+        return sizer;
     }
 
     /**
@@ -393,7 +584,8 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
     /**
      * Compute all font and icon sizes based on the given {@code clockFontSize} and apply them to
      * the offscreen {@code sizer} view. Measure the {@code sizer} view and return the resulting
-     * size measurements.
+     * size measurements. The alarm icon is not rendered; it need only be rendered at the optimal
+     * size.
      */
     private static Sizes measure(Sizes template, int clockFontSize, View sizer) {
         // Create a copy of the given template sizes.
@@ -428,11 +620,6 @@ public class DigitalAppWidgetProvider extends AppWidgetProvider {
         measuredSizes.mMeasuredTextClockWidthPx = clock.getMeasuredWidth();
         measuredSizes.mMeasuredTextClockHeightPx = clock.getMeasuredHeight();
 
-        // If an alarm icon is required, generate one from the TextView with the special font.
-        if (nextAlarmIcon.getVisibility() == VISIBLE) {
-            measuredSizes.mIconBitmap = Utils.createBitmap(nextAlarmIcon);
-        }
-
         return measuredSizes;
     }
 
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.alarmclock;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.text.format.DateFormat;
+import android.util.SparseArray;
+
+import com.android.deskclock.LogUtils;
+import com.android.deskclock.Utils;
+
+import java.util.Locale;
+
+/**
+ * Remembers the font sizes chosen by {@link DigitalAppWidgetProvider} for each combination of
+ * inputs that affects them, so a widget that is laid out again without any of them changing is
+ * not measured again. Solutions are persisted so they survive process restarts; the alarm icons
+ * rendered at each size are held in memory.
+ *
+ * <p>A solution is keyed by the target dimensions, the largest clock font size, the density,
+ * the font scale, the locale, the 12/24 hour mode and the lengths of the date and next alarm
+ * strings. Strings of equal length are assumed to measure alike, which holds closely enough for
+ * the short, mostly numeric strings the widget displays.</p>
+ *
+ * <p>All methods must be called on the main thread.</p>
+ */
+final class DigitalWidgetSizeCache {
+
+    private static final LogUtils.Logger LOGGER = new LogUtils.Logger("DigitalWidgetSizeCache");
+
+    /** Name of the preferences file holding the solutions. */
+    private static final String PREFS_NAME = "digital_widget_sizes";
+
+    /** Prefix of the key of each solution. */
+    private static final String KEY_PREFIX = "size:";
+
+    /** Key of the average time taken to measure a solution, in nanoseconds. */
+    private static final String KEY_SOLVE_NANOS = "solve_nanos";
+
+    /**
+     * Incremented whenever the widget layouts change in a way that invalidates measurements made
+     * with prior layouts.
+     */
+    private static final int VERSION = 1;
+
+    /** Key of the {@link #VERSION} with which the solutions were measured. */
+    private static final String KEY_VERSION = "version";
+
+    /** The most solutions retained; all are discarded when this is exceeded. */
+    private static final int MAX_SOLUTIONS = 64;
+
+    /** The most alarm icons retained; all are discarded when this is exceeded. */
+    private static final int MAX_ICONS = 8;
+
+    /** Weight of each new measurement in the running average of measurement times. */
+    private static final float SOLVE_NANOS_WEIGHT = 0.2f;
+
+    private static DigitalWidgetSizeCache sInstance;
+
+    private final SharedPreferences mPrefs;
+
+    /** Alarm icons keyed by {@link #getIconKey}. */
+    private final SparseArray<Bitmap> mIcons = new SparseArray<>();
+
+    /** Reused to build keys. */
+    private final StringBuilder mKeyBuilder = new StringBuilder(64);
+
+    /** The running average time taken to measure a solution, in nanoseconds. */
+    private long mSolveNanos;
+
+    /** Number of lookups that found a solution since the process started. */
+    private int mHitCount;
+
+    /** Number of lookups since the process started. */
+    private int mLookupCount;
+
+    static DigitalWidgetSizeCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DigitalWidgetSizeCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private DigitalWidgetSizeCache(Context context) {
+        mPrefs = getStorageContext(context).getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (mPrefs.getInt(KEY_VERSION, 0) != VERSION) {
+            mPrefs.edit().clear().putInt(KEY_VERSION, VERSION).apply();
+        }
+        mSolveNanos = mPrefs.getLong(KEY_SOLVE_NANOS, 0);
+    }
+
+    /**
+     * @return the key identifying the solution for the given inputs in the current configuration
+     */
+    String createKey(Context context, int targetWidthPx, int targetHeightPx,
+            int largestClockFontSizePx, CharSequence dateFormat, String nextAlarmTime) {
+        final Configuration configuration = context.getResources().getConfiguration();
+        final CharSequence date = DateFormat.format(dateFormat, System.currentTimeMillis());
+        final int nextAlarmLength = nextAlarmTime == null ? 0 : nextAlarmTime.length();
+
+        return mKeyBuilder.delete(0, mKeyBuilder.length())
+                .append(KEY_PREFIX)
+                .append(targetWidthPx).append('x').append(targetHeightPx)
+                .append(',').append(largestClockFontSizePx)
+                .append(',').append(configuration.densityDpi)
+                .append(',').append(configuration.fontScale)
+                .append(',').append(Locale.getDefault().toString())
+                .append(',').append(DateFormat.is24HourFormat(context) ? 24 : 12)
+                .append(',').append(date.length())
+                .append(',').append(nextAlarmLength)
+                .toString();
+    }
+
+    /**
+     * @param key identifies the solution; see {@link #createKey}
+     * @return the packed clock font size and measurements; see {@link #pack}; {@code -1} if none
+     */
+    long get(String key) {
+        mLookupCount++;
+        final long solution = mPrefs.getLong(key, -1);
+        if (solution != -1) {
+            mHitCount++;
+        }
+        return solution;
+    }
+
+    /**
+     * @param key identifies the solution; see {@link #createKey}
+     * @param solution the packed clock font size and measurements; see {@link #pack}
+     * @param solveNanos the time taken to measure the solution
+     */
+    void put(String key, long solution, long solveNanos) {
+        mSolveNanos = mSolveNanos == 0 ? solveNanos
+                : (long) (mSolveNanos + (solveNanos - mSolveNanos) * SOLVE_NANOS_WEIGHT);
+
+        final SharedPreferences.Editor editor = mPrefs.edit();
+        if (mPrefs.getAll().size() >= MAX_SOLUTIONS + 2) {
+            // Discard stale solutions for sizes and configurations no longer in use.
+            editor.clear().putInt(KEY_VERSION, VERSION);
+        }
+        editor.putLong(key, solution).putLong(KEY_SOLVE_NANOS, mSolveNanos).apply();
+    }
+
+    /**
+     * @return the alarm icon rendered at the given size; {@code null} if not yet rendered
+     */
+    Bitmap getIcon(int iconFontSizePx, int iconPaddingPx) {
+        return mIcons.get(getIconKey(iconFontSizePx, iconPaddingPx));
+    }
+
+    void putIcon(int iconFontSizePx, int iconPaddingPx, Bitmap icon) {
+        if (mIcons.size() >= MAX_ICONS) {
+            mIcons.clear();
+        }
+        mIcons.put(getIconKey(iconFontSizePx, iconPaddingPx), icon);
+    }
+
+    /**
+     * Logs the hit rate and the time saved by the given number of hits.
+     *
+     * @param widgetId the widget that was laid out
+     * @param hits the number of solutions found in this cache while laying out the widget
+     * @param lookups the number of solutions looked up while laying out the widget
+     */
+    void logUpdate(int widgetId, int hits, int lookups) {
+        final int hitRate = mLookupCount == 0 ? 0 : mHitCount * 100 / mLookupCount;
+        final float savedMillis = hits * mSolveNanos / 1000000f;
+        LOGGER.i("Widget %d: %d of %d sizes cached, saved ~%.1f ms; hit rate %d%% of %d lookups",
+                widgetId, hits, lookups, savedMillis, hitRate, mLookupCount);
+    }
+
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    int getLookupCount() {
+        return mLookupCount;
+    }
+
+    /**
+     * @return the clock font size and measured width and height packed into a single value
+     */
+    static long pack(int clockFontSizePx, int measuredWidthPx, int measuredHeightPx) {
+        return ((long) (clockFontSizePx & 0xffff) << 48)
+                | ((long) (measuredWidthPx & 0xffffff) << 24)
+                | (measuredHeightPx & 0xffffff);
+    }
+
+    static int unpackClockFontSizePx(long solution) {
+        return (int) (solution >>> 48) & 0xffff;
+    }
+
+    static int unpackMeasuredWidthPx(long solution) {
+        return (int) (solution >>> 24) & 0xffffff;
+    }
+
+    static int unpackMeasuredHeightPx(long solution) {
+        return (int) solution & 0xffffff;
+    }
+
+    private static int getIconKey(int iconFontSizePx, int iconPaddingPx) {
+        return (iconFontSizePx << 16) | (iconPaddingPx & 0xffff);
+    }
+
+    /**
+     * Widgets are laid out before the user unlocks the device, so the solutions are kept in
+     * device protected storage where it exists.
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    private static Context getStorageContext(Context context) {
+        return Utils.isNOrLater() ? context.createDeviceProtectedStorageContext() : context;
+    }
+}
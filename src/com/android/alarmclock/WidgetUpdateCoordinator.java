@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.alarmclock;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArrayMap;
+import android.util.SparseArray;
+
+import com.android.deskclock.LogUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which widgets must be sent new remote views, and coalesces the broadcasts that trigger
+ * widget updates. Each call to {@link android.appwidget.AppWidgetManager#updateAppWidget} is a
+ * binder transaction that makes the widget host inflate the widget again, so it is made only when
+ * something visible has changed.
+ *
+ * <p>Providers describe the content of each widget with two fingerprints: one of its layout,
+ * covering everything that requires complete remote views, and one of its text. A widget whose
+ * fingerprints are unchanged is not updated. A widget whose text alone changed is updated
+ * partially if its last complete remote views used a single layout; widget hosts cannot merge a
+ * partial update into remote views that hold separate landscape and portrait layouts.</p>
+ *
+ * <p>Fingerprints are held in memory only, so every widget is updated completely at least once
+ * by each process. All methods must be called on the main thread.</p>
+ */
+final class WidgetUpdateCoordinator {
+
+    private static final LogUtils.Logger LOGGER = new LogUtils.Logger("WidgetUpdateCoordinator");
+
+    /** The widget content is unchanged and need not be sent. */
+    static final int UPDATE_NONE = 0;
+
+    /** Only the widget text changed; it may be sent as a partial update. */
+    static final int UPDATE_PARTIAL = 1;
+
+    /** The widget must be sent complete remote views. */
+    static final int UPDATE_FULL = 2;
+
+    /** Triggers that arrive within this many milliseconds of the first are handled together. */
+    private static final long COALESCE_WINDOW = 250;
+
+    /** Multiplier of the 64-bit FNV-1a hash used to compute fingerprints. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Initial value of a fingerprint. */
+    static final long FINGERPRINT_INITIAL = 0xcbf29ce484222325L;
+
+    private static WidgetUpdateCoordinator sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** The content last sent to each widget, keyed by widget id. */
+    private final SparseArray<SentContent> mSentContent = new SparseArray<>();
+
+    /** The updates waiting for their coalescing window to close. */
+    private final ArrayMap<Updater, PendingUpdate> mPendingUpdates = new ArrayMap<>();
+
+    /** Runs the pending updates when their coalescing window closes. */
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /** Number of widget updates skipped, sent partially and sent completely by this process. */
+    private int mSkippedCount;
+    private int mPartialCount;
+    private int mFullCount;
+
+    static WidgetUpdateCoordinator getInstance() {
+        if (sInstance == null) {
+            sInstance = new WidgetUpdateCoordinator();
+        }
+        return sInstance;
+    }
+
+    private WidgetUpdateCoordinator() {}
+
+    /**
+     * Requests that the {@code updater} run once the current coalescing window closes. Requests
+     * that arrive within the window are combined into a single run.
+     *
+     * @param context the context passed to the updater
+     * @param updater updates all widgets of one provider
+     * @param dataChanged {@code true} if the data of widget collections changed
+     * @param result the broadcast that triggered the request, finished once the updater has run so
+     *      the process is kept alive until then; may be {@code null}
+     */
+    void requestUpdate(Context context, Updater updater, boolean dataChanged,
+            BroadcastReceiver.PendingResult result) {
+        PendingUpdate pendingUpdate = mPendingUpdates.get(updater);
+        if (pendingUpdate == null) {
+            pendingUpdate = new PendingUpdate(context.getApplicationContext());
+            mPendingUpdates.put(updater, pendingUpdate);
+        }
+        pendingUpdate.mDataChanged |= dataChanged;
+        pendingUpdate.mTriggerCount++;
+        if (result != null) {
+            pendingUpdate.mResults.add(result);
+        }
+
+        if (mPendingUpdates.size() == 1 && pendingUpdate.mTriggerCount == 1) {
+            mHandler.postDelayed(mFlush, COALESCE_WINDOW);
+        }
+    }
+
+    /**
+     * @param widgetId identifies the widget
+     * @param layoutFingerprint fingerprint of everything that requires complete remote views
+     * @param textFingerprint fingerprint of the text that a partial update can replace
+     * @return {@link #UPDATE_NONE}, {@link #UPDATE_PARTIAL} or {@link #UPDATE_FULL}
+     */
+    int getUpdateType(int widgetId, long layoutFingerprint, long textFingerprint) {
+        final SentContent sent = mSentContent.get(widgetId);
+        final int updateType;
+        if (sent == null || sent.mLayoutFingerprint != layoutFingerprint) {
+            updateType = UPDATE_FULL;
+        } else if (sent.mTextFingerprint == textFingerprint) {
+            updateType = UPDATE_NONE;
+        } else {
+            updateType = sent.mPartialUpdatable ? UPDATE_PARTIAL : UPDATE_FULL;
+        }
+
+        switch (updateType) {
+            case UPDATE_NONE: mSkippedCount++; break;
+            case UPDATE_PARTIAL: mPartialCount++; break;
+            case UPDATE_FULL: mFullCount++; break;
+        }
+        return updateType;
+    }
+
+    /**
+     * Records the content sent to the widget after {@link #getUpdateType}.
+     *
+     * @param partialUpdatable {@code true} if the complete remote views used a single layout
+     */
+    void onUpdated(int widgetId, long layoutFingerprint, long textFingerprint,
+            boolean partialUpdatable) {
+        SentContent sent = mSentContent.get(widgetId);
+        if (sent == null) {
+            sent = new SentContent();
+            mSentContent.put(widgetId, sent);
+        }
+        sent.mLayoutFingerprint = layoutFingerprint;
+        sent.mTextFingerprint = textFingerprint;
+        sent.mPartialUpdatable = partialUpdatable;
+    }
+
+    /**
+     * Forgets the content sent to deleted widgets.
+     */
+    void onDeleted(int[] widgetIds) {
+        for (int widgetId : widgetIds) {
+            mSentContent.remove(widgetId);
+        }
+    }
+
+    /**
+     * @return the {@code fingerprint} with the {@code value} folded into it
+     */
+    static long fingerprint(long fingerprint, long value) {
+        for (int i = 0; i < 8; i++) {
+            fingerprint = (fingerprint ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return the {@code fingerprint} with the {@code value} folded into it
+     */
+    static long fingerprint(long fingerprint, boolean value) {
+        return fingerprint(fingerprint, value ? 1 : 0);
+    }
+
+    /**
+     * @return the {@code fingerprint} with the {@code text} folded into it; {@code null} and
+     *      empty text are distinct
+     */
+    static long fingerprint(long fingerprint, CharSequence text) {
+        if (text == null) {
+            return fingerprint(fingerprint, -1);
+        }
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            fingerprint = (fingerprint ^ text.charAt(i)) * FNV_PRIME;
+        }
+        return fingerprint(fingerprint, length);
+    }
+
+    private void flush() {
+        int triggerCount = 0;
+        while (!mPendingUpdates.isEmpty()) {
+            final Updater updater = mPendingUpdates.keyAt(0);
+            final PendingUpdate pendingUpdate = mPendingUpdates.removeAt(0);
+            triggerCount += pendingUpdate.mTriggerCount;
+            try {
+                updater.updateWidgets(pendingUpdate.mContext, pendingUpdate.mDataChanged);
+            } finally {
+                for (BroadcastReceiver.PendingResult result : pendingUpdate.mResults) {
+                    result.finish();
+                }
+            }
+        }
+
+        LOGGER.i("Handled %d coalesced triggers; widget updates skipped: %d, partial: %d,"
+                + " full: %d", triggerCount, mSkippedCount, mPartialCount, mFullCount);
+    }
+
+    /**
+     * Updates all widgets of one provider.
+     */
+    interface Updater {
+        /**
+         * @param dataChanged {@code true} if the data of widget collections changed
+         */
+        void updateWidgets(Context context, boolean dataChanged);
+    }
+
+    /**
+     * The triggers of an update received within the current coalescing window.
+     */
+    private static final class PendingUpdate {
+
+        private final Context mContext;
+
+        /** The broadcasts to finish once the update has run. */
+        private final List<BroadcastReceiver.PendingResult> mResults = new ArrayList<>(4);
+
+        private boolean mDataChanged;
+        private int mTriggerCount;
+
+        private PendingUpdate(Context context) {
+            mContext = context;
+        }
+    }
+
+    /**
+     * Fingerprints of the content last sent to a widget.
+     */
+    private static final class SentContent {
+        private long mLayoutFingerprint;
+        private long mTextFingerprint;
+        private boolean mPartialUpdatable;
+    }
+}
@@ -20,7 +20,6 @@ import android.app.LoaderManager;
 import android.content.Context;
 import android.content.Intent;
 import android.content.Loader;
-import android.database.Cursor;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.os.SystemClock;
@@ -40,10 +39,10 @@ import com.android.deskclock.alarms.AlarmUpdateHandler;
 import com.android.deskclock.alarms.ScrollHandler;
 import com.android.deskclock.alarms.TimePickerDialogFragment;
 import com.android.deskclock.alarms.dataadapter.AlarmItemHolder;
+import com.android.deskclock.alarms.dataadapter.AlarmItemLoader;
 import com.android.deskclock.alarms.dataadapter.CollapsedAlarmViewHolder;
 import com.android.deskclock.alarms.dataadapter.ExpandedAlarmViewHolder;
 import com.android.deskclock.provider.Alarm;
-import com.android.deskclock.provider.AlarmInstance;
 import com.android.deskclock.uidata.UiDataModel;
 import com.android.deskclock.widget.EmptyViewController;
 import com.android.deskclock.widget.toast.SnackbarManager;
@@ -58,7 +57,7 @@ import static com.android.deskclock.uidata.UiDataModel.Tab.ALARMS;
  * A fragment that displays a list of alarm time and allows interaction with them.
  */
 public final class AlarmClockFragment extends DeskClockFragment implements
-        LoaderManager.LoaderCallbacks<Cursor>,
+        LoaderManager.LoaderCallbacks<List<AlarmItemHolder>>,
         ScrollHandler,
         TimePickerDialogFragment.OnTimeSetListener {
 
@@ -80,7 +79,7 @@ public final class AlarmClockFragment extends DeskClockFragment implements
     private RecyclerView mRecyclerView;
 
     // Data
-    private Loader mCursorLoader;
+    private AlarmItemLoader mAlarmItemLoader;
     private long mScrollToAlarmId = Alarm.INVALID_ID;
     private long mExpandedAlarmId = Alarm.INVALID_ID;
     private long mCurrentUpdateToken;
@@ -102,7 +101,7 @@ public final class AlarmClockFragment extends DeskClockFragment implements
     @Override
     public void onCreate(Bundle savedState) {
         super.onCreate(savedState);
-        mCursorLoader = getLoaderManager().initLoader(0, null, this);
+        mAlarmItemLoader = (AlarmItemLoader) getLoaderManager().initLoader(0, null, this);
         if (savedState != null) {
             mExpandedAlarmId = savedState.getLong(KEY_EXPANDED_ID, Alarm.INVALID_ID);
         }
@@ -134,6 +133,7 @@ public final class AlarmClockFragment extends DeskClockFragment implements
         mEmptyViewController = new EmptyViewController(mMainLayout, mRecyclerView, emptyView);
         mAlarmTimeClickHandler = new AlarmTimeClickHandler(this, savedState, mAlarmUpdateHandler,
                 this);
+        mAlarmItemLoader.setAlarmTimeClickHandler(mAlarmTimeClickHandler);
 
         mItemAdapter = new ItemAdapter<>();
         mItemAdapter.setHasStableIds();
@@ -219,10 +219,10 @@ public final class AlarmClockFragment extends DeskClockFragment implements
             long alarmId = intent.getLongExtra(SCROLL_TO_ALARM_INTENT_EXTRA, Alarm.INVALID_ID);
             if (alarmId != Alarm.INVALID_ID) {
                 setSmoothScrollStableId(alarmId);
-                if (mCursorLoader != null && mCursorLoader.isStarted()) {
+                if (mAlarmItemLoader != null && mAlarmItemLoader.isStarted()) {
                     // We need to force a reload here to make sure we have the latest view
                     // of the data to scroll to.
-                    mCursorLoader.forceLoad();
+                    mAlarmItemLoader.forceLoad();
                 }
             }
 
@@ -267,22 +267,15 @@ public final class AlarmClockFragment extends DeskClockFragment implements
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        return Alarm.getAlarmsCursorLoader(getActivity());
+    public Loader<List<AlarmItemHolder>> onCreateLoader(int id, Bundle args) {
+        return new AlarmItemLoader(getActivity());
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> cursorLoader, Cursor data) {
-        final List<AlarmItemHolder> itemHolders = new ArrayList<>(data.getCount());
-        for (data.moveToFirst(); !data.isAfterLast(); data.moveToNext()) {
-            final Alarm alarm = new Alarm(data);
-            final AlarmInstance alarmInstance = alarm.canPreemptivelyDismiss()
-                    ? new AlarmInstance(data, true /* joinedTable */) : null;
-            final AlarmItemHolder itemHolder =
-                    new AlarmItemHolder(alarm, alarmInstance, mAlarmTimeClickHandler);
-            itemHolders.add(itemHolder);
-        }
-        setAdapterItems(itemHolders, SystemClock.elapsedRealtime());
+    public void onLoadFinished(Loader<List<AlarmItemHolder>> loader,
+            List<AlarmItemHolder> itemHolders) {
+        // The adapter may add and remove items, so it is given its own copy of the holders.
+        setAdapterItems(new ArrayList<>(itemHolders), SystemClock.elapsedRealtime());
     }
 
     /**
@@ -318,51 +311,55 @@ public final class AlarmClockFragment extends DeskClockFragment implements
             });
         } else {
             mCurrentUpdateToken = updateToken;
-            mItemAdapter.setItems(items);
-
-            // Show or hide the empty view as appropriate.
-            final boolean noAlarms = items.isEmpty();
-            mEmptyViewController.setEmpty(noAlarms);
-            if (noAlarms) {
-                // Ensure the drop shadow is hidden when no alarms exist.
-                setTabScrolledToTop(true);
-            }
 
-            // Expand the correct alarm.
-            if (mExpandedAlarmId != Alarm.INVALID_ID) {
-                final AlarmItemHolder aih = mItemAdapter.findItemById(mExpandedAlarmId);
-                if (aih != null) {
-                    mAlarmTimeClickHandler.setSelectedAlarm(aih.item);
-                    aih.expand();
-                } else {
-                    mAlarmTimeClickHandler.setSelectedAlarm(null);
-                    mExpandedAlarmId = Alarm.INVALID_ID;
+            // Only the alarms that changed are rebound once the difference is known.
+            mItemAdapter.updateItems(items, new Runnable() {
+                @Override
+                public void run() {
+                    onAdapterItemsUpdated(items);
                 }
-            }
+            });
+        }
+    }
 
-            // Scroll to the selected alarm.
-            if (mScrollToAlarmId != Alarm.INVALID_ID) {
-                scrollToAlarm(mScrollToAlarmId);
-                setSmoothScrollStableId(Alarm.INVALID_ID);
+    /**
+     * Updates the empty view, expanded alarm and scroll position once the adapter represents the
+     * new {@code items}.
+     */
+    private void onAdapterItemsUpdated(List<AlarmItemHolder> items) {
+        // Show or hide the empty view as appropriate.
+        final boolean noAlarms = items.isEmpty();
+        mEmptyViewController.setEmpty(noAlarms);
+        if (noAlarms) {
+            // Ensure the drop shadow is hidden when no alarms exist.
+            setTabScrolledToTop(true);
+        }
+
+        // Expand the correct alarm.
+        if (mExpandedAlarmId != Alarm.INVALID_ID) {
+            final AlarmItemHolder aih = mItemAdapter.findItemById(mExpandedAlarmId);
+            if (aih != null) {
+                mAlarmTimeClickHandler.setSelectedAlarm(aih.item);
+                aih.expand();
+            } else {
+                mAlarmTimeClickHandler.setSelectedAlarm(null);
+                mExpandedAlarmId = Alarm.INVALID_ID;
             }
         }
+
+        // Scroll to the selected alarm.
+        if (mScrollToAlarmId != Alarm.INVALID_ID) {
+            scrollToAlarm(mScrollToAlarmId);
+            setSmoothScrollStableId(Alarm.INVALID_ID);
+        }
     }
 
     /**
      * @param alarmId identifies the alarm to be displayed
      */
     private void scrollToAlarm(long alarmId) {
-        final int alarmCount = mItemAdapter.getItemCount();
-        int alarmPosition = -1;
-        for (int i = 0; i < alarmCount; i++) {
-            long id = mItemAdapter.getItemId(i);
-            if (id == alarmId) {
-                alarmPosition = i;
-                break;
-            }
-        }
-
-        if (alarmPosition >= 0) {
+        final int alarmPosition = mItemAdapter.getItemPosition(alarmId);
+        if (alarmPosition != RecyclerView.NO_POSITION) {
             mItemAdapter.findItemById(alarmId).expand();
             smoothScrollTo(alarmPosition);
         } else {
@@ -374,7 +371,7 @@ public final class AlarmClockFragment extends DeskClockFragment implements
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> cursorLoader) {
+    public void onLoaderReset(Loader<List<AlarmItemHolder>> loader) {
     }
 
     @Override
@@ -22,6 +22,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.PowerManager.WakeLock;
 
+import com.android.deskclock.alarms.AlarmExecutor;
 import com.android.deskclock.alarms.AlarmStateManager;
 import com.android.deskclock.controller.Controller;
 import com.android.deskclock.data.DataModel;
@@ -85,21 +86,23 @@ public class AlarmInitReceiver extends BroadcastReceiver {
             Controller.getController().updateShortcuts();
         }
 
-        AsyncHandler.post(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    // Process restored data if any exists
-                    if (!DeskClockBackupAgent.processRestoredData(context)) {
-                        // Update all the alarm instances on time change event
-                        AlarmStateManager.fixAlarmInstances(context);
+        // Repairing instances touches every alarm, so it runs apart from all other alarm work.
+        AlarmExecutor.getAlarmExecutor().executeExclusive(AlarmExecutor.PRIORITY_MAINTENANCE,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            // Process restored data if any exists
+                            if (!DeskClockBackupAgent.processRestoredData(context)) {
+                                // Update all the alarm instances on time change event
+                                AlarmStateManager.fixAlarmInstances(context);
+                            }
+                        } finally {
+                            result.finish();
+                            wl.release();
+                            LogUtils.v("AlarmInitReceiver finished");
+                        }
                     }
-                } finally {
-                    result.finish();
-                    wl.release();
-                    LogUtils.v("AlarmInitReceiver finished");
-                }
-            }
-        });
+                });
     }
 }
@@ -26,12 +26,13 @@ import android.util.AttributeSet;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 
+import com.android.deskclock.uidata.TickListener;
+import com.android.deskclock.uidata.UiDataModel;
+
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.TimeZone;
 
-import static android.text.format.DateUtils.SECOND_IN_MILLIS;
-
 /**
  * This widget display an analog clock with two hands for hours and minutes.
  */
@@ -48,16 +49,16 @@ public class AnalogClock extends FrameLayout {
         }
     };
 
-    private final Runnable mClockTick = new Runnable() {
+    /** Moves the hands each second, or each minute if seconds are not shown. */
+    private final TickListener mClockTick = new TickListener() {
         @Override
-        public void run() {
-            onTimeChanged();
+        public long getTickTime() {
+            return System.currentTimeMillis();
+        }
 
-            if (mEnableSeconds) {
-                final long now = System.currentTimeMillis();
-                final long delay = SECOND_IN_MILLIS - now % SECOND_IN_MILLIS;
-                postDelayed(this, delay);
-            }
+        @Override
+        public void onTick() {
+            onTimeChanged();
         }
     };
 
@@ -112,7 +113,6 @@ public class AnalogClock extends FrameLayout {
         super.onAttachedToWindow();
 
         final IntentFilter filter = new IntentFilter();
-        filter.addAction(Intent.ACTION_TIME_TICK);
         filter.addAction(Intent.ACTION_TIME_CHANGED);
         filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
         getContext().registerReceiver(mIntentReceiver, filter);
@@ -122,10 +122,7 @@ public class AnalogClock extends FrameLayout {
         mTime = Calendar.getInstance(mTimeZone != null ? mTimeZone : TimeZone.getDefault());
         onTimeChanged();
 
-        // Tick every second.
-        if (mEnableSeconds) {
-            mClockTick.run();
-        }
+        startTicking();
     }
 
     @Override
@@ -133,7 +130,12 @@ public class AnalogClock extends FrameLayout {
         super.onDetachedFromWindow();
 
         getContext().unregisterReceiver(mIntentReceiver);
-        removeCallbacks(mClockTick);
+        UiDataModel.getUiDataModel().removeTickListener(mClockTick);
+    }
+
+    private void startTicking() {
+        final long granularity = mEnableSeconds ? TickListener.SECOND : TickListener.MINUTE;
+        UiDataModel.getUiDataModel().addTickListener(mClockTick, this, granularity);
     }
 
     private void onTimeChanged() {
@@ -160,9 +162,12 @@ public class AnalogClock extends FrameLayout {
         mEnableSeconds = enable;
         if (mEnableSeconds) {
             mSecondHand.setVisibility(VISIBLE);
-            mClockTick.run();
         } else {
             mSecondHand.setVisibility(GONE);
         }
+
+        if (isAttachedToWindow()) {
+            startTicking();
+        }
     }
 }
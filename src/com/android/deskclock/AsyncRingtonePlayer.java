@@ -70,8 +70,16 @@ public final class AsyncRingtonePlayer {
     /** The context. */
     private final Context mContext;
 
+    /** Notified on the ringtone thread when playback starts; may be {@code null}. */
+    private final PlaybackListener mPlaybackListener;
+
     public AsyncRingtonePlayer(Context context) {
+        this(context, null);
+    }
+
+    public AsyncRingtonePlayer(Context context, PlaybackListener playbackListener) {
         mContext = context;
+        mPlaybackListener = playbackListener;
     }
 
     /** Plays the ringtone. */
@@ -180,6 +188,15 @@ public final class AsyncRingtonePlayer {
         return Utils.getResourceUri(context, R.raw.alarm_expire);
     }
 
+    /**
+     * Informs the listener, if any, that audio playback has started. Executes on ringtone-thread.
+     */
+    private void onPlaybackStarted() {
+        if (mPlaybackListener != null) {
+            mPlaybackListener.onPlaybackStarted();
+        }
+    }
+
     /**
      * Check if the executing thread is the one dedicated to controlling the ringtone playback.
      */
@@ -255,6 +272,16 @@ public final class AsyncRingtonePlayer {
         boolean adjustVolume(Context context);
     }
 
+    /**
+     * Observes the start of ringtone playback.
+     */
+    public interface PlaybackListener {
+        /**
+         * Called on the ringtone thread once the player has been asked to start producing audio.
+         */
+        void onPlaybackStarted();
+    }
+
     /**
      * Loops playback of a ringtone using {@link MediaPlayer}.
      */
@@ -371,6 +398,7 @@ public final class AsyncRingtonePlayer {
             mMediaPlayer.prepare();
             mAudioManager.requestAudioFocus(null, STREAM_ALARM, AUDIOFOCUS_GAIN_TRANSIENT);
             mMediaPlayer.start();
+            onPlaybackStarted();
 
             return scheduleVolumeAdjustment;
         }
@@ -564,6 +592,7 @@ public final class AsyncRingtonePlayer {
             mAudioManager.requestAudioFocus(null, STREAM_ALARM, AUDIOFOCUS_GAIN_TRANSIENT);
 
             mRingtone.play();
+            onPlaybackStarted();
 
             return scheduleVolumeAdjustment;
         }
@@ -31,7 +31,6 @@ import android.provider.Settings;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
-import android.text.format.DateUtils;
 import android.view.GestureDetector;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
@@ -46,19 +45,17 @@ import com.android.deskclock.data.City;
 import com.android.deskclock.data.CityListener;
 import com.android.deskclock.data.DataModel;
 import com.android.deskclock.events.Events;
+import com.android.deskclock.uidata.CityStrings;
 import com.android.deskclock.uidata.UiDataModel;
 import com.android.deskclock.worldclock.CitySelectionActivity;
 
-import java.util.Calendar;
 import java.util.List;
-import java.util.TimeZone;
 
 import static android.app.AlarmManager.ACTION_NEXT_ALARM_CLOCK_CHANGED;
 import static android.view.View.GONE;
 import static android.view.View.INVISIBLE;
 import static android.view.View.VISIBLE;
 import static com.android.deskclock.uidata.UiDataModel.Tab.CLOCKS;
-import static java.util.Calendar.DAY_OF_WEEK;
 
 /**
  * Fragment that shows the clock (analog or digital), the next alarm info and the world clock.
@@ -476,43 +473,20 @@ public final class ClockFragment extends DeskClockFragment {
                 // Bind the city name.
                 mName.setText(city.getName());
 
-                // Compute if the city week day matches the weekday of the current timezone.
-                final Calendar localCal = Calendar.getInstance(TimeZone.getDefault());
-                final Calendar cityCal = Calendar.getInstance(city.getTimeZone());
-                final boolean displayDayOfWeek =
-                        localCal.get(DAY_OF_WEEK) != cityCal.get(DAY_OF_WEEK);
-
-                // Compare offset from UTC time on today's date (daylight savings time, etc.)
-                final TimeZone currentTimeZone = TimeZone.getDefault();
-                final TimeZone cityTimeZone = TimeZone.getTimeZone(cityTimeZoneId);
-                final long currentTimeMillis = System.currentTimeMillis();
-                final long currentUtcOffset = currentTimeZone.getOffset(currentTimeMillis);
-                final long cityUtcOffset = cityTimeZone.getOffset(currentTimeMillis);
-                final long offsetDelta = cityUtcOffset - currentUtcOffset;
-
-                final int hoursDifferent = (int) (offsetDelta / DateUtils.HOUR_IN_MILLIS);
-                final int minutesDifferent = (int) (offsetDelta / DateUtils.MINUTE_IN_MILLIS) % 60;
-                final boolean displayMinutes = offsetDelta % DateUtils.HOUR_IN_MILLIS != 0;
-                final boolean isAhead = hoursDifferent > 0 || (hoursDifferent == 0
-                        && minutesDifferent > 0);
+                // Bind the strings shared by every view displaying the city this minute.
+                final CityStrings cityStrings = UiDataModel.getUiDataModel().getCityStrings(city);
                 if (!Utils.isLandscape(context)) {
                     // Bind the number of hours ahead or behind, or hide if the time is the same.
-                    final boolean displayDifference = hoursDifferent != 0 || displayMinutes;
-                    mHoursAhead.setVisibility(displayDifference ? VISIBLE : GONE);
-                    final String timeString = Utils.createHoursDifferentString(
-                            context, displayMinutes, isAhead, hoursDifferent, minutesDifferent);
-                    mHoursAhead.setText(displayDayOfWeek ?
-                            (context.getString(isAhead ? R.string.world_hours_tomorrow
-                                    : R.string.world_hours_yesterday, timeString))
-                            : timeString);
+                    final String timeDifference = cityStrings.getTimeDifference();
+                    mHoursAhead.setVisibility(timeDifference != null ? VISIBLE : GONE);
+                    mHoursAhead.setText(timeDifference);
                 } else {
                     // Only tomorrow/yesterday should be shown in landscape view.
-                    mHoursAhead.setVisibility(displayDayOfWeek ? View.VISIBLE : View.GONE);
-                    if (displayDayOfWeek) {
-                        mHoursAhead.setText(context.getString(isAhead ? R.string.world_tomorrow
-                                : R.string.world_yesterday));
+                    final String dayDifference = cityStrings.getDayDifference();
+                    mHoursAhead.setVisibility(dayDifference != null ? View.VISIBLE : View.GONE);
+                    if (dayDifference != null) {
+                        mHoursAhead.setText(dayDifference);
                     }
-
                 }
             }
         }
@@ -21,7 +21,6 @@ import android.app.PendingIntent;
 import android.app.backup.BackupAgent;
 import android.app.backup.BackupDataInput;
 import android.app.backup.BackupDataOutput;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.ParcelFileDescriptor;
@@ -29,12 +28,14 @@ import android.os.SystemClock;
 import android.support.annotation.NonNull;
 
 import com.android.deskclock.alarms.AlarmStateManager;
+import com.android.deskclock.data.AlarmRepository;
 import com.android.deskclock.data.DataModel;
 import com.android.deskclock.provider.Alarm;
 import com.android.deskclock.provider.AlarmInstance;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
@@ -106,6 +107,7 @@ public class DeskClockBackupAgent extends BackupAgent {
      * @param context a context to access resources and services
      * @return {@code true} if restore data was processed; {@code false} otherwise.
      */
+    @SuppressWarnings("unchecked")
     public static boolean processRestoredData(Context context) {
         // If data was not recently restored, there is nothing to do.
         if (!DataModel.getDataModel().isRestoreBackupFinished()) {
@@ -115,10 +117,11 @@ public class DeskClockBackupAgent extends BackupAgent {
         LOGGER.i("processRestoredData() started");
 
         // Now that alarms have been restored, schedule new instances in AlarmManager.
-        final ContentResolver contentResolver = context.getContentResolver();
-        final List<Alarm> alarms = Alarm.getAlarms(contentResolver, null);
+        final AlarmRepository repository = AlarmRepository.getAlarmRepository(context);
+        final List<Alarm> alarms = repository.getAlarms(Predicate.TRUE);
 
         final Calendar now = Calendar.getInstance();
+        final List<AlarmInstance> alarmInstances = new ArrayList<>(alarms.size());
         for (Alarm alarm : alarms) {
             // Remove any instances that may currently exist for the alarm;
             // these aren't relevant on the restore device and we'll recreate them below.
@@ -126,11 +129,14 @@ public class DeskClockBackupAgent extends BackupAgent {
 
             if (alarm.enabled) {
                 // Create the next alarm instance to schedule.
-                AlarmInstance alarmInstance = alarm.createInstanceAfter(now);
-
-                // Add the next alarm instance to the database.
-                alarmInstance = AlarmInstance.addInstance(contentResolver, alarmInstance);
+                alarmInstances.add(alarm.createInstanceAfter(now));
+            }
+        }
 
+        // Add the next instance of every enabled alarm to the database in one batch.
+        if (!alarmInstances.isEmpty()
+                && repository.addInstances(alarmInstances)) {
+            for (AlarmInstance alarmInstance : alarmInstances) {
                 // Schedule the next alarm instance in AlarmManager.
                 AlarmStateManager.registerInstance(context, alarmInstance, true);
                 LOGGER.i("DeskClockBackupAgent scheduled alarm instance: %s", alarmInstance);
@@ -17,7 +17,6 @@
 package com.android.deskclock;
 
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Looper;
@@ -25,6 +24,7 @@ import android.provider.AlarmClock;
 
 import com.android.deskclock.alarms.AlarmStateManager;
 import com.android.deskclock.controller.Controller;
+import com.android.deskclock.data.AlarmRepository;
 import com.android.deskclock.provider.Alarm;
 import com.android.deskclock.provider.AlarmInstance;
 
@@ -67,7 +67,7 @@ class FetchMatchingAlarmsAction implements Runnable {
             return;
         }
 
-        final ContentResolver cr = mContext.getContentResolver();
+        final AlarmRepository repository = AlarmRepository.getAlarmRepository(mContext);
         switch (searchMode) {
             case AlarmClock.ALARM_SEARCH_MODE_TIME:
                 // at least one of these has to be specified in this search mode.
@@ -106,7 +106,7 @@ class FetchMatchingAlarmsAction implements Runnable {
                 // Match currently firing alarms before scheduled alarms.
                 for (Alarm alarm : mAlarms) {
                     final AlarmInstance alarmInstance =
-                            AlarmInstance.getNextUpcomingInstanceByAlarmId(cr, alarm.id);
+                            repository.getNextUpcomingInstanceByAlarmId(alarm.id);
                     if (alarmInstance != null
                             && alarmInstance.mAlarmState == AlarmInstance.FIRED_STATE) {
                         mMatchingAlarms.add(alarm);
@@ -127,7 +127,7 @@ class FetchMatchingAlarmsAction implements Runnable {
                 // get time from nextAlarm and see if there are any other alarms matching this time
                 final Calendar nextTime = nextAlarm.getAlarmTime();
                 final List<Alarm> alarmsFiringAtSameTime = getAlarmsByHourMinutes(
-                        nextTime.get(Calendar.HOUR_OF_DAY), nextTime.get(Calendar.MINUTE), cr);
+                        nextTime.get(Calendar.HOUR_OF_DAY), nextTime.get(Calendar.MINUTE), repository);
                 // there might me multiple alarms firing next
                 mMatchingAlarms.addAll(alarmsFiringAtSameTime);
                 break;
@@ -159,12 +159,15 @@ class FetchMatchingAlarmsAction implements Runnable {
         }
     }
 
-    private List<Alarm> getAlarmsByHourMinutes(int hour24, int minutes, ContentResolver cr) {
+    private List<Alarm> getAlarmsByHourMinutes(final int hour24, final int minutes,
+            AlarmRepository repository) {
         // if we want to dismiss we should only add enabled alarms
-        final String selection = String.format("%s=? AND %s=? AND %s=?",
-                Alarm.HOUR, Alarm.MINUTES, Alarm.ENABLED);
-        final String[] args = { String.valueOf(hour24), String.valueOf(minutes), "1" };
-        return Alarm.getAlarms(cr, selection, args);
+        return repository.getAlarms(new Predicate<Alarm>() {
+            @Override
+            public boolean apply(Alarm alarm) {
+                return alarm.hour == hour24 && alarm.minutes == minutes && alarm.enabled;
+            }
+        });
     }
 
     public List<Alarm> getMatchingAlarms() {
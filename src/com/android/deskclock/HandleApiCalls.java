@@ -16,13 +16,19 @@
 
 package com.android.deskclock;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
+import android.content.ComponentName;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ProviderInfo;
 import android.net.Uri;
+import android.os.Build;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.os.Parcelable;
 import android.provider.AlarmClock;
 import android.text.TextUtils;
@@ -30,16 +36,19 @@ import android.text.format.DateFormat;
 
 import com.android.deskclock.alarms.AlarmStateManager;
 import com.android.deskclock.controller.Controller;
+import com.android.deskclock.data.AlarmRepository;
 import com.android.deskclock.data.DataModel;
 import com.android.deskclock.data.Timer;
 import com.android.deskclock.data.Weekdays;
 import com.android.deskclock.events.Events;
 import com.android.deskclock.provider.Alarm;
 import com.android.deskclock.provider.AlarmInstance;
+import com.android.deskclock.stopwatch.LapExporter;
 import com.android.deskclock.timer.TimerFragment;
 import com.android.deskclock.timer.TimerService;
 import com.android.deskclock.uidata.UiDataModel;
 
+import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -66,6 +75,18 @@ public class HandleApiCalls extends Activity {
 
     static final String ACTION_SHOW_TIMERS = "android.intent.action.SHOW_TIMERS";
 
+    /**
+     * Writes the stopwatch laps to the content uri given as the intent data. The caller must be
+     * able to write the uri itself and must grant write access to it with
+     * {@link Intent#FLAG_GRANT_WRITE_URI_PERMISSION}; uris of this app's own providers are refused.
+     * The format is chosen by {@link #EXTRA_EXPORT_FORMAT} or else by the type of the uri: JSON for
+     * {@code application/json}, CSV otherwise.
+     */
+    public static final String ACTION_EXPORT_LAPS = "com.android.deskclock.action.EXPORT_LAPS";
+
+    /** Either {@link LapExporter#FORMAT_CSV} or {@link LapExporter#FORMAT_JSON}. */
+    public static final String EXTRA_EXPORT_FORMAT = "com.android.deskclock.extra.EXPORT_FORMAT";
+
     private Context mAppContext;
 
     @Override
@@ -101,6 +122,9 @@ public class HandleApiCalls extends Activity {
                 case AlarmClock.ACTION_SNOOZE_ALARM:
                     handleSnoozeAlarm(intent);
                     break;
+                case ACTION_EXPORT_LAPS:
+                    handleExportLaps(intent);
+                    break;
             }
         } catch (Exception e) {
             LOGGER.wtf(e);
@@ -122,8 +146,8 @@ public class HandleApiCalls extends Activity {
 
     public static void dismissAlarm(Alarm alarm, Activity activity) {
         final Context context = activity.getApplicationContext();
-        final AlarmInstance instance = AlarmInstance.getNextUpcomingInstanceByAlarmId(
-                context.getContentResolver(), alarm.id);
+        final AlarmInstance instance = AlarmRepository.getAlarmRepository(context)
+                .getNextUpcomingInstanceByAlarmId(alarm.id);
         if (instance == null) {
             final String reason = context.getString(R.string.no_alarm_scheduled_for_this_time);
             Controller.getController().notifyVoiceFailure(activity, reason);
@@ -176,7 +200,7 @@ public class HandleApiCalls extends Activity {
 
         @Override
         protected Void doInBackground(Void... parameters) {
-            final ContentResolver cr = mContext.getContentResolver();
+            final AlarmRepository repository = AlarmRepository.getAlarmRepository(mContext);
             final List<Alarm> alarms = getEnabledAlarms(mContext);
             if (alarms.isEmpty()) {
                 final String reason = mContext.getString(R.string.no_scheduled_alarms);
@@ -187,8 +211,8 @@ public class HandleApiCalls extends Activity {
 
             // remove Alarms in MISSED, DISMISSED, and PREDISMISSED states
             for (Iterator<Alarm> i = alarms.iterator(); i.hasNext();) {
-                final AlarmInstance instance = AlarmInstance.getNextUpcomingInstanceByAlarmId(
-                        cr, i.next().id);
+                final AlarmInstance instance =
+                        repository.getNextUpcomingInstanceByAlarmId(i.next().id);
                 if (instance == null || instance.mAlarmState > FIRED_STATE) {
                     i.remove();
                 }
@@ -237,9 +261,12 @@ public class HandleApiCalls extends Activity {
         }
 
         private static List<Alarm> getEnabledAlarms(Context context) {
-            final String selection = String.format("%s=?", Alarm.ENABLED);
-            final String[] args = { "1" };
-            return Alarm.getAlarms(context.getContentResolver(), selection, args);
+            return AlarmRepository.getAlarmRepository(context).getAlarms(new Predicate<Alarm>() {
+                @Override
+                public boolean apply(Alarm alarm) {
+                    return alarm.enabled;
+                }
+            });
         }
     }
 
@@ -261,9 +288,8 @@ public class HandleApiCalls extends Activity {
 
         @Override
         protected Void doInBackground(Void... parameters) {
-            final ContentResolver cr = mContext.getContentResolver();
-            final List<AlarmInstance> alarmInstances = AlarmInstance.getInstancesByState(
-                    cr, FIRED_STATE);
+            final List<AlarmInstance> alarmInstances = AlarmRepository
+                    .getAlarmRepository(mContext).getInstancesByState(FIRED_STATE);
             if (alarmInstances.isEmpty()) {
                 final String reason = mContext.getString(R.string.no_firing_alarms);
                 Controller.getController().notifyVoiceFailure(mActivity, reason);
@@ -353,7 +379,7 @@ public class HandleApiCalls extends Activity {
             // Enable the first matching alarm.
             alarm = alarms.get(0);
             alarm.enabled = true;
-            Alarm.updateAlarm(cr, alarm);
+            AlarmRepository.getAlarmRepository(this).updateAlarm(alarm);
 
             // Delete all old instances.
             AlarmStateManager.deleteAllInstances(this, alarm.id);
@@ -367,7 +393,7 @@ public class HandleApiCalls extends Activity {
             alarm.deleteAfterUse = !alarm.daysOfWeek.isRepeating() && skipUi;
 
             // Save the new alarm.
-            Alarm.addAlarm(cr, alarm);
+            AlarmRepository.getAlarmRepository(this).addAlarm(alarm);
 
             Events.sendAlarmEvent(R.string.action_create, R.string.label_intent);
             LOGGER.i("Created new alarm: " + alarm);
@@ -465,7 +491,7 @@ public class HandleApiCalls extends Activity {
     }
 
     private void setupInstance(AlarmInstance instance, boolean skipUi) {
-        instance = AlarmInstance.addInstance(this.getContentResolver(), instance);
+        instance = AlarmRepository.getAlarmRepository(this).addInstance(instance);
         AlarmStateManager.registerInstance(this, instance, true);
         AlarmUtils.popAlarmSetToast(this, instance.getAlarmTime().getTimeInMillis());
         if (!skipUi) {
@@ -480,6 +506,100 @@ public class HandleApiCalls extends Activity {
         }
     }
 
+    /**
+     * Writes the laps of the stopwatch to the content uri named by the {@code intent} as CSV or
+     * JSON, chosen by {@link #EXTRA_EXPORT_FORMAT} or else by the type of the uri.
+     *
+     * @param intent names the content uri to write, which the caller must have granted to this
+     *      activity
+     */
+    private void handleExportLaps(Intent intent) {
+        final Uri uri = intent.getData();
+        if (uri == null || !ContentResolver.SCHEME_CONTENT.equals(uri.getScheme())) {
+            LOGGER.e("Lap export requires a content uri: " + uri);
+            return;
+        }
+        if (!isWritableByCaller(intent, uri)) {
+            LOGGER.e("Lap export refused; " + uri + " was not granted by the caller");
+            return;
+        }
+
+        String format = intent.getStringExtra(EXTRA_EXPORT_FORMAT);
+        if (format == null) {
+            format = "application/json".equals(intent.resolveType(this))
+                    ? LapExporter.FORMAT_JSON : LapExporter.FORMAT_CSV;
+        }
+
+        // The descriptor is opened while the uri grant to this activity is certainly in effect.
+        final ParcelFileDescriptor descriptor;
+        try {
+            descriptor = getContentResolver().openFileDescriptor(uri, "wt");
+        } catch (FileNotFoundException | SecurityException e) {
+            LOGGER.e("Unable to open " + uri + " for lap export", e);
+            return;
+        }
+        if (descriptor == null) {
+            return;
+        }
+
+        final LapExporter exporter = new LapExporter(format);
+        LOGGER.i("Exporting " + exporter.getLapCount() + " laps as " + format);
+        exporter.exportAsync(descriptor, null);
+    }
+
+    /**
+     * Opening the uri with this app's identity would let any caller overwrite whatever this app can
+     * write, including its own private files, so the uri must be one the caller can write itself.
+     *
+     * @return {@code true} if the caller granted write access to the {@code uri}, which does not
+     *      belong to this app and which the caller may write
+     */
+    private boolean isWritableByCaller(Intent intent, Uri uri) {
+        if ((intent.getFlags() & Intent.FLAG_GRANT_WRITE_URI_PERMISSION) == 0) {
+            return false;
+        }
+
+        final PackageManager pm = getPackageManager();
+        final ProviderInfo provider = pm.resolveContentProvider(uri.getAuthority(), 0);
+        if (provider == null || getPackageName().equals(provider.packageName)) {
+            return false;
+        }
+
+        final String callerPackage = getCallerPackage();
+        if (callerPackage == null) {
+            return false;
+        }
+        final int callerUid;
+        try {
+            callerUid = pm.getApplicationInfo(callerPackage, 0).uid;
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+
+        // The pid is not consulted when checking the permissions of another uid.
+        return checkUriPermission(uri, 0 /* pid */, callerUid,
+                Intent.FLAG_GRANT_WRITE_URI_PERMISSION) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * @return the package that started this activity, or {@code null} if it cannot be determined
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP_MR1)
+    private String getCallerPackage() {
+        final ComponentName callingActivity = getCallingActivity();
+        if (callingActivity != null) {
+            return callingActivity.getPackageName();
+        }
+
+        if (Utils.isLMR1OrLater()) {
+            final Uri referrer = getReferrer();
+            if (referrer != null && "android-app".equals(referrer.getScheme())) {
+                return referrer.getHost();
+            }
+        }
+        return null;
+    }
+
     /**
      * @param alarm the alarm to be updated
      * @param intent the intent containing new alarm field values to merge into the {@code alarm}
@@ -17,14 +17,21 @@
 package com.android.deskclock;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.util.SparseArray;
 import android.view.View;
 import android.view.ViewGroup;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import static android.support.v7.widget.RecyclerView.NO_ID;
 
@@ -35,6 +42,26 @@ import static android.support.v7.widget.RecyclerView.NO_ID;
 public class ItemAdapter<T extends ItemAdapter.ItemHolder>
         extends RecyclerView.Adapter<ItemAdapter.ItemViewHolder> {
 
+    /**
+     * Payload of a change in which a new item holder with the same contents replaced the old one;
+     * the bound view is pointed at the new holder without being bound again.
+     */
+    private static final Object PAYLOAD_HOLDER_REPLACED = new Object();
+
+    /** The new item holder is the old item holder. */
+    private static final byte SAME_HOLDER = 0;
+
+    /** The new item holder replaces an old item holder with the same contents. */
+    private static final byte SAME_CONTENTS = 1;
+
+    /** The new item holder is new or its contents differ from the old item holder. */
+    private static final byte CHANGED_CONTENTS = 2;
+
+    /** Differences between item lists are computed one at a time, in the order requested. */
+    private static final Executor sDiffExecutor = Executors.newSingleThreadExecutor();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
     /**
      * Finds the position of the changed item holder and invokes {@link #notifyItemChanged(int)} or
      * {@link #notifyItemChanged(int, Object)} if payloads are present (in order to do in-place
@@ -46,7 +73,7 @@ public class ItemAdapter<T extends ItemAdapter.ItemHolder>
             if (mOnItemChangedListener != null) {
                 mOnItemChangedListener.onItemChanged(itemHolder);
             }
-            final int position = mItemHolders.indexOf(itemHolder);
+            final int position = getItemPosition(itemHolder);
             if (position != RecyclerView.NO_POSITION) {
                 notifyItemChanged(position);
             }
@@ -57,7 +84,7 @@ public class ItemAdapter<T extends ItemAdapter.ItemHolder>
             if (mOnItemChangedListener != null) {
                 mOnItemChangedListener.onItemChanged(itemHolder, payload);
             }
-            final int position = mItemHolders.indexOf(itemHolder);
+            final int position = getItemPosition(itemHolder);
             if (position != RecyclerView.NO_POSITION) {
                 notifyItemChanged(position, payload);
             }
@@ -99,6 +126,23 @@ public class ItemAdapter<T extends ItemAdapter.ItemHolder>
      */
     private List<T> mItemHolders;
 
+    /**
+     * The position of each item holder in {@link #mItemHolders} keyed by its
+     * {@link ItemHolder#itemId}; {@code null} until next needed after the items change.
+     */
+    private Map<Long, Integer> mPositionsById;
+
+    /**
+     * Incremented each time {@link #mItemHolders} is replaced or modified, so differences computed
+     * against an older list are not applied.
+     */
+    private int mItemsGeneration;
+
+    /**
+     * The item holders most recently passed to {@link #updateItems}; {@code null} once applied.
+     */
+    private List<T> mPendingItemHolders;
+
     /**
      * Convenience for calling {@link #setHasStableIds(boolean)} with {@code true}.
      *
@@ -146,50 +190,146 @@ public class ItemAdapter<T extends ItemAdapter.ItemHolder>
      * @return this object, allowing calls to methods in this class to be chained
      */
     public ItemAdapter setItems(List<T> itemHolders) {
+        mPendingItemHolders = null;
+        if (mItemHolders != itemHolders) {
+            replaceItems(itemHolders);
+            notifyDataSetChanged();
+        }
+
+        return this;
+    }
+
+    /**
+     * Sets the list of item holders to serve as the dataset for this adapter, notifying the UI of
+     * only the items that were inserted, removed, moved or changed. The difference between the
+     * current and new lists is computed on a background thread; the items are replaced and
+     * {@code onUpdated} is run on the main thread once it is known. Until then, this adapter
+     * continues to represent the current list.
+     * <p/>
+     * If {@link #hasStableIds()} returns {@code false} or there is no current list, this behaves
+     * as {@link #setItems} followed immediately by {@code onUpdated}. If this is called again
+     * before the difference is known, only the latest list is applied and only its
+     * {@code onUpdated} is run.
+     *
+     * @param itemHolders the new list of item holders
+     * @param onUpdated run once the new list is represented by this adapter; may be {@code null}
+     */
+    public void updateItems(final List<T> itemHolders, final Runnable onUpdated) {
+        if (mItemHolders == null || itemHolders == null || !hasStableIds()) {
+            setItems(itemHolders);
+            if (onUpdated != null) {
+                onUpdated.run();
+            }
+            return;
+        }
+
+        // Capture everything the difference depends on so the holders are not read off the
+        // main thread; their contents are compared here against the old holder with each id.
         final List<T> oldItemHolders = mItemHolders;
-        if (oldItemHolders != itemHolders) {
-            if (oldItemHolders != null) {
-                // remove the item change listener from the old item holders
-                for (T oldItemHolder : oldItemHolders) {
-                    oldItemHolder.removeOnItemChangedListener(mItemChangedNotifier);
-                }
+        final long[] oldIds = new long[oldItemHolders.size()];
+        for (int i = 0; i < oldIds.length; i++) {
+            oldIds[i] = oldItemHolders.get(i).itemId;
+        }
+        final long[] newIds = new long[itemHolders.size()];
+        final byte[] newContents = new byte[newIds.length];
+        for (int i = 0; i < newIds.length; i++) {
+            final ItemHolder<?> newItemHolder = itemHolders.get(i);
+            newIds[i] = newItemHolder.itemId;
+
+            final ItemHolder<?> oldItemHolder = findItemById(newItemHolder.itemId);
+            if (oldItemHolder == newItemHolder) {
+                newContents[i] = SAME_HOLDER;
+            } else if (oldItemHolder != null && newItemHolder.hasSameContents(oldItemHolder)) {
+                newContents[i] = SAME_CONTENTS;
+            } else {
+                newContents[i] = CHANGED_CONTENTS;
             }
+        }
+
+        mPendingItemHolders = itemHolders;
+        final int generation = mItemsGeneration;
+        sDiffExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult result =
+                        DiffUtil.calculateDiff(new IdDiffCallback(oldIds, newIds, newContents));
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mPendingItemHolders != itemHolders) {
+                            // Superseded by a later list.
+                            return;
+                        }
+                        if (generation != mItemsGeneration) {
+                            // The current list changed while the difference was computed.
+                            updateItems(itemHolders, onUpdated);
+                            return;
+                        }
 
-            if (oldItemHolders != null && itemHolders != null && hasStableIds()) {
-                // transfer instance state from old to new item holders based on item id,
-                // we use a simple O(N^2) implementation since we assume the number of items is
-                // relatively small and generating a temporary map would be more expensive
-                final Bundle bundle = new Bundle();
-                for (ItemHolder newItemHolder : itemHolders) {
-                    for (ItemHolder oldItemHolder : oldItemHolders) {
-                        if (newItemHolder.itemId == oldItemHolder.itemId
-                                && newItemHolder != oldItemHolder) {
-                            // clear any existing state from the bundle
-                            bundle.clear();
-
-                            // transfer instance state from old to new item holder
-                            oldItemHolder.onSaveInstanceState(bundle);
-                            newItemHolder.onRestoreInstanceState(bundle);
-
-                            break;
+                        mPendingItemHolders = null;
+                        replaceItems(itemHolders);
+                        result.dispatchUpdatesTo(ItemAdapter.this);
+                        if (onUpdated != null) {
+                            onUpdated.run();
                         }
                     }
-                }
+                });
             }
+        });
+    }
 
-            if (itemHolders != null) {
-                // add the item change listener to the new item holders
-                for (ItemHolder newItemHolder : itemHolders) {
-                    newItemHolder.addOnItemChangedListener(mItemChangedNotifier);
+    /**
+     * Replaces the current list of item holders, moving the item change listener and instance
+     * state from the old holders to the new ones, without notifying the UI.
+     */
+    private void replaceItems(List<T> itemHolders) {
+        final List<T> oldItemHolders = mItemHolders;
+        if (oldItemHolders != null) {
+            // remove the item change listener from the old item holders
+            for (T oldItemHolder : oldItemHolders) {
+                oldItemHolder.removeOnItemChangedListener(mItemChangedNotifier);
+            }
+        }
+
+        if (oldItemHolders != null && itemHolders != null && hasStableIds()) {
+            // transfer instance state from old to new item holders based on item id, looking up
+            // each old holder by id in the index of the old list
+            final Bundle bundle = new Bundle();
+            for (ItemHolder newItemHolder : itemHolders) {
+                final int oldPosition = getItemPosition(newItemHolder.itemId);
+                if (oldPosition == RecyclerView.NO_POSITION) {
+                    continue;
+                }
+                final ItemHolder oldItemHolder = oldItemHolders.get(oldPosition);
+                if (newItemHolder != oldItemHolder) {
+                    // clear any existing state from the bundle
+                    bundle.clear();
+
+                    // transfer instance state from old to new item holder
+                    oldItemHolder.onSaveInstanceState(bundle);
+                    newItemHolder.onRestoreInstanceState(bundle);
                 }
             }
+        }
 
-            // finally update the current list of item holders and inform the RV to update the UI
-            mItemHolders = itemHolders;
-            notifyDataSetChanged();
+        if (itemHolders != null) {
+            // add the item change listener to the new item holders
+            for (ItemHolder newItemHolder : itemHolders) {
+                newItemHolder.addOnItemChangedListener(mItemChangedNotifier);
+            }
         }
 
-        return this;
+        // finally update the current list of item holders
+        mItemHolders = itemHolders;
+        onItemsModified();
+    }
+
+    /**
+     * Invalidates the index of item positions and any difference computed against the old list.
+     */
+    private void onItemsModified() {
+        mPositionsById = null;
+        mItemsGeneration++;
     }
 
     /**
@@ -204,6 +344,7 @@ public class ItemAdapter<T extends ItemAdapter.ItemHolder>
         itemHolder.addOnItemChangedListener(mItemChangedNotifier);
         position = Math.min(position, mItemHolders.size());
         mItemHolders.add(position, itemHolder);
+        onItemsModified();
         notifyItemInserted(position);
         return this;
     }
@@ -217,10 +358,11 @@ public class ItemAdapter<T extends ItemAdapter.ItemHolder>
      * @return this object, allowing calls to methods in this class to be chained
      */
     public ItemAdapter removeItem(@NonNull T itemHolder) {
-        final int index = mItemHolders.indexOf(itemHolder);
+        final int index = getItemPosition(itemHolder);
         if (index >= 0) {
             itemHolder = mItemHolders.remove(index);
             itemHolder.removeOnItemChangedListener(mItemChangedNotifier);
+            onItemsModified();
             notifyItemRemoved(index);
         }
         return this;
@@ -243,13 +385,47 @@ public class ItemAdapter<T extends ItemAdapter.ItemHolder>
         return hasStableIds() ? mItemHolders.get(position).itemId : NO_ID;
     }
 
+    /**
+     * @param id the {@link ItemHolder#itemId} of the item holder to find
+     * @return the first item holder with the given {@code id}, or {@code null} if none exists
+     */
     public T findItemById(long id) {
-        for (T holder : mItemHolders) {
-            if (holder.itemId == id) {
-                return holder;
+        final int position = getItemPosition(id);
+        return position == RecyclerView.NO_POSITION ? null : mItemHolders.get(position);
+    }
+
+    /**
+     * @param id the {@link ItemHolder#itemId} of the item holder to find
+     * @return the position of the first item holder with the given {@code id}, or
+     *      {@link RecyclerView#NO_POSITION} if none exists
+     */
+    public int getItemPosition(long id) {
+        if (mItemHolders == null) {
+            return RecyclerView.NO_POSITION;
+        }
+
+        if (mPositionsById == null) {
+            mPositionsById = new HashMap<>(mItemHolders.size() * 2);
+            for (int i = mItemHolders.size() - 1; i >= 0; i--) {
+                mPositionsById.put(mItemHolders.get(i).itemId, i);
             }
         }
-        return null;
+
+        final Integer position = mPositionsById.get(id);
+        return position == null ? RecyclerView.NO_POSITION : position;
+    }
+
+    /**
+     * @return the position of the {@code itemHolder}, or {@link RecyclerView#NO_POSITION} if it is
+     *      not represented by this adapter
+     */
+    private int getItemPosition(ItemHolder<?> itemHolder) {
+        final int position = getItemPosition(itemHolder.itemId);
+        if (position != RecyclerView.NO_POSITION && mItemHolders.get(position) == itemHolder) {
+            return position;
+        }
+        // Item ids need not be unique unless ids are stable.
+        return mItemHolders == null ? RecyclerView.NO_POSITION : mItemHolders.indexOf(itemHolder);
     }
 
     @Override
@@ -275,12 +451,86 @@ public class ItemAdapter<T extends ItemAdapter.ItemHolder>
         viewHolder.setOnItemClickedListener(mOnItemClickedListener);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onBindViewHolder(ItemViewHolder viewHolder, int position, List<Object> payloads) {
+        final T itemHolder = mItemHolders.get(position);
+        if (isHolderReplacedOnly(payloads)
+                && viewHolder.getItemViewType() == itemHolder.getItemViewType()) {
+            // the contents are unchanged; only the holder backing the view is new
+            viewHolder.mItemHolder = itemHolder;
+            return;
+        }
+        super.onBindViewHolder(viewHolder, position, payloads);
+    }
+
     @Override
     public void onViewRecycled(ItemViewHolder viewHolder) {
         viewHolder.setOnItemClickedListener(null);
         viewHolder.recycleItemView();
     }
 
+    private static boolean isHolderReplacedOnly(List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < payloads.size(); i++) {
+            if (payloads.get(i) != PAYLOAD_HOLDER_REPLACED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares lists of item holders captured as their ids, so it is safe to run on a background
+     * thread. Items are the same if their ids match; a new holder with the same contents as the
+     * old one is reported as a change with {@link #PAYLOAD_HOLDER_REPLACED} so its view is not
+     * bound again.
+     */
+    private static final class IdDiffCallback extends DiffUtil.Callback {
+
+        private final long[] mOldIds;
+        private final long[] mNewIds;
+
+        /**
+         * For each new item, one of {@link #SAME_HOLDER}, {@link #SAME_CONTENTS} or
+         * {@link #CHANGED_CONTENTS}.
+         */
+        private final byte[] mNewContents;
+
+        private IdDiffCallback(long[] oldIds, long[] newIds, byte[] newContents) {
+            mOldIds = oldIds;
+            mNewIds = newIds;
+            mNewContents = newContents;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldIds.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewIds.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldIds[oldItemPosition] == mNewIds[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mNewContents[newItemPosition] == SAME_HOLDER;
+        }
+
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            return mNewContents[newItemPosition] == SAME_CONTENTS ? PAYLOAD_HOLDER_REPLACED : null;
+        }
+    }
+
     /**
      * Base class for wrapping an item for compatibility with an {@link ItemHolder}.
      * <p/>
@@ -371,6 +621,20 @@ public class ItemAdapter<T extends ItemAdapter.ItemHolder>
             }
         }
 
+        /**
+         * Called by {@link ItemAdapter#updateItems} to decide whether the view bound to an old
+         * holder with the same {@link #itemId} must be bound again to display this holder.
+         * <p/>
+         * The default implementation compares the items with {@link Object#equals}; subclassers
+         * whose items compare only identity should compare the displayed properties instead.
+         *
+         * @param other the old holder with the same {@link #itemId}
+         * @return {@code true} if this holder would be displayed exactly as {@code other}
+         */
+        public boolean hasSameContents(ItemHolder<?> other) {
+            return item == null ? other.item == null : item.equals(other.item);
+        }
+
         /**
          * Called to retrieve per-instance state when the item may disappear or change so that
          * state can be restored in {@link #onRestoreInstanceState(Bundle)}.
@@ -16,11 +16,8 @@
 
 package com.android.deskclock;
 
-import android.content.Context;
 import android.widget.TextView;
 
-import com.android.deskclock.uidata.UiDataModel;
-
 import static android.text.format.DateUtils.HOUR_IN_MILLIS;
 import static android.text.format.DateUtils.MINUTE_IN_MILLIS;
 import static android.text.format.DateUtils.SECOND_IN_MILLIS;
@@ -30,14 +27,14 @@ import static android.text.format.DateUtils.SECOND_IN_MILLIS;
  */
 public final class StopwatchTextController {
 
-    private final TextView mMainTextView;
-    private final TextView mHundredthsTextView;
+    private final TimeTextFormatter mMainFormatter;
+    private final TimeTextFormatter mHundredthsFormatter;
 
     private long mLastTime = Long.MIN_VALUE;
 
     public StopwatchTextController(TextView mainTextView, TextView hundredthsTextView) {
-        mMainTextView = mainTextView;
-        mHundredthsTextView = hundredthsTextView;
+        mMainFormatter = new TimeTextFormatter(mainTextView);
+        mHundredthsFormatter = new TimeTextFormatter(hundredthsTextView);
     }
 
     public void setTimeString(long accumulatedTime) {
@@ -56,15 +53,11 @@ public final class StopwatchTextController {
         final int seconds = (int) (remainder / SECOND_IN_MILLIS);
         remainder = (int) (remainder % SECOND_IN_MILLIS);
 
-        mHundredthsTextView.setText(UiDataModel.getUiDataModel().getFormattedNumber(
-                remainder / 10, 2));
+        mHundredthsFormatter.setNumber(remainder / 10, 2);
 
-        // Avoid unnecessary computations and garbage creation if seconds have not changed since
-        // last layout pass.
+        // Avoid unnecessary layout if seconds have not changed since last layout pass.
         if ((mLastTime / SECOND_IN_MILLIS) != (accumulatedTime / SECOND_IN_MILLIS)) {
-            final Context context = mMainTextView.getContext();
-            final String time = Utils.getTimeString(context, hours, minutes, seconds);
-            mMainTextView.setText(time);
+            mMainFormatter.setTime(false, hours, minutes, seconds);
         }
         mLastTime = accumulatedTime;
     }
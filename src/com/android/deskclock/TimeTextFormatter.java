@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock;
+
+import android.content.Context;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * Formats times and numbers into a single text view without allocating. Digits are copied from a
+ * table of the digits of the current locale into a reusable character array that is handed to
+ * {@link TextView#setText(char[], int, int)}.
+ *
+ * <p>The arrangement of hours, minutes and seconds is learned from the localized
+ * {@link R.string#hours_minutes_seconds}, {@link R.string#minutes_seconds} and
+ * {@link R.string#seconds} formats each time the locale changes, so translations that reorder the
+ * fields or separate them differently are honored. If a translation cannot be learned, times are
+ * formatted by {@link Utils#getTimeString} instead.</p>
+ *
+ * <p>The text view displays the array itself, so each instance must format a single view.</p>
+ */
+public final class TimeTextFormatter {
+
+    /** The minus sign displayed before negative times. */
+    private static final char MINUS_SIGN = '\u2212';
+
+    private static final int HOURS = 0;
+    private static final int MINUTES = 1;
+    private static final int SECONDS = 2;
+
+    /** The most digits an int can have. */
+    private static final int MAX_DIGITS = 10;
+
+    private final TextView mTextView;
+
+    /** The hours, minutes and seconds being formatted. */
+    private final int[] mFields = new int[3];
+
+    /** The digits 0 through 9 in {@link #mLocale}. */
+    private final char[] mDigits = new char[10];
+
+    /** The characters displayed by {@link #mTextView}; reused by every format. */
+    private char[] mBuffer = new char[16];
+
+    /** The locale in which the digits and templates were learned. */
+    private Locale mLocale;
+
+    /**
+     * The templates for times with hours, with minutes and with only seconds. Each entry is either
+     * a literal character or, if negative, a field encoded by {@link #encodeField}. {@code null} if
+     * the localized format could not be learned.
+     */
+    private int[] mHoursTemplate;
+    private int[] mMinutesTemplate;
+    private int[] mSecondsTemplate;
+
+    public TimeTextFormatter(TextView textView) {
+        mTextView = textView;
+    }
+
+    /**
+     * Displays the time as the localized hours, minutes and seconds.
+     *
+     * @param negative {@code true} to display a minus sign before the time
+     */
+    public void setTime(boolean negative, int hours, int minutes, int seconds) {
+        updateLocale();
+
+        final int[] template;
+        if (hours != 0) {
+            template = mHoursTemplate;
+        } else if (minutes != 0) {
+            template = mMinutesTemplate;
+        } else {
+            template = mSecondsTemplate;
+        }
+
+        if (template == null) {
+            final Context context = mTextView.getContext();
+            final String time = Utils.getTimeString(context, hours, minutes, seconds);
+            mTextView.setText(negative ? MINUS_SIGN + time : time);
+            return;
+        }
+
+        ensureCapacity(template.length + 3 * MAX_DIGITS + 1);
+        mFields[HOURS] = hours;
+        mFields[MINUTES] = minutes;
+        mFields[SECONDS] = seconds;
+
+        int length = 0;
+        if (negative) {
+            mBuffer[length++] = MINUS_SIGN;
+        }
+        for (int entry : template) {
+            if (entry >= 0) {
+                mBuffer[length++] = (char) entry;
+            } else {
+                final int code = -entry - 1;
+                length = writeNumber(mFields[code / MAX_DIGITS], code % MAX_DIGITS, length);
+            }
+        }
+        mTextView.setText(mBuffer, 0, length);
+    }
+
+    /**
+     * Displays the {@code value} in the digits of the current locale.
+     *
+     * @param value a non-negative integer
+     * @param minLength the value is padded with zeroes to at least this many digits
+     */
+    public void setNumber(int value, int minLength) {
+        updateLocale();
+        ensureCapacity(Math.max(minLength, MAX_DIGITS));
+        mTextView.setText(mBuffer, 0, writeNumber(value, minLength, 0));
+    }
+
+    /**
+     * Writes the non-negative {@code value} into the buffer at {@code start}.
+     *
+     * @return the index following the last digit written
+     */
+    private int writeNumber(int value, int minLength, int start) {
+        int digits = 1;
+        for (int remaining = value / 10; remaining != 0; remaining /= 10) {
+            digits++;
+        }
+
+        final int end = start + Math.max(digits, minLength);
+        for (int i = end - 1; i >= start; i--) {
+            mBuffer[i] = mDigits[value % 10];
+            value /= 10;
+        }
+        return end;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mBuffer.length < capacity) {
+            mBuffer = new char[capacity];
+        }
+    }
+
+    /**
+     * Learns the digits and time templates again if the locale has changed.
+     */
+    @SuppressWarnings("deprecation")
+    private void updateLocale() {
+        final Context context = mTextView.getContext();
+        final Locale locale = context.getResources().getConfiguration().locale;
+        if (locale == mLocale) {
+            return;
+        }
+
+        mLocale = locale;
+        for (int i = 0; i < 10; i++) {
+            mDigits[i] = String.format(locale, "%d", i).charAt(0);
+        }
+
+        // Format each template with distinct values so the fields can be told apart.
+        mHoursTemplate = parseTemplate(
+                context.getString(R.string.hours_minutes_seconds, 1, 2, 3), 3);
+        mMinutesTemplate = parseTemplate(context.getString(R.string.minutes_seconds, 2, 3), 2);
+        mSecondsTemplate = parseTemplate(context.getString(R.string.seconds, 3), 1);
+    }
+
+    /**
+     * @param formatted a time formatted with hours of 1, minutes of 2 and seconds of 3
+     * @param fieldCount the number of fields the time must contain
+     * @return the template of the formatted time, or {@code null} if it could not be learned
+     */
+    private int[] parseTemplate(String formatted, int fieldCount) {
+        final int[] template = new int[formatted.length()];
+        int length = 0;
+        int fieldsSeen = 0;
+
+        for (int i = 0; i < formatted.length(); ) {
+            if (getDigit(formatted.charAt(i)) == -1) {
+                template[length++] = formatted.charAt(i++);
+                continue;
+            }
+
+            // Read the run of digits; its value identifies the field, its length the padding.
+            final int start = i;
+            int value = 0;
+            while (i < formatted.length() && getDigit(formatted.charAt(i)) != -1) {
+                value = value * 10 + getDigit(formatted.charAt(i++));
+            }
+
+            final int field = value - 1;
+            if (field < HOURS || field > SECONDS || (fieldsSeen & (1 << field)) != 0
+                    || i - start >= MAX_DIGITS) {
+                return null;
+            }
+            fieldsSeen |= 1 << field;
+            template[length++] = encodeField(field, i - start);
+        }
+
+        if (Integer.bitCount(fieldsSeen) != fieldCount) {
+            return null;
+        }
+
+        final int[] trimmed = new int[length];
+        System.arraycopy(template, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+    /**
+     * @return the negative template entry for the {@code field} padded to {@code minLength}
+     */
+    private static int encodeField(int field, int minLength) {
+        return -(field * MAX_DIGITS + minLength) - 1;
+    }
+
+    /**
+     * @return the value of the localized digit {@code c}, or -1 if it is not a digit
+     */
+    private int getDigit(char c) {
+        for (int i = 0; i < mDigits.length; i++) {
+            if (mDigits[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -27,10 +27,16 @@ import static android.text.format.DateUtils.SECOND_IN_MILLIS;
  */
 public final class TimerTextController {
 
-    private final TextView mTextView;
+    private final TimeTextFormatter mFormatter;
+
+    /** The displayed time in seconds. */
+    private long mLastSeconds = Long.MIN_VALUE;
+
+    /** {@code true} if a minus sign is displayed. */
+    private boolean mLastNegative;
 
     public TimerTextController(TextView textView) {
-        mTextView = textView;
+        mFormatter = new TimeTextFormatter(textView);
     }
 
     public void setTimeString(long remainingTime) {
@@ -62,11 +68,15 @@ public final class TimerTextController {
             }
         }
 
-        String time = Utils.getTimeString(mTextView.getContext(), hours, minutes, seconds);
-        if (isNegative && !(hours == 0 && minutes == 0 && seconds == 0)) {
-            time = "\u2212" + time;
+        // Avoid unnecessary layout if the displayed time has not changed.
+        final boolean negative = isNegative && !(hours == 0 && minutes == 0 && seconds == 0);
+        final long displayedSeconds = hours * 3600L + minutes * 60L + seconds;
+        if (displayedSeconds == mLastSeconds && negative == mLastNegative) {
+            return;
         }
+        mLastSeconds = displayedSeconds;
+        mLastNegative = negative;
 
-        mTextView.setText(time);
+        mFormatter.setTime(negative, hours, minutes, seconds);
     }
 }
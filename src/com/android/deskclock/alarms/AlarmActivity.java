@@ -44,6 +44,7 @@ import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
 import android.view.accessibility.AccessibilityManager;
 import android.widget.ImageView;
@@ -196,6 +197,18 @@ public class AlarmActivity extends BaseActivity
 
         setContentView(R.layout.alarm_activity);
 
+        // Record when the alarm first becomes visible.
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        FireLatencyLog.record(instanceId, FireLatencyLog.STAGE_FIRST_DRAW);
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        return true;
+                    }
+                });
+
         mAlertView = (ViewGroup) findViewById(R.id.alert);
         mAlertTitleView = (TextView) mAlertView.findViewById(R.id.alert_title);
         mAlertInfoView = (TextView) mAlertView.findViewById(R.id.alert_info);
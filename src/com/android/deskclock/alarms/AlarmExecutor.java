@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.os.SystemClock;
+import android.util.LongSparseArray;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background alarm work on a small thread pool. Work submitted for the same alarm runs one at
+ * a time in submission order; work for different alarms runs in parallel. Exclusive work, such as
+ * repairing every alarm instance, waits for all earlier work to finish and holds back all later
+ * work until it finishes. When more work is ready than there are threads, firing work runs first.
+ */
+public final class AlarmExecutor {
+
+    /** Priority of work that makes an alarm ring or stop ringing. */
+    public static final int PRIORITY_FIRING = 0;
+
+    /** Priority of work that responds to the user or to other state changes. */
+    public static final int PRIORITY_DEFAULT = 1;
+
+    /** Priority of work that maintains alarms in bulk. */
+    public static final int PRIORITY_MAINTENANCE = 2;
+
+    /** Key for work that does not concern a specific alarm; such work runs in submission order. */
+    public static final long NO_ALARM_ID = Long.MIN_VALUE;
+
+    /** Number of buckets in each histogram; bucket i counts values in [2^i - 1, 2^(i+1) - 1). */
+    public static final int HISTOGRAM_BUCKETS = 16;
+
+    private static final int THREAD_COUNT =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final AlarmExecutor sAlarmExecutor = new AlarmExecutor();
+
+    /** Guards all fields below. */
+    private final Object mLock = new Object();
+
+    /** Submitted work that has not finished, in submission order, split at exclusive tasks. */
+    private final ArrayDeque<Segment> mSegments = new ArrayDeque<>();
+
+    /** Number of tasks handed to the pool that have not yet finished. */
+    private int mRunningCount;
+
+    /** Number of submitted tasks that have not yet finished. */
+    private int mPendingCount;
+
+    /** Queue depth observed by each submission, bucketed. */
+    private final long[] mQueueDepthHistogram = new long[HISTOGRAM_BUCKETS];
+
+    /** Milliseconds each task waited between submission and starting, bucketed. */
+    private final long[] mWaitTimeHistogram = new long[HISTOGRAM_BUCKETS];
+
+    /** Orders tasks by priority and then by submission. */
+    private final AtomicInteger mNextSequence = new AtomicInteger();
+
+    private final ThreadPoolExecutor mPool;
+
+    public static AlarmExecutor getAlarmExecutor() {
+        return sAlarmExecutor;
+    }
+
+    private AlarmExecutor() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        mPool = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "AlarmExecutor-" + threadCount.incrementAndGet());
+                    }
+                });
+        mPool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the {@code runnable} after all earlier work for the same alarm.
+     *
+     * @param alarmId the alarm the work concerns, or {@link #NO_ALARM_ID}
+     * @param priority one of the {@code PRIORITY_} constants
+     */
+    public void execute(long alarmId, int priority, Runnable runnable) {
+        submit(new Task(alarmId, priority, runnable), false);
+    }
+
+    /**
+     * Runs the {@code runnable} after all earlier work and before any later work.
+     *
+     * @param priority one of the {@code PRIORITY_} constants
+     */
+    public void executeExclusive(int priority, Runnable runnable) {
+        submit(new Task(NO_ALARM_ID, priority, runnable), true);
+    }
+
+    /**
+     * @return a copy of the histogram of queue depths observed by each submission
+     */
+    public long[] getQueueDepthHistogram() {
+        synchronized (mLock) {
+            return Arrays.copyOf(mQueueDepthHistogram, HISTOGRAM_BUCKETS);
+        }
+    }
+
+    /**
+     * @return a copy of the histogram of milliseconds each task waited to start
+     */
+    public long[] getWaitTimeHistogram() {
+        synchronized (mLock) {
+            return Arrays.copyOf(mWaitTimeHistogram, HISTOGRAM_BUCKETS);
+        }
+    }
+
+    private void submit(Task task, boolean exclusive) {
+        synchronized (mLock) {
+            mQueueDepthHistogram[getBucket(mPendingCount)]++;
+            mPendingCount++;
+
+            final Segment last = mSegments.peekLast();
+            if (exclusive) {
+                mSegments.addLast(new Segment(task));
+            } else if (last != null && last.mExclusiveTask == null) {
+                last.add(task);
+            } else {
+                final Segment segment = new Segment(null);
+                segment.add(task);
+                mSegments.addLast(segment);
+            }
+            dispatchLocked();
+        }
+    }
+
+    /**
+     * Hands every task that may run now to the pool.
+     */
+    private void dispatchLocked() {
+        while (true) {
+            final Segment segment = mSegments.peekFirst();
+            if (segment == null) {
+                return;
+            }
+
+            if (segment.mExclusiveTask != null) {
+                if (mRunningCount == 0 && !segment.mStarted) {
+                    segment.mStarted = true;
+                    start(segment.mExclusiveTask);
+                }
+                return;
+            }
+
+            if (segment.isDone()) {
+                mSegments.removeFirst();
+                continue;
+            }
+
+            for (int i = 0; i < segment.mQueues.size(); i++) {
+                final ArrayDeque<Task> queue = segment.mQueues.valueAt(i);
+                final Task head = queue.peekFirst();
+                if (head != null && !head.mStarted) {
+                    start(head);
+                }
+            }
+            return;
+        }
+    }
+
+    private void start(Task task) {
+        task.mStarted = true;
+        mRunningCount++;
+        mPool.execute(task);
+    }
+
+    private void onFinished(Task task) {
+        synchronized (mLock) {
+            mRunningCount--;
+            mPendingCount--;
+
+            final Segment segment = mSegments.peekFirst();
+            if (segment.mExclusiveTask == task) {
+                mSegments.removeFirst();
+            } else {
+                segment.remove(task);
+            }
+            dispatchLocked();
+        }
+    }
+
+    private void onStarted(Task task) {
+        final long waitMillis = SystemClock.elapsedRealtime() - task.mSubmitTime;
+        synchronized (mLock) {
+            mWaitTimeHistogram[getBucket(waitMillis)]++;
+        }
+    }
+
+    private static int getBucket(long value) {
+        final int bucket = 63 - Long.numberOfLeadingZeros(value + 1);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    /**
+     * Tasks submitted between two exclusive tasks, queued per alarm; or a single exclusive task.
+     */
+    private static final class Segment {
+
+        private final Task mExclusiveTask;
+        private final LongSparseArray<ArrayDeque<Task>> mQueues = new LongSparseArray<>();
+        private boolean mStarted;
+
+        private Segment(Task exclusiveTask) {
+            mExclusiveTask = exclusiveTask;
+        }
+
+        private void add(Task task) {
+            ArrayDeque<Task> queue = mQueues.get(task.mAlarmId);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                mQueues.put(task.mAlarmId, queue);
+            }
+            queue.addLast(task);
+        }
+
+        private void remove(Task task) {
+            final ArrayDeque<Task> queue = mQueues.get(task.mAlarmId);
+            queue.removeFirst();
+            if (queue.isEmpty()) {
+                mQueues.remove(task.mAlarmId);
+            }
+        }
+
+        private boolean isDone() {
+            return mQueues.size() == 0;
+        }
+    }
+
+    /**
+     * A unit of work that reports its completion so the next task for its alarm can start.
+     */
+    private final class Task implements Runnable, Comparable<Task> {
+
+        private final long mAlarmId;
+        private final int mPriority;
+        private final int mSequence;
+        private final long mSubmitTime;
+        private final Runnable mRunnable;
+        private boolean mStarted;
+
+        private Task(long alarmId, int priority, Runnable runnable) {
+            mAlarmId = alarmId;
+            mPriority = priority;
+            mSequence = mNextSequence.getAndIncrement();
+            mSubmitTime = SystemClock.elapsedRealtime();
+            mRunnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            onStarted(this);
+            try {
+                mRunnable.run();
+            } finally {
+                onFinished(this);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+}
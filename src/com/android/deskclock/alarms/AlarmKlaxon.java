@@ -38,6 +38,18 @@ final class AlarmKlaxon {
     private static boolean sStarted = false;
     private static AsyncRingtonePlayer sAsyncRingtonePlayer;
 
+    /** The instance whose ringtone is playing, for {@link FireLatencyLog}. */
+    private static volatile long sInstanceId = AlarmInstance.INVALID_ID;
+
+    /** Records the start of audio playback for the instance whose ringtone is playing. */
+    private static final AsyncRingtonePlayer.PlaybackListener PLAYBACK_LISTENER =
+            new AsyncRingtonePlayer.PlaybackListener() {
+                @Override
+                public void onPlaybackStarted() {
+                    FireLatencyLog.record(sInstanceId, FireLatencyLog.STAGE_FIRST_AUDIO);
+                }
+            };
+
     private AlarmKlaxon() {}
 
     public static void stop(Context context) {
@@ -53,6 +65,8 @@ final class AlarmKlaxon {
         // Make sure we are stopped before starting
         stop(context);
         LogUtils.v("AlarmKlaxon.start()");
+        FireLatencyLog.record(instance.mId, FireLatencyLog.STAGE_KLAXON_START);
+        sInstanceId = instance.mId;
 
         if (!AlarmInstance.NO_RINGTONE_URI.equals(instance.mRingtone)) {
             final long crescendoDuration = DataModel.getDataModel().getAlarmCrescendoDuration();
@@ -85,7 +99,8 @@ final class AlarmKlaxon {
 
     private static synchronized AsyncRingtonePlayer getAsyncRingtonePlayer(Context context) {
         if (sAsyncRingtonePlayer == null) {
-            sAsyncRingtonePlayer = new AsyncRingtonePlayer(context.getApplicationContext());
+            sAsyncRingtonePlayer = new AsyncRingtonePlayer(context.getApplicationContext(),
+                    PLAYBACK_LISTENER);
         }
 
         return sAsyncRingtonePlayer;
@@ -384,6 +384,10 @@ final class AlarmNotifications {
         Intent showAndDismiss = AlarmInstance.createIntent(context, AlarmStateManager.class,
                 instance.mId);
         showAndDismiss.putExtra(EXTRA_NOTIFICATION_ID, id);
+        if (instance.mAlarmId != null) {
+            showAndDismiss.putExtra(AlarmStateManager.ALARM_ID_EXTRA,
+                    instance.mAlarmId.longValue());
+        }
         showAndDismiss.setAction(AlarmStateManager.SHOW_AND_DISMISS_ALARM_ACTION);
         builder.setContentIntent(PendingIntent.getBroadcast(context, id,
                 showAndDismiss, PendingIntent.FLAG_UPDATE_CURRENT));
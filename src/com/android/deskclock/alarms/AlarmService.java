@@ -29,9 +29,15 @@ import android.telephony.TelephonyManager;
 import com.android.deskclock.AlarmAlertWakeLock;
 import com.android.deskclock.LogUtils;
 import com.android.deskclock.R;
+import com.android.deskclock.data.AlarmRepository;
 import com.android.deskclock.events.Events;
 import com.android.deskclock.provider.AlarmInstance;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
 /**
  * This service is in charge of starting/stopping the alarm. It will bring up and manage the
  * {@link AlarmActivity} as well as {@link AlarmKlaxon}.
@@ -106,6 +112,7 @@ public class AlarmService extends Service {
 
     private void startAlarm(AlarmInstance instance) {
         LogUtils.v("AlarmService.start with instance: " + instance.mId);
+        FireLatencyLog.record(instance.mId, FireLatencyLog.STAGE_SERVICE_START);
         if (mCurrentAlarm != null) {
             AlarmStateManager.setMissedState(this, mCurrentAlarm);
             stopCurrentAlarm();
@@ -190,33 +197,17 @@ public class AlarmService extends Service {
             return Service.START_NOT_STICKY;
         }
 
-        final long instanceId = AlarmInstance.getId(intent.getData());
         switch (intent.getAction()) {
             case AlarmStateManager.CHANGE_STATE_ACTION:
-                AlarmStateManager.handleIntent(this, intent);
-
-                // If state is changed to firing, actually fire the alarm!
-                final int alarmState = intent.getIntExtra(AlarmStateManager.ALARM_STATE_EXTRA, -1);
-                if (alarmState == AlarmInstance.FIRED_STATE) {
-                    final ContentResolver cr = this.getContentResolver();
-                    final AlarmInstance instance = AlarmInstance.getInstance(cr, instanceId);
-                    if (instance == null) {
-                        LogUtils.e("No instance found to start alarm: %d", instanceId);
-                        if (mCurrentAlarm != null) {
-                            // Only release lock if we are not firing alarm
-                            AlarmAlertWakeLock.releaseCpuLock();
-                        }
-                        break;
-                    }
-
-                    if (mCurrentAlarm != null && mCurrentAlarm.mId == instanceId) {
-                        LogUtils.e("Alarm already started for instance: %d", instanceId);
-                        break;
-                    }
-                    startAlarm(instance);
+                changeState(intent);
+                break;
+            case AlarmStateManager.DISPATCH_STATE_CHANGES_ACTION:
+                for (Intent stateChange : AlarmStateManager.removeDueStateChanges(this)) {
+                    changeState(stateChange);
                 }
                 break;
             case STOP_ALARM_ACTION:
+                final long instanceId = AlarmInstance.getId(intent.getData());
                 if (mCurrentAlarm != null && mCurrentAlarm.mId != instanceId) {
                     LogUtils.e("Can't stop alarm for instance: %d because current alarm is: %d",
                             instanceId, mCurrentAlarm.mId);
@@ -229,6 +220,32 @@ public class AlarmService extends Service {
         return Service.START_NOT_STICKY;
     }
 
+    private void changeState(Intent intent) {
+        AlarmStateManager.handleIntent(this, intent);
+
+        // If state is changed to firing, actually fire the alarm!
+        final int alarmState = intent.getIntExtra(AlarmStateManager.ALARM_STATE_EXTRA, -1);
+        if (alarmState == AlarmInstance.FIRED_STATE) {
+            final long instanceId = AlarmInstance.getId(intent.getData());
+            final ContentResolver cr = this.getContentResolver();
+            final AlarmInstance instance = AlarmInstance.getInstance(cr, instanceId);
+            if (instance == null) {
+                LogUtils.e("No instance found to start alarm: %d", instanceId);
+                if (mCurrentAlarm != null) {
+                    // Only release lock if we are not firing alarm
+                    AlarmAlertWakeLock.releaseCpuLock();
+                }
+                return;
+            }
+
+            if (mCurrentAlarm != null && mCurrentAlarm.mId == instanceId) {
+                LogUtils.e("Alarm already started for instance: %d", instanceId);
+                return;
+            }
+            startAlarm(instance);
+        }
+    }
+
     @Override
     public void onDestroy() {
         LogUtils.v("AlarmService.onDestroy() called");
@@ -243,6 +260,16 @@ public class AlarmService extends Service {
         }
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        FireLatencyLog.dump(pw);
+        AlarmRepository.getAlarmRepository(this).dump(pw);
+        if (args != null && Arrays.asList(args).contains("--export")) {
+            final File file = FireLatencyLog.export(this);
+            pw.println(file == null ? "Export failed" : "Exported to " + file);
+        }
+    }
+
     private final class PhoneStateChangeListener extends PhoneStateListener {
 
         private int mPhoneCallState;
@@ -20,7 +20,6 @@ import android.app.AlarmManager;
 import android.app.AlarmManager.AlarmClockInfo;
 import android.app.PendingIntent;
 import android.content.BroadcastReceiver;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
@@ -35,11 +34,11 @@ import android.widget.Toast;
 import com.android.deskclock.AlarmAlertWakeLock;
 import com.android.deskclock.AlarmClockFragment;
 import com.android.deskclock.AlarmUtils;
-import com.android.deskclock.AsyncHandler;
 import com.android.deskclock.DeskClock;
 import com.android.deskclock.LogUtils;
 import com.android.deskclock.R;
 import com.android.deskclock.Utils;
+import com.android.deskclock.data.AlarmRepository;
 import com.android.deskclock.data.DataModel;
 import com.android.deskclock.events.Events;
 import com.android.deskclock.provider.Alarm;
@@ -107,6 +106,9 @@ public final class AlarmStateManager extends BroadcastReceiver {
     // Intent action to trigger an instance state change.
     public static final String CHANGE_STATE_ACTION = "change_state";
 
+    // Intent action to deliver every state change that is due on a multiplexed timeline.
+    public static final String DISPATCH_STATE_CHANGES_ACTION = "dispatch_state_changes";
+
     // Intent action to show the alarm and dismiss the instance
     public static final String SHOW_AND_DISMISS_ALARM_ACTION = "show_and_dismiss_alarm";
 
@@ -122,6 +124,9 @@ public final class AlarmStateManager extends BroadcastReceiver {
     // Extra key to indicate the state change was launched from a notification.
     public static final String FROM_NOTIFICATION_EXTRA = "intent.extra.from.notification";
 
+    // Extra key to identify the alarm that owns the instance whose state changes.
+    public static final String ALARM_ID_EXTRA = "intent.extra.alarm.id";
+
     // Extra key to set the global broadcast id.
     private static final String ALARM_GLOBAL_ID_EXTRA = "intent.extra.alarm.global.id";
 
@@ -131,7 +136,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
     public static final String ALARM_DELETE_TAG = "DELETE_TAG";
 
     // Intent category tag used when schedule state change intents in alarm manager.
-    private static final String ALARM_MANAGER_TAG = "ALARM_MANAGER";
+    static final String ALARM_MANAGER_TAG = "ALARM_MANAGER";
 
     // Buffer time in seconds to fire alarm instead of marking it missed.
     public static final int ALARM_FIRE_BUFFER = 15;
@@ -154,6 +159,11 @@ public final class AlarmStateManager extends BroadcastReceiver {
 
     private static final String TIME = "time";
 
+    // Snapshot of alarms and instances whose writes are batched while fixAlarmInstances runs.
+    // Confined to the repairing thread so writes made concurrently by other threads, e.g. the
+    // AlarmService or AlarmUpdateHandler, bypass the batch and are not lost or reordered.
+    private static final ThreadLocal<InstanceRepairBatch> sRepairBatch = new ThreadLocal<>();
+
     private static Calendar getCurrentTime() {
         return sCurrentTimeFactory == null
                 ? DataModel.getDataModel().getCalendar()
@@ -176,6 +186,11 @@ public final class AlarmStateManager extends BroadcastReceiver {
      * and the clock tab in this app.
      */
     private static void updateNextAlarm(Context context) {
+        if (sRepairBatch.get() != null) {
+            // fixAlarmInstances updates the next alarm once after committing its repairs.
+            return;
+        }
+
         final AlarmInstance nextAlarm = getNextFiringAlarm(context);
 
         if (nextAlarm != null) {
@@ -196,17 +211,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
      * @return an alarm instance that will fire earliest relative to current time.
      */
     public static AlarmInstance getNextFiringAlarm(Context context) {
-        final ContentResolver cr = context.getContentResolver();
-        final String activeAlarmQuery = AlarmInstance.ALARM_STATE + "<" + AlarmInstance.FIRED_STATE;
-        final List<AlarmInstance> alarmInstances = AlarmInstance.getInstances(cr, activeAlarmQuery);
-
-        AlarmInstance nextAlarm = null;
-        for (AlarmInstance instance : alarmInstances) {
-            if (nextAlarm == null || instance.getAlarmTime().before(nextAlarm.getAlarmTime())) {
-                nextAlarm = instance;
-            }
-        }
-        return nextAlarm;
+        return getAlarmRepository(context).getNextFiringInstance();
     }
 
     /**
@@ -275,8 +280,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
      * @param instance to update parent for
      */
     private static void updateParentAlarm(Context context, AlarmInstance instance) {
-        ContentResolver cr = context.getContentResolver();
-        Alarm alarm = Alarm.getAlarm(cr, instance.mAlarmId);
+        Alarm alarm = getAlarm(context, instance.mAlarmId);
         if (alarm == null) {
             LogUtils.e("Parent has been deleted with instance: " + instance.toString());
             return;
@@ -285,11 +289,11 @@ public final class AlarmStateManager extends BroadcastReceiver {
         if (!alarm.daysOfWeek.isRepeating()) {
             if (alarm.deleteAfterUse) {
                 LogUtils.i("Deleting parent alarm: " + alarm.id);
-                Alarm.deleteAlarm(cr, alarm.id);
+                deleteAlarm(context, alarm.id);
             } else {
                 LogUtils.i("Disabling parent alarm: " + alarm.id);
                 alarm.enabled = false;
-                Alarm.updateAlarm(cr, alarm);
+                updateAlarm(context, alarm);
             }
         } else {
             // Schedule the next repeating instance which may be before the current instance if a
@@ -303,11 +307,81 @@ public final class AlarmStateManager extends BroadcastReceiver {
 
             LogUtils.i("Creating new instance for repeating alarm " + alarm.id + " at " +
                     AlarmUtils.getFormattedTime(context, nextRepeatedInstance.getAlarmTime()));
-            AlarmInstance.addInstance(cr, nextRepeatedInstance);
-            registerInstance(context, nextRepeatedInstance, true);
+            final InstanceRepairBatch batch = sRepairBatch.get();
+            if (batch != null) {
+                // The new instance is registered once the repair batch is committed.
+                batch.addInstance(nextRepeatedInstance);
+            } else {
+                getAlarmRepository(context).addInstance(nextRepeatedInstance);
+                registerInstance(context, nextRepeatedInstance, true);
+            }
         }
     }
 
+    /**
+     * @return the alarm with the given id, read from the repair snapshot while one is active
+     */
+    private static Alarm getAlarm(Context context, Long alarmId) {
+        final InstanceRepairBatch batch = sRepairBatch.get();
+        if (batch != null) {
+            return batch.getAlarm(alarmId);
+        }
+        return alarmId == null ? null : getAlarmRepository(context).getAlarm(alarmId);
+    }
+
+    private static void updateAlarm(Context context, Alarm alarm) {
+        final InstanceRepairBatch batch = sRepairBatch.get();
+        if (batch != null) {
+            batch.updateAlarm(alarm);
+        } else {
+            getAlarmRepository(context).updateAlarm(alarm);
+        }
+    }
+
+    private static void deleteAlarm(Context context, long alarmId) {
+        final InstanceRepairBatch batch = sRepairBatch.get();
+        if (batch != null) {
+            batch.deleteAlarm(alarmId);
+        } else {
+            getAlarmRepository(context).deleteAlarm(alarmId);
+        }
+    }
+
+    private static void updateInstance(Context context, AlarmInstance instance) {
+        final InstanceRepairBatch batch = sRepairBatch.get();
+        if (batch != null) {
+            batch.updateInstance(instance);
+        } else {
+            getAlarmRepository(context).updateInstance(instance);
+        }
+    }
+
+    private static void deleteInstance(Context context, long instanceId) {
+        final InstanceRepairBatch batch = sRepairBatch.get();
+        if (batch != null) {
+            batch.deleteInstance(instanceId);
+        } else {
+            getAlarmRepository(context).deleteInstance(instanceId);
+        }
+    }
+
+    private static void deleteOtherInstances(Context context, long alarmId, long instanceId) {
+        final InstanceRepairBatch batch = sRepairBatch.get();
+        final List<AlarmInstance> instances = batch != null
+                ? batch.getInstancesByAlarmId(alarmId)
+                : getAlarmRepository(context).getInstancesByAlarmId(alarmId);
+        for (AlarmInstance instance : instances) {
+            if (instance.mId != instanceId) {
+                unregisterInstance(context, instance);
+                deleteInstance(context, instance.mId);
+            }
+        }
+    }
+
+    private static AlarmRepository getAlarmRepository(Context context) {
+        return AlarmRepository.getAlarmRepository(context);
+    }
+
     /**
      * Utility method to create a proper change state intent.
      *
@@ -319,16 +393,24 @@ public final class AlarmStateManager extends BroadcastReceiver {
      */
     public static Intent createStateChangeIntent(Context context, String tag,
             AlarmInstance instance, Integer state) {
+        return createStateChangeIntent(context, tag, instance.mId, instance.mAlarmId, state);
+    }
+
+    static Intent createStateChangeIntent(Context context, String tag, long instanceId,
+            Long alarmId, Integer state) {
         // This intent is directed to AlarmService, though the actual handling of it occurs here
         // in AlarmStateManager. The reason is that evidence exists showing the jump between the
         // broadcast receiver (AlarmStateManager) and service (AlarmService) can be thwarted by the
         // Out Of Memory killer. If clock is killed during that jump, firing an alarm can fail to
         // occur. To be safer, the call begins in AlarmService, which has the power to display the
         // firing alarm if needed, so no jump is needed.
-        Intent intent = AlarmInstance.createIntent(context, AlarmService.class, instance.mId);
+        Intent intent = AlarmInstance.createIntent(context, AlarmService.class, instanceId);
         intent.setAction(CHANGE_STATE_ACTION);
         intent.addCategory(tag);
         intent.putExtra(ALARM_GLOBAL_ID_EXTRA, DataModel.getDataModel().getGlobalIntentId());
+        if (alarmId != null) {
+            intent.putExtra(ALARM_ID_EXTRA, alarmId.longValue());
+        }
         if (state != null) {
             intent.putExtra(ALARM_STATE_EXTRA, state.intValue());
         }
@@ -348,6 +430,48 @@ public final class AlarmStateManager extends BroadcastReceiver {
         sStateChangeScheduler.scheduleInstanceStateChange(ctx, time, instance, newState);
     }
 
+    /**
+     * Removes the state changes that are due from a {@link MultiplexedStateChangeScheduler}.
+     *
+     * @param context application context
+     * @return a {@link #CHANGE_STATE_ACTION} intent for each due state change; empty if state
+     *      changes are not multiplexed
+     */
+    static List<Intent> removeDueStateChanges(Context context) {
+        if (sStateChangeScheduler instanceof MultiplexedStateChangeScheduler) {
+            return ((MultiplexedStateChangeScheduler) sStateChangeScheduler)
+                    .removeDueStateChanges(context);
+        }
+        // The wakeup was armed by an earlier process that multiplexed state changes; the state
+        // changes it held were lost with it, so re-register every instance with this scheduler.
+        LogUtils.w("Multiplexed wakeup without a multiplexed scheduler; re-registering instances");
+        fixAlarmInstancesAsync(context);
+        return Collections.emptyList();
+    }
+
+    /**
+     * Runs {@link #fixAlarmInstances} on the {@link AlarmExecutor}, apart from all other alarm
+     * work, holding a wake lock until it completes.
+     *
+     * @param context application context
+     */
+    static void fixAlarmInstancesAsync(Context context) {
+        final Context appContext = context.getApplicationContext();
+        final PowerManager.WakeLock wl = AlarmAlertWakeLock.createPartialWakeLock(appContext);
+        wl.acquire();
+        AlarmExecutor.getAlarmExecutor().executeExclusive(AlarmExecutor.PRIORITY_FIRING,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            fixAlarmInstances(appContext);
+                        } finally {
+                            wl.release();
+                        }
+                    }
+                });
+    }
+
     /**
      * Cancel all {@link AlarmManager} timers for instance.
      *
@@ -371,9 +495,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.i("Setting silent state to instance " + instance.mId);
 
         // Update alarm in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.SILENT_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        updateInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.clearNotification(context, instance);
@@ -393,9 +516,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.i("Setting low notification state to instance " + instance.mId);
 
         // Update alarm state in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.LOW_NOTIFICATION_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        updateInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.showLowPriorityNotification(context, instance);
@@ -415,9 +537,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.i("Setting hide notification state to instance " + instance.mId);
 
         // Update alarm state in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.HIDE_NOTIFICATION_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        updateInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.clearNotification(context, instance);
@@ -437,9 +558,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.i("Setting high notification state to instance " + instance.mId);
 
         // Update alarm state in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.HIGH_NOTIFICATION_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        updateInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.showHighPriorityNotification(context, instance);
@@ -457,17 +577,18 @@ public final class AlarmStateManager extends BroadcastReceiver {
      */
     public static void setFiredState(Context context, AlarmInstance instance) {
         LogUtils.i("Setting fire state to instance " + instance.mId);
+        FireLatencyLog.record(instance.mId, FireLatencyLog.STAGE_SCHEDULED,
+                instance.getAlarmTime().getTimeInMillis());
+        FireLatencyLog.record(instance.mId, FireLatencyLog.STAGE_FIRED_STATE);
 
         // Update alarm state in db
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.FIRED_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        updateInstance(context, instance);
 
         if (instance.mAlarmId != null) {
             // if the time changed *backward* and pushed an instance from missed back to fired,
             // remove any other scheduled instances that may exist
-            AlarmInstance.deleteOtherInstances(context, contentResolver, instance.mAlarmId,
-                    instance.mId);
+            deleteOtherInstances(context, instance.mAlarmId, instance.mId);
         }
 
         Events.sendAlarmEvent(R.string.action_fire, 0);
@@ -504,7 +625,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
                 + AlarmUtils.getFormattedTime(context, newAlarmTime));
         instance.setAlarmTime(newAlarmTime);
         instance.mAlarmState = AlarmInstance.SNOOZE_STATE;
-        AlarmInstance.updateInstance(context.getContentResolver(), instance);
+        updateInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.showSnoozeNotification(context, instance);
@@ -549,9 +670,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
         }
 
         // Update alarm state
-        ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.MISSED_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        updateInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.showMissedNotification(context, instance);
@@ -574,9 +694,8 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.i("Setting predismissed state to instance " + instance.mId);
 
         // Update alarm in db
-        final ContentResolver contentResolver = context.getContentResolver();
         instance.mAlarmState = AlarmInstance.PREDISMISSED_STATE;
-        AlarmInstance.updateInstance(contentResolver, instance);
+        updateInstance(context, instance);
 
         // Setup instance notification and scheduling timers
         AlarmNotifications.clearNotification(context, instance);
@@ -598,8 +717,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
     public static void setDismissState(Context context, AlarmInstance instance) {
         LogUtils.i("Setting dismissed state to instance " + instance.mId);
         instance.mAlarmState = AlarmInstance.DISMISSED_STATE;
-        final ContentResolver contentResolver = context.getContentResolver();
-        AlarmInstance.updateInstance(contentResolver, instance);
+        updateInstance(context, instance);
 
         cancelPowerOffAlarm(context, instance);
     }
@@ -623,7 +741,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
         }
 
         // Delete instance as it is not needed anymore
-        AlarmInstance.deleteInstance(context.getContentResolver(), instance.mId);
+        deleteInstance(context, instance.mId);
 
         // Instance is not valid anymore, so find next alarm that will fire and notify system
         updateNextAlarm(context);
@@ -672,8 +790,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
     public static void registerInstance(Context context, AlarmInstance instance,
             boolean updateNextAlarm) {
         LogUtils.i("Registering instance: " + instance.mId);
-        final ContentResolver cr = context.getContentResolver();
-        final Alarm alarm = Alarm.getAlarm(cr, instance.mAlarmId);
+        final Alarm alarm = getAlarm(context, instance.mAlarmId);
         final Calendar currentTime = getCurrentTime();
         final Calendar alarmTime = instance.getAlarmTime();
         final Calendar timeoutTime = instance.getTimeout();
@@ -711,7 +828,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
                 // Make sure we re-enable the parent alarm of the instance
                 // because it will get activated by by the below code
                 alarm.enabled = true;
-                Alarm.updateAlarm(cr, alarm);
+                updateAlarm(context, alarm);
             }
         } else if (instance.mAlarmState == AlarmInstance.PREDISMISSED_STATE) {
             if (currentTime.before(alarmTime)) {
@@ -773,11 +890,11 @@ public final class AlarmStateManager extends BroadcastReceiver {
      */
     public static void deleteAllInstances(Context context, long alarmId) {
         LogUtils.i("Deleting all instances of alarm: " + alarmId);
-        ContentResolver cr = context.getContentResolver();
-        List<AlarmInstance> instances = AlarmInstance.getInstancesByAlarmId(cr, alarmId);
+        final AlarmRepository repository = getAlarmRepository(context);
+        final List<AlarmInstance> instances = repository.getInstancesByAlarmId(alarmId);
         for (AlarmInstance instance : instances) {
             unregisterInstance(context, instance);
-            AlarmInstance.deleteInstance(context.getContentResolver(), instance.mId);
+            repository.deleteInstance(instance.mId);
         }
         updateNextAlarm(context);
     }
@@ -788,34 +905,37 @@ public final class AlarmStateManager extends BroadcastReceiver {
      */
     public static void deleteNonSnoozeInstances(Context context, long alarmId) {
         LogUtils.i("Deleting all non-snooze instances of alarm: " + alarmId);
-        ContentResolver cr = context.getContentResolver();
-        List<AlarmInstance> instances = AlarmInstance.getInstancesByAlarmId(cr, alarmId);
+        final AlarmRepository repository = getAlarmRepository(context);
+        final List<AlarmInstance> instances = repository.getInstancesByAlarmId(alarmId);
         for (AlarmInstance instance : instances) {
             if (instance.mAlarmState == AlarmInstance.SNOOZE_STATE) {
                 continue;
             }
             unregisterInstance(context, instance);
-            AlarmInstance.deleteInstance(context.getContentResolver(), instance.mId);
+            repository.deleteInstance(instance.mId);
         }
         updateNextAlarm(context);
     }
 
     /**
-     * Fix and update all alarm instance when a time change event occurs.
+     * Fix and update all alarm instance when a time change event occurs. All alarms and instances
+     * are read up front and every resulting database write is committed in a single batch, so the
+     * cost in provider round-trips does not grow with the number of alarms.
      *
      * @param context application context
      */
     public static void fixAlarmInstances(Context context) {
         LogUtils.i("Fixing alarm instances");
         // Register all instances after major time changes or when phone restarts
-        final ContentResolver contentResolver = context.getContentResolver();
+        final AlarmRepository repository = getAlarmRepository(context);
         final Calendar currentTime = getCurrentTime();
 
+        final InstanceRepairBatch batch = InstanceRepairBatch.load(repository);
+
         // Sort the instances in reverse chronological order so that later instances are fixed or
         // deleted before re-scheduling prior instances (which may re-create or update the later
         // instances).
-        final List<AlarmInstance> instances = AlarmInstance.getInstances(
-                contentResolver, null /* selection */);
+        final List<AlarmInstance> instances = batch.getInstances();
         Collections.sort(instances, new Comparator<AlarmInstance>() {
             @Override
             public int compare(AlarmInstance lhs, AlarmInstance rhs) {
@@ -823,30 +943,56 @@ public final class AlarmStateManager extends BroadcastReceiver {
             }
         });
 
-        for (AlarmInstance instance : instances) {
-            final Alarm alarm = Alarm.getAlarm(contentResolver, instance.mAlarmId);
-            if (alarm == null) {
-                unregisterInstance(context, instance);
-                AlarmInstance.deleteInstance(contentResolver, instance.mId);
-                LogUtils.e("Found instance without matching alarm; deleting instance %s", instance);
-                continue;
+        sRepairBatch.set(batch);
+        try {
+            for (AlarmInstance instance : instances) {
+                if (!batch.containsInstance(instance)) {
+                    // Already deleted while repairing another instance of the same alarm.
+                    continue;
+                }
+
+                final Alarm alarm = batch.getAlarm(instance.mAlarmId);
+                if (alarm == null) {
+                    unregisterInstance(context, instance);
+                    batch.deleteInstance(instance.mId);
+                    LogUtils.e("Found instance without matching alarm; deleting instance %s",
+                            instance);
+                    continue;
+                }
+                final long priorAlarmTime = alarm.getPreviousAlarmTimeMillis(
+                        instance.getAlarmTime().getTimeInMillis(), currentTime.getTimeZone());
+                final Calendar missedTTLTime = instance.getMissedTimeToLive();
+                if (currentTime.getTimeInMillis() < priorAlarmTime
+                        || currentTime.after(missedTTLTime)) {
+                    final Calendar oldAlarmTime = instance.getAlarmTime();
+                    final Calendar newAlarmTime = alarm.getNextAlarmTime(currentTime);
+                    final CharSequence oldTime =
+                            DateFormat.format("MM/dd/yyyy hh:mm a", oldAlarmTime);
+                    final CharSequence newTime =
+                            DateFormat.format("MM/dd/yyyy hh:mm a", newAlarmTime);
+                    LogUtils.i("A time change has caused an existing alarm scheduled to fire at" +
+                            " %s to be replaced by a new alarm scheduled to fire at %s",
+                            oldTime, newTime);
+
+                    // The time change is so dramatic the AlarmInstance doesn't make any sense;
+                    // remove it and schedule the new appropriate instance.
+                    AlarmStateManager.deleteInstanceAndUpdateParent(context, instance);
+                } else {
+                    registerInstance(context, instance, false /* updateNextAlarm */);
+                }
             }
-            final Calendar priorAlarmTime = alarm.getPreviousAlarmTime(instance.getAlarmTime());
-            final Calendar missedTTLTime = instance.getMissedTimeToLive();
-            if (currentTime.before(priorAlarmTime) || currentTime.after(missedTTLTime)) {
-                final Calendar oldAlarmTime = instance.getAlarmTime();
-                final Calendar newAlarmTime = alarm.getNextAlarmTime(currentTime);
-                final CharSequence oldTime = DateFormat.format("MM/dd/yyyy hh:mm a", oldAlarmTime);
-                final CharSequence newTime = DateFormat.format("MM/dd/yyyy hh:mm a", newAlarmTime);
-                LogUtils.i("A time change has caused an existing alarm scheduled to fire at %s to" +
-                        " be replaced by a new alarm scheduled to fire at %s", oldTime, newTime);
-
-                // The time change is so dramatic the AlarmInstance doesn't make any sense;
-                // remove it and schedule the new appropriate instance.
-                AlarmStateManager.deleteInstanceAndUpdateParent(context, instance);
-            } else {
-                registerInstance(context, instance, false /* updateNextAlarm */);
+
+            // Instances created for repeating alarms receive their ids when the batch commits;
+            // register them afterwards, batching the writes that registration produces in turn.
+            List<AlarmInstance> deferred = batch.commit(repository);
+            while (!deferred.isEmpty()) {
+                for (AlarmInstance instance : deferred) {
+                    registerInstance(context, instance, false /* updateNextAlarm */);
+                }
+                deferred = batch.commit(repository);
             }
+        } finally {
+            sRepairBatch.remove();
         }
 
         updateNextAlarm(context);
@@ -906,7 +1052,16 @@ public final class AlarmStateManager extends BroadcastReceiver {
         final PendingResult result = goAsync();
         final PowerManager.WakeLock wl = AlarmAlertWakeLock.createPartialWakeLock(context);
         wl.acquire();
-        AsyncHandler.post(new Runnable() {
+
+        // Work for one alarm runs in order; work that starts or stops an alarm ringing runs first.
+        final long alarmId = intent.getLongExtra(ALARM_ID_EXTRA, AlarmExecutor.NO_ALARM_ID);
+        final int state = intent.getIntExtra(ALARM_STATE_EXTRA, -1);
+        final boolean firing = SHOW_AND_DISMISS_ALARM_ACTION.equals(intent.getAction())
+                || state == AlarmInstance.FIRED_STATE || state == AlarmInstance.SNOOZE_STATE
+                || state == AlarmInstance.DISMISSED_STATE;
+        final int priority = firing
+                ? AlarmExecutor.PRIORITY_FIRING : AlarmExecutor.PRIORITY_DEFAULT;
+        AlarmExecutor.getAlarmExecutor().execute(alarmId, priority, new Runnable() {
             @Override
             public void run() {
                 handleIntent(context, intent);
@@ -921,7 +1076,11 @@ public final class AlarmStateManager extends BroadcastReceiver {
         LogUtils.v("AlarmStateManager received intent " + intent);
         if (CHANGE_STATE_ACTION.equals(action)) {
             Uri uri = intent.getData();
-            AlarmInstance instance = AlarmInstance.getInstance(context.getContentResolver(),
+            if (intent.getIntExtra(ALARM_STATE_EXTRA, -1) == AlarmInstance.FIRED_STATE) {
+                FireLatencyLog.record(AlarmInstance.getId(uri), FireLatencyLog.STAGE_HANDLE_INTENT);
+            }
+
+            AlarmInstance instance = getAlarmRepository(context).getInstance(
                     AlarmInstance.getId(uri));
             if (instance == null) {
                 LogUtils.e("Can not change state for unknown instance: " + uri);
@@ -957,7 +1116,7 @@ public final class AlarmStateManager extends BroadcastReceiver {
             }
         } else if (SHOW_AND_DISMISS_ALARM_ACTION.equals(action)) {
             Uri uri = intent.getData();
-            AlarmInstance instance = AlarmInstance.getInstance(context.getContentResolver(),
+            AlarmInstance instance = getAlarmRepository(context).getInstance(
                     AlarmInstance.getId(uri));
 
             if (instance == null) {
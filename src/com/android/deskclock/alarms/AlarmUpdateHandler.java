@@ -16,21 +16,27 @@
 
 package com.android.deskclock.alarms;
 
-import android.content.ContentResolver;
+import android.content.ContentProviderOperation;
 import android.content.Context;
-import android.os.AsyncTask;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
 import android.support.design.widget.Snackbar;
 import android.text.format.DateFormat;
 import android.view.View;
 import android.view.ViewGroup;
 
 import com.android.deskclock.AlarmUtils;
+import com.android.deskclock.LogUtils;
 import com.android.deskclock.R;
+import com.android.deskclock.data.AlarmRepository;
 import com.android.deskclock.events.Events;
 import com.android.deskclock.provider.Alarm;
 import com.android.deskclock.provider.AlarmInstance;
 import com.android.deskclock.widget.toast.SnackbarManager;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
@@ -43,6 +49,9 @@ public final class AlarmUpdateHandler {
     private final ScrollHandler mScrollHandler;
     private final View mSnackbarAnchor;
 
+    /** Delivers the results of background work to the UI. */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
     // For undo
     private Alarm mDeletedAlarm;
 
@@ -59,37 +68,25 @@ public final class AlarmUpdateHandler {
      * @param alarm The alarm to be added.
      */
     public void asyncAddAlarm(final Alarm alarm) {
-        final AsyncTask<Void, Void, AlarmInstance> updateTask =
-                new AsyncTask<Void, Void, AlarmInstance>() {
-                    @Override
-                    protected AlarmInstance doInBackground(Void... parameters) {
-                        if (alarm != null) {
-                            Events.sendAlarmEvent(R.string.action_create, R.string.label_deskclock);
-                            ContentResolver cr = mAppContext.getContentResolver();
-
-                            // Add alarm to db
-                            Alarm newAlarm = Alarm.addAlarm(cr, alarm);
-
-                            // Be ready to scroll to this alarm on UI later.
-                            mScrollHandler.setSmoothScrollStableId(newAlarm.id);
-
-                            // Create and add instance to db
-                            if (newAlarm.enabled) {
-                                return setupAlarmInstance(newAlarm);
-                            }
-                        }
-                        return null;
-                    }
-
-                    @Override
-                    protected void onPostExecute(AlarmInstance instance) {
-                        if (instance != null) {
-                            AlarmUtils.popAlarmSetSnackbar(
-                                    mSnackbarAnchor, instance.getAlarmTime().getTimeInMillis());
-                        }
+        final long alarmId = alarm == null ? AlarmExecutor.NO_ALARM_ID : alarm.id;
+        getAlarmExecutor().execute(alarmId, AlarmExecutor.PRIORITY_DEFAULT, new Runnable() {
+            @Override
+            public void run() {
+                if (alarm != null) {
+                    Events.sendAlarmEvent(R.string.action_create, R.string.label_deskclock);
+                    // Add alarm to db
+                    Alarm newAlarm = getAlarmRepository().addAlarm(alarm);
+
+                    // Be ready to scroll to this alarm on UI later.
+                    mScrollHandler.setSmoothScrollStableId(newAlarm.id);
+
+                    // Create and add instance to db
+                    if (newAlarm.enabled) {
+                        popAlarmSetSnackbar(setupAlarmInstance(newAlarm));
                     }
-                };
-        updateTask.execute();
+                }
+            }
+        });
     }
 
     /**
@@ -101,51 +98,63 @@ public final class AlarmUpdateHandler {
      */
     public void asyncUpdateAlarm(final Alarm alarm, final boolean popToast,
             final boolean minorUpdate) {
-        final AsyncTask<Void, Void, AlarmInstance> updateTask =
-                new AsyncTask<Void, Void, AlarmInstance>() {
-                    @Override
-                    protected AlarmInstance doInBackground(Void... parameters) {
-                        ContentResolver cr = mAppContext.getContentResolver();
-
-                        // Update alarm
-                        Alarm.updateAlarm(cr, alarm);
-
-                        if (minorUpdate) {
-                            // just update the instance in the database and update notifications.
-                            final List<AlarmInstance> instanceList =
-                                    AlarmInstance.getInstancesByAlarmId(cr, alarm.id);
-                            for (AlarmInstance instance : instanceList) {
-                                // Make a copy of the existing instance
-                                final AlarmInstance newInstance = new AlarmInstance(instance);
-                                // Copy over minor change data to the instance; we don't know
-                                // exactly which minor field changed, so just copy them all.
-                                newInstance.mVibrate = alarm.vibrate;
-                                newInstance.mRingtone = alarm.alert;
-                                newInstance.mLabel = alarm.label;
-                                // Since we copied the mId of the old instance and the mId is used
-                                // as the primary key in the AlarmInstance table, this will replace
-                                // the existing instance.
-                                AlarmInstance.updateInstance(cr, newInstance);
-                                // Update the notification for this instance.
-                                AlarmNotifications.updateNotification(mAppContext, newInstance);
-                            }
-                            return null;
-                        }
-                        // Otherwise, this is a major update and we're going to re-create the alarm
-                        AlarmStateManager.deleteAllInstances(mAppContext, alarm.id);
+        getAlarmExecutor().execute(alarm.id, AlarmExecutor.PRIORITY_DEFAULT, new Runnable() {
+            @Override
+            public void run() {
+                final AlarmRepository repository = getAlarmRepository();
+
+                if (minorUpdate) {
+                    // just update the alarm and its instances in the database in a single batch
+                    // and update notifications.
+                    final List<AlarmInstance> instanceList =
+                            repository.getInstancesByAlarmId(alarm.id);
+                    final ArrayList<ContentProviderOperation> operations =
+                            new ArrayList<>(instanceList.size() + 1);
+                    operations.add(Alarm.createUpdateOperation(alarm));
+                    final List<AlarmInstance> newInstances = new ArrayList<>(instanceList.size());
+                    for (AlarmInstance instance : instanceList) {
+                        // Make a copy of the existing instance
+                        final AlarmInstance newInstance = new AlarmInstance(instance);
+                        // Copy over minor change data to the instance; we don't know exactly
+                        // which minor field changed, so just copy them all.
+                        newInstance.mVibrate = alarm.vibrate;
+                        newInstance.mRingtone = alarm.alert;
+                        newInstance.mLabel = alarm.label;
+                        // Since we copied the mId of the old instance and the mId is used as the
+                        // primary key in the AlarmInstance table, this will replace the existing
+                        // instance.
+                        operations.add(AlarmInstance.createUpdateOperation(newInstance));
+                        newInstances.add(newInstance);
+                    }
 
-                        return alarm.enabled ? setupAlarmInstance(alarm) : null;
+                    try {
+                        repository.applyBatch(operations);
+                    } catch (RemoteException | OperationApplicationException e) {
+                        LogUtils.e("Unable to update alarm " + alarm.id, e);
+                        return;
                     }
 
-                    @Override
-                    protected void onPostExecute(AlarmInstance instance) {
-                        if (popToast && instance != null) {
-                            AlarmUtils.popAlarmSetSnackbar(
-                                    mSnackbarAnchor, instance.getAlarmTime().getTimeInMillis());
-                        }
+                    // Update the notification for each instance.
+                    for (AlarmInstance newInstance : newInstances) {
+                        AlarmNotifications.updateNotification(mAppContext, newInstance);
                     }
-                };
-        updateTask.execute();
+                    return;
+                }
+
+                // Update alarm
+                repository.updateAlarm(alarm);
+
+                // Otherwise, this is a major update and we're going to re-create the alarm
+                AlarmStateManager.deleteAllInstances(mAppContext, alarm.id);
+
+                if (alarm.enabled) {
+                    final AlarmInstance instance = setupAlarmInstance(alarm);
+                    if (popToast) {
+                        popAlarmSetSnackbar(instance);
+                    }
+                }
+            }
+        });
     }
 
     /**
@@ -154,27 +163,27 @@ public final class AlarmUpdateHandler {
      * @param alarm The alarm to be deleted.
      */
     public void asyncDeleteAlarm(final Alarm alarm) {
-        final AsyncTask<Void, Void, Boolean> deleteTask = new AsyncTask<Void, Void, Boolean>() {
-            @Override
-            protected Boolean doInBackground(Void... parameters) {
-                // Activity may be closed at this point , make sure data is still valid
-                if (alarm == null) {
-                    // Nothing to do here, just return.
-                    return false;
-                }
-                AlarmStateManager.deleteAllInstances(mAppContext, alarm.id);
-                return Alarm.deleteAlarm(mAppContext.getContentResolver(), alarm.id);
-            }
+        // Activity may be closed at this point , make sure data is still valid
+        if (alarm == null) {
+            // Nothing to do here, just return.
+            return;
+        }
 
+        getAlarmExecutor().execute(alarm.id, AlarmExecutor.PRIORITY_DEFAULT, new Runnable() {
             @Override
-            protected void onPostExecute(Boolean deleted) {
-                if (deleted) {
-                    mDeletedAlarm = alarm;
-                    showUndoBar();
+            public void run() {
+                AlarmStateManager.deleteAllInstances(mAppContext, alarm.id);
+                if (getAlarmRepository().deleteAlarm(alarm.id)) {
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            mDeletedAlarm = alarm;
+                            showUndoBar();
+                        }
+                    });
                 }
             }
-        };
-        deleteTask.execute();
+        });
     }
 
     /**
@@ -212,11 +221,31 @@ public final class AlarmUpdateHandler {
     }
 
     private AlarmInstance setupAlarmInstance(Alarm alarm) {
-        final ContentResolver cr = mAppContext.getContentResolver();
         AlarmInstance newInstance = alarm.createInstanceAfter(Calendar.getInstance());
-        newInstance = AlarmInstance.addInstance(cr, newInstance);
+        newInstance = getAlarmRepository().addInstance(newInstance);
         // Register instance to state manager
         AlarmStateManager.registerInstance(mAppContext, newInstance, true);
         return newInstance;
     }
+
+    /**
+     * Shows the time until the {@code instance} fires; called on the background thread.
+     */
+    private void popAlarmSetSnackbar(final AlarmInstance instance) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                AlarmUtils.popAlarmSetSnackbar(
+                        mSnackbarAnchor, instance.getAlarmTime().getTimeInMillis());
+            }
+        });
+    }
+
+    private static AlarmExecutor getAlarmExecutor() {
+        return AlarmExecutor.getAlarmExecutor();
+    }
+
+    private AlarmRepository getAlarmRepository() {
+        return AlarmRepository.getAlarmRepository(mAppContext);
+    }
 }
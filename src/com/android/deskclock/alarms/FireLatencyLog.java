@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.content.Context;
+import android.util.LongSparseArray;
+
+import com.android.deskclock.LogUtils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records when each stage of firing an alarm is reached so that the delay between an alarm's
+ * scheduled time and the moment the user hears and sees it can be measured in the field.
+ *
+ * <p>Stages are recorded as events in a fixed-size ring buffer that is written without locks or
+ * allocation, so recording never delays the firing path. Each slot carries a sequence number that
+ * is cleared while the slot is written and set once it is complete; readers skip slots that are
+ * incomplete or were overwritten while being read. Events are grouped into firings and summarized
+ * into per-stage latency histograms only when the log is {@link #dump dumped} or
+ * {@link #export exported}.</p>
+ */
+final class FireLatencyLog {
+
+    /** The time at which the instance was scheduled to fire. */
+    static final int STAGE_SCHEDULED = 0;
+
+    /** {@link AlarmStateManager#handleIntent} received a request to fire the instance. */
+    static final int STAGE_HANDLE_INTENT = 1;
+
+    /** The instance entered the fired state. */
+    static final int STAGE_FIRED_STATE = 2;
+
+    /** {@link AlarmService} started the alarm. */
+    static final int STAGE_SERVICE_START = 3;
+
+    /** {@link AlarmKlaxon} started the ringtone and vibration. */
+    static final int STAGE_KLAXON_START = 4;
+
+    /** The ringtone player started producing audio. */
+    static final int STAGE_FIRST_AUDIO = 5;
+
+    /** {@link AlarmActivity} drew its first frame. */
+    static final int STAGE_FIRST_DRAW = 6;
+
+    private static final int STAGE_COUNT = 7;
+
+    private static final String[] STAGE_NAMES = {
+            "scheduled", "handleIntent", "firedState", "serviceStart", "klaxonStart",
+            "firstAudio", "firstDraw"
+    };
+
+    /** Number of events retained; a power of two. */
+    private static final int CAPACITY = 512;
+
+    /** Longs per event: sequence, instance id, stage, time. */
+    private static final int SLOT_SIZE = 4;
+
+    /** Number of buckets in each histogram; bucket i counts latencies in [2^i - 1, 2^(i+1) - 1). */
+    private static final int HISTOGRAM_BUCKETS = 20;
+
+    /** Name of the file, within the app's files directory, to which the log is exported. */
+    private static final String EXPORT_FILE_NAME = "alarm_fire_latency.csv";
+
+    /** The events; the sequence of an incomplete slot is -1. */
+    private static final AtomicLongArray sEvents = new AtomicLongArray(CAPACITY * SLOT_SIZE);
+
+    /** The sequence number of the next event to be recorded. */
+    private static final AtomicLong sNextSequence = new AtomicLong();
+
+    private FireLatencyLog() {}
+
+    /**
+     * Records that the instance reached the given stage now.
+     */
+    static void record(long instanceId, int stage) {
+        record(instanceId, stage, System.currentTimeMillis());
+    }
+
+    /**
+     * Records that the instance reached the given stage at the given wall clock time.
+     */
+    static void record(long instanceId, int stage, long timeMillis) {
+        final long sequence = sNextSequence.getAndIncrement();
+        final int slot = (int) (sequence & (CAPACITY - 1)) * SLOT_SIZE;
+        sEvents.set(slot, -1);
+        sEvents.set(slot + 1, instanceId);
+        sEvents.set(slot + 2, stage);
+        sEvents.set(slot + 3, timeMillis);
+        sEvents.set(slot, sequence);
+    }
+
+    /**
+     * Prints a histogram of the latency of each stage, relative to the scheduled fire time, over
+     * the firings still held in the ring buffer.
+     */
+    static void dump(PrintWriter pw) {
+        final List<long[]> firings = getFirings();
+        pw.println("Alarm fire latency over " + firings.size() + " firings (ms after scheduled):");
+
+        for (int stage = STAGE_SCHEDULED + 1; stage < STAGE_COUNT; stage++) {
+            final long[] histogram = new long[HISTOGRAM_BUCKETS];
+            long count = 0;
+            long max = 0;
+            for (long[] firing : firings) {
+                if (firing[STAGE_SCHEDULED] == 0 || firing[stage] == 0) {
+                    continue;
+                }
+                final long latency = Math.max(0, firing[stage] - firing[STAGE_SCHEDULED]);
+                histogram[getBucket(latency)]++;
+                max = Math.max(max, latency);
+                count++;
+            }
+
+            pw.print("  " + STAGE_NAMES[stage] + ": count=" + count + " max=" + max);
+            for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                if (histogram[bucket] != 0) {
+                    pw.print(" <" + ((1L << (bucket + 1)) - 1) + ":" + histogram[bucket]);
+                }
+            }
+            pw.println();
+        }
+    }
+
+    /**
+     * Writes every firing still held in the ring buffer, one row per firing with the wall clock
+     * time at which each stage was reached, to a CSV file in the app's files directory.
+     *
+     * @return the file written, or {@code null} if it could not be written
+     */
+    static File export(Context context) {
+        final File file = new File(context.getFilesDir(), EXPORT_FILE_NAME);
+        try (PrintWriter pw = new PrintWriter(new FileWriter(file))) {
+            pw.print("instanceId");
+            for (String name : STAGE_NAMES) {
+                pw.print(',');
+                pw.print(name);
+            }
+            pw.println();
+
+            for (long[] firing : getFirings()) {
+                pw.print(firing[STAGE_COUNT]);
+                for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                    pw.print(',');
+                    if (firing[stage] != 0) {
+                        pw.print(firing[stage]);
+                    }
+                }
+                pw.println();
+            }
+        } catch (IOException e) {
+            LogUtils.e("Unable to export alarm fire latency", e);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Groups the retained events into firings. A firing begins when an instance enters
+     * {@link #STAGE_HANDLE_INTENT}, or reaches a stage its current firing has already reached.
+     *
+     * @return each firing as the time of every stage, 0 if not reached, followed by the instance id
+     */
+    private static List<long[]> getFirings() {
+        final List<long[]> firings = new ArrayList<>();
+        final LongSparseArray<long[]> current = new LongSparseArray<>();
+
+        final long end = sNextSequence.get();
+        for (long sequence = Math.max(0, end - CAPACITY); sequence < end; sequence++) {
+            final int slot = (int) (sequence & (CAPACITY - 1)) * SLOT_SIZE;
+            if (sEvents.get(slot) != sequence) {
+                continue;
+            }
+            final long instanceId = sEvents.get(slot + 1);
+            final int stage = (int) sEvents.get(slot + 2);
+            final long timeMillis = sEvents.get(slot + 3);
+            if (sEvents.get(slot) != sequence || stage < 0 || stage >= STAGE_COUNT) {
+                // The slot was overwritten while it was read.
+                continue;
+            }
+
+            long[] firing = current.get(instanceId);
+            if (firing == null || stage == STAGE_HANDLE_INTENT || firing[stage] != 0) {
+                firing = new long[STAGE_COUNT + 1];
+                firing[STAGE_COUNT] = instanceId;
+                current.put(instanceId, firing);
+                firings.add(firing);
+            }
+            firing[stage] = timeMillis;
+        }
+        return firings;
+    }
+
+    private static int getBucket(long value) {
+        final int bucket = 63 - Long.numberOfLeadingZeros(value + 1);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.OperationApplicationException;
+import android.os.RemoteException;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
+
+import com.android.deskclock.LogUtils;
+import com.android.deskclock.Predicate;
+import com.android.deskclock.data.AlarmRepository;
+import com.android.deskclock.provider.Alarm;
+import com.android.deskclock.provider.AlarmInstance;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An in-memory snapshot of all alarms and alarm instances used while
+ * {@link AlarmStateManager#fixAlarmInstances} repairs them. Reads are answered from the snapshot
+ * and writes are recorded as {@link ContentProviderOperation}s, so a repair of any number of
+ * alarms costs a fixed number of round-trips to the provider.
+ */
+final class InstanceRepairBatch {
+
+    /** Alarms indexed by id; reflects the writes recorded in this batch. */
+    private final LongSparseArray<Alarm> mAlarms;
+
+    /** Persisted instances indexed by id; reflects the writes recorded in this batch. */
+    private final LongSparseArray<AlarmInstance> mInstances;
+
+    /** Database writes waiting to be committed. */
+    private final ArrayList<ContentProviderOperation> mOperations = new ArrayList<>();
+
+    /** Maps the index of each pending insert operation to the instance it creates. */
+    private final SparseArray<AlarmInstance> mInsertedInstances = new SparseArray<>();
+
+    /** Instances that can only be registered once this batch has been committed. */
+    private final List<AlarmInstance> mDeferredRegistrations = new ArrayList<>();
+
+    private InstanceRepairBatch(List<Alarm> alarms, List<AlarmInstance> instances) {
+        mAlarms = new LongSparseArray<>(alarms.size());
+        for (Alarm alarm : alarms) {
+            mAlarms.put(alarm.id, alarm);
+        }
+
+        mInstances = new LongSparseArray<>(instances.size());
+        for (AlarmInstance instance : instances) {
+            mInstances.put(instance.mId, instance);
+        }
+    }
+
+    /**
+     * @param repository provides access to the content model
+     * @return a batch holding every alarm and alarm instance currently in the database
+     */
+    @SuppressWarnings("unchecked")
+    static InstanceRepairBatch load(AlarmRepository repository) {
+        final List<Alarm> alarms = repository.getAlarms(Predicate.TRUE);
+        final List<AlarmInstance> instances = repository.getInstances(Predicate.TRUE);
+        return new InstanceRepairBatch(alarms, instances);
+    }
+
+    /**
+     * @return all instances that have not been deleted by this batch
+     */
+    List<AlarmInstance> getInstances() {
+        final int size = mInstances.size();
+        final List<AlarmInstance> instances = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            instances.add(mInstances.valueAt(i));
+        }
+        return instances;
+    }
+
+    /**
+     * @return {@code true} iff the {@code instance} has not been deleted by this batch
+     */
+    boolean containsInstance(AlarmInstance instance) {
+        return mInstances.get(instance.mId) == instance;
+    }
+
+    /**
+     * @return the alarm with the given id, or {@code null} if it does not exist
+     */
+    Alarm getAlarm(Long alarmId) {
+        return alarmId == null ? null : mAlarms.get(alarmId);
+    }
+
+    void updateAlarm(Alarm alarm) {
+        if (alarm.id == Alarm.INVALID_ID) return;
+        mAlarms.put(alarm.id, alarm);
+        mOperations.add(Alarm.createUpdateOperation(alarm));
+    }
+
+    void deleteAlarm(long alarmId) {
+        if (alarmId == Alarm.INVALID_ID) return;
+        mAlarms.remove(alarmId);
+        mOperations.add(Alarm.createDeleteOperation(alarmId));
+    }
+
+    void updateInstance(AlarmInstance instance) {
+        if (instance.mId == AlarmInstance.INVALID_ID) return;
+        mOperations.add(AlarmInstance.createUpdateOperation(instance));
+    }
+
+    void deleteInstance(long instanceId) {
+        if (instanceId == AlarmInstance.INVALID_ID) return;
+        mInstances.remove(instanceId);
+        mOperations.add(AlarmInstance.createDeleteOperation(instanceId));
+    }
+
+    /**
+     * @return the instances owned by the alarm with the given id
+     */
+    List<AlarmInstance> getInstancesByAlarmId(long alarmId) {
+        final List<AlarmInstance> result = new ArrayList<>();
+        for (int i = 0; i < mInstances.size(); i++) {
+            final AlarmInstance instance = mInstances.valueAt(i);
+            if (instance.mAlarmId != null && instance.mAlarmId == alarmId) {
+                result.add(instance);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Records the addition of a new {@code instance}. Like {@link AlarmInstance#addInstance}, an
+     * existing instance of the same alarm at the same time is updated instead. The instance is
+     * registered with the state manager after the batch is committed, since only then is its id
+     * known.
+     */
+    void addInstance(AlarmInstance instance) {
+        for (AlarmInstance other : getInstancesByAlarmId(instance.mAlarmId)) {
+            if (isSameAlarmTime(other, instance)) {
+                LogUtils.i("Detected duplicate instance in DB. Updating " + other + " to "
+                        + instance);
+                instance.mId = other.mId;
+                mInstances.put(instance.mId, instance);
+                updateInstance(instance);
+                mDeferredRegistrations.add(instance);
+                return;
+            }
+        }
+
+        mInsertedInstances.put(mOperations.size(), instance);
+        mOperations.add(AlarmInstance.createInsertOperation(instance));
+        mDeferredRegistrations.add(instance);
+    }
+
+    /**
+     * Applies all recorded writes in a single transaction.
+     *
+     * @param repository provides access to the content model
+     * @return the instances whose registration was deferred until this commit
+     */
+    List<AlarmInstance> commit(AlarmRepository repository) {
+        if (mOperations.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        try {
+            final ContentProviderResult[] results = repository.applyBatch(mOperations);
+            for (int i = 0; i < mInsertedInstances.size(); i++) {
+                final AlarmInstance instance = mInsertedInstances.valueAt(i);
+                instance.mId = ContentUris.parseId(results[mInsertedInstances.keyAt(i)].uri);
+                mInstances.put(instance.mId, instance);
+            }
+            LogUtils.i("Committed %d alarm repair operations", mOperations.size());
+            return new ArrayList<>(mDeferredRegistrations);
+        } catch (RemoteException | OperationApplicationException e) {
+            LogUtils.e("Failed to commit alarm repair operations", e);
+            return Collections.emptyList();
+        } finally {
+            mOperations.clear();
+            mInsertedInstances.clear();
+            mDeferredRegistrations.clear();
+        }
+    }
+
+    private static boolean isSameAlarmTime(AlarmInstance a, AlarmInstance b) {
+        return a.mYear == b.mYear && a.mMonth == b.mMonth && a.mDay == b.mDay
+                && a.mHour == b.mHour && a.mMinute == b.mMinute;
+    }
+}
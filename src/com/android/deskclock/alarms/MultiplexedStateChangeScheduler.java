@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.LongSparseArray;
+
+import com.android.deskclock.AlarmUtils;
+import com.android.deskclock.LogUtils;
+import com.android.deskclock.Utils;
+import com.android.deskclock.alarms.AlarmStateManager.CurrentTimeFactory;
+import com.android.deskclock.alarms.AlarmStateManager.StateChangeScheduler;
+import com.android.deskclock.provider.AlarmInstance;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import static android.content.Context.ALARM_SERVICE;
+import static com.android.deskclock.alarms.AlarmStateManager.ALARM_FIRE_BUFFER;
+
+/**
+ * Schedules state changes on a local timeline and holds a single {@link AlarmManager} wakeup for
+ * the earliest of them, rather than one wakeup per alarm instance. When the wakeup arrives
+ * {@link #removeDueStateChanges} hands back every change that is due; changes scheduled within
+ * {@link AlarmStateManager#ALARM_FIRE_BUFFER} seconds of the wakeup are delivered along with it
+ * so that neighbouring notifications do not each wake the device. Changes that fire an alarm are
+ * never delivered early.
+ *
+ * <p>The timeline lives in memory only. A process that starts with an empty timeline arms the
+ * wakeup immediately on first use, and that wakeup rebuilds the timeline by re-registering every
+ * alarm instance on the {@link AlarmExecutor}; the rebuilt timeline re-arms the wakeup for the
+ * changes then due, which are delivered when it arrives.</p>
+ */
+final class MultiplexedStateChangeScheduler implements StateChangeScheduler {
+
+    /** Orders pending changes by time, breaking ties by instance id. */
+    private static final Comparator<PendingStateChange> TIME_ORDER =
+            new Comparator<PendingStateChange>() {
+                @Override
+                public int compare(PendingStateChange a, PendingStateChange b) {
+                    if (a.mTimeMillis != b.mTimeMillis) {
+                        return a.mTimeMillis < b.mTimeMillis ? -1 : 1;
+                    }
+                    return a.mInstanceId < b.mInstanceId ? -1
+                            : (a.mInstanceId == b.mInstanceId ? 0 : 1);
+                }
+            };
+
+    /** All pending changes, earliest first. */
+    private final TreeSet<PendingStateChange> mTimeline = new TreeSet<>(TIME_ORDER);
+
+    /** The pending change of each instance; an instance has at most one at any time. */
+    private final LongSparseArray<PendingStateChange> mChangesByInstanceId =
+            new LongSparseArray<>();
+
+    /** Supplies the current time; can be replaced for testing purposes. */
+    private final CurrentTimeFactory mClock;
+
+    /** Arms the single wakeup; can be replaced for testing purposes. */
+    private final Wakeup mWakeup;
+
+    /** The time of the armed wakeup, or {@link Long#MAX_VALUE} if none is armed. */
+    private long mWakeupTimeMillis = Long.MAX_VALUE;
+
+    /** {@code true} once the timeline has been rebuilt from every instance in this process. */
+    private boolean mTimelineRestored;
+
+    MultiplexedStateChangeScheduler() {
+        this(new CurrentTimeFactory() {
+            @Override
+            public Calendar getCurrentTime() {
+                return Calendar.getInstance();
+            }
+        }, new AlarmManagerWakeup());
+    }
+
+    MultiplexedStateChangeScheduler(CurrentTimeFactory clock, Wakeup wakeup) {
+        mClock = clock;
+        mWakeup = wakeup;
+    }
+
+    /**
+     * Declares the timeline complete because every instance has been registered with this
+     * scheduler since it was created, so the first wakeup delivers due changes instead of
+     * rebuilding the timeline. For testing purposes only.
+     */
+    synchronized void setTimelineRestored() {
+        mTimelineRestored = true;
+    }
+
+    @Override
+    public synchronized void scheduleInstanceStateChange(Context context, Calendar time,
+            AlarmInstance instance, int newState) {
+        final long timeInMillis = time.getTimeInMillis();
+        LogUtils.i("Scheduling state change %d to instance %d at %s (%d)", newState,
+                instance.mId, AlarmUtils.getFormattedTime(context, time), timeInMillis);
+
+        removeStateChange(instance.mId);
+        final PendingStateChange change =
+                new PendingStateChange(instance.mId, instance.mAlarmId, timeInMillis, newState);
+        mTimeline.add(change);
+        mChangesByInstanceId.put(instance.mId, change);
+        updateWakeup(context);
+    }
+
+    @Override
+    public synchronized void cancelScheduledInstanceStateChange(Context context,
+            AlarmInstance instance) {
+        LogUtils.v("Canceling instance " + instance.mId + " timers");
+        if (removeStateChange(instance.mId)) {
+            updateWakeup(context);
+        }
+    }
+
+    /**
+     * Removes every change that is due from the timeline and re-arms the wakeup for the next one.
+     *
+     * @param context application context
+     * @return intents describing each due state change, earliest first; each is handled exactly
+     *      like a state change intent delivered by {@link AlarmManager}; empty while the
+     *      timeline is being rebuilt
+     */
+    List<Intent> removeDueStateChanges(Context context) {
+        final boolean restored;
+        synchronized (this) {
+            restored = mTimelineRestored;
+            mTimelineRestored = true;
+        }
+        if (!restored) {
+            // Changes scheduled by an earlier process were lost with it; re-registering every
+            // instance both applies any overdue state and rebuilds the timeline. Repairing reads
+            // every alarm, so it runs off the calling thread.
+            LogUtils.i("Rebuilding state change timeline");
+            AlarmStateManager.fixAlarmInstancesAsync(context);
+            return Collections.emptyList();
+        }
+
+        final List<PendingStateChange> due =
+                removeDueChanges(context, mClock.getCurrentTime().getTimeInMillis());
+        if (due.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<Intent> intents = new ArrayList<>(due.size());
+        for (PendingStateChange change : due) {
+            intents.add(AlarmStateManager.createStateChangeIntent(context,
+                    AlarmStateManager.ALARM_MANAGER_TAG, change.mInstanceId, change.mAlarmId,
+                    change.mNewState));
+        }
+        LogUtils.i("Delivering %d coalesced state changes", intents.size());
+        return intents;
+    }
+
+    /**
+     * @param nowMillis the current time
+     * @return the changes due at {@code nowMillis}, earliest first
+     */
+    synchronized List<PendingStateChange> removeDueChanges(Context context, long nowMillis) {
+        final long coalesceUntilMillis = nowMillis + ALARM_FIRE_BUFFER * 1000L;
+        final List<PendingStateChange> due = new ArrayList<>();
+        for (PendingStateChange change = first(); change != null;) {
+            if (change.mTimeMillis > coalesceUntilMillis) {
+                break;
+            }
+
+            final PendingStateChange next = mTimeline.higher(change);
+            if (change.mTimeMillis <= nowMillis
+                    || change.mNewState != AlarmInstance.FIRED_STATE) {
+                mTimeline.remove(change);
+                mChangesByInstanceId.remove(change.mInstanceId);
+                due.add(change);
+            }
+            change = next;
+        }
+
+        // The armed wakeup has been consumed.
+        mWakeupTimeMillis = Long.MAX_VALUE;
+        updateWakeup(context);
+        return due;
+    }
+
+    private PendingStateChange first() {
+        return mTimeline.isEmpty() ? null : mTimeline.first();
+    }
+
+    /**
+     * @return {@code true} if the instance had a pending change that was removed
+     */
+    private boolean removeStateChange(long instanceId) {
+        final PendingStateChange change = mChangesByInstanceId.get(instanceId);
+        if (change == null) {
+            return false;
+        }
+        mChangesByInstanceId.remove(instanceId);
+        mTimeline.remove(change);
+        return true;
+    }
+
+    /**
+     * Ensures the single wakeup is armed for the earliest pending change, if any. Until the
+     * timeline has been rebuilt in this process, the wakeup is armed to arrive immediately.
+     */
+    private void updateWakeup(Context context) {
+        final PendingStateChange earliest = first();
+        if (earliest == null) {
+            if (mWakeupTimeMillis != Long.MAX_VALUE) {
+                mWakeup.cancel(context);
+                mWakeupTimeMillis = Long.MAX_VALUE;
+            }
+            return;
+        }
+
+        if (!mTimelineRestored) {
+            if (mWakeupTimeMillis == Long.MAX_VALUE) {
+                final long nowMillis = mClock.getCurrentTime().getTimeInMillis();
+                mWakeup.set(context, nowMillis);
+                mWakeupTimeMillis = nowMillis;
+            }
+        } else if (earliest.mTimeMillis != mWakeupTimeMillis) {
+            mWakeup.set(context, earliest.mTimeMillis);
+            mWakeupTimeMillis = earliest.mTimeMillis;
+        }
+    }
+
+    /**
+     * A single state change waiting on the timeline.
+     */
+    static final class PendingStateChange {
+
+        final long mInstanceId;
+        final Long mAlarmId;
+        final long mTimeMillis;
+        final int mNewState;
+
+        PendingStateChange(long instanceId, Long alarmId, long timeMillis, int newState) {
+            mInstanceId = instanceId;
+            mAlarmId = alarmId;
+            mTimeMillis = timeMillis;
+            mNewState = newState;
+        }
+    }
+
+    /**
+     * Abstracts away how the single wakeup is armed so that tests can observe it.
+     */
+    interface Wakeup {
+        void set(Context context, long timeInMillis);
+
+        void cancel(Context context);
+    }
+
+    /**
+     * Arms the wakeup as an exact {@link AlarmManager} alarm that is honored while dozing.
+     */
+    private static final class AlarmManagerWakeup implements Wakeup {
+        @Override
+        public void set(Context context, long timeInMillis) {
+            final AlarmManager am = (AlarmManager) context.getSystemService(ALARM_SERVICE);
+            final PendingIntent pendingIntent = createPendingIntent(context,
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+            if (Utils.isMOrLater()) {
+                // Ensure the alarm fires even if the device is dozing.
+                am.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
+            } else {
+                am.setExact(AlarmManager.RTC_WAKEUP, timeInMillis, pendingIntent);
+            }
+        }
+
+        @Override
+        public void cancel(Context context) {
+            final PendingIntent pendingIntent = createPendingIntent(context,
+                    PendingIntent.FLAG_NO_CREATE);
+            if (pendingIntent != null) {
+                final AlarmManager am = (AlarmManager) context.getSystemService(ALARM_SERVICE);
+                am.cancel(pendingIntent);
+                pendingIntent.cancel();
+            }
+        }
+
+        private static PendingIntent createPendingIntent(Context context, int flags) {
+            final Intent intent = new Intent(context, AlarmService.class)
+                    .setAction(AlarmStateManager.DISPATCH_STATE_CHANGES_ACTION)
+                    // Treat alarm state change as high priority, use foreground broadcasts
+                    .addFlags(Intent.FLAG_RECEIVER_FOREGROUND);
+            return PendingIntent.getForegroundService(context, 0 /* requestCode */, intent,
+                    flags);
+        }
+    }
+}
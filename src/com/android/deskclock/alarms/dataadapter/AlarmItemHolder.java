@@ -28,13 +28,19 @@ public class AlarmItemHolder extends ItemAdapter.ItemHolder<Alarm> {
     private static final java.lang.String EXPANDED_KEY = "expanded";
     private final AlarmInstance mAlarmInstance;
     private final AlarmTimeClickHandler mAlarmTimeClickHandler;
+    private final long mVersion;
     private boolean mExpanded;
 
+    /**
+     * @param version identifies the contents of the database row from which the alarm and
+     *      instance were read; holders built from identical rows have equal versions
+     */
     public AlarmItemHolder(Alarm alarm, AlarmInstance alarmInstance,
-            AlarmTimeClickHandler alarmTimeClickHandler) {
+            AlarmTimeClickHandler alarmTimeClickHandler, long version) {
         super(alarm, alarm.id);
         mAlarmInstance = alarmInstance;
         mAlarmTimeClickHandler = alarmTimeClickHandler;
+        mVersion = version;
     }
 
     @Override
@@ -69,6 +75,22 @@ public class AlarmItemHolder extends ItemAdapter.ItemHolder<Alarm> {
         return mExpanded;
     }
 
+    /**
+     * @return the version of the database row from which this holder was built
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Alarms are modified in place before they are written, so holders are compared by the
+     * version of the row from which they were built rather than by their current alarms.
+     */
+    @Override
+    public boolean hasSameContents(ItemAdapter.ItemHolder<?> other) {
+        return other instanceof AlarmItemHolder && ((AlarmItemHolder) other).mVersion == mVersion;
+    }
+
     @Override
     public void onSaveInstanceState(Bundle bundle) {
         super.onSaveInstanceState(bundle);
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms.dataadapter;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.OperationCanceledException;
+import android.util.LongSparseArray;
+
+import com.android.deskclock.alarms.AlarmTimeClickHandler;
+import com.android.deskclock.data.DataModel;
+import com.android.deskclock.provider.Alarm;
+import com.android.deskclock.provider.AlarmInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assembles the list of {@link AlarmItemHolder}s that back the RecyclerView of alarms. Rows of
+ * alarms joined with their instances are read and mapped to holders in the background. Each row
+ * is given a version computed from its column values without creating any objects; a row whose
+ * id and version match the previous load reuses the holder built for it then, so unchanged alarms
+ * are neither parsed again nor rebound, and only new or changed rows produce new holders.
+ */
+public final class AlarmItemLoader extends AsyncTaskLoader<List<AlarmItemHolder>> {
+
+    /** Multiplier of the 64-bit FNV-1a hash used to compute row versions. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Initial value of the 64-bit FNV-1a hash used to compute row versions. */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    /** Reloads the alarms when any alarm or instance changes. */
+    private final ContentObserver mObserver = new ForceLoadContentObserver();
+
+    /** Holds string columns while they are folded into a row version; background thread only. */
+    private final CharArrayBuffer mStringBuffer = new CharArrayBuffer(64);
+
+    /** The holders built by the previous load, keyed by alarm id; background thread only. */
+    private LongSparseArray<AlarmItemHolder> mPreviousHolders = new LongSparseArray<>();
+
+    /** The handler given to each new holder; {@code null} until set. */
+    private volatile AlarmTimeClickHandler mAlarmTimeClickHandler;
+
+    /** The most recently delivered holders. */
+    private List<AlarmItemHolder> mItemHolders;
+
+    /** {@code true} while {@link #mObserver} is registered. */
+    private boolean mObserving;
+
+    public AlarmItemLoader(Context context) {
+        super(context);
+    }
+
+    /**
+     * Sets the handler of clicks on the alarms displayed by the current view and reloads the
+     * alarms if it changed, so no holder refers to the handler of a destroyed view.
+     */
+    public void setAlarmTimeClickHandler(AlarmTimeClickHandler alarmTimeClickHandler) {
+        if (mAlarmTimeClickHandler != alarmTimeClickHandler) {
+            mAlarmTimeClickHandler = alarmTimeClickHandler;
+            onContentChanged();
+        }
+    }
+
+    @Override
+    public List<AlarmItemHolder> loadInBackground() {
+        if (isLoadInBackgroundCanceled()) {
+            throw new OperationCanceledException();
+        }
+
+        // Prime the ringtone title cache for later access. Most alarms will refer to
+        // system ringtones.
+        DataModel.getDataModel().loadRingtoneTitles();
+
+        final AlarmTimeClickHandler alarmTimeClickHandler = mAlarmTimeClickHandler;
+        final LongSparseArray<AlarmItemHolder> previousHolders = mPreviousHolders;
+        try (Cursor cursor = Alarm.queryAlarmsWithInstances(getContext().getContentResolver())) {
+            final int count = cursor == null ? 0 : cursor.getCount();
+            final List<AlarmItemHolder> itemHolders = new ArrayList<>(count);
+            final LongSparseArray<AlarmItemHolder> holders = new LongSparseArray<>(count);
+
+            for (int i = 0; i < count; i++) {
+                if (isLoadInBackgroundCanceled()) {
+                    throw new OperationCanceledException();
+                }
+                cursor.moveToPosition(i);
+
+                final long id = cursor.getLong(Alarm.ID_INDEX);
+                final long version = computeVersion(cursor);
+                AlarmItemHolder itemHolder = previousHolders.get(id);
+                if (itemHolder == null || itemHolder.getVersion() != version
+                        || itemHolder.getAlarmTimeClickHandler() != alarmTimeClickHandler) {
+                    final Alarm alarm = new Alarm(cursor);
+                    final AlarmInstance alarmInstance = alarm.canPreemptivelyDismiss()
+                            ? new AlarmInstance(cursor, true /* joinedTable */) : null;
+                    itemHolder = new AlarmItemHolder(alarm, alarmInstance, alarmTimeClickHandler,
+                            version);
+                }
+                itemHolders.add(itemHolder);
+                holders.put(id, itemHolder);
+            }
+
+            mPreviousHolders = holders;
+            return itemHolders;
+        }
+    }
+
+    @Override
+    public void deliverResult(List<AlarmItemHolder> itemHolders) {
+        if (isReset()) {
+            return;
+        }
+
+        mItemHolders = itemHolders;
+        if (isStarted()) {
+            super.deliverResult(itemHolders);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver()
+                    .registerContentObserver(Alarm.ALARMS_WITH_INSTANCES_URI, false, mObserver);
+            mObserving = true;
+        }
+
+        if (mItemHolders != null) {
+            deliverResult(mItemHolders);
+        }
+        if (takeContentChanged() || mItemHolders == null) {
+            forceLoad();
+        }
+    }
+
+    /**
+     * There is a bug in Loader which can result in stale data if a loader is stopped immediately
+     * after a call to onContentChanged. As a workaround the loader is stopped before delivering
+     * onContentChanged to ensure mContentChanged is set to true before forceLoad is called.
+     */
+    @Override
+    public void onContentChanged() {
+        if (isStarted() && !isAbandoned()) {
+            stopLoading();
+            super.onContentChanged();
+            startLoading();
+        } else {
+            super.onContentChanged();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mItemHolders = null;
+    }
+
+    /**
+     * @return a hash of every column of the current row of the {@code cursor}
+     */
+    private long computeVersion(Cursor cursor) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int column = 0, count = cursor.getColumnCount(); column < count; column++) {
+            final int type = cursor.getType(column);
+            hash = (hash ^ type) * FNV_PRIME;
+            switch (type) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    hash = mix(hash, cursor.getLong(column));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    hash = mix(hash, Double.doubleToLongBits(cursor.getDouble(column)));
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    cursor.copyStringToBuffer(column, mStringBuffer);
+                    final char[] chars = mStringBuffer.data;
+                    for (int i = 0; i < mStringBuffer.sizeCopied; i++) {
+                        hash = (hash ^ chars[i]) * FNV_PRIME;
+                    }
+                    hash = mix(hash, mStringBuffer.sizeCopied);
+                    break;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return the {@code hash} with each byte of the {@code value} folded into it
+     */
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
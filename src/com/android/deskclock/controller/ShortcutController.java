@@ -163,6 +163,9 @@ class ShortcutController {
 
         @Override
         public void stopwatchUpdated(Stopwatch before, Stopwatch after) {
+            if (after.getId() != Stopwatch.DEFAULT_ID) {
+                return;
+            }
             if (!mUserManager.isUserUnlocked()) {
                 LogUtils.i("Skipping stopwatch shortcut update because user is locked.");
                 return;
@@ -0,0 +1,639 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.ContentObserver;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.LongSparseArray;
+
+import com.android.deskclock.LogUtils;
+import com.android.deskclock.Predicate;
+import com.android.deskclock.provider.Alarm;
+import com.android.deskclock.provider.AlarmInstance;
+import com.android.deskclock.provider.ClockContract;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An in-memory snapshot of all alarms and alarm instances, indexed by id, that answers reads
+ * without querying the clock provider. Writes made through this repository are applied to the
+ * database and the snapshot together. Writes made by anyone else are detected by a
+ * {@link ContentObserver} and the affected rows are reloaded the next time they are read.
+ *
+ * <p>All methods are thread-safe. The alarms and instances returned are copies which callers may
+ * modify freely; modifications take effect once they are written back through this repository.
+ * </p>
+ */
+public final class AlarmRepository {
+
+    /** The single instance of this repository. */
+    private static AlarmRepository sAlarmRepository;
+
+    /**
+     * The number of individually changed rows beyond which reloading a whole table with one query
+     * is cheaper than reloading each row.
+     */
+    private static final int MAX_STALE_ROWS = 8;
+
+    private final ContentResolver mContentResolver;
+
+    /** All alarms indexed by id; only valid while {@link #mAlarmsLoaded}. */
+    private final LongSparseArray<Alarm> mAlarms = new LongSparseArray<>();
+
+    /** All alarm instances indexed by id; only valid while {@link #mInstancesLoaded}. */
+    private final LongSparseArray<AlarmInstance> mInstances = new LongSparseArray<>();
+
+    /** Ids of the instances in {@link #mInstances} that have yet to fire, by fire time. */
+    private final FireTimeIndex mUpcomingInstances = new FireTimeIndex();
+
+    /** Ids of alarms changed by other writers that must be reloaded before they are read. */
+    private final Set<Long> mStaleAlarmIds = new ArraySet<>();
+
+    /** Ids of instances changed by other writers that must be reloaded before they are read. */
+    private final Set<Long> mStaleInstanceIds = new ArraySet<>();
+
+    /** Number of change notifications still to arrive for writes made by this repository. */
+    private final Map<Uri, Integer> mExpectedChanges = new ArrayMap<>();
+
+    /** {@code true} while {@link #mAlarms} mirrors the database. */
+    private boolean mAlarmsLoaded;
+
+    /** {@code true} while {@link #mInstances} mirrors the database. */
+    private boolean mInstancesLoaded;
+
+    /** Number of reads answered entirely from memory. */
+    private long mHitCount;
+
+    /** Number of reads that required querying the database. */
+    private long mMissCount;
+
+    /** Total time spent answering reads. */
+    private long mReadNanos;
+
+    /** Number of queries and writes sent to the provider; a batch counts once per operation. */
+    private long mProviderOperationCount;
+
+    public static synchronized AlarmRepository getAlarmRepository(Context context) {
+        if (sAlarmRepository == null) {
+            sAlarmRepository = new AlarmRepository(context.getApplicationContext());
+        }
+        return sAlarmRepository;
+    }
+
+    private AlarmRepository(Context context) {
+        mContentResolver = context.getContentResolver();
+        mContentResolver.registerContentObserver(Alarm.CONTENT_URI, true,
+                new TableObserver(true /* alarmsTable */));
+        mContentResolver.registerContentObserver(AlarmInstance.CONTENT_URI, true,
+                new TableObserver(false /* alarmsTable */));
+    }
+
+    /**
+     * @return the alarm with the given id, or {@code null} if it does not exist
+     */
+    public synchronized Alarm getAlarm(long alarmId) {
+        final long startNanos = System.nanoTime();
+        final boolean queried = refreshAlarms();
+        final Alarm alarm = mAlarms.get(alarmId);
+        recordRead(startNanos, queried);
+        return alarm == null ? null : new Alarm(alarm);
+    }
+
+    /**
+     * @param predicate selects the alarms to return
+     * @return all alarms accepted by the {@code predicate}, ordered by id
+     */
+    public synchronized List<Alarm> getAlarms(Predicate<Alarm> predicate) {
+        final long startNanos = System.nanoTime();
+        final boolean queried = refreshAlarms();
+        final List<Alarm> result = new ArrayList<>();
+        for (int i = 0; i < mAlarms.size(); i++) {
+            final Alarm alarm = mAlarms.valueAt(i);
+            if (predicate.apply(alarm)) {
+                result.add(new Alarm(alarm));
+            }
+        }
+        recordRead(startNanos, queried);
+        return result;
+    }
+
+    /**
+     * @return the alarm instance with the given id, or {@code null} if it does not exist
+     */
+    public synchronized AlarmInstance getInstance(long instanceId) {
+        final long startNanos = System.nanoTime();
+        final boolean queried = refreshInstances();
+        final AlarmInstance instance = mInstances.get(instanceId);
+        recordRead(startNanos, queried);
+        return instance == null ? null : new AlarmInstance(instance);
+    }
+
+    /**
+     * @param predicate selects the alarm instances to return
+     * @return all alarm instances accepted by the {@code predicate}, ordered by id
+     */
+    public synchronized List<AlarmInstance> getInstances(Predicate<AlarmInstance> predicate) {
+        final long startNanos = System.nanoTime();
+        final boolean queried = refreshInstances();
+        final List<AlarmInstance> result = new ArrayList<>();
+        for (int i = 0; i < mInstances.size(); i++) {
+            final AlarmInstance instance = mInstances.valueAt(i);
+            if (predicate.apply(instance)) {
+                result.add(new AlarmInstance(instance));
+            }
+        }
+        recordRead(startNanos, queried);
+        return result;
+    }
+
+    /**
+     * @return the alarm instances owned by the alarm with the given id
+     */
+    public List<AlarmInstance> getInstancesByAlarmId(final long alarmId) {
+        return getInstances(new Predicate<AlarmInstance>() {
+            @Override
+            public boolean apply(AlarmInstance instance) {
+                return instance.mAlarmId != null && instance.mAlarmId == alarmId;
+            }
+        });
+    }
+
+    /**
+     * @return the alarm instances in the given state
+     */
+    public List<AlarmInstance> getInstancesByState(final int state) {
+        return getInstances(new Predicate<AlarmInstance>() {
+            @Override
+            public boolean apply(AlarmInstance instance) {
+                return instance.mAlarmState == state;
+            }
+        });
+    }
+
+    /**
+     * @return the instance that has yet to fire and fires earliest, or {@code null} if no
+     *      instance has yet to fire
+     */
+    public synchronized AlarmInstance getNextFiringInstance() {
+        final long startNanos = System.nanoTime();
+        final boolean queried = refreshInstances();
+        final long instanceId = mUpcomingInstances.peek();
+        final AlarmInstance instance = instanceId == -1 ? null : mInstances.get(instanceId);
+        recordRead(startNanos, queried);
+        return instance == null ? null : new AlarmInstance(instance);
+    }
+
+    /**
+     * @return the earliest instance owned by the alarm with the given id, or {@code null}
+     */
+    public AlarmInstance getNextUpcomingInstanceByAlarmId(long alarmId) {
+        AlarmInstance nextInstance = null;
+        for (AlarmInstance instance : getInstancesByAlarmId(alarmId)) {
+            if (nextInstance == null
+                    || instance.getAlarmTime().before(nextInstance.getAlarmTime())) {
+                nextInstance = instance;
+            }
+        }
+        return nextInstance;
+    }
+
+    /**
+     * Inserts the {@code alarm} and assigns its new id.
+     *
+     * @return the given {@code alarm}
+     */
+    public synchronized Alarm addAlarm(Alarm alarm) {
+        mProviderOperationCount++;
+        Alarm.addAlarm(mContentResolver, alarm);
+        // The insert notification cannot be delivered until this lock is released.
+        expectChange(alarm.getContentUri());
+        if (mAlarmsLoaded) {
+            mAlarms.put(alarm.id, copyOf(alarm));
+        }
+        return alarm;
+    }
+
+    /**
+     * @return {@code true} if the {@code alarm} existed and was updated
+     */
+    public synchronized boolean updateAlarm(Alarm alarm) {
+        if (alarm.id == Alarm.INVALID_ID) return false;
+        mProviderOperationCount++;
+        final boolean updated = Alarm.updateAlarm(mContentResolver, alarm);
+        if (updated) {
+            // The update notification cannot be delivered until this lock is released.
+            expectChange(alarm.getContentUri());
+            if (mAlarmsLoaded) {
+                mAlarms.put(alarm.id, copyOf(alarm));
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Deletes the alarm along with its instances, which the provider removes in cascade without
+     * notifying their uris.
+     *
+     * @return {@code true} if the alarm existed and was deleted
+     */
+    public synchronized boolean deleteAlarm(long alarmId) {
+        if (alarmId == Alarm.INVALID_ID) return false;
+        mProviderOperationCount++;
+        final boolean deleted = Alarm.deleteAlarm(mContentResolver, alarmId);
+        if (deleted) {
+            // The delete notification cannot be delivered until this lock is released.
+            expectChange(Alarm.getContentUri(alarmId));
+        }
+        mAlarms.remove(alarmId);
+        for (int i = mInstances.size() - 1; i >= 0; i--) {
+            final AlarmInstance instance = mInstances.valueAt(i);
+            if (instance.mAlarmId != null && instance.mAlarmId == alarmId) {
+                removeInstance(instance.mId);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Inserts the {@code instance} and assigns its new id. If an instance of the same alarm at the
+     * same time already exists, that instance is updated instead; this is only a safeguard against
+     * bad callers.
+     *
+     * @return the given {@code instance}
+     */
+    public synchronized AlarmInstance addInstance(AlarmInstance instance) {
+        refreshInstances();
+        for (int i = 0; i < mInstances.size(); i++) {
+            final AlarmInstance other = mInstances.valueAt(i);
+            if (instance.mAlarmId != null && instance.mAlarmId.equals(other.mAlarmId)
+                    && other.getAlarmTime().equals(instance.getAlarmTime())) {
+                LogUtils.i("Detected duplicate instance in DB. Updating " + other + " to "
+                        + instance);
+                // Copy over the new instance values and update the db
+                instance.mId = other.mId;
+                updateInstance(instance);
+                return instance;
+            }
+        }
+
+        final ContentValues values = AlarmInstance.createContentValues(instance);
+        mProviderOperationCount++;
+        final Uri uri = mContentResolver.insert(AlarmInstance.CONTENT_URI, values);
+        instance.mId = AlarmInstance.getId(uri);
+        // The insert notification cannot be delivered until this lock is released.
+        expectChange(uri);
+        putInstance(copyOf(instance));
+        return instance;
+    }
+
+    /**
+     * @return {@code true} if the {@code instance} existed and was updated
+     */
+    public synchronized boolean updateInstance(AlarmInstance instance) {
+        if (instance.mId == AlarmInstance.INVALID_ID) return false;
+        mProviderOperationCount++;
+        final boolean updated = AlarmInstance.updateInstance(mContentResolver, instance);
+        if (updated) {
+            // The update notification cannot be delivered until this lock is released.
+            expectChange(instance.getContentUri());
+            if (mInstancesLoaded) {
+                putInstance(copyOf(instance));
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * @return {@code true} if the instance existed and was deleted
+     */
+    public synchronized boolean deleteInstance(long instanceId) {
+        if (instanceId == AlarmInstance.INVALID_ID) return false;
+        mProviderOperationCount++;
+        final boolean deleted = AlarmInstance.deleteInstance(mContentResolver, instanceId);
+        if (deleted) {
+            // The delete notification cannot be delivered until this lock is released.
+            expectChange(AlarmInstance.getContentUri(instanceId));
+        }
+        removeInstance(instanceId);
+        return deleted;
+    }
+
+    /**
+     * Inserts all {@code instances} in a single transaction and assigns each its new id. Unlike
+     * {@link #addInstance}, this does not check for duplicate instances, so callers must first
+     * remove any existing instances of the same alarms.
+     *
+     * @param instances to insert
+     * @return {@code true} if all instances were inserted; {@code false} if none were
+     */
+    public boolean addInstances(List<AlarmInstance> instances) {
+        final ArrayList<ContentProviderOperation> operations = new ArrayList<>(instances.size());
+        for (AlarmInstance instance : instances) {
+            operations.add(AlarmInstance.createInsertOperation(instance));
+        }
+
+        try {
+            final ContentProviderResult[] results = applyBatch(operations);
+            for (int i = 0; i < results.length; i++) {
+                instances.get(i).mId = AlarmInstance.getId(results[i].uri);
+            }
+            return true;
+        } catch (RemoteException | OperationApplicationException e) {
+            LogUtils.e("Unable to add " + instances.size() + " alarm instances", e);
+            return false;
+        }
+    }
+
+    /**
+     * Applies all {@code operations} to the clock provider in a single transaction. The tables
+     * they touch are reloaded from the database the next time they are read.
+     */
+    public synchronized ContentProviderResult[] applyBatch(
+            ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        mProviderOperationCount += operations.size();
+        try {
+            final ContentProviderResult[] results =
+                    mContentResolver.applyBatch(ClockContract.AUTHORITY, operations);
+
+            // The provider notifies each updated or deleted row once per batch, and only if the
+            // write affected it (see ClockProvider#update and #delete). These notifications cannot
+            // be delivered until this lock is released.
+            final List<Uri> expectedChanges = new ArrayList<>(operations.size());
+            for (int i = 0; i < results.length; i++) {
+                final Uri uri = operations.get(i).getUri();
+                final Integer count = results[i].count;
+                if (getRowId(uri) != -1 && count != null && count > 0
+                        && !expectedChanges.contains(uri)) {
+                    expectedChanges.add(uri);
+                }
+            }
+            for (Uri uri : expectedChanges) {
+                expectChange(uri);
+            }
+            return results;
+        } finally {
+            for (ContentProviderOperation operation : operations) {
+                invalidateTable(operation.getUri());
+            }
+        }
+    }
+
+    /**
+     * @return the fraction of reads answered without querying the database
+     */
+    public synchronized float getHitRate() {
+        final long readCount = mHitCount + mMissCount;
+        return readCount == 0 ? 0f : (float) mHitCount / readCount;
+    }
+
+    /**
+     * @return the mean time taken to answer a read, in nanoseconds
+     */
+    public synchronized long getMeanReadLatencyNanos() {
+        final long readCount = mHitCount + mMissCount;
+        return readCount == 0 ? 0 : mReadNanos / readCount;
+    }
+
+    /**
+     * @return the number of queries and writes this repository has sent to the provider
+     */
+    public synchronized long getProviderOperationCount() {
+        return mProviderOperationCount;
+    }
+
+    /**
+     * Prints the read hit rate, the mean read latency and the number of provider operations.
+     */
+    public synchronized void dump(PrintWriter pw) {
+        pw.println(String.format(Locale.US, "Alarm repository: %d reads, hit rate %.1f%%, mean"
+                + " read latency %d us, %d provider operations", mHitCount + mMissCount,
+                getHitRate() * 100f, getMeanReadLatencyNanos() / 1000L,
+                mProviderOperationCount));
+    }
+
+    /**
+     * Brings {@link #mAlarms} up to date with the database.
+     *
+     * @return {@code true} if the database had to be queried
+     */
+    private boolean refreshAlarms() {
+        if (mAlarmsLoaded && mStaleAlarmIds.size() <= MAX_STALE_ROWS) {
+            if (mStaleAlarmIds.isEmpty()) {
+                return false;
+            }
+
+            for (Long alarmId : mStaleAlarmIds) {
+                mProviderOperationCount++;
+                final Alarm alarm = Alarm.getAlarm(mContentResolver, alarmId);
+                if (alarm == null) {
+                    mAlarms.remove(alarmId);
+                } else {
+                    mAlarms.put(alarmId, alarm);
+                }
+            }
+            mStaleAlarmIds.clear();
+            return true;
+        }
+
+        mAlarms.clear();
+        mStaleAlarmIds.clear();
+        mProviderOperationCount++;
+        for (Alarm alarm : Alarm.getAlarms(mContentResolver, null)) {
+            mAlarms.put(alarm.id, alarm);
+        }
+        mAlarmsLoaded = true;
+        return true;
+    }
+
+    /**
+     * Brings {@link #mInstances} up to date with the database.
+     *
+     * @return {@code true} if the database had to be queried
+     */
+    private boolean refreshInstances() {
+        if (mInstancesLoaded && mStaleInstanceIds.size() <= MAX_STALE_ROWS) {
+            if (mStaleInstanceIds.isEmpty()) {
+                return false;
+            }
+
+            for (Long instanceId : mStaleInstanceIds) {
+                mProviderOperationCount++;
+                final AlarmInstance instance =
+                        AlarmInstance.getInstance(mContentResolver, instanceId);
+                if (instance == null) {
+                    removeInstance(instanceId);
+                } else {
+                    putInstance(instance);
+                }
+            }
+            mStaleInstanceIds.clear();
+            return true;
+        }
+
+        mInstances.clear();
+        mUpcomingInstances.clear();
+        mStaleInstanceIds.clear();
+        mProviderOperationCount++;
+        for (AlarmInstance instance : AlarmInstance.getInstances(mContentResolver, null)) {
+            putInstance(instance);
+        }
+        mInstancesLoaded = true;
+        return true;
+    }
+
+    /**
+     * Stores the {@code instance} and keeps {@link #mUpcomingInstances} in step with its state.
+     */
+    private void putInstance(AlarmInstance instance) {
+        mInstances.put(instance.mId, instance);
+        if (instance.mAlarmState < AlarmInstance.FIRED_STATE) {
+            mUpcomingInstances.put(instance.mId, instance.getAlarmTime().getTimeInMillis());
+        } else {
+            mUpcomingInstances.remove(instance.mId);
+        }
+    }
+
+    private void removeInstance(long instanceId) {
+        mInstances.remove(instanceId);
+        mUpcomingInstances.remove(instanceId);
+    }
+
+    private void recordRead(long startNanos, boolean queried) {
+        if (queried) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        mReadNanos += System.nanoTime() - startNanos;
+    }
+
+    private void expectChange(Uri uri) {
+        final Integer count = mExpectedChanges.get(uri);
+        mExpectedChanges.put(uri, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * @return {@code true} if a change notification for the {@code uri} was expected
+     */
+    private boolean consumeExpectedChange(Uri uri) {
+        final Integer count = mExpectedChanges.get(uri);
+        if (count == null) {
+            return false;
+        }
+
+        if (count == 1) {
+            mExpectedChanges.remove(uri);
+        } else {
+            mExpectedChanges.put(uri, count - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Forces the table that holds the {@code uri} to be reloaded when it is next read.
+     */
+    private void invalidateTable(Uri uri) {
+        if (uri.getPathSegments().get(0).equals(Alarm.CONTENT_URI.getLastPathSegment())) {
+            mAlarmsLoaded = false;
+        } else {
+            mInstancesLoaded = false;
+        }
+    }
+
+    /**
+     * @return the row id named by the {@code uri}, or -1 if it names a whole table
+     */
+    private static long getRowId(Uri uri) {
+        return uri.getPathSegments().size() == 2 ? Long.parseLong(uri.getLastPathSegment()) : -1;
+    }
+
+    /**
+     * @return a copy of the {@code alarm} as it would be read back from the database
+     */
+    private static Alarm copyOf(Alarm alarm) {
+        final Alarm copy = new Alarm(alarm);
+        if (copy.alert == null) {
+            copy.alert = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
+        }
+        return copy;
+    }
+
+    /**
+     * @return a copy of the {@code instance} as it would be read back from the database
+     */
+    private static AlarmInstance copyOf(AlarmInstance instance) {
+        final AlarmInstance copy = new AlarmInstance(instance);
+        if (copy.mRingtone == null) {
+            copy.mRingtone = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
+        }
+        return copy;
+    }
+
+    /**
+     * Marks rows changed by other writers of the clock provider as stale. Notifications caused by
+     * writes made through this repository are ignored since the snapshot already reflects them.
+     */
+    private final class TableObserver extends ContentObserver {
+
+        private final boolean mAlarmsTable;
+
+        private TableObserver(boolean alarmsTable) {
+            super(null);
+            mAlarmsTable = alarmsTable;
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            synchronized (AlarmRepository.this) {
+                if (uri != null && consumeExpectedChange(uri)) {
+                    return;
+                }
+
+                final long rowId = uri == null ? -1 : getRowId(uri);
+                if (mAlarmsTable) {
+                    if (rowId == -1) {
+                        mAlarmsLoaded = false;
+                    } else {
+                        mStaleAlarmIds.add(rowId);
+                    }
+                } else {
+                    if (rowId == -1) {
+                        mInstancesLoaded = false;
+                    } else {
+                        mStaleInstanceIds.add(rowId);
+                    }
+                }
+            }
+        }
+    }
+}
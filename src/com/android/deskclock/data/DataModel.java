@@ -232,21 +232,25 @@ public final class DataModel {
     }
 
     /**
-     * Updates all timers and the stopwatch after the device has shutdown and restarted.
+     * Updates all timers and stopwatches after the device has shutdown and restarted.
      */
     public void updateAfterReboot() {
         enforceMainLooper();
         mTimerModel.updateTimersAfterReboot();
-        mStopwatchModel.setStopwatch(getStopwatch().updateAfterReboot());
+        for (Stopwatch stopwatch : mStopwatchModel.getStopwatches()) {
+            mStopwatchModel.setStopwatch(stopwatch.updateAfterReboot());
+        }
     }
 
     /**
-     * Updates all timers and the stopwatch after the device's time has changed.
+     * Updates all timers and stopwatches after the device's time has changed.
      */
     public void updateAfterTimeSet() {
         enforceMainLooper();
         mTimerModel.updateTimersAfterTimeSet();
-        mStopwatchModel.setStopwatch(getStopwatch().updateAfterTimeSet());
+        for (Stopwatch stopwatch : mStopwatchModel.getStopwatches()) {
+            mStopwatchModel.setStopwatch(stopwatch.updateAfterTimeSet());
+        }
     }
 
     /**
@@ -298,6 +302,11 @@ public final class DataModel {
             mTimerModel.updateMissedNotification();
             mStopwatchModel.updateNotification();
             mSilentSettingsModel.updateSilentState();
+
+            // A process in the background may be killed at any time.
+            if (!inForeground) {
+                mTimerModel.flush();
+            }
         }
     }
 
@@ -611,6 +620,45 @@ public final class DataModel {
         }
     }
 
+    /**
+     * Runs {@code batch}, which may make any number of timer changes through this data model, as
+     * a single change: the timers are persisted once, timer notifications and the expiration
+     * callback are updated once, and timer listeners receive a single
+     * {@link TimerListener#timersChanged} callback.
+     *
+     * @param batch the timer changes to make together
+     */
+    public void runTimerBatch(Runnable batch) {
+        enforceMainLooper();
+        mTimerModel.runBatch(batch);
+    }
+
+    /**
+     * Writes any timer changes still pending to permanent storage before returning, so that they
+     * survive the process being killed.
+     */
+    public void flushTimers() {
+        enforceMainLooper();
+        mTimerModel.flush();
+    }
+
+    /**
+     * @return the number of timer notifications posted to the system by this process
+     */
+    public long getTimerNotificationPostedCount() {
+        enforceMainLooper();
+        return mTimerModel.getNotificationPostedCount();
+    }
+
+    /**
+     * @return the number of timer notification updates this process skipped because they would
+     *      not have changed what the notification shows or were replaced by a later update
+     */
+    public long getTimerNotificationSuppressedCount() {
+        enforceMainLooper();
+        return mTimerModel.getNotificationSuppressedCount();
+    }
+
     /**
      * Updates the timer notifications to be current.
      */
@@ -756,35 +804,93 @@ public final class DataModel {
     }
 
     /**
-     * @return the current state of the stopwatch
+     * @return every stopwatch, ordered by id; the stopwatch shown on the stopwatch tab is first
+     */
+    public List<Stopwatch> getStopwatches() {
+        enforceMainLooper();
+        return mStopwatchModel.getStopwatches();
+    }
+
+    /**
+     * @return the current state of the stopwatch shown on the stopwatch tab
      */
     public Stopwatch getStopwatch() {
         enforceMainLooper();
         return mStopwatchModel.getStopwatch();
     }
 
+    /**
+     * @param id identifies the stopwatch to return
+     * @return the current state of the stopwatch with the given {@code id}; {@code null} if none
+     */
+    public Stopwatch getStopwatch(int id) {
+        enforceMainLooper();
+        return mStopwatchModel.getStopwatch(id);
+    }
+
+    /**
+     * @return a new reset stopwatch
+     */
+    public Stopwatch addStopwatch() {
+        enforceMainLooper();
+        return mStopwatchModel.addStopwatch();
+    }
+
+    /**
+     * @param stopwatch the stopwatch to be reset and removed; the stopwatch shown on the stopwatch
+     *      tab is only reset
+     */
+    public void removeStopwatch(Stopwatch stopwatch) {
+        enforceMainLooper();
+        mStopwatchModel.removeStopwatch(stopwatch);
+    }
+
     /**
      * @return the stopwatch after being started
      */
     public Stopwatch startStopwatch() {
+        return startStopwatch(getStopwatch());
+    }
+
+    /**
+     * @param stopwatch the stopwatch to be started
+     * @return the stopwatch after being started
+     */
+    public Stopwatch startStopwatch(Stopwatch stopwatch) {
         enforceMainLooper();
-        return mStopwatchModel.setStopwatch(getStopwatch().start());
+        return mStopwatchModel.setStopwatch(getCurrent(stopwatch).start());
     }
 
     /**
      * @return the stopwatch after being paused
      */
     public Stopwatch pauseStopwatch() {
+        return pauseStopwatch(getStopwatch());
+    }
+
+    /**
+     * @param stopwatch the stopwatch to be paused
+     * @return the stopwatch after being paused
+     */
+    public Stopwatch pauseStopwatch(Stopwatch stopwatch) {
         enforceMainLooper();
-        return mStopwatchModel.setStopwatch(getStopwatch().pause());
+        return mStopwatchModel.setStopwatch(getCurrent(stopwatch).pause());
     }
 
     /**
      * @return the stopwatch after being reset
      */
     public Stopwatch resetStopwatch() {
+        return resetStopwatch(getStopwatch());
+    }
+
+    /**
+     * @param stopwatch the stopwatch to be reset
+     * @return the stopwatch after being reset
+     */
+    public Stopwatch resetStopwatch(Stopwatch stopwatch) {
         enforceMainLooper();
-        return mStopwatchModel.setStopwatch(getStopwatch().reset());
+        return mStopwatchModel.setStopwatch(getCurrent(stopwatch).reset());
     }
 
     /**
@@ -792,23 +898,91 @@ public final class DataModel {
      */
     public List<Lap> getLaps() {
         enforceMainLooper();
-        return mStopwatchModel.getLaps();
+        return mStopwatchModel.getLaps(Stopwatch.DEFAULT_ID);
     }
 
     /**
-     * @return a newly recorded lap completed now; {@code null} if no more laps can be added
+     * @return the laps recorded for the given {@code stopwatch}
      */
-    public Lap addLap() {
+    public List<Lap> getLaps(Stopwatch stopwatch) {
+        enforceMainLooper();
+        return mStopwatchModel.getLaps(stopwatch.getId());
+    }
+
+    /**
+     * @return the number of laps recorded for this stopwatch
+     */
+    public int getLapCount() {
+        enforceMainLooper();
+        return mStopwatchModel.getLapCount(Stopwatch.DEFAULT_ID);
+    }
+
+    /**
+     * @return the number of laps recorded for the given {@code stopwatch}
+     */
+    public int getLapCount(Stopwatch stopwatch) {
+        enforceMainLooper();
+        return mStopwatchModel.getLapCount(stopwatch.getId());
+    }
+
+    /**
+     * @param lapNumber the 1-based number of a recorded lap
+     * @return the accumulated stopwatch time at the end of the lap
+     */
+    public long getLapAccumulatedTime(int lapNumber) {
+        enforceMainLooper();
+        return mStopwatchModel.getLapAccumulatedTime(Stopwatch.DEFAULT_ID, lapNumber);
+    }
+
+    /**
+     * @return a copy of the accumulated stopwatch time at the end of each recorded lap, in the
+     *      order recorded; safe to hand to a background thread
+     */
+    public long[] getLapAccumulatedTimes() {
+        enforceMainLooper();
+        return mStopwatchModel.getLapAccumulatedTimes(Stopwatch.DEFAULT_ID);
+    }
+
+    /**
+     * @param lapNumber the 1-based number of a recorded lap
+     * @return the time elapsed during the lap
+     */
+    public long getLapTime(int lapNumber) {
+        enforceMainLooper();
+        return mStopwatchModel.getLapTime(Stopwatch.DEFAULT_ID, lapNumber);
+    }
+
+    /**
+     * @return statistics of the recorded laps, excluding the current lap; updated in place as laps
+     *      are recorded and cleared
+     */
+    public LapStatistics getLapStatistics() {
+        return getLapStatistics(getStopwatch());
+    }
+
+    /**
+     * @return statistics of the laps recorded for the given {@code stopwatch}, excluding the
+     *      current lap; updated in place as laps are recorded and cleared
+     */
+    public LapStatistics getLapStatistics(Stopwatch stopwatch) {
         enforceMainLooper();
-        return mStopwatchModel.addLap();
+        return mStopwatchModel.getLapStatistics(stopwatch.getId());
     }
 
     /**
-     * @return {@code true} iff more laps can be recorded
+     * @return a newly recorded lap completed now; {@code null} if the stopwatch is not running
      */
-    public boolean canAddMoreLaps() {
+    public Lap addLap() {
+        return addLap(getStopwatch());
+    }
+
+    /**
+     * @param stopwatch the stopwatch on which to record a lap
+     * @return a newly recorded lap completed now; {@code null} if the stopwatch is not running
+     */
+    public Lap addLap(Stopwatch stopwatch) {
         enforceMainLooper();
-        return mStopwatchModel.canAddMoreLaps();
+        return mStopwatchModel.addLap(stopwatch.getId());
     }
 
     /**
@@ -816,7 +990,7 @@ public final class DataModel {
      */
     public long getLongestLapTime() {
         enforceMainLooper();
-        return mStopwatchModel.getLongestLapTime();
+        return mStopwatchModel.getLongestLapTime(Stopwatch.DEFAULT_ID);
     }
 
     /**
@@ -825,7 +999,20 @@ public final class DataModel {
      */
     public long getCurrentLapTime(long time) {
         enforceMainLooper();
-        return mStopwatchModel.getCurrentLapTime(time);
+        return mStopwatchModel.getCurrentLapTime(Stopwatch.DEFAULT_ID, time);
+    }
+
+    /**
+     * @return the current state of the given {@code stopwatch}, which may have changed since it was
+     *      obtained
+     * @throws IllegalArgumentException if the stopwatch has been removed
+     */
+    private Stopwatch getCurrent(Stopwatch stopwatch) {
+        final Stopwatch current = mStopwatchModel.getStopwatch(stopwatch.getId());
+        if (current == null) {
+            throw new IllegalArgumentException("Unknown stopwatch: " + stopwatch.getId());
+        }
+        return current;
     }
 
     //
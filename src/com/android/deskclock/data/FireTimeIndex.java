@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A binary min-heap of ids ordered by fire time, used for both alarm instances and running timers.
+ * Each id appears at most once, so an entry may be added, moved to a new fire time, or removed in
+ * O(log n) time; the entry that fires earliest is always available in O(1) time.
+ */
+final class FireTimeIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Fire time of the instance at each heap position. */
+    private long[] mFireTimes = new long[INITIAL_CAPACITY];
+
+    /** Id of the instance at each heap position. */
+    private long[] mInstanceIds = new long[INITIAL_CAPACITY];
+
+    /** Maps each instance id to its current heap position. */
+    private final Map<Long, Integer> mPositions = new HashMap<>();
+
+    /** Number of instances in the heap. */
+    private int mSize;
+
+    /**
+     * Adds the instance with the given id, or moves it if it is already present.
+     *
+     * @param instanceId identifies the alarm instance or timer
+     * @param fireTime the time at which the entry fires, in the time base of all entries
+     */
+    void put(long instanceId, long fireTime) {
+        final Integer position = mPositions.get(instanceId);
+        if (position != null) {
+            final long oldFireTime = mFireTimes[position];
+            mFireTimes[position] = fireTime;
+            if (fireTime < oldFireTime) {
+                siftUp(position);
+            } else if (fireTime > oldFireTime) {
+                siftDown(position);
+            }
+            return;
+        }
+
+        if (mSize == mFireTimes.length) {
+            mFireTimes = Arrays.copyOf(mFireTimes, mSize * 2);
+            mInstanceIds = Arrays.copyOf(mInstanceIds, mSize * 2);
+        }
+        mFireTimes[mSize] = fireTime;
+        mInstanceIds[mSize] = instanceId;
+        mPositions.put(instanceId, mSize);
+        siftUp(mSize++);
+    }
+
+    /**
+     * Removes the instance with the given id if it is present.
+     */
+    void remove(long instanceId) {
+        final Integer position = mPositions.remove(instanceId);
+        if (position == null) {
+            return;
+        }
+
+        final int last = --mSize;
+        if (position == last) {
+            return;
+        }
+
+        // Fill the hole with the last entry and restore the heap property around it.
+        final long fireTime = mFireTimes[position];
+        move(last, position);
+        if (mFireTimes[position] < fireTime) {
+            siftUp(position);
+        } else {
+            siftDown(position);
+        }
+    }
+
+    void clear() {
+        mPositions.clear();
+        mSize = 0;
+    }
+
+    /**
+     * @return the id of the instance that fires earliest, or -1 if there are no instances
+     */
+    long peek() {
+        return mSize == 0 ? -1 : mInstanceIds[0];
+    }
+
+    private void siftUp(int position) {
+        final long fireTime = mFireTimes[position];
+        final long instanceId = mInstanceIds[position];
+        while (position > 0) {
+            final int parent = (position - 1) >>> 1;
+            if (mFireTimes[parent] <= fireTime) {
+                break;
+            }
+            move(parent, position);
+            position = parent;
+        }
+        place(instanceId, fireTime, position);
+    }
+
+    private void siftDown(int position) {
+        final long fireTime = mFireTimes[position];
+        final long instanceId = mInstanceIds[position];
+        final int half = mSize >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            final int right = child + 1;
+            if (right < mSize && mFireTimes[right] < mFireTimes[child]) {
+                child = right;
+            }
+            if (fireTime <= mFireTimes[child]) {
+                break;
+            }
+            move(child, position);
+            position = child;
+        }
+        place(instanceId, fireTime, position);
+    }
+
+    private void move(int from, int to) {
+        place(mInstanceIds[from], mFireTimes[from], to);
+    }
+
+    private void place(long instanceId, long fireTime, int position) {
+        mFireTimes[position] = fireTime;
+        mInstanceIds[position] = instanceId;
+        mPositions.put(instanceId, position);
+    }
+}
@@ -21,6 +21,9 @@ package com.android.deskclock.data;
  */
 public final class Lap {
 
+    /** The id of the stopwatch on which the lap was recorded. */
+    private final int mStopwatchId;
+
     /** The 1-based position of the lap. */
     private final int mLapNumber;
 
@@ -30,12 +33,14 @@ public final class Lap {
     /** Elapsed time in ms accumulated for all laps up to and including this one. */
     private final long mAccumulatedTime;
 
-    Lap(int lapNumber, long lapTime, long accumulatedTime) {
+    Lap(int stopwatchId, int lapNumber, long lapTime, long accumulatedTime) {
+        mStopwatchId = stopwatchId;
         mLapNumber = lapNumber;
         mLapTime = lapTime;
         mAccumulatedTime = accumulatedTime;
     }
 
+    public int getStopwatchId() { return mStopwatchId; }
     public int getLapNumber() { return mLapNumber; }
     public long getLapTime() { return mLapTime; }
     public long getAccumulatedTime() { return mAccumulatedTime; }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.data;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+/**
+ * An append-only log of the accumulated stopwatch time at the end of each lap, kept in a
+ * memory-mapped {@link MappedStore}.
+ *
+ * <p>The file holds a header followed by one {@code long} per lap in the order the laps were
+ * recorded. Appending a lap stores the time and then the new count directly into the mapping, so
+ * no system call is made unless the mapping must grow, which doubles its capacity. Reading a lap
+ * reads the mapping in place; nothing is copied when the log is opened. Clearing the log resets
+ * the count and truncates the file.</p>
+ *
+ * <p>If the file cannot be mapped, the log falls back to memory so the stopwatch keeps working
+ * for the life of the process.</p>
+ */
+final class LapLog {
+
+    /** Identifies a lap log file: the characters "LAPS". */
+    private static final int MAGIC = 0x4c415053;
+
+    /** Version of the lap log file format. */
+    private static final int VERSION = 1;
+
+    /** Number of laps the file has room for when it is created or cleared. */
+    private static final int INITIAL_CAPACITY = 512;
+
+    private final MappedStore mStore;
+
+    /** Number of laps recorded; -1 until the log is first opened. */
+    private int mCount = -1;
+
+    /**
+     * @param file the file holding the log; created on first use if missing
+     */
+    LapLog(File file) {
+        mStore = new MappedStore(file, MAGIC, VERSION, 8, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @return {@code true} if the log file exists; a missing file has never been written
+     */
+    boolean exists() {
+        return mStore.exists();
+    }
+
+    /**
+     * @return the number of laps recorded
+     */
+    int size() {
+        if (mCount == -1) {
+            mCount = Math.min(Math.max(0, mStore.getCount()), mStore.getCapacity());
+        }
+        return mCount;
+    }
+
+    /**
+     * @param index the 0-based position of the lap in the order it was recorded
+     * @return the accumulated stopwatch time at the end of the lap
+     */
+    long get(int index) {
+        final int count = size();
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index + " of " + count);
+        }
+        return mStore.getBuffer().getLong(mStore.getOffset(index));
+    }
+
+    /**
+     * @return a copy of the accumulated time of every lap in the order recorded, read from the
+     *      mapping in a single bulk transfer
+     */
+    long[] toArray() {
+        final long[] times = new long[size()];
+        final ByteBuffer laps = mStore.getBuffer().duplicate();
+        laps.position(mStore.getOffset(0));
+        laps.asLongBuffer().get(times);
+        return times;
+    }
+
+    /**
+     * @param accumulatedTime the accumulated stopwatch time at the end of the new lap
+     */
+    void append(long accumulatedTime) {
+        final int count = size();
+        mStore.ensureCapacity(count + 1);
+
+        // The time is in place before the count makes it visible.
+        mStore.getBuffer().putLong(mStore.getOffset(count), accumulatedTime);
+        mCount = count + 1;
+        mStore.setCount(mCount);
+    }
+
+    /**
+     * Removes every lap and returns the file to its initial size.
+     */
+    void clear() {
+        mStore.clear();
+        mCount = 0;
+    }
+
+    /**
+     * Writes every lap in the mapping through to the file.
+     *
+     * @return {@code true} if the laps are held in the file; {@code false} if only in memory
+     */
+    boolean flush() {
+        return mStore.flush();
+    }
+
+    /**
+     * Removes every lap along with the file holding them.
+     */
+    void delete() {
+        mStore.delete();
+        mCount = -1;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.data;
+
+/**
+ * Running statistics over the times of the recorded stopwatch laps. Each lap updates them in
+ * constant time, so they never require a scan of the laps; the mean and variance are maintained
+ * with Welford's method, which stays accurate over many laps.
+ */
+public final class LapStatistics {
+
+    /** Number of laps included. */
+    private int mCount;
+
+    /** Longest lap time; 0 if no laps are included. */
+    private long mLongest;
+
+    /** Shortest lap time; 0 if no laps are included. */
+    private long mShortest;
+
+    /** Mean lap time. */
+    private double mMean;
+
+    /** Sum of squared differences from the mean. */
+    private double mSquaredDeviations;
+
+    LapStatistics() {}
+
+    public int getCount() { return mCount; }
+    public long getLongestLapTime() { return mLongest; }
+    public long getShortestLapTime() { return mShortest; }
+    public double getMeanLapTime() { return mMean; }
+
+    /**
+     * @return the population standard deviation of the lap times; 0 for fewer than two laps
+     */
+    public double getStandardDeviation() {
+        return mCount < 2 ? 0 : Math.sqrt(mSquaredDeviations / mCount);
+    }
+
+    /**
+     * @param lapTime the time of a newly recorded lap
+     */
+    void add(long lapTime) {
+        mCount++;
+        if (mCount == 1) {
+            mLongest = lapTime;
+            mShortest = lapTime;
+        } else {
+            mLongest = Math.max(mLongest, lapTime);
+            mShortest = Math.min(mShortest, lapTime);
+        }
+
+        final double delta = lapTime - mMean;
+        mMean += delta / mCount;
+        mSquaredDeviations += delta * (lapTime - mMean);
+    }
+
+    /**
+     * Removes every lap.
+     */
+    void clear() {
+        mCount = 0;
+        mLongest = 0;
+        mShortest = 0;
+        mMean = 0;
+        mSquaredDeviations = 0;
+    }
+}
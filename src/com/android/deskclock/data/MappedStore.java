@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.data;
+
+import com.android.deskclock.LogUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A memory-mapped file holding a header followed by an array of fixed-size records. Records are
+ * read and written in place through {@link #getBuffer()}, so no system call is made unless the
+ * mapping must grow, which doubles its capacity.
+ *
+ * <p>The header holds a magic number identifying the kind of file, its format version and a
+ * record count whose meaning belongs to the owner. A file with a different magic number or version
+ * is discarded when opened. If the file cannot be mapped, the store falls back to memory so its
+ * owner keeps working for the life of the process.</p>
+ */
+final class MappedStore {
+
+    /** Size of the header: magic, version, count, reserved. */
+    static final int HEADER_SIZE = 16;
+
+    /** Offset of the record count within the header. */
+    private static final int COUNT_OFFSET = 8;
+
+    private final File mFile;
+    private final int mMagic;
+    private final int mVersion;
+    private final int mRecordSize;
+
+    /** Number of records the file has room for when it is created or cleared. */
+    private final int mInitialCapacity;
+
+    /** The open file; {@code null} if the store is held in memory only. */
+    private FileChannel mChannel;
+
+    /** The mapped header and records; {@code null} until first opened. */
+    private ByteBuffer mBuffer;
+
+    /** Number of records the current mapping has room for. */
+    private int mCapacity;
+
+    /**
+     * @param file the file holding the store; created on first use if missing
+     * @param magic identifies files of this kind
+     * @param version the format of the records
+     * @param recordSize the size of each record in bytes
+     * @param initialCapacity the number of records the file has room for when created
+     */
+    MappedStore(File file, int magic, int version, int recordSize, int initialCapacity) {
+        mFile = file;
+        mMagic = magic;
+        mVersion = version;
+        mRecordSize = recordSize;
+        mInitialCapacity = initialCapacity;
+    }
+
+    /**
+     * @return {@code true} if the file exists; a missing file has never been written
+     */
+    boolean exists() {
+        return mBuffer != null || mFile.exists();
+    }
+
+    /**
+     * @return the header and records, opening the file on first use; records start at
+     *      {@link #getOffset}
+     */
+    ByteBuffer getBuffer() {
+        open();
+        return mBuffer;
+    }
+
+    /**
+     * @return the byte offset of the record at {@code index} within {@link #getBuffer()}
+     */
+    int getOffset(int index) {
+        return HEADER_SIZE + index * mRecordSize;
+    }
+
+    /**
+     * @return the record count stored in the header
+     */
+    int getCount() {
+        open();
+        return mBuffer.getInt(COUNT_OFFSET);
+    }
+
+    /**
+     * @param count the record count to store in the header
+     */
+    void setCount(int count) {
+        open();
+        mBuffer.putInt(COUNT_OFFSET, count);
+    }
+
+    /**
+     * @return the number of records the current mapping has room for
+     */
+    int getCapacity() {
+        open();
+        return mCapacity;
+    }
+
+    /**
+     * Grows the mapping, doubling its capacity as often as needed, until it has room for
+     * {@code capacity} records. Buffers previously returned by {@link #getBuffer()} are stale
+     * afterwards.
+     */
+    void ensureCapacity(int capacity) {
+        open();
+        int newCapacity = mCapacity;
+        while (newCapacity < capacity) {
+            newCapacity *= 2;
+        }
+        if (newCapacity != mCapacity) {
+            map(newCapacity);
+        }
+    }
+
+    /**
+     * Sets the count to 0 and returns the file to its initial size.
+     */
+    void clear() {
+        open();
+        mBuffer.putInt(COUNT_OFFSET, 0);
+        if (mCapacity == mInitialCapacity) {
+            return;
+        }
+
+        if (mChannel != null) {
+            try {
+                // Drop the larger mapping before shrinking the file beneath it.
+                mBuffer = null;
+                mChannel.truncate(getOffset(mInitialCapacity));
+            } catch (IOException e) {
+                LogUtils.e("Unable to truncate " + mFile.getName(), e);
+            }
+        }
+        map(mInitialCapacity);
+    }
+
+    /**
+     * Writes the mapping through to the file.
+     *
+     * @return {@code true} if the records are held in the file; {@code false} if only in memory
+     */
+    boolean flush() {
+        if (mChannel == null || !(mBuffer instanceof MappedByteBuffer)) {
+            return false;
+        }
+        ((MappedByteBuffer) mBuffer).force();
+        return true;
+    }
+
+    /**
+     * Closes and removes the file. The store is recreated, empty, if it is used again.
+     */
+    void delete() {
+        mBuffer = null;
+        closeChannel();
+        if (mFile.exists() && !mFile.delete()) {
+            LogUtils.e("Unable to delete " + mFile.getName());
+        }
+    }
+
+    private void open() {
+        if (mBuffer != null) {
+            return;
+        }
+
+        try {
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+            final long size = mChannel.size();
+            final boolean created = size < HEADER_SIZE;
+            final int capacity = created ? mInitialCapacity
+                    : Math.max(mInitialCapacity, (int) ((size - HEADER_SIZE) / mRecordSize));
+            map(capacity);
+
+            if (created || mBuffer.getInt(0) != mMagic || mBuffer.getInt(4) != mVersion) {
+                if (!created) {
+                    LogUtils.e("Unrecognized format of " + mFile.getName() + "; discarding it");
+                }
+                mBuffer.putInt(0, mMagic).putInt(4, mVersion).putInt(COUNT_OFFSET, 0);
+            }
+        } catch (IOException e) {
+            LogUtils.e("Unable to map " + mFile.getName() + "; changes will not be saved", e);
+            closeChannel();
+            mBuffer = ByteBuffer.allocate(getOffset(mInitialCapacity));
+            mBuffer.putInt(0, mMagic).putInt(4, mVersion);
+            mCapacity = mInitialCapacity;
+        }
+    }
+
+    /**
+     * Replaces the mapping with one that has room for {@code capacity} records, growing the file
+     * as needed. Falls back to memory if the file cannot be mapped.
+     */
+    private void map(int capacity) {
+        final ByteBuffer previous = mBuffer;
+        if (mChannel != null) {
+            try {
+                mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        HEADER_SIZE + (long) capacity * mRecordSize);
+                mCapacity = capacity;
+                return;
+            } catch (IOException e) {
+                LogUtils.e("Unable to grow " + mFile.getName() + "; changes will not be saved", e);
+                closeChannel();
+            }
+        }
+
+        // Continue in memory, keeping the records written so far.
+        final ByteBuffer buffer = ByteBuffer.allocate(getOffset(capacity));
+        if (previous != null) {
+            final ByteBuffer source = previous.duplicate();
+            source.clear();
+            source.limit(Math.min(source.capacity(), buffer.capacity()));
+            buffer.put(source);
+        }
+        mBuffer = buffer;
+        mCapacity = capacity;
+    }
+
+    private void closeChannel() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException ignored) {
+            }
+            mChannel = null;
+        }
+    }
+}
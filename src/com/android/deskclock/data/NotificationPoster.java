@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.data;
+
+import android.app.Notification;
+import android.app.Service;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationManagerCompat;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+/**
+ * Posts notifications on behalf of a model, skipping posts that would not change what is shown and
+ * merging bursts of posts to the same notification into one per frame.
+ *
+ * <p>Callers describe the visible content of a notification with a compact content key and ask
+ * {@link #isChanged} before building the notification; only when the key differs from the one last
+ * posted is the notification built and handed to {@link #notify}. A {@code null} key is never equal
+ * to anything, so notifications whose content cannot be summarized are always posted. All methods
+ * must be called on the main thread.</p>
+ */
+final class NotificationPoster {
+
+    /** Posts to the same notification closer together than this are merged into one. */
+    private static final long MIN_POST_INTERVAL_MILLIS = 16;
+
+    /** Recorded as the content key of notifications that were canceled. */
+    private static final String CANCELED = "canceled";
+
+    private final NotificationManagerCompat mNotificationManager;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** The state of each notification this poster has posted or canceled, by notification id. */
+    private final SparseArray<PostedNotification> mNotifications = new SparseArray<>();
+
+    /** Number of notifications handed to the system. */
+    private long mPostedCount;
+
+    /** Number of posts skipped because the content key was unchanged. */
+    private long mUnchangedCount;
+
+    /** Number of posts replaced by a later post to the same notification within a frame. */
+    private long mCoalescedCount;
+
+    NotificationPoster(NotificationManagerCompat notificationManager) {
+        mNotificationManager = notificationManager;
+    }
+
+    /**
+     * Records {@code contentKey} as the content of the notification if it differs from the content
+     * last recorded. A caller that receives {@code true} must go on to post the notification.
+     *
+     * @return {@code true} if the notification must be posted; {@code false} if it already shows
+     *      the described content
+     */
+    boolean isChanged(int notificationId, String contentKey) {
+        final PostedNotification posted = getPostedNotification(notificationId);
+        if (contentKey != null && TextUtils.equals(contentKey, posted.mContentKey)) {
+            mUnchangedCount++;
+            return false;
+        }
+        posted.mContentKey = contentKey;
+        return true;
+    }
+
+    /**
+     * Posts the notification now if it was not posted within the last frame; otherwise posts it
+     * at the end of the frame unless it is replaced by a later post first.
+     */
+    void notify(int notificationId, Notification notification) {
+        final PostedNotification posted = getPostedNotification(notificationId);
+        if (posted.mPending != null) {
+            // The pending post has not reached the system yet; replace it.
+            posted.mPending = notification;
+            mCoalescedCount++;
+            return;
+        }
+
+        final long now = SystemClock.uptimeMillis();
+        final long postTime = posted.mLastPostTime + MIN_POST_INTERVAL_MILLIS;
+        if (postTime <= now) {
+            post(posted, notification, now);
+        } else {
+            posted.mPending = notification;
+            mHandler.postAtTime(posted, postTime);
+        }
+    }
+
+    /**
+     * Posts the notification immediately as the foreground notification of the {@code service}.
+     * Foreground notifications are never delayed; the service must show it promptly.
+     */
+    void startForeground(Service service, int notificationId, Notification notification) {
+        service.startForeground(notificationId, notification);
+        mPostedCount++;
+    }
+
+    /**
+     * Cancels the notification along with any pending post of it. Repeated cancellations are not
+     * sent to the system.
+     */
+    void cancel(int notificationId) {
+        final PostedNotification posted = getPostedNotification(notificationId);
+        if (posted.mPending != null) {
+            mHandler.removeCallbacks(posted);
+            posted.mPending = null;
+        }
+        if (posted.mContentKey != CANCELED) {
+            posted.mContentKey = CANCELED;
+            mNotificationManager.cancel(notificationId);
+        }
+    }
+
+    /**
+     * Forgets the content of the notification, e.g. because it was removed by other means; the
+     * next post of it is not skipped.
+     */
+    void forget(int notificationId) {
+        final PostedNotification posted = mNotifications.get(notificationId);
+        if (posted != null) {
+            posted.mContentKey = null;
+        }
+    }
+
+    /**
+     * Forgets the content of every notification, e.g. because the text they would show changed
+     * with the locale.
+     */
+    void forgetAll() {
+        for (int i = 0; i < mNotifications.size(); i++) {
+            mNotifications.valueAt(i).mContentKey = null;
+        }
+    }
+
+    /**
+     * @return the number of notifications handed to the system
+     */
+    long getPostedCount() {
+        return mPostedCount;
+    }
+
+    /**
+     * @return the number of posts skipped because nothing visible changed or because they were
+     *      replaced by a later post within the same frame
+     */
+    long getSuppressedCount() {
+        return mUnchangedCount + mCoalescedCount;
+    }
+
+    private PostedNotification getPostedNotification(int notificationId) {
+        PostedNotification posted = mNotifications.get(notificationId);
+        if (posted == null) {
+            posted = new PostedNotification(notificationId);
+            mNotifications.put(notificationId, posted);
+        }
+        return posted;
+    }
+
+    private void post(PostedNotification posted, Notification notification, long now) {
+        posted.mLastPostTime = now;
+        mNotificationManager.notify(posted.mNotificationId, notification);
+        mPostedCount++;
+    }
+
+    /**
+     * The posting state of a single notification; runs as its own deferred post.
+     */
+    private final class PostedNotification implements Runnable {
+
+        private final int mNotificationId;
+
+        /** Describes the content last posted, {@link #CANCELED}, or {@code null} if unknown. */
+        private String mContentKey;
+
+        /** The uptime at which the notification was last handed to the system. */
+        private long mLastPostTime = Long.MIN_VALUE / 2;
+
+        /** The notification waiting for the end of the frame, if any. */
+        private Notification mPending;
+
+        private PostedNotification(int notificationId) {
+            mNotificationId = notificationId;
+        }
+
+        @Override
+        public void run() {
+            final Notification notification = mPending;
+            mPending = null;
+            if (notification != null) {
+                post(this, notification, SystemClock.uptimeMillis());
+            }
+        }
+    }
+}
@@ -16,137 +16,390 @@
 
 package com.android.deskclock.data;
 
+import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
 
+import com.android.deskclock.LogUtils;
+import com.android.deskclock.Utils;
 import com.android.deskclock.data.Stopwatch.State;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import static com.android.deskclock.data.Stopwatch.State.RESET;
 
 /**
  * This class encapsulates the transfer of data between {@link Stopwatch} and {@link Lap} domain
- * objects and their permanent storage in {@link SharedPreferences}.
+ * objects and their permanent storage. Stopwatches are stored as fixed-size records in a
+ * memory-mapped {@link MappedStore}, one record per stopwatch at the index equal to its id, so
+ * each stopwatch is read and written in place in constant time. The laps of each stopwatch are
+ * stored in a memory-mapped {@link LapLog} of their own.
+ *
+ * <p>The stopwatch and its laps were previously stored as individual preference keys. Those keys
+ * are migrated into the default stopwatch the first time its storage is found to be missing, and
+ * then removed.</p>
  */
 final class StopwatchDAO {
 
-    /** Key to a preference that stores the state of the stopwatch. */
+    /** Name of the stopwatch store within the files directory of the storage context. */
+    private static final String STOPWATCH_FILE_NAME = "stopwatches.dat";
+
+    /** Name of the lap log of the default stopwatch within the files directory. */
+    private static final String LAP_LOG_FILE_NAME = "stopwatch_laps.log";
+
+    /** Prefix of the name of the lap log of every other stopwatch; the id follows. */
+    private static final String LAP_LOG_FILE_PREFIX = "stopwatch_laps_";
+
+    /** Identifies a stopwatch store file: the characters "SWCH". */
+    private static final int MAGIC = 0x53574348;
+
+    /** Version of the stopwatch store file format. */
+    private static final int VERSION = 1;
+
+    /** Size of a record: state, reserved, last start time, last wall clock time, accumulated. */
+    private static final int RECORD_SIZE = 32;
+
+    /** Offsets of the fields within a record. */
+    private static final int STATE_OFFSET = 0;
+    private static final int LAST_START_TIME_OFFSET = 8;
+    private static final int LAST_WALL_CLOCK_TIME_OFFSET = 16;
+    private static final int ACCUMULATED_TIME_OFFSET = 24;
+
+    /** Number of stopwatches the file has room for when it is created. */
+    private static final int INITIAL_CAPACITY = 8;
+
+    /** Stored in place of the state of an unused record; states are stored as ordinal + 1. */
+    private static final int FREE = 0;
+
+    /** Key to a legacy preference that stores the state of the stopwatch. */
     private static final String STATE = "sw_state";
 
-    /** Key to a preference that stores the last start time of the stopwatch. */
+    /** Key to a legacy preference that stores the last start time of the stopwatch. */
     private static final String LAST_START_TIME = "sw_start_time";
 
-    /** Key to a preference that stores the epoch time when the stopwatch last started. */
+    /** Key to a legacy preference that stores the epoch time when the stopwatch last started. */
     private static final String LAST_WALL_CLOCK_TIME = "sw_wall_clock_time";
 
-    /** Key to a preference that stores the accumulated elapsed time of the stopwatch. */
+    /** Key to a legacy preference that stores the accumulated elapsed time of the stopwatch. */
     private static final String ACCUMULATED_TIME = "sw_accum_time";
 
-    /** Prefix for a key to a preference that stores the number of recorded laps. */
+    /** Key to a legacy preference that stores the number of recorded laps. */
     private static final String LAP_COUNT = "sw_lap_num";
 
-    /** Prefix for a key to a preference that stores accumulated time at the end of a lap. */
+    /** Prefix for a key to a legacy preference that stores accumulated time at the end of a lap. */
     private static final String LAP_ACCUMULATED_TIME = "sw_lap_time_";
 
-    private StopwatchDAO() {}
+    private final SharedPreferences mPrefs;
+
+    /** The directory holding the stopwatch store and lap logs. */
+    private final File mFilesDir;
+
+    /** The stopwatch records, one per id; the count in its header is the number of records. */
+    private final MappedStore mStore;
+
+    /** The lap log of each stopwatch, by id; {@code null} until first used. */
+    private final List<LapLog> mLapLogs = new ArrayList<>();
+
+    /** {@code true} once the legacy stopwatch has been migrated, or found not to exist. */
+    private boolean mStopwatchMigrated;
+
+    /** {@code true} once legacy laps have been migrated, or found not to exist. */
+    private boolean mLapsMigrated;
+
+    StopwatchDAO(Context context, SharedPreferences prefs) {
+        mPrefs = prefs;
+        mFilesDir = getStorageContext(context).getFilesDir();
+        mStore = new MappedStore(new File(mFilesDir, STOPWATCH_FILE_NAME), MAGIC, VERSION,
+                RECORD_SIZE, INITIAL_CAPACITY);
+    }
 
     /**
-     * @return the stopwatch from permanent storage or a reset stopwatch if none exists
+     * @return every stopwatch from permanent storage, indexed by id; unused ids hold {@code null}.
+     *      The default stopwatch always exists.
      */
-    static Stopwatch getStopwatch(SharedPreferences prefs) {
-        final int stateIndex = prefs.getInt(STATE, RESET.ordinal());
-        final State state = State.values()[stateIndex];
-        final long lastStartTime = prefs.getLong(LAST_START_TIME, Stopwatch.UNUSED);
-        final long lastWallClockTime = prefs.getLong(LAST_WALL_CLOCK_TIME, Stopwatch.UNUSED);
-        final long accumulatedTime = prefs.getLong(ACCUMULATED_TIME, 0);
-        Stopwatch s = new Stopwatch(state, lastStartTime, lastWallClockTime, accumulatedTime);
+    List<Stopwatch> getStopwatches() {
+        final int count = getRecordCount();
+        final ByteBuffer buffer = mStore.getBuffer();
+        final List<Stopwatch> stopwatches = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            final int offset = mStore.getOffset(id);
+            final int stateValue = buffer.getInt(offset + STATE_OFFSET);
+            if (stateValue == FREE || stateValue > State.values().length) {
+                stopwatches.add(null);
+                continue;
+            }
+
+            final State state = State.values()[stateValue - 1];
+            final long lastStartTime = buffer.getLong(offset + LAST_START_TIME_OFFSET);
+            final long lastWallClockTime = buffer.getLong(offset + LAST_WALL_CLOCK_TIME_OFFSET);
+            final long accumulatedTime = buffer.getLong(offset + ACCUMULATED_TIME_OFFSET);
+            Stopwatch s =
+                    new Stopwatch(id, state, lastStartTime, lastWallClockTime, accumulatedTime);
 
-        // If the stopwatch reports an illegal (negative) amount of time, remove the bad data.
-        if (s.getTotalTime() < 0) {
-            s = s.reset();
-            setStopwatch(prefs, s);
+            // If the stopwatch reports an illegal (negative) amount of time, remove the bad data.
+            if (s.getTotalTime() < 0) {
+                s = s.reset();
+                setStopwatch(s);
+            }
+            stopwatches.add(s);
         }
-        return s;
+        return stopwatches;
     }
 
     /**
-     * @param stopwatch the last state of the stopwatch
+     * @param stopwatch the last state of the stopwatch, written in place
      */
-    static void setStopwatch(SharedPreferences prefs, Stopwatch stopwatch) {
-        final SharedPreferences.Editor editor = prefs.edit();
+    void setStopwatch(Stopwatch stopwatch) {
+        getRecordCount();
+        writeRecord(stopwatch.getId(), stopwatch.getState().ordinal() + 1,
+                stopwatch.getLastStartTime(), stopwatch.getLastWallClockTime(),
+                stopwatch.getAccumulatedTime());
+    }
 
-        if (stopwatch.isReset()) {
-            editor.remove(STATE)
-                    .remove(LAST_START_TIME)
-                    .remove(LAST_WALL_CLOCK_TIME)
-                    .remove(ACCUMULATED_TIME);
-        } else {
-            editor.putInt(STATE, stopwatch.getState().ordinal())
-                    .putLong(LAST_START_TIME, stopwatch.getLastStartTime())
-                    .putLong(LAST_WALL_CLOCK_TIME, stopwatch.getLastWallClockTime())
-                    .putLong(ACCUMULATED_TIME, stopwatch.getAccumulatedTime());
+    /**
+     * @return a new reset stopwatch stored at the lowest unused id
+     */
+    Stopwatch addStopwatch() {
+        final int count = getRecordCount();
+        final ByteBuffer buffer = mStore.getBuffer();
+        int id = 1;
+        while (id < count && buffer.getInt(mStore.getOffset(id) + STATE_OFFSET) != FREE) {
+            id++;
         }
 
-        editor.apply();
+        if (id == count) {
+            mStore.ensureCapacity(count + 1);
+        }
+        final Stopwatch stopwatch = new Stopwatch(id, RESET, Stopwatch.UNUSED, Stopwatch.UNUSED, 0);
+        setStopwatch(stopwatch);
+        if (id == count) {
+            mStore.setCount(count + 1);
+        }
+
+        // Discard any laps left behind by an earlier stopwatch with this id.
+        getLapLog(id).delete();
+        return stopwatch;
     }
 
     /**
-     * @return a list of recorded laps for the stopwatch
+     * Removes the stopwatch and its laps. The default stopwatch cannot be removed.
      */
-    static List<Lap> getLaps(SharedPreferences prefs) {
-        // Prepare the container to be filled with laps.
-        final int lapCount = prefs.getInt(LAP_COUNT, 0);
-        final List<Lap> laps = new ArrayList<>(lapCount);
-
-        long prevAccumulatedTime = 0;
+    void removeStopwatch(int id) {
+        if (id == Stopwatch.DEFAULT_ID) {
+            throw new IllegalArgumentException("The default stopwatch cannot be removed");
+        }
 
-        // Lap numbers are 1-based and so the are corresponding shared preference keys.
-        for (int lapNumber = 1; lapNumber <= lapCount; lapNumber++) {
-            // Look up the accumulated time for the lap.
-            final String lapAccumulatedTimeKey = LAP_ACCUMULATED_TIME + lapNumber;
-            final long accumulatedTime = prefs.getLong(lapAccumulatedTimeKey, 0);
+        int count = getRecordCount();
+        writeRecord(id, FREE, Stopwatch.UNUSED, Stopwatch.UNUSED, 0);
+        getLapLog(id).delete();
 
-            // Lap time is the delta between accumulated time of this lap and prior lap.
-            final long lapTime = accumulatedTime - prevAccumulatedTime;
+        // Trailing unused records are dropped from the count.
+        final ByteBuffer buffer = mStore.getBuffer();
+        while (count > 1 && buffer.getInt(mStore.getOffset(count - 1) + STATE_OFFSET) == FREE) {
+            count--;
+        }
+        mStore.setCount(count);
+    }
 
-            // Create the lap instance from the data.
-            laps.add(new Lap(lapNumber, lapTime, accumulatedTime));
+    /**
+     * @return a read-only view of the laps recorded by the stopwatch, most recent first; each lap
+     *      is read from the lap log when it is accessed
+     */
+    List<Lap> getLaps(int id) {
+        return new LapList(id, getLapLog(id));
+    }
 
-            // Update the accumulated time of the previous lap.
-            prevAccumulatedTime = accumulatedTime;
-        }
+    /**
+     * @return the number of laps recorded by the stopwatch
+     */
+    int getLapCount(int id) {
+        return getLapLog(id).size();
+    }
 
-        // Laps are stored in the order they were recorded; display order is the reverse.
-        Collections.reverse(laps);
+    /**
+     * @param lapNumber the 1-based number of a recorded lap
+     * @return the accumulated stopwatch time at the end of the lap
+     */
+    long getLapAccumulatedTime(int id, int lapNumber) {
+        return getLapLog(id).get(lapNumber - 1);
+    }
 
-        return laps;
+    /**
+     * @return the accumulated stopwatch time at the end of each recorded lap, in the order recorded
+     */
+    long[] getLapAccumulatedTimes(int id) {
+        return getLapLog(id).toArray();
     }
 
     /**
-     * @param newLapCount the number of laps including the new lap
      * @param accumulatedTime the amount of time accumulate by the stopwatch at the end of the lap
      */
-    static void addLap(SharedPreferences prefs, int newLapCount, long accumulatedTime) {
-        prefs.edit()
-                .putInt(LAP_COUNT, newLapCount)
-                .putLong(LAP_ACCUMULATED_TIME + newLapCount, accumulatedTime)
-                .apply();
+    void addLap(int id, long accumulatedTime) {
+        getLapLog(id).append(accumulatedTime);
     }
 
     /**
      * Remove the recorded laps for the stopwatch
      */
-    static void clearLaps(SharedPreferences prefs) {
-        final SharedPreferences.Editor editor = prefs.edit();
+    void clearLaps(int id) {
+        getLapLog(id).clear();
+    }
 
-        final int lapCount = prefs.getInt(LAP_COUNT, 0);
+    /**
+     * @return the number of stopwatch records, after migrating the legacy stopwatch if necessary
+     */
+    private int getRecordCount() {
+        if (!mStopwatchMigrated) {
+            mStopwatchMigrated = true;
+            if (!mStore.exists()) {
+                migrateStopwatch();
+            }
+        }
+
+        // The default stopwatch always exists, even if the file was discarded.
+        final int count = mStore.getCount();
+        if (count < 1 || count > mStore.getCapacity()) {
+            writeRecord(Stopwatch.DEFAULT_ID, RESET.ordinal() + 1, Stopwatch.UNUSED,
+                    Stopwatch.UNUSED, 0);
+            mStore.setCount(1);
+            return 1;
+        }
+        return count;
+    }
+
+    private void writeRecord(int id, int state, long lastStartTime, long lastWallClockTime,
+            long accumulatedTime) {
+        final ByteBuffer buffer = mStore.getBuffer();
+        final int offset = mStore.getOffset(id);
+        buffer.putLong(offset + LAST_START_TIME_OFFSET, lastStartTime)
+                .putLong(offset + LAST_WALL_CLOCK_TIME_OFFSET, lastWallClockTime)
+                .putLong(offset + ACCUMULATED_TIME_OFFSET, accumulatedTime)
+                .putInt(offset + STATE_OFFSET, state);
+    }
+
+    private LapLog getLapLog(int id) {
+        while (mLapLogs.size() <= id) {
+            mLapLogs.add(null);
+        }
+
+        LapLog lapLog = mLapLogs.get(id);
+        if (lapLog == null) {
+            final String name = id == Stopwatch.DEFAULT_ID
+                    ? LAP_LOG_FILE_NAME
+                    : LAP_LOG_FILE_PREFIX + id + ".log";
+            lapLog = new LapLog(new File(mFilesDir, name));
+            mLapLogs.set(id, lapLog);
+        }
+
+        if (id == Stopwatch.DEFAULT_ID && !mLapsMigrated) {
+            mLapsMigrated = true;
+            if (!lapLog.exists()) {
+                migrateLaps(lapLog);
+            }
+        }
+        return lapLog;
+    }
+
+    /**
+     * Moves the stopwatch stored as individual preferences by prior releases into the default
+     * stopwatch record.
+     */
+    private void migrateStopwatch() {
+        final int stateIndex = mPrefs.getInt(STATE, RESET.ordinal());
+        final long lastStartTime = mPrefs.getLong(LAST_START_TIME, Stopwatch.UNUSED);
+        final long lastWallClockTime = mPrefs.getLong(LAST_WALL_CLOCK_TIME, Stopwatch.UNUSED);
+        final long accumulatedTime = mPrefs.getLong(ACCUMULATED_TIME, 0);
+        writeRecord(Stopwatch.DEFAULT_ID, stateIndex + 1, lastStartTime, lastWallClockTime,
+                accumulatedTime);
+        mStore.setCount(1);
+
+        // The legacy keys are only removed once the store safely holds the stopwatch.
+        if (mPrefs.contains(STATE) && mStore.flush()) {
+            mPrefs.edit()
+                    .remove(STATE)
+                    .remove(LAST_START_TIME)
+                    .remove(LAST_WALL_CLOCK_TIME)
+                    .remove(ACCUMULATED_TIME)
+                    .apply();
+            LogUtils.i("Migrated the stopwatch to the stopwatch store");
+        }
+    }
+
+    /**
+     * Moves the laps stored as individual preferences by prior releases into the lap log.
+     */
+    private void migrateLaps(LapLog lapLog) {
+        // Lap numbers are 1-based and so the are corresponding shared preference keys.
+        final int lapCount = mPrefs.getInt(LAP_COUNT, 0);
+        for (int lapNumber = 1; lapNumber <= lapCount; lapNumber++) {
+            lapLog.append(mPrefs.getLong(LAP_ACCUMULATED_TIME + lapNumber, 0));
+        }
+        if (lapCount == 0) {
+            // Creates the lap log so that migration is not attempted again.
+            lapLog.size();
+            return;
+        }
+
+        // The legacy keys are only removed once the lap log safely holds their laps.
+        if (!lapLog.flush()) {
+            return;
+        }
+
+        final SharedPreferences.Editor editor = mPrefs.edit();
         for (int lapNumber = 1; lapNumber <= lapCount; lapNumber++) {
             editor.remove(LAP_ACCUMULATED_TIME + lapNumber);
         }
         editor.remove(LAP_COUNT);
-
         editor.apply();
+
+        LogUtils.i("Migrated %d laps to the lap log", lapCount);
+    }
+
+    /**
+     * @return the context whose storage holds the stopwatches; device protected storage on N+
+     *      alongside the application preferences
+     */
+    @TargetApi(Build.VERSION_CODES.N)
+    private static Context getStorageContext(Context context) {
+        return Utils.isNOrLater() ? context.createDeviceProtectedStorageContext() : context;
+    }
+
+    /**
+     * Presents a lap log, which holds laps in the order they were recorded, in display order:
+     * index 0 is the most recent lap.
+     */
+    private static final class LapList extends AbstractList<Lap> {
+
+        private final int mStopwatchId;
+        private final LapLog mLapLog;
+
+        private LapList(int stopwatchId, LapLog lapLog) {
+            mStopwatchId = stopwatchId;
+            mLapLog = lapLog;
+        }
+
+        @Override
+        public Lap get(int index) {
+            final int count = mLapLog.size();
+            final int position = count - 1 - index;
+            if (position < 0 || position >= count) {
+                throw new IndexOutOfBoundsException("index " + index + " of " + count);
+            }
+
+            final long accumulatedTime = mLapLog.get(position);
+            final long prevAccumulatedTime = position == 0 ? 0 : mLapLog.get(position - 1);
+            return new Lap(mStopwatchId, position + 1, accumulatedTime - prevAccumulatedTime,
+                    accumulatedTime);
+        }
+
+        @Override
+        public int size() {
+            return mLapLog.size();
+        }
     }
-}
\ No newline at end of file
+}
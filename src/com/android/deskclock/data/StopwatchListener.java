@@ -17,7 +17,8 @@
 package com.android.deskclock.data;
 
 /**
- * The interface through which interested parties are notified of changes to the stopwatch or laps.
+ * The interface through which interested parties are notified of changes to any stopwatch or its
+ * laps; {@link Stopwatch#getId()} and {@link Lap#getStopwatchId()} identify the stopwatch.
  */
 public interface StopwatchListener {
 
@@ -26,17 +26,20 @@ import android.support.annotation.VisibleForTesting;
 import android.support.v4.app.NotificationManagerCompat;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
- * All {@link Stopwatch} data is accessed via this model.
+ * All {@link Stopwatch} data is accessed via this model. Any number of stopwatches may exist; each
+ * is identified by a small integer id that also indexes its state, its laps and its lap
+ * statistics, so starting, pausing and lapping a stopwatch take constant time however many exist.
+ * The stopwatch with {@link Stopwatch#DEFAULT_ID} always exists.
  */
 final class StopwatchModel {
 
     private final Context mContext;
 
-    private final SharedPreferences mPrefs;
+    /** Stores the stopwatches and their laps. */
+    private final StopwatchDAO mStopwatchDAO;
 
     /** The model from which notification data are fetched. */
     private final NotificationModel mNotificationModel;
@@ -55,15 +58,15 @@ final class StopwatchModel {
     private final StopwatchNotificationBuilder mNotificationBuilder =
             new StopwatchNotificationBuilder();
 
-    /** The current state of the stopwatch. */
-    private Stopwatch mStopwatch;
+    /** The current state of each stopwatch, by id; {@code null} until first read from storage. */
+    private List<Stopwatch> mStopwatches;
 
-    /** A mutable copy of the recorded stopwatch laps. */
-    private List<Lap> mLaps;
+    /** Statistics of the recorded laps of each stopwatch, by id; {@code null} until computed. */
+    private final List<LapStatistics> mLapStatistics = new ArrayList<>();
 
     StopwatchModel(Context context, SharedPreferences prefs, NotificationModel notificationModel) {
         mContext = context;
-        mPrefs = prefs;
+        mStopwatchDAO = new StopwatchDAO(context, prefs);
         mNotificationModel = notificationModel;
         mNotificationManager = NotificationManagerCompat.from(context);
 
@@ -87,24 +90,79 @@ final class StopwatchModel {
     }
 
     /**
-     * @return the current state of the stopwatch
+     * @return every stopwatch, ordered by id
+     */
+    List<Stopwatch> getStopwatches() {
+        final List<Stopwatch> stopwatches = new ArrayList<>();
+        for (Stopwatch stopwatch : getMutableStopwatches()) {
+            if (stopwatch != null) {
+                stopwatches.add(stopwatch);
+            }
+        }
+        return stopwatches;
+    }
+
+    /**
+     * @return the current state of the stopwatch shown on the stopwatch tab
      */
     Stopwatch getStopwatch() {
-        if (mStopwatch == null) {
-            mStopwatch = StopwatchDAO.getStopwatch(mPrefs);
+        return getStopwatch(Stopwatch.DEFAULT_ID);
+    }
+
+    /**
+     * @param id identifies the stopwatch to return
+     * @return the current state of the stopwatch with the given {@code id}; {@code null} if none
+     */
+    Stopwatch getStopwatch(int id) {
+        final List<Stopwatch> stopwatches = getMutableStopwatches();
+        return id >= 0 && id < stopwatches.size() ? stopwatches.get(id) : null;
+    }
+
+    /**
+     * @return a new reset stopwatch
+     */
+    Stopwatch addStopwatch() {
+        final Stopwatch stopwatch = mStopwatchDAO.addStopwatch();
+        final List<Stopwatch> stopwatches = getMutableStopwatches();
+        while (stopwatches.size() <= stopwatch.getId()) {
+            stopwatches.add(null);
         }
+        stopwatches.set(stopwatch.getId(), stopwatch);
+        clearLapStatistics(stopwatch.getId());
+        return stopwatch;
+    }
 
-        return mStopwatch;
+    /**
+     * Resets and then removes the stopwatch; the default stopwatch is only reset.
+     */
+    void removeStopwatch(Stopwatch stopwatch) {
+        final int id = stopwatch.getId();
+        final Stopwatch current = getStopwatch(id);
+        if (current == null) {
+            return;
+        }
+
+        setStopwatch(current.reset());
+        if (id != Stopwatch.DEFAULT_ID) {
+            mStopwatchDAO.removeStopwatch(id);
+            getMutableStopwatches().set(id, null);
+            clearLapStatistics(id);
+        }
     }
 
     /**
      * @param stopwatch the new state of the stopwatch
      */
     Stopwatch setStopwatch(Stopwatch stopwatch) {
-        final Stopwatch before = getStopwatch();
+        final int id = stopwatch.getId();
+        final Stopwatch before = getStopwatch(id);
+        if (before == null) {
+            throw new IllegalArgumentException("Unknown stopwatch: " + id);
+        }
+
         if (before != stopwatch) {
-            StopwatchDAO.setStopwatch(mPrefs, stopwatch);
-            mStopwatch = stopwatch;
+            mStopwatchDAO.setStopwatch(stopwatch);
+            getMutableStopwatches().set(id, stopwatch);
 
             // Refresh the stopwatch notification to reflect the latest stopwatch state.
             if (!mNotificationModel.isApplicationInForeground()) {
@@ -113,7 +171,7 @@ final class StopwatchModel {
 
             // Resetting the stopwatch implicitly clears the recorded laps.
             if (stopwatch.isReset()) {
-                clearLaps();
+                clearLaps(id);
             }
 
             // Notify listeners of the stopwatch change.
@@ -126,31 +184,85 @@ final class StopwatchModel {
     }
 
     /**
-     * @return the laps recorded for this stopwatch
+     * @return the laps recorded for the stopwatch
      */
-    List<Lap> getLaps() {
-        return Collections.unmodifiableList(getMutableLaps());
+    List<Lap> getLaps(int id) {
+        return mStopwatchDAO.getLaps(id);
     }
 
     /**
-     * @return a newly recorded lap completed now; {@code null} if no more laps can be added
+     * @return the number of laps recorded for the stopwatch
      */
-    Lap addLap() {
-        if (!mStopwatch.isRunning() || !canAddMoreLaps()) {
-            return null;
+    int getLapCount(int id) {
+        return mStopwatchDAO.getLapCount(id);
+    }
+
+    /**
+     * @param lapNumber the 1-based number of a recorded lap
+     * @return the accumulated stopwatch time at the end of the lap
+     */
+    long getLapAccumulatedTime(int id, int lapNumber) {
+        return mStopwatchDAO.getLapAccumulatedTime(id, lapNumber);
+    }
+
+    /**
+     * @return a copy of the accumulated stopwatch time at the end of each recorded lap, in the
+     *      order recorded
+     */
+    long[] getLapAccumulatedTimes(int id) {
+        return mStopwatchDAO.getLapAccumulatedTimes(id);
+    }
+
+    /**
+     * @param lapNumber the 1-based number of a recorded lap
+     * @return the time elapsed during the lap
+     */
+    long getLapTime(int id, int lapNumber) {
+        final long prevAccumulatedTime =
+                lapNumber == 1 ? 0 : mStopwatchDAO.getLapAccumulatedTime(id, lapNumber - 1);
+        return mStopwatchDAO.getLapAccumulatedTime(id, lapNumber) - prevAccumulatedTime;
+    }
+
+    /**
+     * @return statistics of the recorded laps of the stopwatch, excluding the current lap
+     */
+    LapStatistics getLapStatistics(int id) {
+        while (mLapStatistics.size() <= id) {
+            mLapStatistics.add(null);
         }
 
-        final long totalTime = getStopwatch().getTotalTime();
-        final List<Lap> laps = getMutableLaps();
+        LapStatistics statistics = mLapStatistics.get(id);
+        if (statistics == null) {
+            // Computed with one pass over the recorded laps; kept current as laps are added.
+            statistics = new LapStatistics();
+            final int lapCount = mStopwatchDAO.getLapCount(id);
+            long prevAccumulatedTime = 0;
+            for (int lapNumber = 1; lapNumber <= lapCount; lapNumber++) {
+                final long accumulatedTime = mStopwatchDAO.getLapAccumulatedTime(id, lapNumber);
+                statistics.add(accumulatedTime - prevAccumulatedTime);
+                prevAccumulatedTime = accumulatedTime;
+            }
+            mLapStatistics.set(id, statistics);
+        }
 
-        final int lapNumber = laps.size() + 1;
-        StopwatchDAO.addLap(mPrefs, lapNumber, totalTime);
+        return statistics;
+    }
 
-        final long prevAccumulatedTime = laps.isEmpty() ? 0 : laps.get(0).getAccumulatedTime();
-        final long lapTime = totalTime - prevAccumulatedTime;
+    /**
+     * @return a newly recorded lap completed now; {@code null} if the stopwatch is not running
+     */
+    Lap addLap(int id) {
+        final Stopwatch stopwatch = getStopwatch(id);
+        if (stopwatch == null || !stopwatch.isRunning()) {
+            return null;
+        }
+
+        final LapStatistics statistics = getLapStatistics(id);
+        mStopwatchDAO.addLap(id, stopwatch.getTotalTime());
 
-        final Lap lap = new Lap(lapNumber, lapTime, totalTime);
-        laps.add(0, lap);
+        // The laps are read back from storage, most recent first.
+        final Lap lap = mStopwatchDAO.getLaps(id).get(0);
+        statistics.add(lap.getLapTime());
 
         // Refresh the stopwatch notification to reflect the latest stopwatch state.
         if (!mNotificationModel.isApplicationInForeground()) {
@@ -166,41 +278,27 @@ final class StopwatchModel {
     }
 
     /**
-     * Clears the laps recorded for this stopwatch.
+     * Clears the laps recorded for the stopwatch.
      */
     @VisibleForTesting
-    void clearLaps() {
-        StopwatchDAO.clearLaps(mPrefs);
-        getMutableLaps().clear();
-    }
-
-    /**
-     * @return {@code true} iff more laps can be recorded
-     */
-    boolean canAddMoreLaps() {
-        return getLaps().size() < 98;
+    void clearLaps(int id) {
+        mStopwatchDAO.clearLaps(id);
+        clearLapStatistics(id);
     }
 
     /**
-     * @return the longest lap time of all recorded laps and the current lap
+     * @return the longest lap time of all recorded laps and the current lap of the stopwatch
      */
-    long getLongestLapTime() {
-        long maxLapTime = 0;
-
-        final List<Lap> laps = getLaps();
-        if (!laps.isEmpty()) {
-            // Compute the maximum lap time across all recorded laps.
-            for (Lap lap : getLaps()) {
-                maxLapTime = Math.max(maxLapTime, lap.getLapTime());
-            }
-
-            // Compare with the maximum lap time for the current lap.
-            final Stopwatch stopwatch = getStopwatch();
-            final long currentLapTime = stopwatch.getTotalTime() - laps.get(0).getAccumulatedTime();
-            maxLapTime = Math.max(maxLapTime, currentLapTime);
+    long getLongestLapTime(int id) {
+        final int lapCount = getLapCount(id);
+        if (lapCount == 0) {
+            return 0;
         }
 
-        return maxLapTime;
+        // Compare the longest recorded lap with the current lap.
+        final long lastAccumulatedTime = mStopwatchDAO.getLapAccumulatedTime(id, lapCount);
+        final long currentLapTime = getStopwatch(id).getTotalTime() - lastAccumulatedTime;
+        return Math.max(getLapStatistics(id).getLongestLapTime(), currentLapTime);
     }
 
     /**
@@ -211,36 +309,52 @@ final class StopwatchModel {
      * @return the elapsed time between the given {@code time} and the end of the prior lap;
      *      negative elapsed times are normalized to {@code 0}
      */
-    long getCurrentLapTime(long time) {
-        final Lap previousLap = getLaps().get(0);
-        final long currentLapTime = time - previousLap.getAccumulatedTime();
+    long getCurrentLapTime(int id, long time) {
+        final int lapCount = getLapCount(id);
+        final long prevAccumulatedTime =
+                lapCount == 0 ? 0 : mStopwatchDAO.getLapAccumulatedTime(id, lapCount);
+        final long currentLapTime = time - prevAccumulatedTime;
         return Math.max(0, currentLapTime);
     }
 
     /**
-     * Updates the notification to reflect the latest state of the stopwatch and recorded laps.
+     * Updates the single notification that reflects the latest state of every stopwatch that is
+     * not reset and their recorded laps.
      */
     void updateNotification() {
-        final Stopwatch stopwatch = getStopwatch();
+        final List<Stopwatch> active = new ArrayList<>();
+        for (Stopwatch stopwatch : getMutableStopwatches()) {
+            if (stopwatch != null && !stopwatch.isReset()) {
+                active.add(stopwatch);
+            }
+        }
 
-        // Notification should be hidden if the stopwatch has no time or the app is open.
-        if (stopwatch.isReset() || mNotificationModel.isApplicationInForeground()) {
+        // Notification should be hidden if no stopwatch has time or the app is open.
+        if (active.isEmpty() || mNotificationModel.isApplicationInForeground()) {
             mNotificationManager.cancel(mNotificationModel.getStopwatchNotificationId());
             return;
         }
 
-        // Otherwise build and post a notification reflecting the latest stopwatch state.
+        // Otherwise build and post a notification reflecting the latest stopwatch states.
         final Notification notification =
-                mNotificationBuilder.build(mContext, mNotificationModel, stopwatch);
+                mNotificationBuilder.build(mContext, mNotificationModel, active);
         mNotificationManager.notify(mNotificationModel.getStopwatchNotificationId(), notification);
     }
 
-    private List<Lap> getMutableLaps() {
-        if (mLaps == null) {
-            mLaps = StopwatchDAO.getLaps(mPrefs);
+    /**
+     * @return the stopwatches, indexed by id, read from storage on first use
+     */
+    private List<Stopwatch> getMutableStopwatches() {
+        if (mStopwatches == null) {
+            mStopwatches = mStopwatchDAO.getStopwatches();
         }
+        return mStopwatches;
+    }
 
-        return mLaps;
+    private void clearLapStatistics(int id) {
+        if (id < mLapStatistics.size() && mLapStatistics.get(id) != null) {
+            mLapStatistics.get(id).clear();
+        }
     }
 
     /**
@@ -252,4 +366,4 @@ final class StopwatchModel {
             updateNotification();
         }
     }
-}
\ No newline at end of file
+}
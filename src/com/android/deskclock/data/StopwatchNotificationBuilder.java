@@ -41,11 +41,20 @@ import static android.view.View.GONE;
 import static android.view.View.VISIBLE;
 
 /**
- * Builds notification to reflect the latest state of the stopwatch and recorded laps.
+ * Builds the notification that reflects the latest state of the stopwatches and recorded laps. A
+ * single stopwatch is shown with buttons that control it. Several stopwatches share one
+ * notification that lists each of them; tapping a stopwatch in the list starts or pauses it.
+ * While any stopwatch runs, the notification offers to start another one alongside it.
  */
 class StopwatchNotificationBuilder {
 
-    public Notification build(Context context, NotificationModel nm, Stopwatch stopwatch) {
+    /** The most stopwatches listed in the expanded notification. */
+    private static final int MAX_LISTED_STOPWATCHES = 5;
+
+    /**
+     * @param stopwatches the stopwatches that are not reset, ordered by id; at least one
+     */
+    public Notification build(Context context, NotificationModel nm, List<Stopwatch> stopwatches) {
         @StringRes final int eventLabel = R.string.label_notification;
 
         // Intent to load the app when the notification is tapped.
@@ -57,41 +66,104 @@ class StopwatchNotificationBuilder {
                 PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_UPDATE_CURRENT);
 
         // Compute some values required below.
-        final boolean running = stopwatch.isRunning();
-        final String pname = context.getPackageName();
+        boolean running = false;
+        for (Stopwatch stopwatch : stopwatches) {
+            running |= stopwatch.isRunning();
+        }
         final Resources res = context.getResources();
-        final long base = SystemClock.elapsedRealtime() - stopwatch.getTotalTime();
 
-        final RemoteViews content = new RemoteViews(pname, R.layout.chronometer_notif_content);
-        content.setChronometer(R.id.chronometer, base, null, running);
+        Utils.createNotificationChannelsIfNeeded(context);
+
+        final Builder notification = new Notification.Builder(context,
+                    Utils.STOPWATCH_CHANNEL)
+                .setLocalOnly(true)
+                .setOngoing(running)
+                .setContentIntent(pendingShowApp)
+                .setAutoCancel(!running)
+                .setSmallIcon(R.drawable.stat_notify_stopwatch)
+                .setStyle(new Notification.DecoratedCustomViewStyle())
+                .setColor(ContextCompat.getColor(context, R.color.default_background));
+
+        if (Utils.isNOrLater()) {
+            notification.setGroup(nm.getStopwatchNotificationGroupKey());
+        }
 
-        final List<Action> actions = new ArrayList<>(2);
+        if (stopwatches.size() == 1) {
+            final Stopwatch stopwatch = stopwatches.get(0);
+            notification.setCustomContentView(buildContent(context, stopwatch));
+            for (Action action : buildActions(context, stopwatch, eventLabel)) {
+                notification.addAction(action);
+            }
+            return notification.build();
+        }
 
+        // Collapsed: the first running stopwatch and the number of stopwatches.
+        Stopwatch first = stopwatches.get(0);
+        for (Stopwatch stopwatch : stopwatches) {
+            if (stopwatch.isRunning()) {
+                first = stopwatch;
+                break;
+            }
+        }
+        final RemoteViews summary = buildContent(context, first);
+        summary.setTextViewText(R.id.state,
+                res.getString(R.string.sw_notification_stopwatches, stopwatches.size()));
+        summary.setViewVisibility(R.id.state, VISIBLE);
+        notification.setCustomContentView(summary);
+
+        // Start another stopwatch, and remove the paused ones.
         if (running) {
-            // Left button: Pause
-            final Intent pause = new Intent(context, StopwatchService.class)
-                    .setAction(StopwatchService.ACTION_PAUSE_STOPWATCH)
+            notification.addAction(buildAddAction(context, eventLabel));
+        }
+        boolean paused = false;
+        for (Stopwatch stopwatch : stopwatches) {
+            paused |= stopwatch.isPaused();
+        }
+        if (paused) {
+            @DrawableRes final int icon = R.drawable.ic_reset_24dp;
+            final CharSequence title = res.getText(R.string.sw_reset_button);
+            final Intent intent = new Intent(context, StopwatchService.class)
+                    .setAction(StopwatchService.ACTION_REMOVE_PAUSED_STOPWATCHES)
                     .putExtra(Events.EXTRA_EVENT_LABEL, eventLabel);
+            final PendingIntent pendingIntent = PendingIntent.getService(context, 0, intent,
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+            notification.addAction(new Action.Builder(icon, title, pendingIntent).build());
+        }
 
-            @DrawableRes final int icon1 = R.drawable.ic_pause_24dp;
-            final CharSequence title1 = res.getText(R.string.sw_pause_button);
-            final PendingIntent intent1 = Utils.pendingServiceIntent(context, pause);
-            actions.add(new Action.Builder(icon1, title1, intent1).build());
+        // Expanded: each stopwatch toggles between running and paused when tapped.
+        final String pname = context.getPackageName();
+        final RemoteViews list = new RemoteViews(pname, R.layout.stopwatch_group_notif_content);
+        final int listed = Math.min(stopwatches.size(), MAX_LISTED_STOPWATCHES);
+        for (int i = 0; i < listed; i++) {
+            final Stopwatch stopwatch = stopwatches.get(i);
+            final String action = stopwatch.isRunning()
+                    ? StopwatchService.ACTION_PAUSE_STOPWATCH
+                    : StopwatchService.ACTION_START_STOPWATCH;
+            final RemoteViews row = buildContent(context, stopwatch);
+            row.setOnClickPendingIntent(R.id.stopwatch_row,
+                    createServiceIntent(context, action, stopwatch, eventLabel));
+            list.addView(R.id.stopwatches, row);
+        }
+        notification.setCustomBigContentView(list);
 
-            // Right button: Add Lap
-            if (DataModel.getDataModel().canAddMoreLaps()) {
-                final Intent lap = new Intent(context, StopwatchService.class)
-                        .setAction(StopwatchService.ACTION_LAP_STOPWATCH)
-                        .putExtra(Events.EXTRA_EVENT_LABEL, eventLabel);
-
-                @DrawableRes final int icon2 = R.drawable.ic_sw_lap_24dp;
-                final CharSequence title2 = res.getText(R.string.sw_lap_button);
-                final PendingIntent intent2 = Utils.pendingServiceIntent(context, lap);
-                actions.add(new Action.Builder(icon2, title2, intent2).build());
-            }
+        return notification.build();
+    }
+
+    /**
+     * @return a chronometer showing the time of the {@code stopwatch} above its state
+     */
+    private static RemoteViews buildContent(Context context, Stopwatch stopwatch) {
+        final String pname = context.getPackageName();
+        final Resources res = context.getResources();
+        final boolean running = stopwatch.isRunning();
+        final long base = SystemClock.elapsedRealtime() - stopwatch.getTotalTime();
+
+        final RemoteViews content = new RemoteViews(pname, R.layout.chronometer_notif_content);
+        content.setChronometer(R.id.chronometer, base, null, running);
 
+        if (running) {
             // Show the current lap number if any laps have been recorded.
-            final int lapCount = DataModel.getDataModel().getLaps().size();
+            final int lapCount = DataModel.getDataModel().getLapCount(stopwatch);
             if (lapCount > 0) {
                 final int lapNumber = lapCount + 1;
                 final String lap = res.getString(R.string.sw_notification_lap_number, lapNumber);
@@ -101,52 +173,87 @@ class StopwatchNotificationBuilder {
                 content.setViewVisibility(R.id.state, GONE);
             }
         } else {
-            // Left button: Start
-            final Intent start = new Intent(context, StopwatchService.class)
-                    .setAction(StopwatchService.ACTION_START_STOPWATCH)
-                    .putExtra(Events.EXTRA_EVENT_LABEL, eventLabel);
+            // Indicate the stopwatch is paused.
+            content.setTextViewText(R.id.state, res.getString(R.string.swn_paused));
+            content.setViewVisibility(R.id.state, VISIBLE);
+        }
+
+        return content;
+    }
+
+    /**
+     * @return the buttons that control a lone {@code stopwatch}
+     */
+    private static List<Action> buildActions(Context context, Stopwatch stopwatch,
+            @StringRes int eventLabel) {
+        final Resources res = context.getResources();
+        final List<Action> actions = new ArrayList<>(3);
+
+        if (stopwatch.isRunning()) {
+            // Left button: Pause
+            @DrawableRes final int icon1 = R.drawable.ic_pause_24dp;
+            final CharSequence title1 = res.getText(R.string.sw_pause_button);
+            final PendingIntent intent1 = createServiceIntent(context,
+                    StopwatchService.ACTION_PAUSE_STOPWATCH, stopwatch, eventLabel);
+            actions.add(new Action.Builder(icon1, title1, intent1).build());
+
+            // Right button: Add Lap
+            @DrawableRes final int icon2 = R.drawable.ic_sw_lap_24dp;
+            final CharSequence title2 = res.getText(R.string.sw_lap_button);
+            final PendingIntent intent2 = createServiceIntent(context,
+                    StopwatchService.ACTION_LAP_STOPWATCH, stopwatch, eventLabel);
+            actions.add(new Action.Builder(icon2, title2, intent2).build());
 
+            // Third button: start another stopwatch alongside this one
+            actions.add(buildAddAction(context, eventLabel));
+        } else {
+            // Left button: Start
             @DrawableRes final int icon1 = R.drawable.ic_start_24dp;
             final CharSequence title1 = res.getText(R.string.sw_start_button);
-            final PendingIntent intent1 = Utils.pendingServiceIntent(context, start);
+            final PendingIntent intent1 = createServiceIntent(context,
+                    StopwatchService.ACTION_START_STOPWATCH, stopwatch, eventLabel);
             actions.add(new Action.Builder(icon1, title1, intent1).build());
 
-            // Right button: Reset (dismisses notification and resets stopwatch)
-            final Intent reset = new Intent(context, StopwatchService.class)
-                    .setAction(StopwatchService.ACTION_RESET_STOPWATCH)
-                    .putExtra(Events.EXTRA_EVENT_LABEL, eventLabel);
-
+            // Right button: Reset (dismisses notification and resets stopwatch); stopwatches other
+            // than the one on the stopwatch tab are removed once reset
             @DrawableRes final int icon2 = R.drawable.ic_reset_24dp;
             final CharSequence title2 = res.getText(R.string.sw_reset_button);
-            final PendingIntent intent2 = Utils.pendingServiceIntent(context, reset);
+            final String action2 = stopwatch.getId() == Stopwatch.DEFAULT_ID
+                    ? StopwatchService.ACTION_RESET_STOPWATCH
+                    : StopwatchService.ACTION_REMOVE_STOPWATCH;
+            final PendingIntent intent2 =
+                    createServiceIntent(context, action2, stopwatch, eventLabel);
             actions.add(new Action.Builder(icon2, title2, intent2).build());
-
-            // Indicate the stopwatch is paused.
-            content.setTextViewText(R.id.state, res.getString(R.string.swn_paused));
-            content.setViewVisibility(R.id.state, VISIBLE);
         }
 
-        Utils.createNotificationChannelsIfNeeded(context);
-
-        final Builder notification = new Notification.Builder(context,
-                    Utils.STOPWATCH_CHANNEL)
-                .setLocalOnly(true)
-                .setOngoing(running)
-                .setCustomContentView(content)
-                .setContentIntent(pendingShowApp)
-                .setAutoCancel(stopwatch.isPaused())
-                .setSmallIcon(R.drawable.stat_notify_stopwatch)
-                .setStyle(new Notification.DecoratedCustomViewStyle())
-                .setColor(ContextCompat.getColor(context, R.color.default_background));
-
-        if (Utils.isNOrLater()) {
-            notification.setGroup(nm.getStopwatchNotificationGroupKey());
-        }
+        return actions;
+    }
 
-        for (Action action : actions) {
-            notification.addAction(action);
-        }
+    /**
+     * @return the button that adds another stopwatch and starts it
+     */
+    private static Action buildAddAction(Context context, @StringRes int eventLabel) {
+        @DrawableRes final int icon = R.drawable.ic_add_24dp;
+        final CharSequence title = context.getResources().getText(R.string.sw_new_button);
+        final Intent intent = new Intent(context, StopwatchService.class)
+                .setAction(StopwatchService.ACTION_ADD_STOPWATCH)
+                .putExtra(Events.EXTRA_EVENT_LABEL, eventLabel);
+        final PendingIntent pendingIntent = PendingIntent.getService(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        return new Action.Builder(icon, title, pendingIntent).build();
+    }
 
-        return notification.build();
+    /**
+     * @return an intent that performs the {@code action} on the {@code stopwatch}; the id of the
+     *      stopwatch is the request code so intents for different stopwatches stay distinct
+     */
+    private static PendingIntent createServiceIntent(Context context, String action,
+            Stopwatch stopwatch, @StringRes int eventLabel) {
+        final Intent intent = new Intent(context, StopwatchService.class)
+                .setAction(action)
+                .putExtra(StopwatchService.EXTRA_STOPWATCH_ID, stopwatch.getId())
+                .putExtra(Events.EXTRA_EVENT_LABEL, eventLabel);
+        return PendingIntent.getService(context, stopwatch.getId(), intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
     }
 }
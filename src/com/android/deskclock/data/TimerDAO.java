@@ -16,174 +16,456 @@
 
 package com.android.deskclock.data;
 
+import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.AtomicFile;
+import android.util.SparseArray;
 
+import com.android.deskclock.LogUtils;
+import com.android.deskclock.Utils;
 import com.android.deskclock.data.Timer.State;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 import static com.android.deskclock.data.Timer.State.RESET;
 
 /**
  * This class encapsulates the transfer of data between {@link Timer} domain objects and their
- * permanent storage in {@link SharedPreferences}.
+ * permanent storage in a binary record file.
+ *
+ * <p>The file holds a header followed by one fixed-width record per timer, in id order, and then
+ * the labels of the timers that have one. It is always replaced as a whole through an
+ * {@link AtomicFile}, so a crash mid-write leaves the previous contents intact. The file image is
+ * built on the calling thread and written on a background thread; when writes arrive faster than
+ * they complete, only the most recent image is written. Callers {@link #flush} pending writes at
+ * the points where the process may be killed, as {@link SharedPreferences#apply} writes are
+ * flushed when services and activities stop.</p>
+ *
+ * <p>Timers were previously stored as individual {@link SharedPreferences} keys. Those keys are
+ * migrated into the record file the first time it is found to be missing or unrecognized, and
+ * then removed.</p>
  */
 final class TimerDAO {
 
-    /** Key to a preference that stores the set of timer ids. */
+    /** Name of the record file within the files directory of the storage context. */
+    private static final String FILE_NAME = "timers.dat";
+
+    /** Identifies a timer record file: the characters "TMRS". */
+    private static final int MAGIC = 0x544d5253;
+
+    /** Version of the record file format. */
+    private static final int VERSION = 1;
+
+    /** Size of the header: magic, version, next timer id, timer count. */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Size of a record: id, state, length, total length, last start time, last wall clock time,
+     * remaining time, flags.
+     */
+    private static final int RECORD_SIZE = 52;
+
+    /** Record flag set when the timer should be deleted on first reset. */
+    private static final int FLAG_DELETE_AFTER_USE = 1;
+
+    /** Record flag set when the timer has a label. */
+    private static final int FLAG_HAS_LABEL = 1 << 1;
+
+    /** Writes record file images in the order they are produced. */
+    private static final Executor sWriter = Executors.newSingleThreadExecutor();
+
+    /** Key to a legacy preference that stores the set of timer ids. */
     private static final String TIMER_IDS = "timers_list";
 
-    /** Key to a preference that stores the id to assign to the next timer. */
+    /** Key to a legacy preference that stores the id to assign to the next timer. */
     private static final String NEXT_TIMER_ID = "next_timer_id";
 
-    /** Prefix for a key to a preference that stores the state of the timer. */
+    /** Prefix for a key to a legacy preference that stores the state of the timer. */
     private static final String STATE = "timer_state_";
 
-    /** Prefix for a key to a preference that stores the original timer length at creation. */
+    /** Prefix for a key to a legacy preference that stores the original timer length. */
     private static final String LENGTH = "timer_setup_timet_";
 
-    /** Prefix for a key to a preference that stores the total timer length with additions. */
+    /** Prefix for a key to a legacy preference that stores the total timer length. */
     private static final String TOTAL_LENGTH = "timer_original_timet_";
 
-    /** Prefix for a key to a preference that stores the last start time of the timer. */
+    /** Prefix for a key to a legacy preference that stores the last start time of the timer. */
     private static final String LAST_START_TIME = "timer_start_time_";
 
-    /** Prefix for a key to a preference that stores the epoch time when the timer last started. */
+    /** Prefix for a key to a legacy preference that stores the epoch time of the last start. */
     private static final String LAST_WALL_CLOCK_TIME = "timer_wall_clock_time_";
 
-    /** Prefix for a key to a preference that stores the remaining time before expiry. */
+    /** Prefix for a key to a legacy preference that stores the remaining time before expiry. */
     private static final String REMAINING_TIME = "timer_time_left_";
 
-    /** Prefix for a key to a preference that stores the label of the timer. */
+    /** Prefix for a key to a legacy preference that stores the label of the timer. */
     private static final String LABEL = "timer_label_";
 
-    /** Prefix for a key to a preference that signals the timer should be deleted on first reset. */
+    /** Prefix for a key to a legacy preference that signals deletion on first reset. */
     private static final String DELETE_AFTER_USE = "delete_after_use_";
 
-    private TimerDAO() {}
+    private final SharedPreferences mPrefs;
+
+    private final AtomicFile mFile;
+
+    /** Guards {@link #mPendingImage}. */
+    private final Object mWriteLock = new Object();
+
+    /** Held while the record file is written, so writes never overlap or land out of order. */
+    private final Object mFileLock = new Object();
+
+    /** The most recent file image not yet handed to the writer; {@code null} if none. */
+    private byte[] mPendingImage;
+
+    /** All timers by id; {@code null} until first loaded. */
+    private SparseArray<Timer> mTimers;
+
+    /** The id to assign to the next timer. */
+    private int mNextTimerId;
+
+    /** Number of nested batches in progress; writes are deferred until the outermost ends. */
+    private int mBatchDepth;
+
+    /** {@code true} if a change was made during the current batch. */
+    private boolean mBatchChanged;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writePendingImage();
+        }
+    };
+
+    TimerDAO(Context context, SharedPreferences prefs) {
+        mPrefs = prefs;
+        mFile = new AtomicFile(new File(getStorageContext(context).getFilesDir(), FILE_NAME));
+    }
 
     /**
      * @return the timers from permanent storage
      */
-    static List<Timer> getTimers(SharedPreferences prefs) {
-        // Read the set of timer ids.
-        final Set<String> timerIds = prefs.getStringSet(TIMER_IDS, Collections.<String>emptySet());
-        final List<Timer> timers = new ArrayList<>(timerIds.size());
+    List<Timer> getTimers() {
+        final SparseArray<Timer> timers = getTimerMap();
+        final List<Timer> result = new ArrayList<>(timers.size());
+        for (int i = 0; i < timers.size(); i++) {
+            result.add(timers.valueAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * @param timer the timer to be added
+     */
+    Timer addTimer(Timer timer) {
+        final SparseArray<Timer> timers = getTimerMap();
+
+        // Create a new timer with the next timer id.
+        final int id = mNextTimerId++;
+        final Timer newTimer = new Timer(id, timer.getState(), timer.getLength(),
+                timer.getTotalLength(), timer.getLastStartTime(), timer.getLastWallClockTime(),
+                timer.getRemainingTime(), timer.getLabel(), timer.getDeleteAfterUse());
+        timers.put(id, newTimer);
+
+        scheduleWrite();
+        return newTimer;
+    }
+
+    /**
+     * @param timer the timer to be updated
+     */
+    void updateTimer(Timer timer) {
+        getTimerMap().put(timer.getId(), timer);
+        scheduleWrite();
+    }
+
+    /**
+     * @param timer the timer to be removed
+     */
+    void removeTimer(Timer timer) {
+        final SparseArray<Timer> timers = getTimerMap();
+        timers.remove(timer.getId());
+        if (timers.size() == 0) {
+            mNextTimerId = 0;
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Defers writing changes until the matching {@link #endBatch}, so that all changes made in
+     * between are persisted with a single write. Batches may nest.
+     */
+    void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch begun by {@link #beginBatch}; the outermost batch writes all of its changes.
+     */
+    void endBatch() {
+        if (--mBatchDepth == 0 && mBatchChanged) {
+            mBatchChanged = false;
+            scheduleWrite();
+        }
+    }
+
+    private SparseArray<Timer> getTimerMap() {
+        if (mTimers == null) {
+            mTimers = new SparseArray<>();
+            if (!read()) {
+                migrate();
+            }
+        }
+        return mTimers;
+    }
+
+    /**
+     * Writes the image still queued for the background thread, if any, and waits for a write in
+     * progress to complete, so that every change made so far survives the process being killed.
+     */
+    void flush() {
+        writePendingImage();
+    }
+
+    /**
+     * Builds the file image of the current timers and queues it to be written.
+     */
+    private void scheduleWrite() {
+        if (mBatchDepth > 0) {
+            mBatchChanged = true;
+            return;
+        }
+
+        final byte[] image = toImage();
+        synchronized (mWriteLock) {
+            final boolean queued = mPendingImage != null;
+            mPendingImage = image;
+            if (!queued) {
+                sWriter.execute(mWriteRunnable);
+            }
+        }
+    }
+
+    /**
+     * Writes the most recent file image not yet written, if any.
+     */
+    private void writePendingImage() {
+        synchronized (mFileLock) {
+            final byte[] image;
+            synchronized (mWriteLock) {
+                image = mPendingImage;
+                mPendingImage = null;
+            }
+            if (image != null) {
+                write(image);
+            }
+        }
+    }
+
+    private byte[] toImage() {
+        final int count = mTimers.size();
+        final byte[][] labels = new byte[count][];
+        int labelsSize = 0;
+        for (int i = 0; i < count; i++) {
+            final String label = mTimers.valueAt(i).getLabel();
+            if (label != null) {
+                labels[i] = label.getBytes(StandardCharsets.UTF_8);
+                labelsSize += 4 + labels[i].length;
+            }
+        }
+
+        final ByteBuffer buffer =
+                ByteBuffer.allocate(HEADER_SIZE + count * RECORD_SIZE + labelsSize);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(mNextTimerId).putInt(count);
+        for (int i = 0; i < count; i++) {
+            final Timer timer = mTimers.valueAt(i);
+            int flags = 0;
+            if (timer.getDeleteAfterUse()) {
+                flags |= FLAG_DELETE_AFTER_USE;
+            }
+            if (labels[i] != null) {
+                flags |= FLAG_HAS_LABEL;
+            }
+            buffer.putInt(timer.getId())
+                    .putInt(timer.getState().getValue())
+                    .putLong(timer.getLength())
+                    .putLong(timer.getTotalLength())
+                    .putLong(timer.getLastStartTime())
+                    .putLong(timer.getLastWallClockTime())
+                    .putLong(timer.getRemainingTime())
+                    .putInt(flags);
+        }
+        for (byte[] label : labels) {
+            if (label != null) {
+                buffer.putInt(label.length).put(label);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Loads every timer from the record file; an unreadable file yields no timers.
+     *
+     * @return {@code false} if the record file does not exist yet or is not a timer record file,
+     *      and so must be rebuilt
+     */
+    private boolean read() {
+        final ByteBuffer buffer;
+        try {
+            // Restores the previous file if a write was interrupted.
+            buffer = ByteBuffer.wrap(mFile.readFully());
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            LogUtils.e("Unable to read timers", e);
+            return true;
+        }
+
+        try {
+            final int magic = buffer.getInt();
+            final int version = buffer.getInt();
+            if (magic != MAGIC || version != VERSION) {
+                // Rebuild the file from any legacy preferences rather than rereading it each time.
+                LogUtils.e("Unrecognized timer file format: magic %08x, version %d; rebuilding %s",
+                        magic, version, mFile.getBaseFile());
+                return false;
+            }
+            final int nextTimerId = buffer.getInt();
+            final int count = buffer.getInt();
+
+            // Labels follow all of the records.
+            final ByteBuffer labels = buffer.duplicate();
+            labels.position(HEADER_SIZE + count * RECORD_SIZE);
+
+            final SparseArray<Timer> timers = new SparseArray<>(count);
+            for (int i = 0; i < count; i++) {
+                final int id = buffer.getInt();
+                final State state = State.fromValue(buffer.getInt());
+                final long length = buffer.getLong();
+                final long totalLength = buffer.getLong();
+                final long lastStartTime = buffer.getLong();
+                final long lastWallClockTime = buffer.getLong();
+                final long remainingTime = buffer.getLong();
+                final int flags = buffer.getInt();
+
+                String label = null;
+                if ((flags & FLAG_HAS_LABEL) != 0) {
+                    final byte[] bytes = new byte[labels.getInt()];
+                    labels.get(bytes);
+                    label = new String(bytes, StandardCharsets.UTF_8);
+                }
+
+                if (state != null) {
+                    final boolean deleteAfterUse = (flags & FLAG_DELETE_AFTER_USE) != 0;
+                    timers.put(id, new Timer(id, state, length, totalLength, lastStartTime,
+                            lastWallClockTime, remainingTime, label, deleteAfterUse));
+                }
+            }
+
+            mTimers = timers;
+            mNextTimerId = nextTimerId;
+        } catch (BufferUnderflowException | IllegalArgumentException
+                | NegativeArraySizeException e) {
+            LogUtils.e("Timer file is truncated", e);
+        }
+        return true;
+    }
+
+    /**
+     * Moves the timers stored as individual preferences by prior releases into the record file.
+     */
+    private void migrate() {
+        final Set<String> timerIds =
+                mPrefs.getStringSet(TIMER_IDS, Collections.<String>emptySet());
+        mNextTimerId = mPrefs.getInt(NEXT_TIMER_ID, 0);
 
         // Build a timer using the data associated with each timer id.
         for (String timerId : timerIds) {
             final int id = Integer.parseInt(timerId);
-            final int stateValue = prefs.getInt(STATE + id, RESET.getValue());
+            final int stateValue = mPrefs.getInt(STATE + id, RESET.getValue());
             final State state = State.fromValue(stateValue);
 
             // Timer state may be null when migrating timers from prior releases which defined a
             // "deleted" state. Such a state is no longer required.
             if (state != null) {
-                final long length = prefs.getLong(LENGTH + id, Long.MIN_VALUE);
-                final long totalLength = prefs.getLong(TOTAL_LENGTH + id, Long.MIN_VALUE);
-                final long lastStartTime = prefs.getLong(LAST_START_TIME + id, Timer.UNUSED);
-                final long lastWallClockTime = prefs.getLong(LAST_WALL_CLOCK_TIME + id,
+                final long length = mPrefs.getLong(LENGTH + id, Long.MIN_VALUE);
+                final long totalLength = mPrefs.getLong(TOTAL_LENGTH + id, Long.MIN_VALUE);
+                final long lastStartTime = mPrefs.getLong(LAST_START_TIME + id, Timer.UNUSED);
+                final long lastWallClockTime = mPrefs.getLong(LAST_WALL_CLOCK_TIME + id,
                         Timer.UNUSED);
-                final long remainingTime = prefs.getLong(REMAINING_TIME + id, totalLength);
-                final String label = prefs.getString(LABEL + id, null);
-                final boolean deleteAfterUse = prefs.getBoolean(DELETE_AFTER_USE + id, false);
-                timers.add(new Timer(id, state, length, totalLength, lastStartTime,
+                final long remainingTime = mPrefs.getLong(REMAINING_TIME + id, totalLength);
+                final String label = mPrefs.getString(LABEL + id, null);
+                final boolean deleteAfterUse = mPrefs.getBoolean(DELETE_AFTER_USE + id, false);
+                mTimers.put(id, new Timer(id, state, length, totalLength, lastStartTime,
                         lastWallClockTime, remainingTime, label, deleteAfterUse));
             }
         }
 
-        return timers;
-    }
-
-    /**
-     * @param timer the timer to be added
-     */
-    static Timer addTimer(SharedPreferences prefs, Timer timer) {
-        final SharedPreferences.Editor editor = prefs.edit();
-
-        // Fetch the next timer id.
-        final int id = prefs.getInt(NEXT_TIMER_ID, 0);
-        editor.putInt(NEXT_TIMER_ID, id + 1);
-
-        // Add the new timer id to the set of all timer ids.
-        final Set<String> timerIds = new HashSet<>(getTimerIds(prefs));
-        timerIds.add(String.valueOf(id));
-        editor.putStringSet(TIMER_IDS, timerIds);
-
-        // Record the fields of the timer.
-        editor.putInt(STATE + id, timer.getState().getValue());
-        editor.putLong(LENGTH + id, timer.getLength());
-        editor.putLong(TOTAL_LENGTH + id, timer.getTotalLength());
-        editor.putLong(LAST_START_TIME + id, timer.getLastStartTime());
-        editor.putLong(LAST_WALL_CLOCK_TIME + id, timer.getLastWallClockTime());
-        editor.putLong(REMAINING_TIME + id, timer.getRemainingTime());
-        editor.putString(LABEL + id, timer.getLabel());
-        editor.putBoolean(DELETE_AFTER_USE + id, timer.getDeleteAfterUse());
+        // The legacy keys are only removed once the record file safely holds their timers.
+        if (!write(toImage())) {
+            return;
+        }
 
+        final SharedPreferences.Editor editor = mPrefs.edit();
+        editor.remove(TIMER_IDS);
+        editor.remove(NEXT_TIMER_ID);
+        for (String timerId : timerIds) {
+            editor.remove(STATE + timerId);
+            editor.remove(LENGTH + timerId);
+            editor.remove(TOTAL_LENGTH + timerId);
+            editor.remove(LAST_START_TIME + timerId);
+            editor.remove(LAST_WALL_CLOCK_TIME + timerId);
+            editor.remove(REMAINING_TIME + timerId);
+            editor.remove(LABEL + timerId);
+            editor.remove(DELETE_AFTER_USE + timerId);
+        }
         editor.apply();
 
-        // Return a new timer with the generated timer id present.
-        return new Timer(id, timer.getState(), timer.getLength(), timer.getTotalLength(),
-                timer.getLastStartTime(), timer.getLastWallClockTime(), timer.getRemainingTime(),
-                timer.getLabel(), timer.getDeleteAfterUse());
+        if (!timerIds.isEmpty()) {
+            LogUtils.i("Migrated %d timers to %s", mTimers.size(), mFile.getBaseFile());
+        }
     }
 
     /**
-     * @param timer the timer to be updated
+     * Atomically replaces the record file with the given image.
+     *
+     * @return {@code true} if the image was written
      */
-    static void updateTimer(SharedPreferences prefs, Timer timer) {
-        final SharedPreferences.Editor editor = prefs.edit();
-
-        // Record the fields of the timer.
-        final int id = timer.getId();
-        editor.putInt(STATE + id, timer.getState().getValue());
-        editor.putLong(LENGTH + id, timer.getLength());
-        editor.putLong(TOTAL_LENGTH + id, timer.getTotalLength());
-        editor.putLong(LAST_START_TIME + id, timer.getLastStartTime());
-        editor.putLong(LAST_WALL_CLOCK_TIME + id, timer.getLastWallClockTime());
-        editor.putLong(REMAINING_TIME + id, timer.getRemainingTime());
-        editor.putString(LABEL + id, timer.getLabel());
-        editor.putBoolean(DELETE_AFTER_USE + id, timer.getDeleteAfterUse());
-
-        editor.apply();
+    private boolean write(byte[] image) {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(image);
+            mFile.finishWrite(out);
+            return true;
+        } catch (IOException e) {
+            LogUtils.e("Unable to write timers", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+            return false;
+        }
     }
 
     /**
-     * @param timer the timer to be removed
+     * @return the context whose storage holds the timers; device protected storage on N+ so that
+     *      timers survive and expire before the user unlocks the device
      */
-    static void removeTimer(SharedPreferences prefs, Timer timer) {
-        final SharedPreferences.Editor editor = prefs.edit();
-
-        final int id = timer.getId();
-
-        // Remove the timer id from the set of all timer ids.
-        final Set<String> timerIds = new HashSet<>(getTimerIds(prefs));
-        timerIds.remove(String.valueOf(id));
-        if (timerIds.isEmpty()) {
-            editor.remove(TIMER_IDS);
-            editor.remove(NEXT_TIMER_ID);
-        } else {
-            editor.putStringSet(TIMER_IDS, timerIds);
-        }
-
-        // Record the fields of the timer.
-        editor.remove(STATE + id);
-        editor.remove(LENGTH + id);
-        editor.remove(TOTAL_LENGTH + id);
-        editor.remove(LAST_START_TIME + id);
-        editor.remove(LAST_WALL_CLOCK_TIME + id);
-        editor.remove(REMAINING_TIME + id);
-        editor.remove(LABEL + id);
-        editor.remove(DELETE_AFTER_USE + id);
-
-        editor.apply();
-    }
-
-    private static Set<String> getTimerIds(SharedPreferences prefs) {
-        return prefs.getStringSet(TIMER_IDS, Collections.<String>emptySet());
+    @TargetApi(Build.VERSION_CODES.N)
+    private static Context getStorageContext(Context context) {
+        return Utils.isNOrLater() ? context.createDeviceProtectedStorageContext() : context;
     }
-}
\ No newline at end of file
+}
@@ -16,6 +16,8 @@
 
 package com.android.deskclock.data;
 
+import java.util.List;
+
 /**
  * The interface through which interested parties are notified of changes to one of the timers.
  */
@@ -36,4 +38,13 @@ public interface TimerListener {
      * @param timer the timer that was removed
      */
     void timerRemoved(Timer timer);
+
+    /**
+     * Called once for all changes made in a batch, in place of the callbacks above. The lists are
+     * parallel: entries at the same index describe the same timer.
+     *
+     * @param before each changed timer before the batch; {@code null} entries mark added timers
+     * @param after each changed timer after the batch; {@code null} entries mark removed timers
+     */
+    void timersChanged(List<Timer> before, List<Timer> after);
 }
\ No newline at end of file
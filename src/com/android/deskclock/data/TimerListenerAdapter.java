@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.data;
+
+import java.util.List;
+
+/**
+ * A {@link TimerListener} that handles a batch of changes by replaying each of them, in order, as
+ * the matching single change callback. Subclasses that can handle a batch more cheaply override
+ * {@link #timersChanged}.
+ */
+public abstract class TimerListenerAdapter implements TimerListener {
+
+    @Override
+    public void timersChanged(List<Timer> before, List<Timer> after) {
+        for (int i = 0; i < after.size(); i++) {
+            if (before.get(i) == null) {
+                timerAdded(after.get(i));
+            } else if (after.get(i) == null) {
+                timerRemoved(before.get(i));
+            } else {
+                timerUpdated(before.get(i), after.get(i));
+            }
+        }
+    }
+}
@@ -31,6 +31,8 @@ import android.net.Uri;
 import android.support.annotation.StringRes;
 import android.support.v4.app.NotificationManagerCompat;
 import android.util.ArraySet;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.android.deskclock.AlarmAlertWakeLock;
 import com.android.deskclock.LogUtils;
@@ -43,8 +45,10 @@ import com.android.deskclock.timer.TimerService;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 import static android.app.AlarmManager.ELAPSED_REALTIME_WAKEUP;
 import static android.text.format.DateUtils.MINUTE_IN_MILLIS;
@@ -62,9 +66,23 @@ final class TimerModel {
      */
     private static final long MISSED_THRESHOLD = -MINUTE_IN_MILLIS;
 
+    /**
+     * Orders expired and missed timers by expiration time, breaking ties by id. For timers in the
+     * same state this matches {@link Timer#EXPIRY_COMPARATOR}, but it does not change over time,
+     * so it can order a sorted set.
+     */
+    private static final Comparator<Timer> EXPIRATION_ORDER = new Comparator<Timer>() {
+        @Override
+        public int compare(Timer timer1, Timer timer2) {
+            final int order = Long.compare(timer1.getExpirationTime(), timer2.getExpirationTime());
+            return order != 0 ? order : Integer.compare(timer1.getId(), timer2.getId());
+        }
+    };
+
     private final Context mContext;
 
-    private final SharedPreferences mPrefs;
+    /** Stores the timers permanently. */
+    private final TimerDAO mTimerDAO;
 
     /** The alarm manager system service that calls back when timers expire. */
     private final AlarmManager mAlarmManager;
@@ -79,7 +97,7 @@ final class TimerModel {
     private final RingtoneModel mRingtoneModel;
 
     /** Used to create and destroy system notifications related to timers. */
-    private final NotificationManagerCompat mNotificationManager;
+    private final NotificationPoster mNotificationPoster;
 
     /** Update timer notification when locale changes. */
     @SuppressWarnings("FieldCanBeLocal")
@@ -112,14 +130,26 @@ final class TimerModel {
     /** The title of the ringtone to play for timers. */
     private String mTimerRingtoneTitle;
 
-    /** A mutable copy of the timers. */
+    /** A mutable copy of the timers, newest first; {@code null} until first loaded. */
     private List<Timer> mTimers;
 
-    /** A mutable copy of the expired timers. */
-    private List<Timer> mExpiredTimers;
+    /** Every timer by id. */
+    private final SparseArray<Timer> mTimersById = new SparseArray<>();
+
+    /** The ids of running timers ordered by expiration time. */
+    private final FireTimeIndex mRunningTimers = new FireTimeIndex();
 
-    /** A mutable copy of the missed timers. */
-    private List<Timer> mMissedTimers;
+    /** The expired timers in their expiration order. */
+    private final TreeSet<Timer> mExpiredTimers = new TreeSet<>(EXPIRATION_ORDER);
+
+    /** The missed timers in their expiration order. */
+    private final TreeSet<Timer> mMissedTimers = new TreeSet<>(EXPIRATION_ORDER);
+
+    /** A copy of {@link #mExpiredTimers} for callers; {@code null} when it must be rebuilt. */
+    private List<Timer> mExpiredTimerList;
+
+    /** A copy of {@link #mMissedTimers} for callers; {@code null} when it must be rebuilt. */
+    private List<Timer> mMissedTimerList;
 
     /**
      * The service that keeps this application in the foreground while a heads-up timer
@@ -128,14 +158,38 @@ final class TimerModel {
      */
     private Service mService;
 
+    /** Number of nested batches in progress; see {@link #runBatch}. */
+    private int mBatchDepth;
+
+    /** Each timer changed in the current batch as it was before the batch; {@code null} if new. */
+    private final List<Timer> mBatchBefore = new ArrayList<>();
+
+    /** Each timer changed in the current batch as it is now; {@code null} if removed. */
+    private final List<Timer> mBatchAfter = new ArrayList<>();
+
+    /** Maps the id of each timer changed in the current batch to its index in the lists above. */
+    private final SparseIntArray mBatchIndices = new SparseIntArray();
+
+    /** {@code true} if the expiration callback must be updated when the current batch ends. */
+    private boolean mBatchUpdateAlarmManager;
+
+    /** {@code true} if the unexpired notification must be updated when the current batch ends. */
+    private boolean mBatchUpdateNotification;
+
+    /** {@code true} if the missed notification must be updated when the current batch ends. */
+    private boolean mBatchUpdateMissedNotification;
+
+    /** {@code true} if the heads-up notification must be updated when the current batch ends. */
+    private boolean mBatchUpdateHeadsUpNotification;
+
     TimerModel(Context context, SharedPreferences prefs, SettingsModel settingsModel,
             RingtoneModel ringtoneModel, NotificationModel notificationModel) {
         mContext = context;
-        mPrefs = prefs;
+        mTimerDAO = new TimerDAO(context, prefs);
         mSettingsModel = settingsModel;
         mRingtoneModel = ringtoneModel;
         mNotificationModel = notificationModel;
-        mNotificationManager = NotificationManagerCompat.from(context);
+        mNotificationPoster = new NotificationPoster(NotificationManagerCompat.from(context));
 
         mAlarmManager = (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
 
@@ -187,13 +241,8 @@ final class TimerModel {
      * @return the timer with the given {@code timerId}
      */
     Timer getTimer(int timerId) {
-        for (Timer timer : getMutableTimers()) {
-            if (timer.getId() == timerId) {
-                return timer;
-            }
-        }
-
-        return null;
+        getMutableTimers();
+        return mTimersById.get(timerId);
     }
 
     /**
@@ -201,8 +250,8 @@ final class TimerModel {
      *      expired
      */
     Timer getMostRecentExpiredTimer() {
-        final List<Timer> timers = getMutableExpiredTimers();
-        return timers.isEmpty() ? null : timers.get(timers.size() - 1);
+        getMutableTimers();
+        return mExpiredTimers.isEmpty() ? null : mExpiredTimers.last();
     }
 
     /**
@@ -217,19 +266,18 @@ final class TimerModel {
                 label, deleteAfterUse);
 
         // Add the timer to permanent storage.
-        timer = TimerDAO.addTimer(mPrefs, timer);
+        timer = mTimerDAO.addTimer(timer);
 
-        // Add the timer to the cache.
+        // Add the timer to the cache; its id is the largest so it sorts first.
         getMutableTimers().add(0, timer);
+        indexTimer(timer);
 
         // Update the timer notification.
         updateNotification();
         // Heads-Up notification is unaffected by this change
 
         // Notify listeners of the change.
-        for (TimerListener timerListener : mTimerListeners) {
-            timerListener.timerAdded(timer);
-        }
+        notifyTimerChanged(null, timer);
 
         return timer;
     }
@@ -243,6 +291,7 @@ final class TimerModel {
             // If this is the first expired timer, retain the service that will be used to start
             // the heads-up notification in the foreground.
             mService = service;
+            mNotificationPoster.forget(mNotificationModel.getExpiredTimerNotificationId());
         } else if (mService != service) {
             // If this is not the first expired timer, the service should match the one given when
             // the first timer expired.
@@ -313,30 +362,38 @@ final class TimerModel {
      * Update timers after system reboot.
      */
     void updateTimersAfterReboot() {
-        final List<Timer> timers = new ArrayList<>(getTimers());
-        for (Timer timer : timers) {
-            doUpdateAfterRebootTimer(timer);
-        }
+        beginBatch();
+        try {
+            final List<Timer> timers = new ArrayList<>(getTimers());
+            for (Timer timer : timers) {
+                doUpdateAfterRebootTimer(timer);
+            }
 
-        // Update the notifications once after all timers are updated.
-        updateNotification();
-        updateMissedNotification();
-        updateHeadsUpNotification();
+            updateNotification();
+            updateMissedNotification();
+            updateHeadsUpNotification();
+        } finally {
+            endBatch();
+        }
     }
 
     /**
      * Update timers after time set.
      */
     void updateTimersAfterTimeSet() {
-        final List<Timer> timers = new ArrayList<>(getTimers());
-        for (Timer timer : timers) {
-            doUpdateAfterTimeSetTimer(timer);
-        }
+        beginBatch();
+        try {
+            final List<Timer> timers = new ArrayList<>(getTimers());
+            for (Timer timer : timers) {
+                doUpdateAfterTimeSetTimer(timer);
+            }
 
-        // Update the notifications once after all timers are updated.
-        updateNotification();
-        updateMissedNotification();
-        updateHeadsUpNotification();
+            updateNotification();
+            updateMissedNotification();
+            updateHeadsUpNotification();
+        } finally {
+            endBatch();
+        }
     }
 
     /**
@@ -345,15 +402,19 @@ final class TimerModel {
      * @param eventLabelId the label of the timer event to send; 0 if no event should be sent
      */
     void resetExpiredTimers(@StringRes int eventLabelId) {
-        final List<Timer> timers = new ArrayList<>(getTimers());
-        for (Timer timer : timers) {
-            if (timer.isExpired()) {
-                doResetOrDeleteTimer(timer, true /* allowDelete */, eventLabelId);
+        beginBatch();
+        try {
+            final List<Timer> timers = new ArrayList<>(getTimers());
+            for (Timer timer : timers) {
+                if (timer.isExpired()) {
+                    doResetOrDeleteTimer(timer, true /* allowDelete */, eventLabelId);
+                }
             }
-        }
 
-        // Update the notifications once after all timers are updated.
-        updateHeadsUpNotification();
+            updateHeadsUpNotification();
+        } finally {
+            endBatch();
+        }
     }
 
     /**
@@ -362,15 +423,19 @@ final class TimerModel {
      * @param eventLabelId the label of the timer event to send; 0 if no event should be sent
      */
     void resetMissedTimers(@StringRes int eventLabelId) {
-        final List<Timer> timers = new ArrayList<>(getTimers());
-        for (Timer timer : timers) {
-            if (timer.isMissed()) {
-                doResetOrDeleteTimer(timer, true /* allowDelete */, eventLabelId);
+        beginBatch();
+        try {
+            final List<Timer> timers = new ArrayList<>(getTimers());
+            for (Timer timer : timers) {
+                if (timer.isMissed()) {
+                    doResetOrDeleteTimer(timer, true /* allowDelete */, eventLabelId);
+                }
             }
-        }
 
-        // Update the notifications once after all timers are updated.
-        updateMissedNotification();
+            updateMissedNotification();
+        } finally {
+            endBatch();
+        }
     }
 
     /**
@@ -379,16 +444,60 @@ final class TimerModel {
      * @param eventLabelId the label of the timer event to send; 0 if no event should be sent
      */
     void resetUnexpiredTimers(@StringRes int eventLabelId) {
-        final List<Timer> timers = new ArrayList<>(getTimers());
-        for (Timer timer : timers) {
-            if (timer.isRunning() || timer.isPaused()) {
-                doResetOrDeleteTimer(timer, true /* allowDelete */, eventLabelId);
+        beginBatch();
+        try {
+            final List<Timer> timers = new ArrayList<>(getTimers());
+            for (Timer timer : timers) {
+                if (timer.isRunning() || timer.isPaused()) {
+                    doResetOrDeleteTimer(timer, true /* allowDelete */, eventLabelId);
+                }
             }
+
+            updateNotification();
+            // Heads-Up notification is unaffected by this change
+        } finally {
+            endBatch();
         }
+    }
 
-        // Update the notification once after all timers are updated.
-        updateNotification();
-        // Heads-Up notification is unaffected by this change
+    /**
+     * @return the number of timer notifications handed to the system
+     */
+    long getNotificationPostedCount() {
+        return mNotificationPoster.getPostedCount();
+    }
+
+    /**
+     * @return the number of timer notification updates skipped because nothing visible changed or
+     *      because a later update replaced them within the same frame
+     */
+    long getNotificationSuppressedCount() {
+        return mNotificationPoster.getSuppressedCount();
+    }
+
+    /**
+     * Writes any timer changes still pending to permanent storage before returning.
+     */
+    void flush() {
+        mTimerDAO.flush();
+    }
+
+    /**
+     * Runs {@code batch}, which may change any number of timers through this model, as a single
+     * change. The timers are persisted with one write, the expiration callback and each
+     * notification are updated at most once, and listeners receive a single
+     * {@link TimerListener#timersChanged} callback once the batch completes. Batches may nest; the
+     * outermost batch commits the changes of all of them.
+     *
+     * @param batch makes the changes
+     */
+    void runBatch(Runnable batch) {
+        beginBatch();
+        try {
+            batch.run();
+        } finally {
+            endBatch();
+        }
     }
 
     /**
@@ -471,41 +580,74 @@ final class TimerModel {
 
     private List<Timer> getMutableTimers() {
         if (mTimers == null) {
-            mTimers = TimerDAO.getTimers(mPrefs);
+            mTimers = mTimerDAO.getTimers();
             Collections.sort(mTimers, Timer.ID_COMPARATOR);
+            for (Timer timer : mTimers) {
+                indexTimer(timer);
+            }
         }
 
         return mTimers;
     }
 
     private List<Timer> getMutableExpiredTimers() {
-        if (mExpiredTimers == null) {
-            mExpiredTimers = new ArrayList<>();
-
-            for (Timer timer : getMutableTimers()) {
-                if (timer.isExpired()) {
-                    mExpiredTimers.add(timer);
-                }
-            }
-            Collections.sort(mExpiredTimers, Timer.EXPIRY_COMPARATOR);
+        getMutableTimers();
+        if (mExpiredTimerList == null) {
+            mExpiredTimerList = new ArrayList<>(mExpiredTimers);
         }
 
-        return mExpiredTimers;
+        return mExpiredTimerList;
     }
 
     private List<Timer> getMutableMissedTimers() {
-        if (mMissedTimers == null) {
-            mMissedTimers = new ArrayList<>();
+        getMutableTimers();
+        if (mMissedTimerList == null) {
+            mMissedTimerList = new ArrayList<>(mMissedTimers);
+        }
 
-            for (Timer timer : getMutableTimers()) {
-                if (timer.isMissed()) {
-                    mMissedTimers.add(timer);
-                }
-            }
-            Collections.sort(mMissedTimers, Timer.EXPIRY_COMPARATOR);
+        return mMissedTimerList;
+    }
+
+    /**
+     * @return the position of the timer with the same id as {@code timer} in {@link #mTimers}, or
+     *      a negative value if there is none
+     */
+    private int getTimerIndex(Timer timer) {
+        return Collections.binarySearch(getMutableTimers(), timer, Timer.ID_COMPARATOR);
+    }
+
+    /**
+     * Adds the {@code timer} to the id map and to the expiration heap or state bucket its state
+     * calls for.
+     */
+    private void indexTimer(Timer timer) {
+        mTimersById.put(timer.getId(), timer);
+        if (timer.isRunning()) {
+            mRunningTimers.put(timer.getId(), timer.getExpirationTime());
+        } else if (timer.isExpired()) {
+            mExpiredTimers.add(timer);
+            mExpiredTimerList = null;
+        } else if (timer.isMissed()) {
+            mMissedTimers.add(timer);
+            mMissedTimerList = null;
         }
+    }
 
-        return mMissedTimers;
+    /**
+     * Removes the {@code timer}, exactly as it was indexed, from the id map, the expiration heap
+     * and the state buckets.
+     */
+    private void unindexTimer(Timer timer) {
+        mTimersById.remove(timer.getId());
+        if (timer.isRunning()) {
+            mRunningTimers.remove(timer.getId());
+        } else if (timer.isExpired()) {
+            mExpiredTimers.remove(timer);
+            mExpiredTimerList = null;
+        } else if (timer.isMissed()) {
+            mMissedTimers.remove(timer);
+            mMissedTimerList = null;
+        }
     }
 
     /**
@@ -518,7 +660,7 @@ final class TimerModel {
     private Timer doUpdateTimer(Timer timer) {
         // Retrieve the cached form of the timer.
         final List<Timer> timers = getMutableTimers();
-        final int index = timers.indexOf(timer);
+        final int index = getTimerIndex(timer);
         final Timer before = timers.get(index);
 
         // If no change occurred, ignore this update.
@@ -527,19 +669,12 @@ final class TimerModel {
         }
 
         // Update the timer in permanent storage.
-        TimerDAO.updateTimer(mPrefs, timer);
+        mTimerDAO.updateTimer(timer);
 
         // Update the timer in the cache.
         final Timer oldTimer = timers.set(index, timer);
-
-        // Clear the cache of expired timers if the timer changed to/from expired.
-        if (before.isExpired() || timer.isExpired()) {
-            mExpiredTimers = null;
-        }
-        // Clear the cache of missed timers if the timer changed to/from missed.
-        if (before.isMissed() || timer.isMissed()) {
-            mMissedTimers = null;
-        }
+        unindexTimer(before);
+        indexTimer(timer);
 
         // Update the timer expiration callback.
         updateAlarmManager();
@@ -548,9 +683,7 @@ final class TimerModel {
         updateRinger(before, timer);
 
         // Notify listeners of the change.
-        for (TimerListener timerListener : mTimerListeners) {
-            timerListener.timerUpdated(before, timer);
-        }
+        notifyTimerChanged(before, timer);
 
         return oldTimer;
     }
@@ -563,28 +696,18 @@ final class TimerModel {
      */
     private void doRemoveTimer(Timer timer) {
         // Remove the timer from permanent storage.
-        TimerDAO.removeTimer(mPrefs, timer);
+        mTimerDAO.removeTimer(timer);
 
         // Remove the timer from the cache.
-        final List<Timer> timers = getMutableTimers();
-        final int index = timers.indexOf(timer);
+        final int index = getTimerIndex(timer);
 
         // If the timer cannot be located there is nothing to remove.
-        if (index == -1) {
+        if (index < 0) {
             return;
         }
 
-        timer = timers.remove(index);
-
-        // Clear the cache of expired timers if a new expired timer was added.
-        if (timer.isExpired()) {
-            mExpiredTimers = null;
-        }
-
-        // Clear the cache of missed timers if a new missed timer was added.
-        if (timer.isMissed()) {
-            mMissedTimers = null;
-        }
+        timer = getMutableTimers().remove(index);
+        unindexTimer(timer);
 
         // Update the timer expiration callback.
         updateAlarmManager();
@@ -593,9 +716,7 @@ final class TimerModel {
         updateRinger(timer, null);
 
         // Notify listeners of the change.
-        for (TimerListener timerListener : mTimerListeners) {
-            timerListener.timerRemoved(timer);
-        }
+        notifyTimerChanged(timer, null);
     }
 
     /**
@@ -653,24 +774,113 @@ final class TimerModel {
     }
 
 
+    private void beginBatch() {
+        mBatchDepth++;
+        mTimerDAO.beginBatch();
+    }
+
+    /**
+     * Ends a batch begun by {@link #beginBatch}. When the outermost batch ends, all work deferred
+     * during the batch is performed once.
+     */
+    private void endBatch() {
+        mTimerDAO.endBatch();
+        if (--mBatchDepth > 0) {
+            return;
+        }
+
+        if (mBatchUpdateAlarmManager) {
+            mBatchUpdateAlarmManager = false;
+            updateAlarmManager();
+        }
+
+        if (!mBatchAfter.isEmpty()) {
+            final List<Timer> before = new ArrayList<>(mBatchAfter.size());
+            final List<Timer> after = new ArrayList<>(mBatchAfter.size());
+            for (int i = 0; i < mBatchAfter.size(); i++) {
+                // Skip timers that were added and then removed within the batch.
+                if (mBatchBefore.get(i) != null || mBatchAfter.get(i) != null) {
+                    before.add(mBatchBefore.get(i));
+                    after.add(mBatchAfter.get(i));
+                }
+            }
+            mBatchBefore.clear();
+            mBatchAfter.clear();
+            mBatchIndices.clear();
+
+            if (!after.isEmpty()) {
+                final List<Timer> unmodifiableBefore = Collections.unmodifiableList(before);
+                final List<Timer> unmodifiableAfter = Collections.unmodifiableList(after);
+                for (TimerListener timerListener : mTimerListeners) {
+                    timerListener.timersChanged(unmodifiableBefore, unmodifiableAfter);
+                }
+            }
+        }
+
+        if (mBatchUpdateNotification) {
+            mBatchUpdateNotification = false;
+            updateNotification();
+        }
+        if (mBatchUpdateMissedNotification) {
+            mBatchUpdateMissedNotification = false;
+            updateMissedNotification();
+        }
+        if (mBatchUpdateHeadsUpNotification) {
+            mBatchUpdateHeadsUpNotification = false;
+            updateHeadsUpNotification();
+        }
+    }
+
+    /**
+     * Notifies listeners of a change to a timer, or records the change to be reported when the
+     * current batch ends.
+     *
+     * @param before the state of the timer before the change; {@code null} indicates added
+     * @param after the state of the timer after the change; {@code null} indicates removed
+     */
+    private void notifyTimerChanged(Timer before, Timer after) {
+        if (mBatchDepth > 0) {
+            final int id = before != null ? before.getId() : after.getId();
+            final int index = mBatchIndices.get(id, -1);
+            if (index == -1) {
+                mBatchIndices.put(id, mBatchAfter.size());
+                mBatchBefore.add(before);
+                mBatchAfter.add(after);
+            } else {
+                // Report the timer's state before the batch and after its latest change.
+                mBatchAfter.set(index, after);
+            }
+            return;
+        }
+
+        for (TimerListener timerListener : mTimerListeners) {
+            if (before == null) {
+                timerListener.timerAdded(after);
+            } else if (after == null) {
+                timerListener.timerRemoved(before);
+            } else {
+                timerListener.timerUpdated(before, after);
+            }
+        }
+    }
+
     /**
      * Updates the callback given to this application from the {@link AlarmManager} that signals the
      * expiration of the next timer. If no timers are currently set to expire (i.e. no running
      * timers exist) then this method clears the expiration callback from AlarmManager.
      */
     private void updateAlarmManager() {
-        // Locate the next firing timer if one exists.
-        Timer nextExpiringTimer = null;
-        for (Timer timer : getMutableTimers()) {
-            if (timer.isRunning()) {
-                if (nextExpiringTimer == null) {
-                    nextExpiringTimer = timer;
-                } else if (timer.getExpirationTime() < nextExpiringTimer.getExpirationTime()) {
-                    nextExpiringTimer = timer;
-                }
-            }
+        if (mBatchDepth > 0) {
+            mBatchUpdateAlarmManager = true;
+            return;
         }
 
+        // Locate the next firing timer if one exists.
+        getMutableTimers();
+        final long nextExpiringId = mRunningTimers.peek();
+        final Timer nextExpiringTimer =
+                nextExpiringId == -1 ? null : mTimersById.get((int) nextExpiringId);
+
         // Build the intent that signals the timer expiration.
         final Intent intent = TimerService.createTimerExpiredIntent(mContext, nextExpiringTimer);
 
@@ -724,9 +934,16 @@ final class TimerModel {
      * when the application is not open.
      */
     void updateNotification() {
+        if (mBatchDepth > 0) {
+            mBatchUpdateNotification = true;
+            return;
+        }
+
+        final int notificationId = mNotificationModel.getUnexpiredTimerNotificationId();
+
         // Notifications should be hidden if the app is open.
         if (mNotificationModel.isApplicationInForeground()) {
-            mNotificationManager.cancel(mNotificationModel.getUnexpiredTimerNotificationId());
+            mNotificationPoster.cancel(notificationId);
             return;
         }
 
@@ -740,19 +957,23 @@ final class TimerModel {
 
         // If no unexpired timers exist, cancel the notification.
         if (unexpired.isEmpty()) {
-            mNotificationManager.cancel(mNotificationModel.getUnexpiredTimerNotificationId());
+            mNotificationPoster.cancel(notificationId);
             return;
         }
 
         // Sort the unexpired timers to locate the next one scheduled to expire.
         Collections.sort(unexpired, Timer.EXPIRY_COMPARATOR);
 
+        // Skip the post if the notification already shows the latest unexpired timers.
+        final String contentKey = mNotificationBuilder.getContentKey(unexpired);
+        if (!mNotificationPoster.isChanged(notificationId, contentKey)) {
+            return;
+        }
+
         // Otherwise build and post a notification reflecting the latest unexpired timers.
         final Notification notification =
                 mNotificationBuilder.build(mContext, mNotificationModel, unexpired);
-        final int notificationId = mNotificationModel.getUnexpiredTimerNotificationId();
-        mNotificationManager.notify(notificationId, notification);
-
+        mNotificationPoster.notify(notificationId, notification);
     }
 
     /**
@@ -760,23 +981,34 @@ final class TimerModel {
      * the application is not open.
      */
     void updateMissedNotification() {
+        if (mBatchDepth > 0) {
+            mBatchUpdateMissedNotification = true;
+            return;
+        }
+
+        final int notificationId = mNotificationModel.getMissedTimerNotificationId();
+
         // Notifications should be hidden if the app is open.
         if (mNotificationModel.isApplicationInForeground()) {
-            mNotificationManager.cancel(mNotificationModel.getMissedTimerNotificationId());
+            mNotificationPoster.cancel(notificationId);
             return;
         }
 
         final List<Timer> missed = getMissedTimers();
 
         if (missed.isEmpty()) {
-            mNotificationManager.cancel(mNotificationModel.getMissedTimerNotificationId());
+            mNotificationPoster.cancel(notificationId);
+            return;
+        }
+
+        final String contentKey = mNotificationBuilder.getContentKey(missed);
+        if (!mNotificationPoster.isChanged(notificationId, contentKey)) {
             return;
         }
 
         final Notification notification = mNotificationBuilder.buildMissed(mContext,
                 mNotificationModel, missed);
-        final int notificationId = mNotificationModel.getMissedTimerNotificationId();
-        mNotificationManager.notify(notificationId, notification);
+        mNotificationPoster.notify(notificationId, notification);
     }
 
     /**
@@ -784,24 +1016,36 @@ final class TimerModel {
      * displayed whether the application is open or not.
      */
     private void updateHeadsUpNotification() {
+        if (mBatchDepth > 0) {
+            mBatchUpdateHeadsUpNotification = true;
+            return;
+        }
+
         // Nothing can be done with the heads-up notification without a valid service reference.
         if (mService == null) {
             return;
         }
 
         final List<Timer> expired = getExpiredTimers();
+        final int notificationId = mNotificationModel.getExpiredTimerNotificationId();
 
         // If no expired timers exist, stop the service (which cancels the foreground notification).
         if (expired.isEmpty()) {
             mService.stopSelf();
             mService = null;
+            mNotificationPoster.forget(notificationId);
+            return;
+        }
+
+        // The foreground notification is never delayed, but it is not reposted unchanged.
+        final String contentKey = mNotificationBuilder.getContentKey(expired);
+        if (!mNotificationPoster.isChanged(notificationId, contentKey)) {
             return;
         }
 
         // Otherwise build and post a foreground notification reflecting the latest expired timers.
         final Notification notification = mNotificationBuilder.buildHeadsUp(mContext, expired);
-        final int notificationId = mNotificationModel.getExpiredTimerNotificationId();
-        mService.startForeground(notificationId, notification);
+        mNotificationPoster.startForeground(mService, notificationId, notification);
     }
 
     /**
@@ -811,6 +1055,8 @@ final class TimerModel {
         @Override
         public void onReceive(Context context, Intent intent) {
             mTimerRingtoneTitle = null;
+            mNotificationBuilder.clearCache();
+            mNotificationPoster.forgetAll();
             updateNotification();
             updateMissedNotification();
             updateHeadsUpNotification();
@@ -28,8 +28,10 @@ import android.content.res.Resources;
 import android.os.Build;
 import android.os.SystemClock;
 import android.support.annotation.DrawableRes;
+import android.support.annotation.StringRes;
 import android.support.v4.content.ContextCompat;
 import android.text.TextUtils;
+import android.util.LongSparseArray;
 import android.widget.RemoteViews;
 
 import com.android.deskclock.AlarmUtils;
@@ -53,6 +55,68 @@ class TimerNotificationBuilder {
     private static final int REQUEST_CODE_UPCOMING = 0;
     private static final int REQUEST_CODE_MISSING = 1;
 
+    /** Identifies a cached action of a single timer, or of all timers with {@link #NO_TIMER_ID}. */
+    private static final int ACTION_PAUSE = 0;
+    private static final int ACTION_ADD_MINUTE = 1;
+    private static final int ACTION_START = 2;
+    private static final int ACTION_RESET = 3;
+    private static final int ACTION_RESET_MISSED = 4;
+    private static final int ACTION_RESET_UNEXPIRED = 5;
+    private static final int ACTION_STOP_EXPIRED = 6;
+    private static final int ACTION_STOP_ALL_EXPIRED = 7;
+    private static final int ACTION_RESET_ALL_MISSED = 8;
+
+    private static final int NO_TIMER_ID = -1;
+
+    /** The cache is cleared rather than grown beyond this many actions. */
+    private static final int MAX_CACHED_ACTIONS = 32;
+
+    /**
+     * Actions built for earlier notifications, keyed by timer id and action. Their pending intents
+     * are updated in place when recreated, so an action can be reused for as long as its title is.
+     */
+    private final LongSparseArray<Action> mActions = new LongSparseArray<>();
+
+    /** Opens the expired timers when the heads-up notification is tapped; built on first use. */
+    private PendingIntent mExpiredContentIntent;
+
+    /** Opens the expired timers when the heads-up notification is shown full screen. */
+    private PendingIntent mExpiredFullScreenIntent;
+
+    /**
+     * Summarizes everything a notification built from the {@code timers} would show: its text,
+     * its chronometer and the targets of its actions. Lists with equal keys produce notifications
+     * that look and behave identically.
+     *
+     * @param timers the timers passed to {@link #build}, {@link #buildHeadsUp} or
+     *      {@link #buildMissed}
+     * @return the content key, or {@code null} if the notification must be rebuilt regardless
+     */
+    String getContentKey(List<Timer> timers) {
+        if (!Utils.isNOrLater()) {
+            // Pre-N notifications show text that ages and schedule their own refresh when built.
+            return null;
+        }
+
+        final Timer timer = timers.get(0);
+        // The chronometer of a paused timer shows a fixed remaining time; all others count towards
+        // or away from a fixed expiration time.
+        final long chronometer = timer.isPaused()
+                ? timer.getRemainingTime() : timer.getExpirationTime();
+        return timers.size() + "|" + timer.getId() + "|" + timer.getState().getValue() + "|"
+                + chronometer + "|" + timer.getLabel();
+    }
+
+    /**
+     * Discards cached actions and pending intents, e.g. because their titles changed with the
+     * locale.
+     */
+    void clearCache() {
+        mActions.clear();
+        mExpiredContentIntent = null;
+        mExpiredFullScreenIntent = null;
+    }
+
     public Notification build(Context context, NotificationModel nm, List<Timer> unexpired) {
         final Timer timer = unexpired.get(0);
         final int count = unexpired.size();
@@ -77,48 +141,20 @@ class TimerNotificationBuilder {
                 }
 
                 // Left button: Pause
-                final Intent pause = new Intent(context, TimerService.class)
-                        .setAction(TimerService.ACTION_PAUSE_TIMER)
-                        .putExtra(TimerService.EXTRA_TIMER_ID, timer.getId());
-
-                @DrawableRes final int icon1 = R.drawable.ic_pause_24dp;
-                final CharSequence title1 = res.getText(R.string.timer_pause);
-                final PendingIntent intent1 = Utils.pendingServiceIntent(context, pause);
-                actions.add(new Action.Builder(icon1, title1, intent1).build());
+                actions.add(getAction(context, ACTION_PAUSE, timer.getId()));
 
                 // Right Button: +1 Minute
-                final Intent addMinute = new Intent(context, TimerService.class)
-                        .setAction(TimerService.ACTION_ADD_MINUTE_TIMER)
-                        .putExtra(TimerService.EXTRA_TIMER_ID, timer.getId());
-
-                @DrawableRes final int icon2 = R.drawable.ic_add_24dp;
-                final CharSequence title2 = res.getText(R.string.timer_plus_1_min);
-                final PendingIntent intent2 = Utils.pendingServiceIntent(context, addMinute);
-                actions.add(new Action.Builder(icon2, title2, intent2).build());
+                actions.add(getAction(context, ACTION_ADD_MINUTE, timer.getId()));
 
             } else {
                 // Single timer is paused.
                 stateText = res.getString(R.string.timer_paused);
 
                 // Left button: Start
-                final Intent start = new Intent(context, TimerService.class)
-                        .setAction(TimerService.ACTION_START_TIMER)
-                        .putExtra(TimerService.EXTRA_TIMER_ID, timer.getId());
-
-                @DrawableRes final int icon1 = R.drawable.ic_start_24dp;
-                final CharSequence title1 = res.getText(R.string.sw_resume_button);
-                final PendingIntent intent1 = Utils.pendingServiceIntent(context, start);
-                actions.add(new Action.Builder(icon1, title1, intent1).build());
+                actions.add(getAction(context, ACTION_START, timer.getId()));
 
                 // Right Button: Reset
-                final Intent reset = new Intent(context, TimerService.class)
-                        .setAction(TimerService.ACTION_RESET_TIMER)
-                        .putExtra(TimerService.EXTRA_TIMER_ID, timer.getId());
-
-                @DrawableRes final int icon2 = R.drawable.ic_reset_24dp;
-                final CharSequence title2 = res.getText(R.string.sw_reset_button);
-                final PendingIntent intent2 = Utils.pendingServiceIntent(context, reset);
-                actions.add(new Action.Builder(icon2, title2, intent2).build());
+                actions.add(getAction(context, ACTION_RESET, timer.getId()));
             }
         } else {
             if (running) {
@@ -129,12 +165,7 @@ class TimerNotificationBuilder {
                 stateText = res.getString(R.string.timers_stopped, count);
             }
 
-            final Intent reset = TimerService.createResetUnexpiredTimersIntent(context);
-
-            @DrawableRes final int icon1 = R.drawable.ic_reset_24dp;
-            final CharSequence title1 = res.getText(R.string.timer_reset_all);
-            final PendingIntent intent1 = Utils.pendingServiceIntent(context, reset);
-            actions.add(new Action.Builder(icon1, title1, intent1).build());
+            actions.add(getAction(context, ACTION_RESET_UNEXPIRED, NO_TIMER_ID));
         }
 
         // Intent to load the app and show the timer when the notification is tapped.
@@ -214,11 +245,6 @@ class TimerNotificationBuilder {
     Notification buildHeadsUp(Context context, List<Timer> expired) {
         final Timer timer = expired.get(0);
 
-        // First action intent is to reset all timers.
-        @DrawableRes final int icon1 = R.drawable.ic_stop_24dp;
-        final Intent reset = TimerService.createResetExpiredTimersIntent(context);
-        final PendingIntent intent1 = Utils.pendingServiceIntent(context, reset);
-
         // Generate some descriptive text, a title, and an action name based on the timer count.
         final CharSequence stateText;
         final int count = expired.size();
@@ -232,35 +258,31 @@ class TimerNotificationBuilder {
             }
 
             // Left button: Reset single timer
-            final CharSequence title1 = context.getString(R.string.timer_stop);
-            actions.add(new Action.Builder(icon1, title1, intent1).build());
+            actions.add(getAction(context, ACTION_STOP_EXPIRED, NO_TIMER_ID));
 
             // Right button: Add minute
-            final Intent addTime = TimerService.createAddMinuteTimerIntent(context, timer.getId());
-            final PendingIntent intent2 = Utils.pendingServiceIntent(context, addTime);
-            @DrawableRes final int icon2 = R.drawable.ic_add_24dp;
-            final CharSequence title2 = context.getString(R.string.timer_plus_1_min);
-            actions.add(new Action.Builder(icon2, title2, intent2).build());
+            actions.add(getAction(context, ACTION_ADD_MINUTE, timer.getId()));
         } else {
             stateText = context.getString(R.string.timer_multi_times_up, count);
 
             // Left button: Reset all timers
-            final CharSequence title1 = context.getString(R.string.timer_stop_all);
-            actions.add(new Action.Builder(icon1, title1, intent1).build());
+            actions.add(getAction(context, ACTION_STOP_ALL_EXPIRED, NO_TIMER_ID));
         }
 
         final long base = getChronometerBase(timer);
 
         final String pname = context.getPackageName();
 
-        // Content intent shows the timer full screen when clicked.
-        final Intent content = new Intent(context, ExpiredTimersActivity.class);
-        final PendingIntent contentIntent = Utils.pendingActivityIntent(context, content);
+        if (mExpiredContentIntent == null) {
+            // Content intent shows the timer full screen when clicked.
+            final Intent content = new Intent(context, ExpiredTimersActivity.class);
+            mExpiredContentIntent = Utils.pendingActivityIntent(context, content);
 
-        // Full screen intent has flags so it is different than the content intent.
-        final Intent fullScreen = new Intent(context, ExpiredTimersActivity.class)
-                .setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_NO_USER_ACTION);
-        final PendingIntent pendingFullScreen = Utils.pendingActivityIntent(context, fullScreen);
+            // Full screen intent has flags so it is different than the content intent.
+            final Intent fullScreen = new Intent(context, ExpiredTimersActivity.class)
+                    .setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_NO_USER_ACTION);
+            mExpiredFullScreenIntent = Utils.pendingActivityIntent(context, fullScreen);
+        }
 
         Utils.createNotificationChannelsIfNeeded(context);
 
@@ -270,10 +292,10 @@ class TimerNotificationBuilder {
                 .setLocalOnly(true)
                 .setShowWhen(false)
                 .setAutoCancel(false)
-                .setContentIntent(contentIntent)
+                .setContentIntent(mExpiredContentIntent)
                 .setDefaults(Notification.DEFAULT_LIGHTS)
                 .setSmallIcon(R.drawable.stat_notify_timer)
-                .setFullScreenIntent(pendingFullScreen, true)
+                .setFullScreenIntent(mExpiredFullScreenIntent, true)
                 .setStyle(new Notification.DecoratedCustomViewStyle())
                 .setColor(ContextCompat.getColor(context, R.color.default_background));
 
@@ -317,24 +339,12 @@ class TimerNotificationBuilder {
             }
 
             // Reset button
-            final Intent reset = new Intent(context, TimerService.class)
-                    .setAction(TimerService.ACTION_RESET_TIMER)
-                    .putExtra(TimerService.EXTRA_TIMER_ID, timer.getId());
-
-            @DrawableRes final int icon1 = R.drawable.ic_reset_24dp;
-            final CharSequence title1 = res.getText(R.string.timer_reset);
-            final PendingIntent intent1 = Utils.pendingServiceIntent(context, reset);
-            action = new Action.Builder(icon1, title1, intent1).build();
+            action = getAction(context, ACTION_RESET_MISSED, timer.getId());
         } else {
             // Multiple missed timers.
             stateText = res.getString(R.string.timer_multi_missed, count);
 
-            final Intent reset = TimerService.createResetMissedTimersIntent(context);
-
-            @DrawableRes final int icon1 = R.drawable.ic_reset_24dp;
-            final CharSequence title1 = res.getText(R.string.timer_reset_all);
-            final PendingIntent intent1 = Utils.pendingServiceIntent(context, reset);
-            action = new Action.Builder(icon1, title1, intent1).build();
+            action = getAction(context, ACTION_RESET_ALL_MISSED, NO_TIMER_ID);
         }
 
         // Intent to load the app and show the timer when the notification is tapped.
@@ -375,6 +385,91 @@ class TimerNotificationBuilder {
         return notification.build();
     }
 
+    /**
+     * @param action one of the {@code ACTION_} constants
+     * @param timerId the timer the action applies to, or {@link #NO_TIMER_ID}
+     * @return the cached action, built if it was not cached
+     */
+    private Action getAction(Context context, int action, int timerId) {
+        final long key = ((long) timerId << 8) | action;
+        Action cached = mActions.get(key);
+        if (cached == null) {
+            if (mActions.size() >= MAX_CACHED_ACTIONS) {
+                mActions.clear();
+            }
+            cached = buildAction(context, action, timerId);
+            mActions.put(key, cached);
+        }
+        return cached;
+    }
+
+    private static Action buildAction(Context context, int action, int timerId) {
+        final Intent intent;
+        @DrawableRes final int icon;
+        @StringRes final int title;
+        switch (action) {
+            case ACTION_PAUSE:
+                intent = createTimerIntent(context, TimerService.ACTION_PAUSE_TIMER, timerId);
+                icon = R.drawable.ic_pause_24dp;
+                title = R.string.timer_pause;
+                break;
+            case ACTION_ADD_MINUTE:
+                intent = TimerService.createAddMinuteTimerIntent(context, timerId);
+                icon = R.drawable.ic_add_24dp;
+                title = R.string.timer_plus_1_min;
+                break;
+            case ACTION_START:
+                intent = createTimerIntent(context, TimerService.ACTION_START_TIMER, timerId);
+                icon = R.drawable.ic_start_24dp;
+                title = R.string.sw_resume_button;
+                break;
+            case ACTION_RESET:
+                intent = createTimerIntent(context, TimerService.ACTION_RESET_TIMER, timerId);
+                icon = R.drawable.ic_reset_24dp;
+                title = R.string.sw_reset_button;
+                break;
+            case ACTION_RESET_MISSED:
+                intent = createTimerIntent(context, TimerService.ACTION_RESET_TIMER, timerId);
+                icon = R.drawable.ic_reset_24dp;
+                title = R.string.timer_reset;
+                break;
+            case ACTION_RESET_UNEXPIRED:
+                intent = TimerService.createResetUnexpiredTimersIntent(context);
+                icon = R.drawable.ic_reset_24dp;
+                title = R.string.timer_reset_all;
+                break;
+            case ACTION_STOP_EXPIRED:
+                intent = TimerService.createResetExpiredTimersIntent(context);
+                icon = R.drawable.ic_stop_24dp;
+                title = R.string.timer_stop;
+                break;
+            case ACTION_STOP_ALL_EXPIRED:
+                intent = TimerService.createResetExpiredTimersIntent(context);
+                icon = R.drawable.ic_stop_24dp;
+                title = R.string.timer_stop_all;
+                break;
+            case ACTION_RESET_ALL_MISSED:
+                intent = TimerService.createResetMissedTimersIntent(context);
+                icon = R.drawable.ic_reset_24dp;
+                title = R.string.timer_reset_all;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown action " + action);
+        }
+
+        // Intents for different timers differ only in their extras, so the timer id is the request
+        // code that keeps their pending intents, and the cached actions, apart.
+        final PendingIntent pendingIntent = PendingIntent.getService(context, timerId, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        return new Action.Builder(icon, context.getText(title), pendingIntent).build();
+    }
+
+    private static Intent createTimerIntent(Context context, String action, int timerId) {
+        return new Intent(context, TimerService.class)
+                .setAction(action)
+                .putExtra(TimerService.EXTRA_TIMER_ID, timerId);
+    }
+
     /**
      * @param timer the timer on which to base the chronometer display
      * @return the time at which the chronometer will/did reach 0:00 in realtime
@@ -190,18 +190,7 @@ public final class Weekdays {
      *      which is always between 1 and 7 inclusive; {@code -1} if no weekdays are enabled
      */
     public int getDistanceToPreviousDay(Calendar time) {
-        int calendarDay = time.get(DAY_OF_WEEK);
-        for (int count = 1; count <= 7; count++) {
-            calendarDay--;
-            if (calendarDay < Calendar.SUNDAY) {
-                calendarDay = Calendar.SATURDAY;
-            }
-            if (isBitOn(calendarDay)) {
-                return count;
-            }
-        }
-
-        return -1;
+        return WeeklyRecurrence.getDistanceToPreviousDay(mBits, time.get(DAY_OF_WEEK));
     }
 
     /**
@@ -213,19 +202,7 @@ public final class Weekdays {
      *      is always between 0 and 6 inclusive; {@code -1} if no weekdays are enabled
      */
     public int getDistanceToNextDay(Calendar time) {
-        int calendarDay = time.get(DAY_OF_WEEK);
-        for (int count = 0; count < 7; count++) {
-            if (isBitOn(calendarDay)) {
-                return count;
-            }
-
-            calendarDay++;
-            if (calendarDay > Calendar.SATURDAY) {
-                calendarDay = Calendar.SUNDAY;
-            }
-        }
-
-        return -1;
+        return WeeklyRecurrence.getDistanceToNextDay(mBits, time.get(DAY_OF_WEEK));
     }
 
     @Override
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.data;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static android.text.format.DateUtils.DAY_IN_MILLIS;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+import static android.text.format.DateUtils.MINUTE_IN_MILLIS;
+
+/**
+ * Computes the occurrences of an alarm that repeats on a {@link Weekdays weekly schedule} using
+ * primitive epoch-millisecond arithmetic rather than {@link Calendar} field manipulation. Nothing
+ * is allocated per call: the weekday searches are answered from tables built once, and local
+ * dates are derived from the time zone offset in effect at each instant, so an occurrence always
+ * lands on the requested wall clock time even when a daylight saving transition lies between it
+ * and the reference time.
+ */
+public final class WeeklyRecurrence {
+
+    /** Returned when an alarm has no previous occurrence, i.e. it does not repeat. */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    /** The largest distance of any time zone from UTC: 14 hours, observed in Kiribati. */
+    private static final long MAX_OFFSET = 14 * HOUR_IN_MILLIS;
+
+    /** Number of distinct {@link Weekdays#getBits bit} combinations. */
+    private static final int BITS_COUNT = 0x80;
+
+    /** Distance in days to the next enabled weekday, indexed by bits and calendar day. */
+    private static final byte[] NEXT_DAY_DISTANCE = new byte[BITS_COUNT * 8];
+
+    /** Distance in days to the previous enabled weekday, indexed by bits and calendar day. */
+    private static final byte[] PREVIOUS_DAY_DISTANCE = new byte[BITS_COUNT * 8];
+
+    static {
+        for (int bits = 0; bits < BITS_COUNT; bits++) {
+            for (int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++) {
+                NEXT_DAY_DISTANCE[bits * 8 + day] = (byte) computeDistance(bits, day, 0, 1);
+                PREVIOUS_DAY_DISTANCE[bits * 8 + day] = (byte) computeDistance(bits, day, 1, -1);
+            }
+        }
+    }
+
+    private WeeklyRecurrence() {}
+
+    /**
+     * @param bits the {@link Weekdays#getBits bits} of a weekly repeat schedule
+     * @param calendarDay the {@link Calendar#DAY_OF_WEEK} to start from
+     * @return the number of days from {@code calendarDay} to the next enabled weekday, between 0
+     *      and 6 inclusive; {@code -1} if no weekdays are enabled
+     */
+    public static int getDistanceToNextDay(int bits, int calendarDay) {
+        return NEXT_DAY_DISTANCE[bits * 8 + calendarDay];
+    }
+
+    /**
+     * @param bits the {@link Weekdays#getBits bits} of a weekly repeat schedule
+     * @param calendarDay the {@link Calendar#DAY_OF_WEEK} to start from
+     * @return the number of days from {@code calendarDay} back to the previous enabled weekday,
+     *      between 1 and 7 inclusive; {@code -1} if no weekdays are enabled
+     */
+    public static int getDistanceToPreviousDay(int bits, int calendarDay) {
+        return PREVIOUS_DAY_DISTANCE[bits * 8 + calendarDay];
+    }
+
+    /**
+     * @param bits the {@link Weekdays#getBits bits} of the alarm's weekly repeat schedule
+     * @param hour the hour of day at which the alarm fires
+     * @param minute the minute of the hour at which the alarm fires
+     * @param nowMillis the reference time
+     * @param zone the time zone in which the alarm's wall clock time is interpreted
+     * @return the first time after {@code nowMillis} at which the alarm fires; a one-time alarm
+     *      fires at its next occurrence on any day
+     */
+    public static long getNextAlarmTime(int bits, int hour, int minute, long nowMillis,
+            TimeZone zone) {
+        long day = getLocalDay(nowMillis, zone);
+        if (toMillis(day, hour, minute, zone) <= nowMillis) {
+            day++;
+        }
+
+        while (true) {
+            final int addDays = getDistanceToNextDay(bits, getCalendarDay(day));
+            if (addDays > 0) {
+                day += addDays;
+            }
+
+            // A local date skipped by a time zone change, e.g. when a zone moves across the date
+            // line, resolves to an instant that may already have passed; try the next day.
+            final long millis = toMillis(day, hour, minute, zone);
+            if (millis > nowMillis) {
+                return millis;
+            }
+            day++;
+        }
+    }
+
+    /**
+     * Note: only the date of {@code timeMillis} is considered; its time of day is ignored.
+     *
+     * @param bits the {@link Weekdays#getBits bits} of the alarm's weekly repeat schedule
+     * @param hour the hour of day at which the alarm fires
+     * @param minute the minute of the hour at which the alarm fires
+     * @param timeMillis the reference time
+     * @param zone the time zone in which the alarm's wall clock time is interpreted
+     * @return the time the alarm fired on the last enabled weekday before the date of
+     *      {@code timeMillis}; {@link #NO_TIME} if the alarm does not repeat
+     */
+    public static long getPreviousAlarmTime(int bits, int hour, int minute, long timeMillis,
+            TimeZone zone) {
+        final long day = getLocalDay(timeMillis, zone);
+        final int subtractDays = getDistanceToPreviousDay(bits, getCalendarDay(day));
+        if (subtractDays > 0) {
+            return toMillis(day - subtractDays, hour, minute, zone);
+        }
+        return NO_TIME;
+    }
+
+    /**
+     * @return the number of days between the epoch and the local date of {@code timeMillis}
+     */
+    private static long getLocalDay(long timeMillis, TimeZone zone) {
+        return floorDiv(timeMillis + zone.getOffset(timeMillis), DAY_IN_MILLIS);
+    }
+
+    /**
+     * @return the {@link Calendar#DAY_OF_WEEK} of the given local epoch day
+     */
+    private static int getCalendarDay(long day) {
+        // The epoch fell on a Thursday.
+        final int daysSinceSunday = (int) ((day + 4) % 7);
+        return (daysSinceSunday < 0 ? daysSinceSunday + 7 : daysSinceSunday) + Calendar.SUNDAY;
+    }
+
+    /**
+     * Converts a wall clock time to an instant. A wall clock time skipped by a daylight saving
+     * transition resolves to the instant the same distance past the transition; a repeated wall
+     * clock time resolves to its later occurrence. This matches a lenient {@link Calendar}.
+     *
+     * @return the instant at which the local clock reads {@code hour}:{@code minute} on {@code day}
+     */
+    private static long toMillis(long day, int hour, int minute, TimeZone zone) {
+        final long localMillis = day * DAY_IN_MILLIS + hour * HOUR_IN_MILLIS
+                + minute * MINUTE_IN_MILLIS;
+
+        // Every offset lies within 14 hours of UTC, so the instant lies in this window. The
+        // raw offset of the zone cannot narrow it: it is today's and may differ by a whole day
+        // from the offset at the time, e.g. after a zone moved across the date line.
+        final int offsetBefore = zone.getOffset(localMillis - MAX_OFFSET);
+        final int offsetAfter = zone.getOffset(localMillis + MAX_OFFSET);
+        final long millisBefore = localMillis - offsetBefore;
+        final long millisAfter = localMillis - offsetAfter;
+        final boolean validBefore = zone.getOffset(millisBefore) == offsetBefore;
+        final boolean validAfter = zone.getOffset(millisAfter) == offsetAfter;
+
+        if (validBefore && validAfter) {
+            // A repeated wall clock time; both agree unless the time lies inside the overlap.
+            return Math.max(millisBefore, millisAfter);
+        }
+        if (validAfter) {
+            return millisAfter;
+        }
+
+        // Inside a skipped interval neither offset is valid; resolving it with the offset in
+        // effect before the transition moves the time forward by the size of the gap.
+        return millisBefore;
+    }
+
+    private static long floorDiv(long x, long y) {
+        final long quotient = x / y;
+        return (x % y != 0 && ((x ^ y) < 0)) ? quotient - 1 : quotient;
+    }
+
+    /**
+     * @param first the distance at which the search begins
+     * @param step {@code 1} to search forwards; {@code -1} to search backwards
+     * @return the distance in days from {@code calendarDay} to the nearest enabled weekday
+     */
+    private static int computeDistance(int bits, int calendarDay, int first, int step) {
+        for (int count = first; count < first + 7; count++) {
+            int day = (calendarDay - Calendar.SUNDAY + count * step) % 7;
+            if (day < 0) {
+                day += 7;
+            }
+            // Sunday is the highest bit; Monday through Saturday are the lowest six.
+            final int bit = day == 0 ? 0x40 : 1 << (day - 1);
+            if ((bits & bit) != 0) {
+                return count;
+            }
+        }
+        return -1;
+    }
+}
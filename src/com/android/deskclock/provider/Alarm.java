@@ -16,25 +16,28 @@
 
 package com.android.deskclock.provider;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
-import android.content.CursorLoader;
 import android.content.Intent;
 import android.database.Cursor;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.support.annotation.VisibleForTesting;
 
 import com.android.deskclock.R;
 import com.android.deskclock.data.DataModel;
 import com.android.deskclock.data.Weekdays;
+import com.android.deskclock.data.WeeklyRecurrence;
 
 import java.util.Calendar;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.TimeZone;
 
 public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
     /**
@@ -45,7 +48,8 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
     /**
      * The default sort order for this table
      */
-    private static final String DEFAULT_SORT_ORDER =
+    @VisibleForTesting
+    static final String DEFAULT_SORT_ORDER =
             ClockDatabaseHelper.ALARMS_TABLE_NAME + "." + HOUR + ", " +
             ClockDatabaseHelper.ALARMS_TABLE_NAME + "." +  MINUTES + " ASC" + ", " +
             ClockDatabaseHelper.ALARMS_TABLE_NAME + "." + ClockContract.AlarmsColumns._ID + " DESC";
@@ -62,7 +66,8 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
             DELETE_AFTER_USE
     };
 
-    private static final String[] QUERY_ALARMS_WITH_INSTANCES_COLUMNS = {
+    @VisibleForTesting
+    static final String[] QUERY_ALARMS_WITH_INSTANCES_COLUMNS = {
             ClockDatabaseHelper.ALARMS_TABLE_NAME + "." + _ID,
             ClockDatabaseHelper.ALARMS_TABLE_NAME + "." + HOUR,
             ClockDatabaseHelper.ALARMS_TABLE_NAME + "." + MINUTES,
@@ -88,7 +93,7 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
      * These save calls to cursor.getColumnIndexOrThrow()
      * THEY MUST BE KEPT IN SYNC WITH ABOVE QUERY COLUMNS
      */
-    private static final int ID_INDEX = 0;
+    public static final int ID_INDEX = 0;
     private static final int HOUR_INDEX = 1;
     private static final int MINUTES_INDEX = 2;
     private static final int DAYS_OF_WEEK_INDEX = 3;
@@ -133,6 +138,22 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         return values;
     }
 
+    /**
+     * @return an operation that updates the {@code alarm} when applied as part of a batch
+     */
+    public static ContentProviderOperation createUpdateOperation(Alarm alarm) {
+        return ContentProviderOperation.newUpdate(getContentUri(alarm.id))
+                .withValues(createContentValues(alarm))
+                .build();
+    }
+
+    /**
+     * @return an operation that deletes the alarm when applied as part of a batch
+     */
+    public static ContentProviderOperation createDeleteOperation(long alarmId) {
+        return ContentProviderOperation.newDelete(getContentUri(alarmId)).build();
+    }
+
     public static Intent createIntent(Context context, Class<?> cls, long alarmId) {
         return new Intent(context, cls).setData(getContentUri(alarmId));
     }
@@ -146,38 +167,15 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
     }
 
     /**
-     * Get alarm cursor loader for all alarms.
+     * Queries all alarms joined with their instances. Must be called on a background thread.
      *
-     * @param context to query the database.
-     * @return cursor loader with all the alarms.
+     * @param cr provides access to the content model
+     * @return a cursor over all alarms in display order, readable by {@link #Alarm(Cursor)} and
+     *      {@link AlarmInstance#AlarmInstance(Cursor, boolean)}
      */
-    public static CursorLoader getAlarmsCursorLoader(Context context) {
-        return new CursorLoader(context, ALARMS_WITH_INSTANCES_URI,
-                QUERY_ALARMS_WITH_INSTANCES_COLUMNS, null, null, DEFAULT_SORT_ORDER) {
-            @Override
-            public void onContentChanged() {
-                // There is a bug in Loader which can result in stale data if a loader is stopped
-                // immediately after a call to onContentChanged. As a workaround we stop the
-                // loader before delivering onContentChanged to ensure mContentChanged is set to
-                // true before forceLoad is called.
-                if (isStarted() && !isAbandoned()) {
-                    stopLoading();
-                    super.onContentChanged();
-                    startLoading();
-                } else {
-                    super.onContentChanged();
-                }
-            }
-
-            @Override
-            public Cursor loadInBackground() {
-                // Prime the ringtone title cache for later access. Most alarms will refer to
-                // system ringtones.
-                DataModel.getDataModel().loadRingtoneTitles();
-
-                return super.loadInBackground();
-            }
-        };
+    public static Cursor queryAlarmsWithInstances(ContentResolver cr) {
+        return cr.query(ALARMS_WITH_INSTANCES_URI, QUERY_ALARMS_WITH_INSTANCES_COLUMNS, null, null,
+                DEFAULT_SORT_ORDER);
     }
 
     /**
@@ -303,6 +301,20 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
         this.deleteAfterUse = false;
     }
 
+    public Alarm(Alarm alarm) {
+        this.id = alarm.id;
+        this.enabled = alarm.enabled;
+        this.hour = alarm.hour;
+        this.minutes = alarm.minutes;
+        this.daysOfWeek = alarm.daysOfWeek;
+        this.vibrate = alarm.vibrate;
+        this.label = alarm.label;
+        this.alert = alarm.alert;
+        this.deleteAfterUse = alarm.deleteAfterUse;
+        this.instanceState = alarm.instanceState;
+        this.instanceId = alarm.instanceId;
+    }
+
     public Alarm(Cursor c) {
         id = c.getLong(ID_INDEX);
         enabled = c.getInt(ENABLED_INDEX) == 1;
@@ -392,51 +404,45 @@ public final class Alarm implements Parcelable, ClockContract.AlarmsColumns {
      * @return previous firing time, or null if this is a one-time alarm.
      */
     public Calendar getPreviousAlarmTime(Calendar currentTime) {
-        final Calendar previousInstanceTime = Calendar.getInstance(currentTime.getTimeZone());
-        previousInstanceTime.set(Calendar.YEAR, currentTime.get(Calendar.YEAR));
-        previousInstanceTime.set(Calendar.MONTH, currentTime.get(Calendar.MONTH));
-        previousInstanceTime.set(Calendar.DAY_OF_MONTH, currentTime.get(Calendar.DAY_OF_MONTH));
-        previousInstanceTime.set(Calendar.HOUR_OF_DAY, hour);
-        previousInstanceTime.set(Calendar.MINUTE, minutes);
-        previousInstanceTime.set(Calendar.SECOND, 0);
-        previousInstanceTime.set(Calendar.MILLISECOND, 0);
-
-        final int subtractDays = daysOfWeek.getDistanceToPreviousDay(previousInstanceTime);
-        if (subtractDays > 0) {
-            previousInstanceTime.add(Calendar.DAY_OF_WEEK, -subtractDays);
-            return previousInstanceTime;
-        } else {
+        final long previousTime = getPreviousAlarmTimeMillis(currentTime.getTimeInMillis(),
+                currentTime.getTimeZone());
+        if (previousTime == WeeklyRecurrence.NO_TIME) {
             return null;
         }
+        return toCalendar(previousTime, currentTime.getTimeZone());
     }
 
-    public Calendar getNextAlarmTime(Calendar currentTime) {
-        final Calendar nextInstanceTime = Calendar.getInstance(currentTime.getTimeZone());
-        nextInstanceTime.set(Calendar.YEAR, currentTime.get(Calendar.YEAR));
-        nextInstanceTime.set(Calendar.MONTH, currentTime.get(Calendar.MONTH));
-        nextInstanceTime.set(Calendar.DAY_OF_MONTH, currentTime.get(Calendar.DAY_OF_MONTH));
-        nextInstanceTime.set(Calendar.HOUR_OF_DAY, hour);
-        nextInstanceTime.set(Calendar.MINUTE, minutes);
-        nextInstanceTime.set(Calendar.SECOND, 0);
-        nextInstanceTime.set(Calendar.MILLISECOND, 0);
-
-        // If we are still behind the passed in currentTime, then add a day
-        if (nextInstanceTime.getTimeInMillis() <= currentTime.getTimeInMillis()) {
-            nextInstanceTime.add(Calendar.DAY_OF_YEAR, 1);
-        }
+    /**
+     * @param timeMillis the current time
+     * @param zone the time zone in which this alarm's hour and minutes are interpreted
+     * @return previous firing time, or {@link WeeklyRecurrence#NO_TIME} if this is a one-time
+     *      alarm.
+     */
+    public long getPreviousAlarmTimeMillis(long timeMillis, TimeZone zone) {
+        return WeeklyRecurrence.getPreviousAlarmTime(daysOfWeek.getBits(), hour, minutes,
+                timeMillis, zone);
+    }
 
-        // The day of the week might be invalid, so find next valid one
-        final int addDays = daysOfWeek.getDistanceToNextDay(nextInstanceTime);
-        if (addDays > 0) {
-            nextInstanceTime.add(Calendar.DAY_OF_WEEK, addDays);
-        }
+    public Calendar getNextAlarmTime(Calendar currentTime) {
+        final long nextTime = getNextAlarmTimeMillis(currentTime.getTimeInMillis(),
+                currentTime.getTimeZone());
+        return toCalendar(nextTime, currentTime.getTimeZone());
+    }
 
-        // Daylight Savings Time can alter the hours and minutes when adjusting the day above.
-        // Reset the desired hour and minute now that the correct day has been chosen.
-        nextInstanceTime.set(Calendar.HOUR_OF_DAY, hour);
-        nextInstanceTime.set(Calendar.MINUTE, minutes);
+    /**
+     * @param timeMillis the current time
+     * @param zone the time zone in which this alarm's hour and minutes are interpreted
+     * @return the next firing time after {@code timeMillis}
+     */
+    public long getNextAlarmTimeMillis(long timeMillis, TimeZone zone) {
+        return WeeklyRecurrence.getNextAlarmTime(daysOfWeek.getBits(), hour, minutes, timeMillis,
+                zone);
+    }
 
-        return nextInstanceTime;
+    private static Calendar toCalendar(long timeMillis, TimeZone zone) {
+        final Calendar calendar = Calendar.getInstance(zone);
+        calendar.setTimeInMillis(timeMillis);
+        return calendar;
     }
 
     @Override
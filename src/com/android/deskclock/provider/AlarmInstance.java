@@ -16,6 +16,7 @@
 
 package com.android.deskclock.provider;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
@@ -87,8 +88,14 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
 
     private static final int COLUMN_COUNT = ALARM_STATE_INDEX + 1;
 
+    /**
+     * Number of columns written by {@link #createContentValues}, which includes the derived
+     * {@link #FIRE_TIME_MILLIS} that is never read back.
+     */
+    private static final int CONTENT_VALUES_COUNT = COLUMN_COUNT + 1;
+
     public static ContentValues createContentValues(AlarmInstance instance) {
-        ContentValues values = new ContentValues(COLUMN_COUNT);
+        ContentValues values = new ContentValues(CONTENT_VALUES_COUNT);
         if (instance.mId != INVALID_ID) {
             values.put(_ID, instance.mId);
         }
@@ -109,9 +116,35 @@ public final class AlarmInstance implements ClockContract.InstancesColumns {
         }
         values.put(ALARM_ID, instance.mAlarmId);
         values.put(ALARM_STATE, instance.mAlarmState);
+        values.put(FIRE_TIME_MILLIS, instance.getAlarmTime().getTimeInMillis());
         return values;
     }
 
+    /**
+     * @return an operation that inserts the {@code instance} when applied as part of a batch
+     */
+    public static ContentProviderOperation createInsertOperation(AlarmInstance instance) {
+        return ContentProviderOperation.newInsert(CONTENT_URI)
+                .withValues(createContentValues(instance))
+                .build();
+    }
+
+    /**
+     * @return an operation that updates the {@code instance} when applied as part of a batch
+     */
+    public static ContentProviderOperation createUpdateOperation(AlarmInstance instance) {
+        return ContentProviderOperation.newUpdate(getContentUri(instance.mId))
+                .withValues(createContentValues(instance))
+                .build();
+    }
+
+    /**
+     * @return an operation that deletes the instance when applied as part of a batch
+     */
+    public static ContentProviderOperation createDeleteOperation(long instanceId) {
+        return ContentProviderOperation.newDelete(getContentUri(instanceId)).build();
+    }
+
     public static Intent createIntent(String action, long instanceId) {
         return new Intent(action).setData(getContentUri(instanceId));
     }
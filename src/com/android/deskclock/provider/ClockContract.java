@@ -260,5 +260,12 @@ public final class ClockContract {
          * <p>Type: INTEGER</p>
          */
         String ALARM_STATE = "alarm_state";
+
+        /**
+         * Alarm time in milliseconds since the epoch, derived from the year, month, day, hour and
+         * minutes columns when the instance is written. Used to order instances efficiently.
+         * <p>Type: INTEGER (long)</p>
+         */
+        String FIRE_TIME_MILLIS = "fire_time_millis";
     }
 }
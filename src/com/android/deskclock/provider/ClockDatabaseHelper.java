@@ -57,6 +57,11 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
      */
     private static final int VERSION_8 = 8;
 
+    /**
+     * Added fire_time_millis column and indexes to instance table.
+     */
+    private static final int VERSION_9 = 9;
+
     // This creates a default alarm at 8:30 for every Mon,Tue,Wed,Thu,Fri
     private static final String DEFAULT_ALARM_1 = "(8, 30, 31, 0, 1, '', NULL, 0);";
 
@@ -70,6 +75,11 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
     static final String INSTANCES_TABLE_NAME = "alarm_instances";
     private static final String SELECTED_CITIES_TABLE_NAME = "selected_cities";
 
+    // Index names
+    private static final String INSTANCES_ALARM_STATE_TIME_INDEX_NAME =
+            "alarm_instances_alarm_id_state_time";
+    private static final String INSTANCES_STATE_TIME_INDEX_NAME = "alarm_instances_state_time";
+
     private static void createAlarmsTable(SQLiteDatabase db) {
         db.execSQL("CREATE TABLE " + ALARMS_TABLE_NAME + " (" +
                 ClockContract.AlarmsColumns._ID + " INTEGER PRIMARY KEY," +
@@ -98,13 +108,28 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
                 ClockContract.InstancesColumns.ALARM_STATE + " INTEGER NOT NULL, " +
                 ClockContract.InstancesColumns.ALARM_ID + " INTEGER REFERENCES " +
                     ALARMS_TABLE_NAME + "(" + ClockContract.AlarmsColumns._ID + ") " +
-                    "ON UPDATE CASCADE ON DELETE CASCADE" +
+                    "ON UPDATE CASCADE ON DELETE CASCADE, " +
+                ClockContract.InstancesColumns.FIRE_TIME_MILLIS + " INTEGER NOT NULL DEFAULT 0" +
                 ");");
+        createInstanceIndexes(db);
         LogUtils.i("Instance table created");
     }
 
+    private static void createInstanceIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INSTANCES_ALARM_STATE_TIME_INDEX_NAME +
+                " ON " + INSTANCES_TABLE_NAME + " (" +
+                ClockContract.InstancesColumns.ALARM_ID + ", " +
+                ClockContract.InstancesColumns.ALARM_STATE + ", " +
+                ClockContract.InstancesColumns.FIRE_TIME_MILLIS + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INSTANCES_STATE_TIME_INDEX_NAME +
+                " ON " + INSTANCES_TABLE_NAME + " (" +
+                ClockContract.InstancesColumns.ALARM_STATE + ", " +
+                ClockContract.InstancesColumns.FIRE_TIME_MILLIS + ");");
+        LogUtils.i("Instance indexes created");
+    }
+
     public ClockDatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, VERSION_8);
+        super(context, DATABASE_NAME, null, VERSION_9);
     }
 
     @Override
@@ -132,6 +157,15 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int currentVersion) {
         LogUtils.v("Upgrading alarms database from version %d to %d", oldVersion, currentVersion);
 
+        if (oldVersion > VERSION_6 && oldVersion <= VERSION_8) {
+            // The instance table recreated by the VERSION_6 upgrade below already has these.
+            db.execSQL("ALTER TABLE " + INSTANCES_TABLE_NAME + " ADD COLUMN " +
+                    ClockContract.InstancesColumns.FIRE_TIME_MILLIS +
+                    " INTEGER NOT NULL DEFAULT 0;");
+            populateInstanceFireTimes(db);
+            createInstanceIndexes(db);
+        }
+
         if (oldVersion <= VERSION_7) {
             // This was not used in VERSION_7 or prior, so we can just drop it.
             db.execSQL("DROP TABLE IF EXISTS " + SELECTED_CITIES_TABLE_NAME + ";");
@@ -192,6 +226,35 @@ class ClockDatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * Computes the fire time of every existing instance from its local date and time columns.
+     */
+    private static void populateInstanceFireTimes(SQLiteDatabase db) {
+        final String[] columns = {
+                ClockContract.InstancesColumns._ID,
+                ClockContract.InstancesColumns.YEAR,
+                ClockContract.InstancesColumns.MONTH,
+                ClockContract.InstancesColumns.DAY,
+                ClockContract.InstancesColumns.HOUR,
+                ClockContract.InstancesColumns.MINUTES,
+        };
+        try (Cursor cursor = db.query(INSTANCES_TABLE_NAME, columns,
+                null, null, null, null, null)) {
+            final Calendar calendar = Calendar.getInstance();
+            final ContentValues values = new ContentValues(1);
+            while (cursor != null && cursor.moveToNext()) {
+                calendar.clear();
+                calendar.set(cursor.getInt(1), cursor.getInt(2), cursor.getInt(3),
+                        cursor.getInt(4), cursor.getInt(5), 0);
+                values.put(ClockContract.InstancesColumns.FIRE_TIME_MILLIS,
+                        calendar.getTimeInMillis());
+                db.update(INSTANCES_TABLE_NAME, values,
+                        ClockContract.InstancesColumns._ID + "=" + cursor.getLong(0), null);
+            }
+        }
+        LogUtils.i("Instance fire times populated");
+    }
+
     long fixAlarmInsert(ContentValues values) {
         // Why are we doing this? Is this not a programming bug if we try to
         // insert an already used id?
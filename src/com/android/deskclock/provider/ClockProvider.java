@@ -18,10 +18,13 @@ package com.android.deskclock.provider;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
@@ -29,13 +32,17 @@ import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
 import android.os.Build;
 import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 
 import com.android.deskclock.LogUtils;
 import com.android.deskclock.Utils;
 
+import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
 
 import static com.android.deskclock.provider.ClockContract.AlarmsColumns;
 import static com.android.deskclock.provider.ClockContract.InstancesColumns;
@@ -46,6 +53,12 @@ public class ClockProvider extends ContentProvider {
 
     private ClockDatabaseHelper mOpenHelper;
 
+    /**
+     * Change notifications deferred until the batch running on the current thread commits; each
+     * affected URI is notified once regardless of how many operations touched it.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
     private static final int ALARMS = 1;
     private static final int ALARMS_ID = 2;
     private static final int INSTANCES = 3;
@@ -96,20 +109,22 @@ public class ClockProvider extends ContentProvider {
                 INSTANCES_TABLE_NAME + "." + InstancesColumns.VIBRATE);
     }
 
-    private static final String ALARM_JOIN_INSTANCE_TABLE_STATEMENT =
+    /**
+     * Joins each alarm to at most one instance: the one with the lowest state, earliest first.
+     * The instance is selected in the join condition with a single seek on the
+     * (alarm_id, alarm_state, fire_time_millis) index, so the query costs one index lookup per
+     * alarm rather than a scan of the instances table for every joined row.
+     */
+    @VisibleForTesting
+    static final String ALARM_JOIN_INSTANCE_TABLE_STATEMENT =
             ALARMS_TABLE_NAME + " LEFT JOIN " + INSTANCES_TABLE_NAME + " ON (" +
-            ALARMS_TABLE_NAME + "." + AlarmsColumns._ID + " = " + InstancesColumns.ALARM_ID + ")";
-
-    private static final String ALARM_JOIN_INSTANCE_WHERE_STATEMENT =
-            INSTANCES_TABLE_NAME + "." + InstancesColumns._ID + " IS NULL OR " +
             INSTANCES_TABLE_NAME + "." + InstancesColumns._ID + " = (" +
                     "SELECT " + InstancesColumns._ID +
                     " FROM " + INSTANCES_TABLE_NAME +
                     " WHERE " + InstancesColumns.ALARM_ID +
                     " = " + ALARMS_TABLE_NAME + "." + AlarmsColumns._ID +
                     " ORDER BY " + InstancesColumns.ALARM_STATE + ", " +
-                    InstancesColumns.YEAR + ", " + InstancesColumns.MONTH + ", " +
-                    InstancesColumns.DAY + " LIMIT 1)";
+                    InstancesColumns.FIRE_TIME_MILLIS + " LIMIT 1))";
 
     private static final UriMatcher sURIMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     static {
@@ -171,7 +186,6 @@ public class ClockProvider extends ContentProvider {
                 break;
             case ALARMS_WITH_INSTANCES:
                 qb.setTables(ALARM_JOIN_INSTANCE_TABLE_STATEMENT);
-                qb.appendWhere(ALARM_JOIN_INSTANCE_WHERE_STATEMENT);
                 qb.setProjectionMap(sAlarmsWithInstancesProjection);
                 break;
             default:
@@ -228,8 +242,11 @@ public class ClockProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Cannot update URI: " + uri);
             }
         }
-        LogUtils.v("*** notifyChange() id: " + alarmId + " url " + uri);
-        notifyChange(getContext().getContentResolver(), uri);
+        // Writes that match no row change nothing, so observers are not disturbed.
+        if (count > 0) {
+            LogUtils.v("*** notifyChange() id: " + alarmId + " url " + uri);
+            notifyChange(getContext().getContentResolver(), uri);
+        }
         return count;
     }
 
@@ -287,20 +304,110 @@ public class ClockProvider extends ContentProvider {
                 throw new IllegalArgumentException("Cannot delete from URI: " + uri);
         }
 
-        notifyChange(getContext().getContentResolver(), uri);
+        if (count > 0) {
+            notifyChange(getContext().getContentResolver(), uri);
+        }
         return count;
     }
 
     /**
-     * Notify affected URIs of changes.
+     * Applies all {@code operations} within a single database transaction so that a batch either
+     * commits completely or not at all. Change notifications are sent once per affected URI after
+     * the transaction commits.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(
+            @NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mPendingNotifications.get() != null) {
+            // Nested within a batch on this thread; the outer batch commits and notifies.
+            return super.applyBatch(operations);
+        }
+
+        final Set<Uri> notifications = new ArraySet<>();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final ContentProviderResult[] results;
+        mPendingNotifications.set(notifications);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.remove();
+        }
+
+        notifyChanges(getContext().getContentResolver(), notifications);
+        return results;
+    }
+
+    /**
+     * Inserts all {@code values} within a single database transaction. Change notifications are
+     * sent once per affected URI after the transaction commits.
+     */
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
+        if (mPendingNotifications.get() != null) {
+            // Nested within a batch on this thread; the outer batch commits and notifies.
+            return super.bulkInsert(uri, values);
+        }
+
+        final Set<Uri> notifications = new ArraySet<>();
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final int count;
+        mPendingNotifications.set(notifications);
+        db.beginTransaction();
+        try {
+            count = super.bulkInsert(uri, values);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.remove();
+        }
+
+        notifyChanges(getContext().getContentResolver(), notifications);
+        return count;
+    }
+
+    /**
+     * Notify affected URIs of changes, or defer the notification if a batch is in progress.
      */
     private void notifyChange(ContentResolver resolver, Uri uri) {
+        final Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+            return;
+        }
+
         resolver.notifyChange(uri, null);
 
-        final int match = sURIMatcher.match(uri);
         // Also notify the joined table of changes to instances or alarms.
-        if (match == ALARMS || match == INSTANCES || match == ALARMS_ID || match == INSTANCES_ID) {
+        if (affectsAlarmsWithInstances(uri)) {
+            resolver.notifyChange(AlarmsColumns.ALARMS_WITH_INSTANCES_URI, null);
+        }
+    }
+
+    /**
+     * Notify each of the {@code uris} collected during a batch, and the joined table once if any
+     * of them changed instances or alarms.
+     */
+    private void notifyChanges(ContentResolver resolver, Set<Uri> uris) {
+        boolean notifyAlarmsWithInstances = false;
+        for (Uri uri : uris) {
+            resolver.notifyChange(uri, null);
+            notifyAlarmsWithInstances |= affectsAlarmsWithInstances(uri);
+        }
+
+        if (notifyAlarmsWithInstances) {
             resolver.notifyChange(AlarmsColumns.ALARMS_WITH_INSTANCES_URI, null);
         }
+        LogUtils.v("Sent %d change notifications for batch", uris.size());
+    }
+
+    private static boolean affectsAlarmsWithInstances(Uri uri) {
+        final int match = sURIMatcher.match(uri);
+        return match == ALARMS || match == INSTANCES || match == ALARMS_ID
+                || match == INSTANCES_ID;
     }
 }
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.stopwatch;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+
+import com.android.deskclock.LogUtils;
+import com.android.deskclock.data.DataModel;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes the laps of the stopwatch as CSV or JSON. The laps are captured as a primitive array on
+ * the main thread, then formatted on a background thread directly into a reusable character
+ * buffer that is streamed to the destination each time it fills, so neither the formatted text
+ * nor any per-lap objects are ever held in memory. The lap in progress is written last.
+ *
+ * <p>CSV output has one row per lap: {@code lap,lap_time_ms,total_time_ms}. JSON output is an
+ * object holding {@code total_time_ms} and a {@code laps} array of objects with the same three
+ * fields.</p>
+ */
+public final class LapExporter {
+
+    /** Comma separated values, one lap per row after a header row. */
+    public static final String FORMAT_CSV = "csv";
+
+    /** A single JSON object. */
+    public static final String FORMAT_JSON = "json";
+
+    /** Authority of the provider through which exported files are shared with other apps. */
+    static final String FILE_PROVIDER_AUTHORITY = "com.android.deskclock.files";
+
+    /** Size of the reusable character buffer. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Laps are formatted in groups of this many between progress reports. */
+    private static final int PROGRESS_INTERVAL = 1024;
+
+    /** Exports run one at a time, in the order requested. */
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The accumulated time at the end of each recorded lap, in the order recorded. */
+    private final long[] mAccumulatedTimes;
+
+    /** The total stopwatch time, which ends the lap in progress. */
+    private final long mTotalTime;
+
+    private final String mFormat;
+
+    /** Holds formatted text until it is written; reused for the whole export. */
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+
+    /** Number of characters held in {@link #mBuffer}. */
+    private int mLength;
+
+    private Writer mWriter;
+
+    /**
+     * Captures the laps of the stopwatch as they are now. Must be called on the main thread.
+     *
+     * @param format {@link #FORMAT_CSV} or {@link #FORMAT_JSON}
+     */
+    public LapExporter(String format) {
+        final DataModel dataModel = DataModel.getDataModel();
+        mAccumulatedTimes = dataModel.getLapAccumulatedTimes();
+        mTotalTime = dataModel.getStopwatch().getTotalTime();
+        mFormat = FORMAT_JSON.equals(format) ? FORMAT_JSON : FORMAT_CSV;
+    }
+
+    /**
+     * @return the number of laps to be written, including the lap in progress
+     */
+    public int getLapCount() {
+        return mAccumulatedTimes.length + 1;
+    }
+
+    /**
+     * Writes the laps on a background thread and then closes the {@code descriptor}.
+     *
+     * @param descriptor the destination, opened for writing
+     * @param callback notified on the main thread of progress and completion; may be {@code null}
+     */
+    public void exportAsync(final ParcelFileDescriptor descriptor, final Callback callback) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean success = false;
+                try (OutputStream out = new FileOutputStream(descriptor.getFileDescriptor())) {
+                    export(out, callback);
+                    success = true;
+                } catch (IOException e) {
+                    LogUtils.e("Unable to export laps", e);
+                } finally {
+                    try {
+                        descriptor.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+
+                if (callback != null) {
+                    final boolean exported = success;
+                    sMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onExportFinished(exported);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the laps on the calling thread; the {@code out} stream is flushed but not closed.
+     *
+     * @param callback notified on the main thread of progress; may be {@code null}
+     */
+    public void export(OutputStream out, Callback callback) throws IOException {
+        mWriter = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        mLength = 0;
+
+        final boolean json = mFormat == FORMAT_JSON;
+        if (json) {
+            append("{\"total_time_ms\":").append(Math.max(0, mTotalTime)).append(",\"laps\":[");
+        } else {
+            append("lap,lap_time_ms,total_time_ms\n");
+        }
+
+        final int lapCount = getLapCount();
+        long prevAccumulatedTime = 0;
+        for (int i = 0; i < lapCount; i++) {
+            // The lap in progress ends at the total time.
+            final long accumulatedTime =
+                    i < mAccumulatedTimes.length ? mAccumulatedTimes[i] : mTotalTime;
+            final long lapTime = Math.max(0, accumulatedTime - prevAccumulatedTime);
+            prevAccumulatedTime = accumulatedTime;
+
+            if (json) {
+                append(i == 0 ? "{\"lap\":" : ",{\"lap\":").append(i + 1)
+                        .append(",\"lap_time_ms\":").append(lapTime)
+                        .append(",\"total_time_ms\":").append(Math.max(0, accumulatedTime))
+                        .append('}');
+            } else {
+                append(i + 1).append(',').append(lapTime).append(',')
+                        .append(Math.max(0, accumulatedTime)).append('\n');
+            }
+
+            if (callback != null && (i + 1) % PROGRESS_INTERVAL == 0) {
+                reportProgress(callback, i + 1, lapCount);
+            }
+        }
+
+        if (json) {
+            append("]}");
+        }
+        flushBuffer();
+        mWriter.flush();
+
+        if (callback != null) {
+            reportProgress(callback, lapCount, lapCount);
+        }
+    }
+
+    private LapExporter append(String text) throws IOException {
+        final int length = text.length();
+        if (mLength + length > BUFFER_SIZE) {
+            flushBuffer();
+        }
+        text.getChars(0, length, mBuffer, mLength);
+        mLength += length;
+        return this;
+    }
+
+    private LapExporter append(char c) throws IOException {
+        if (mLength == BUFFER_SIZE) {
+            flushBuffer();
+        }
+        mBuffer[mLength++] = c;
+        return this;
+    }
+
+    /**
+     * Formats a non-negative {@code value} directly into the buffer.
+     */
+    private LapExporter append(long value) throws IOException {
+        // A long has at most 19 digits.
+        if (mLength + 19 > BUFFER_SIZE) {
+            flushBuffer();
+        }
+
+        int digits = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            digits++;
+        }
+        for (int i = mLength + digits - 1; i >= mLength; i--) {
+            mBuffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        mLength += digits;
+        return this;
+    }
+
+    private void flushBuffer() throws IOException {
+        mWriter.write(mBuffer, 0, mLength);
+        mLength = 0;
+    }
+
+    private static void reportProgress(final Callback callback, final int lapsWritten,
+            final int lapCount) {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onExportProgress(lapsWritten, lapCount);
+            }
+        });
+    }
+
+    /**
+     * Receives the progress and outcome of an export on the main thread.
+     */
+    public interface Callback {
+        /**
+         * @param lapsWritten the number of laps formatted so far
+         * @param lapCount the number of laps being exported
+         */
+        void onExportProgress(int lapsWritten, int lapCount);
+
+        /**
+         * @param success {@code true} if every lap was written
+         */
+        void onExportFinished(boolean success);
+    }
+}
@@ -32,7 +32,6 @@ import com.android.deskclock.data.Stopwatch;
 import com.android.deskclock.uidata.UiDataModel;
 
 import java.text.DecimalFormatSymbols;
-import java.util.List;
 
 /**
  * Displays a list of lap times in reverse order. That is, the newest lap is at the top, the oldest
@@ -73,7 +72,7 @@ class LapsAdapter extends RecyclerView.Adapter<LapsAdapter.LapItemHolder> {
      */
     @Override
     public int getItemCount() {
-        final int lapCount = getLaps().size();
+        final int lapCount = getLapCount();
         final int currentLapCount = lapCount == 0 ? 0 : 1;
         return currentLapCount + lapCount;
     }
@@ -87,37 +86,32 @@ class LapsAdapter extends RecyclerView.Adapter<LapsAdapter.LapItemHolder> {
     @Override
     public void onBindViewHolder(LapItemHolder viewHolder, int position) {
         final long lapTime;
-        final int lapNumber;
         final long totalTime;
 
-        // Lap will be null for the current lap.
-        final Lap lap = position == 0 ? null : getLaps().get(position - 1);
-        if (lap != null) {
-            // For a recorded lap, merely extract the values to format.
-            lapTime = lap.getLapTime();
-            lapNumber = lap.getLapNumber();
-            totalTime = lap.getAccumulatedTime();
+        // Laps are displayed newest first, below the current lap.
+        final int lapCount = getLapCount();
+        final int lapNumber = lapCount + 1 - position;
+        if (position != 0) {
+            // For a recorded lap, merely read the values to format.
+            final DataModel dataModel = DataModel.getDataModel();
+            lapTime = dataModel.getLapTime(lapNumber);
+            totalTime = dataModel.getLapAccumulatedTime(lapNumber);
         } else {
             // For the current lap, compute times relative to the stopwatch.
             totalTime = getStopwatch().getTotalTime();
             lapTime = DataModel.getDataModel().getCurrentLapTime(totalTime);
-            lapNumber = getLaps().size() + 1;
         }
 
         // Bind data into the child views.
         viewHolder.lapTime.setText(formatLapTime(lapTime, true));
         viewHolder.accumulatedTime.setText(formatAccumulatedTime(totalTime, true));
-        viewHolder.lapNumber.setText(formatLapNumber(getLaps().size() + 1, lapNumber));
+        viewHolder.lapNumber.setText(formatLapNumber(lapCount + 1, lapNumber));
     }
 
     @Override
     public long getItemId(int position) {
-        final List<Lap> laps = getLaps();
-        if (position == 0) {
-            return laps.size() + 1;
-        }
-
-        return laps.get(position - 1).getLapNumber();
+        // Lap numbers are stable; the current lap takes the number it will be recorded with.
+        return getLapCount() + 1 - position;
     }
 
     /**
@@ -175,9 +169,10 @@ class LapsAdapter extends RecyclerView.Adapter<LapsAdapter.LapItemHolder> {
     }
 
     /**
-     * @return a formatted textual description of lap times and total time
+     * @param includeLaps {@code true} to list the lap times after the total time
+     * @return a formatted textual description of the total time and, optionally, lap times
      */
-    String getShareText() {
+    String getShareText(boolean includeLaps) {
         final Stopwatch stopwatch = getStopwatch();
         final long totalTime = stopwatch.getTotalTime();
         final String stopwatchTime = formatTime(totalTime, totalTime, ":");
@@ -189,25 +184,24 @@ class LapsAdapter extends RecyclerView.Adapter<LapsAdapter.LapItemHolder> {
         builder.append(mContext.getString(R.string.sw_share_main, stopwatchTime));
         builder.append("\n");
 
-        final List<Lap> laps = getLaps();
-        if (!laps.isEmpty()) {
+        final int lapCount = getLapCount();
+        if (includeLaps && lapCount > 0) {
             // Add a header for lap times.
             builder.append(mContext.getString(R.string.sw_share_laps));
             builder.append("\n");
 
             // Loop through the laps in the order they were recorded; reverse of display order.
             final String separator = DecimalFormatSymbols.getInstance().getDecimalSeparator() + " ";
-            for (int i = laps.size() - 1; i >= 0; i--) {
-                final Lap lap = laps.get(i);
-                builder.append(lap.getLapNumber());
+            for (int lapNumber = 1; lapNumber <= lapCount; lapNumber++) {
+                builder.append(lapNumber);
                 builder.append(separator);
-                final long lapTime = lap.getLapTime();
+                final long lapTime = DataModel.getDataModel().getLapTime(lapNumber);
                 builder.append(formatTime(lapTime, lapTime, " "));
                 builder.append("\n");
             }
 
             // Append the final lap
-            builder.append(laps.size() + 1);
+            builder.append(lapCount + 1);
             builder.append(separator);
             final long lapTime = DataModel.getDataModel().getCurrentLapTime(totalTime);
             builder.append(formatTime(lapTime, lapTime, " "));
@@ -334,8 +328,8 @@ class LapsAdapter extends RecyclerView.Adapter<LapsAdapter.LapItemHolder> {
         return DataModel.getDataModel().getStopwatch();
     }
 
-    private List<Lap> getLaps() {
-        return DataModel.getDataModel().getLaps();
+    private int getLapCount() {
+        return DataModel.getDataModel().getLapCount();
     }
 
     /**
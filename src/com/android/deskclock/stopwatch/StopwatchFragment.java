@@ -25,9 +25,12 @@ import android.content.res.ColorStateList;
 import android.content.res.Resources;
 import android.graphics.Canvas;
 import android.graphics.drawable.GradientDrawable;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.ColorInt;
 import android.support.annotation.NonNull;
+import android.support.v4.content.FileProvider;
 import android.support.v4.graphics.ColorUtils;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
@@ -55,9 +58,13 @@ import com.android.deskclock.data.Stopwatch;
 import com.android.deskclock.data.StopwatchListener;
 import com.android.deskclock.events.Events;
 import com.android.deskclock.uidata.TabListener;
+import com.android.deskclock.uidata.TickListener;
 import com.android.deskclock.uidata.UiDataModel;
 import com.android.deskclock.uidata.UiDataModel.Tab;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+
 import static android.R.attr.state_activated;
 import static android.R.attr.state_pressed;
 import static android.graphics.drawable.GradientDrawable.Orientation.TOP_BOTTOM;
@@ -71,17 +78,17 @@ import static com.android.deskclock.uidata.UiDataModel.Tab.STOPWATCH;
  */
 public final class StopwatchFragment extends DeskClockFragment {
 
-    /** Milliseconds between redraws while running. */
-    private static final int REDRAW_PERIOD_RUNNING = 25;
+    /** Sessions with more laps than this share their laps as an attached CSV file. */
+    private static final int MAX_INLINE_SHARE_LAPS = 100;
 
-    /** Milliseconds between redraws while paused. */
-    private static final int REDRAW_PERIOD_PAUSED = 500;
+    /** The file, within the cache directory, to which laps are written for sharing. */
+    private static final String SHARE_FILE_PATH = "exports/laps.csv";
 
     /** Keep the screen on when this tab is selected. */
     private final TabListener mTabWatcher = new TabWatcher();
 
-    /** Scheduled to update the stopwatch time and current lap time while stopwatch is running. */
-    private final Runnable mTimeUpdateRunnable = new TimeUpdateRunnable();
+    /** Ticked to update the stopwatch time and current lap time while stopwatch is running. */
+    private final TickListener mTimeUpdater = new TimeUpdater();
 
     /** Updates the user interface in response to stopwatch changes. */
     private final StopwatchListener mStopwatchWatcher = new StopwatchWatcher();
@@ -285,11 +292,10 @@ public final class StopwatchFragment extends DeskClockFragment {
                 break;
             case RUNNING:
                 left.setVisibility(VISIBLE);
-                final boolean canRecordLaps = canRecordMoreLaps();
                 right.setText(R.string.sw_lap_button);
                 right.setContentDescription(resources.getString(R.string.sw_lap_button));
-                right.setClickable(canRecordLaps);
-                right.setVisibility(canRecordLaps ? VISIBLE : INVISIBLE);
+                right.setClickable(true);
+                right.setVisibility(VISIBLE);
                 break;
             case PAUSED:
                 left.setVisibility(VISIBLE);
@@ -350,9 +356,54 @@ public final class StopwatchFragment extends DeskClockFragment {
         // Disable the fab buttons to avoid double-taps on the share button.
         updateFab(BUTTONS_DISABLE);
 
+        if (DataModel.getDataModel().getLapCount() <= MAX_INLINE_SHARE_LAPS) {
+            startShare(mLapsAdapter.getShareText(true /* includeLaps */), null);
+            return;
+        }
+
+        // Long sessions stream their laps to a file in the background and attach it.
+        final Context context = getActivity();
+        final File file = new File(context.getCacheDir(), SHARE_FILE_PATH);
+        final ParcelFileDescriptor descriptor;
+        try {
+            file.getParentFile().mkdirs();
+            descriptor = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_WRITE_ONLY
+                    | ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE);
+        } catch (FileNotFoundException e) {
+            LogUtils.e("Unable to create lap share file", e);
+            startShare(mLapsAdapter.getShareText(true /* includeLaps */), null);
+            return;
+        }
+
+        final String text = mLapsAdapter.getShareText(false /* includeLaps */);
+        new LapExporter(LapExporter.FORMAT_CSV).exportAsync(descriptor,
+                new LapExporter.Callback() {
+                    @Override
+                    public void onExportProgress(int lapsWritten, int lapCount) {
+                    }
+
+                    @Override
+                    public void onExportFinished(boolean success) {
+                        if (getActivity() == null) {
+                            return;
+                        }
+                        if (success) {
+                            startShare(text, FileProvider.getUriForFile(getActivity(),
+                                    LapExporter.FILE_PROVIDER_AUTHORITY, file));
+                        } else {
+                            startShare(mLapsAdapter.getShareText(true /* includeLaps */), null);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @param text the stopwatch time, and lap times if they are not attached
+     * @param stream a file of lap times to attach; {@code null} if none
+     */
+    private void startShare(String text, Uri stream) {
         final String[] subjects = getResources().getStringArray(R.array.sw_share_strings);
         final String subject = subjects[(int) (Math.random() * subjects.length)];
-        final String text = mLapsAdapter.getShareText();
 
         @SuppressLint("InlinedApi")
         @SuppressWarnings("deprecation")
@@ -362,6 +413,11 @@ public final class StopwatchFragment extends DeskClockFragment {
                 .putExtra(Intent.EXTRA_SUBJECT, subject)
                 .putExtra(Intent.EXTRA_TEXT, text)
                 .setType("text/plain");
+        if (stream != null) {
+            shareIntent.putExtra(Intent.EXTRA_STREAM, stream)
+                    .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION)
+                    .setType("text/csv");
+        }
 
         final Context context = getActivity();
         final String title = context.getString(R.string.sw_share_button);
@@ -466,24 +522,22 @@ public final class StopwatchFragment extends DeskClockFragment {
         return DataModel.getDataModel().getStopwatch();
     }
 
-    private boolean canRecordMoreLaps() {
-        return DataModel.getDataModel().canAddMoreLaps();
-    }
-
     /**
-     * Post the first runnable to update times within the UI. It will reschedule itself as needed.
+     * Tick the times within the UI each hundredth of a second while running, or at each blink
+     * while paused.
      */
     private void startUpdatingTime() {
-        // Ensure only one copy of the runnable is ever scheduled by first stopping updates.
-        stopUpdatingTime();
-        mMainTimeText.post(mTimeUpdateRunnable);
+        final long granularity = getStopwatch().isRunning()
+                ? TickListener.CENTISECOND
+                : TickListener.HALF_SECOND;
+        UiDataModel.getUiDataModel().addTickListener(mTimeUpdater, mMainTimeText, granularity);
     }
 
     /**
-     * Remove the runnable that updates times within the UI.
+     * Stop ticking the times within the UI.
      */
     private void stopUpdatingTime() {
-        mMainTimeText.removeCallbacks(mTimeUpdateRunnable);
+        UiDataModel.getUiDataModel().removeTickListener(mTimeUpdater);
     }
 
     /**
@@ -518,7 +572,9 @@ public final class StopwatchFragment extends DeskClockFragment {
         }
 
         final Stopwatch stopwatch = getStopwatch();
-        if (!stopwatch.isReset()) {
+        if (stopwatch.isReset()) {
+            stopUpdatingTime();
+        } else {
             startUpdatingTime();
         }
 
@@ -530,12 +586,19 @@ public final class StopwatchFragment extends DeskClockFragment {
     }
 
     /**
-     * This runnable periodically updates times throughout the UI. It stops these updates when the
-     * stopwatch is no longer running.
+     * Updates times throughout the UI each time the displayed stopwatch time changes while running,
+     * and blinks them while paused.
      */
-    private final class TimeUpdateRunnable implements Runnable {
+    private final class TimeUpdater implements TickListener {
+        @Override
+        public long getTickTime() {
+            // While paused the stopwatch time stands still; tick with the blink instead.
+            final Stopwatch stopwatch = getStopwatch();
+            return stopwatch.isRunning() ? stopwatch.getTotalTime() : Utils.now();
+        }
+
         @Override
-        public void run() {
+        public void onTick() {
             final long startTime = Utils.now();
 
             updateTime();
@@ -554,15 +617,6 @@ public final class StopwatchFragment extends DeskClockFragment {
                 mMainTimeText.setAlpha(1f);
                 mHundredthsTimeText.setAlpha(1f);
             }
-
-            if (!stopwatch.isReset()) {
-                final long period = stopwatch.isPaused()
-                        ? REDRAW_PERIOD_PAUSED
-                        : REDRAW_PERIOD_RUNNING;
-                final long endTime = Utils.now();
-                final long delay = Math.max(0, startTime + period - endTime);
-                mMainTimeText.postDelayed(this, delay);
-            }
         }
     }
 
@@ -582,6 +636,9 @@ public final class StopwatchFragment extends DeskClockFragment {
     private class StopwatchWatcher implements StopwatchListener {
         @Override
         public void stopwatchUpdated(Stopwatch before, Stopwatch after) {
+            if (after.getId() != Stopwatch.DEFAULT_ID) {
+                return;
+            }
             if (after.isReset()) {
                 // Ensure the drop shadow is hidden when the stopwatch is reset.
                 setTabScrolledToTop(true);
@@ -23,6 +23,7 @@ import android.os.IBinder;
 import com.android.deskclock.DeskClock;
 import com.android.deskclock.R;
 import com.android.deskclock.data.DataModel;
+import com.android.deskclock.data.Stopwatch;
 import com.android.deskclock.events.Events;
 import com.android.deskclock.uidata.UiDataModel;
 
@@ -49,6 +50,16 @@ public final class StopwatchService extends Service {
     public static final String ACTION_LAP_STOPWATCH = ACTION_PREFIX + "LAP_STOPWATCH";
     // resets the stopwatch if it's stopped
     public static final String ACTION_RESET_STOPWATCH = ACTION_PREFIX + "RESET_STOPWATCH";
+    // adds another stopwatch and starts it
+    public static final String ACTION_ADD_STOPWATCH = ACTION_PREFIX + "ADD_STOPWATCH";
+    // resets the stopwatch and removes it unless it is the stopwatch on the stopwatch tab
+    public static final String ACTION_REMOVE_STOPWATCH = ACTION_PREFIX + "REMOVE_STOPWATCH";
+    // removes every paused stopwatch; the stopwatch on the stopwatch tab is only reset
+    public static final String ACTION_REMOVE_PAUSED_STOPWATCHES =
+            ACTION_PREFIX + "REMOVE_PAUSED_STOPWATCHES";
+
+    // identifies the stopwatch to be altered; the stopwatch shown on the stopwatch tab if absent
+    public static final String EXTRA_STOPWATCH_ID = "com.android.deskclock.extra.STOPWATCH_ID";
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -59,6 +70,33 @@ public final class StopwatchService extends Service {
     public int onStartCommand(Intent intent, int flags, int startId) {
         final String action = intent.getAction();
         final int label = intent.getIntExtra(Events.EXTRA_EVENT_LABEL, R.string.label_intent);
+        final DataModel dm = DataModel.getDataModel();
+
+        // These actions do not alter a single existing stopwatch.
+        switch (action) {
+            case ACTION_ADD_STOPWATCH: {
+                Events.sendStopwatchEvent(R.string.action_start, label);
+                dm.startStopwatch(dm.addStopwatch());
+                return START_NOT_STICKY;
+            }
+            case ACTION_REMOVE_PAUSED_STOPWATCHES: {
+                Events.sendStopwatchEvent(R.string.action_reset, label);
+                for (Stopwatch stopwatch : dm.getStopwatches()) {
+                    if (stopwatch.isPaused()) {
+                        dm.removeStopwatch(stopwatch);
+                    }
+                }
+                return START_NOT_STICKY;
+            }
+        }
+
+        final int id = intent.getIntExtra(EXTRA_STOPWATCH_ID, Stopwatch.DEFAULT_ID);
+        final Stopwatch stopwatch = dm.getStopwatch(id);
+        if (stopwatch == null) {
+            // The stopwatch was removed after the notification was posted.
+            return START_NOT_STICKY;
+        }
+
         switch (action) {
             case ACTION_SHOW_STOPWATCH: {
                 Events.sendStopwatchEvent(R.string.action_show, label);
@@ -72,22 +110,27 @@ public final class StopwatchService extends Service {
             }
             case ACTION_START_STOPWATCH: {
                 Events.sendStopwatchEvent(R.string.action_start, label);
-                DataModel.getDataModel().startStopwatch();
+                dm.startStopwatch(stopwatch);
                 break;
             }
             case ACTION_PAUSE_STOPWATCH: {
                 Events.sendStopwatchEvent(R.string.action_pause, label);
-                DataModel.getDataModel().pauseStopwatch();
+                dm.pauseStopwatch(stopwatch);
                 break;
             }
             case ACTION_RESET_STOPWATCH: {
                 Events.sendStopwatchEvent(R.string.action_reset, label);
-                DataModel.getDataModel().resetStopwatch();
+                dm.resetStopwatch(stopwatch);
                 break;
             }
             case ACTION_LAP_STOPWATCH: {
                 Events.sendStopwatchEvent(R.string.action_lap, label);
-                DataModel.getDataModel().addLap();
+                dm.addLap(stopwatch);
+                break;
+            }
+            case ACTION_REMOVE_STOPWATCH: {
+                Events.sendStopwatchEvent(R.string.action_reset, label);
+                dm.removeStopwatch(stopwatch);
                 break;
             }
         }
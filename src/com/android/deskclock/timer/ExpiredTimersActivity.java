@@ -36,6 +36,7 @@ import com.android.deskclock.R;
 import com.android.deskclock.data.DataModel;
 import com.android.deskclock.data.Timer;
 import com.android.deskclock.data.TimerListener;
+import com.android.deskclock.data.TimerListenerAdapter;
 
 import java.util.List;
 
@@ -281,7 +282,7 @@ public class ExpiredTimersActivity extends BaseActivity {
     /**
      * Adds and removes expired timers from this activity based on their state changes.
      */
-    private class TimerChangeWatcher implements TimerListener {
+    private class TimerChangeWatcher extends TimerListenerAdapter {
         @Override
         public void timerAdded(Timer timer) {
             if (timer.isExpired()) {
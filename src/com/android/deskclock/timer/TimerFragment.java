@@ -45,8 +45,10 @@ import com.android.deskclock.Utils;
 import com.android.deskclock.data.DataModel;
 import com.android.deskclock.data.Timer;
 import com.android.deskclock.data.TimerListener;
+import com.android.deskclock.data.TimerListenerAdapter;
 import com.android.deskclock.data.TimerStringFormatter;
 import com.android.deskclock.events.Events;
+import com.android.deskclock.uidata.TickListener;
 import com.android.deskclock.uidata.UiDataModel;
 
 import java.io.Serializable;
@@ -71,8 +73,8 @@ public final class TimerFragment extends DeskClockFragment {
     /** Notified when the user swipes vertically to change the visible timer. */
     private final TimerPageChangeListener mTimerPageChangeListener = new TimerPageChangeListener();
 
-    /** Scheduled to update the timers while at least one is running. */
-    private final Runnable mTimeUpdateRunnable = new TimeUpdateRunnable();
+    /** Ticked to update the timers while at least one is running. */
+    private final TickListener mTimeUpdater = new TimeUpdater();
 
     /** Updates the {@link #mPageIndicators} in response to timers being added or removed. */
     private final TimerListener mTimerWatcher = new TimerWatcher();
@@ -687,32 +689,42 @@ public final class TimerFragment extends DeskClockFragment {
         return mAdapter.getCount() == 0 ? null : mAdapter.getTimer(mViewPager.getCurrentItem());
     }
 
+    /**
+     * Tick the timers each second while the visible timer is running, or at each blink otherwise.
+     */
     private void startUpdatingTime() {
-        // Ensure only one copy of the runnable is ever scheduled by first stopping updates.
-        stopUpdatingTime();
-        mViewPager.post(mTimeUpdateRunnable);
+        final Timer timer = getTimer();
+        final long granularity = timer != null && timer.isRunning()
+                ? TickListener.SECOND
+                : TickListener.HALF_SECOND;
+        UiDataModel.getUiDataModel().addTickListener(mTimeUpdater, mViewPager, granularity);
     }
 
     private void stopUpdatingTime() {
-        mViewPager.removeCallbacks(mTimeUpdateRunnable);
+        UiDataModel.getUiDataModel().removeTickListener(mTimeUpdater);
     }
 
     /**
-     * Periodically refreshes the state of each timer.
+     * Refreshes the state of each timer when the text or blink of the visible timer changes.
      */
-    private class TimeUpdateRunnable implements Runnable {
+    private class TimeUpdater implements TickListener {
         @Override
-        public void run() {
-            final long startTime = SystemClock.elapsedRealtime();
-            // If no timers require continuous updates, avoid scheduling the next update.
-            if (!mAdapter.updateTime()) {
-                return;
+        public long getTickTime() {
+            // The text of running and expired timers changes as the remaining time crosses each
+            // second; other timers only blink.
+            final Timer timer = getTimer();
+            if (timer != null && (timer.isRunning() || timer.isExpired() || timer.isMissed())) {
+                return -timer.getRemainingTime();
             }
-            final long endTime = SystemClock.elapsedRealtime();
+            return SystemClock.elapsedRealtime();
+        }
 
-            // Try to maintain a consistent period of time between redraws.
-            final long delay = Math.max(0, startTime + 20 - endTime);
-            mTimersView.postDelayed(this, delay);
+        @Override
+        public void onTick() {
+            // If no timers require continuous updates, stop ticking.
+            if (!mAdapter.updateTime()) {
+                stopUpdatingTime();
+            }
         }
     }
 
@@ -742,7 +754,7 @@ public final class TimerFragment extends DeskClockFragment {
      * Update the page indicators in response to timers being added or removed.
      * Update the fab in response to the visible timer changing.
      */
-    private class TimerWatcher implements TimerListener {
+    private class TimerWatcher extends TimerListenerAdapter {
         @Override
         public void timerAdded(Timer timer) {
             updatePageIndicators();
@@ -764,6 +776,12 @@ public final class TimerFragment extends DeskClockFragment {
             // Fetch the index of the change.
             final int index = DataModel.getDataModel().getTimers().indexOf(after);
 
+            // If the visible timer changed state, tick at the granularity of its new state.
+            if (isResumed() && before.getState() != after.getState()
+                    && index == mViewPager.getCurrentItem()) {
+                startUpdatingTime();
+            }
+
             // If the timer just expired but is not displayed, display it now.
             if (!before.isExpired() && after.isExpired() && index != mViewPager.getCurrentItem()) {
                 mViewPager.setCurrentItem(index, true);
@@ -787,4 +805,4 @@ public final class TimerFragment extends DeskClockFragment {
             }
         }
     }
-}
\ No newline at end of file
+}
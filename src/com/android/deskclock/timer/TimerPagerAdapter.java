@@ -159,6 +159,23 @@ class TimerPagerAdapter extends PagerAdapter implements TimerListener {
         }
     }
 
+    @Override
+    public void timersChanged(List<Timer> before, List<Timer> after) {
+        boolean countChanged = false;
+        for (int i = 0; i < after.size(); i++) {
+            if (before.get(i) == null || after.get(i) == null) {
+                countChanged = true;
+            } else {
+                timerUpdated(before.get(i), after.get(i));
+            }
+        }
+
+        // Rebuild the pages once no matter how many timers were added or removed.
+        if (countChanged) {
+            notifyDataSetChanged();
+        }
+    }
+
     /**
      * @return {@code true} if at least one timer is in a state requiring continuous updates
      */
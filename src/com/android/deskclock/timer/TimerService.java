@@ -181,6 +181,8 @@ public final class TimerService extends Service {
         } finally {
             // This service is foreground when expired timers exist and stopped when none exist.
             if (DataModel.getDataModel().getExpiredTimers().isEmpty()) {
+                // The process may be killed once this service stops.
+                DataModel.getDataModel().flushTimers();
                 stopSelf();
             }
         }
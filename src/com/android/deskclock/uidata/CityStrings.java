@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.uidata;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import com.android.deskclock.R;
+import com.android.deskclock.Utils;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static java.util.Calendar.DAY_OF_WEEK;
+
+/**
+ * The strings that describe the time in a city relative to the local time, formatted for a single
+ * minute. Instances are immutable and may be read from any thread.
+ */
+public final class CityStrings {
+
+    /** The label of the day of the week in the city; {@code null} if it is the local day. */
+    private final String mDayOfWeekLabel;
+
+    /** The time difference from the local time; {@code null} if there is none. */
+    private final String mTimeDifference;
+
+    /** "Tomorrow" or "Yesterday"; {@code null} if the city shares the local day. */
+    private final String mDayDifference;
+
+    private CityStrings(String dayOfWeekLabel, String timeDifference, String dayDifference) {
+        mDayOfWeekLabel = dayOfWeekLabel;
+        mTimeDifference = timeDifference;
+        mDayDifference = dayDifference;
+    }
+
+    /**
+     * @return the day of the week in the city, e.g. "/ Mon", or {@code null} if it is the same as
+     *      the local day of the week
+     */
+    public String getDayOfWeekLabel() {
+        return mDayOfWeekLabel;
+    }
+
+    /**
+     * @return the time difference from the local time, e.g. "3 hours ahead", qualified with the
+     *      day if it differs, or {@code null} if the city displays the local time
+     */
+    public String getTimeDifference() {
+        return mTimeDifference;
+    }
+
+    /**
+     * @return "Tomorrow" or "Yesterday", or {@code null} if the city shares the local day
+     */
+    public String getDayDifference() {
+        return mDayDifference;
+    }
+
+    /**
+     * @param now the time at which the strings are displayed
+     * @return the strings that describe the time in the {@code cityTimeZone} at {@code now}
+     */
+    static CityStrings create(Context context, TimeZone cityTimeZone, long now) {
+        final TimeZone localTimeZone = TimeZone.getDefault();
+
+        // Compute if the city week day matches the weekday of the current timezone.
+        final Calendar localCal = Calendar.getInstance(localTimeZone);
+        final Calendar cityCal = Calendar.getInstance(cityTimeZone);
+        localCal.setTimeInMillis(now);
+        cityCal.setTimeInMillis(now);
+        final boolean displayDayOfWeek = localCal.get(DAY_OF_WEEK) != cityCal.get(DAY_OF_WEEK);
+
+        // Compare offset from UTC time on today's date (daylight savings time, etc.)
+        final long offsetDelta = cityTimeZone.getOffset(now) - localTimeZone.getOffset(now);
+        final int hoursDifferent = (int) (offsetDelta / DateUtils.HOUR_IN_MILLIS);
+        final int minutesDifferent = (int) (offsetDelta / DateUtils.MINUTE_IN_MILLIS) % 60;
+        final boolean displayMinutes = offsetDelta % DateUtils.HOUR_IN_MILLIS != 0;
+        final boolean isAhead = hoursDifferent > 0 || (hoursDifferent == 0
+                && minutesDifferent > 0);
+
+        String dayOfWeekLabel = null;
+        String dayDifference = null;
+        if (displayDayOfWeek) {
+            final Locale locale = Locale.getDefault();
+            final String weekday = cityCal.getDisplayName(DAY_OF_WEEK, Calendar.SHORT, locale);
+            dayOfWeekLabel = context.getString(R.string.world_day_of_week_label, weekday);
+            dayDifference = context.getString(isAhead ? R.string.world_tomorrow
+                    : R.string.world_yesterday);
+        }
+
+        String timeDifference = null;
+        if (hoursDifferent != 0 || displayMinutes) {
+            final String timeString = Utils.createHoursDifferentString(
+                    context, displayMinutes, isAhead, hoursDifferent, minutesDifferent);
+            timeDifference = displayDayOfWeek
+                    ? context.getString(isAhead ? R.string.world_hours_tomorrow
+                            : R.string.world_hours_yesterday, timeString)
+                    : timeString;
+        }
+
+        return new CityStrings(dayOfWeekLabel, timeDifference, dayDifference);
+    }
+}
@@ -20,9 +20,12 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.text.format.DateUtils;
 import android.util.ArrayMap;
 import android.util.SparseArray;
 
+import com.android.deskclock.data.City;
+
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
@@ -40,6 +43,12 @@ final class FormattedStringModel {
     @SuppressWarnings("FieldCanBeLocal")
     private final BroadcastReceiver mLocaleChangedReceiver = new LocaleChangedReceiver();
 
+    /** Clears data structures containing data that is time zone sensitive. */
+    @SuppressWarnings("FieldCanBeLocal")
+    private final BroadcastReceiver mTimeZoneChangedReceiver = new TimeZoneChangedReceiver();
+
+    private final Context mContext;
+
     /**
      * Caches formatted numbers in the current locale padded with zeroes to requested lengths.
      * The first level of the cache maps length to the second level of the cache.
@@ -53,10 +62,27 @@ final class FormattedStringModel {
     /** Full weekday names; e.g.: 'Sunday', 'Monday', 'Tuesday', etc. */
     private Map<Integer, String> mLongWeekdayNames;
 
+    /**
+     * Strings describing the time in each displayed city relative to the local time, keyed by
+     * time zone id. They are shared by every view displaying the city during
+     * {@link #mCityStringsMinute} and cleared when the minute ends.
+     */
+    private final Map<String, CityStrings> mCityStrings = new ArrayMap<>();
+
+    /** The minute since the epoch for which {@link #mCityStrings} were formatted. */
+    private long mCityStringsMinute;
+
     FormattedStringModel(Context context) {
+        mContext = context;
+
         // Clear caches affected by locale when locale changes.
         final IntentFilter localeBroadcastFilter = new IntentFilter(Intent.ACTION_LOCALE_CHANGED);
         context.registerReceiver(mLocaleChangedReceiver, localeBroadcastFilter);
+
+        // Clear caches affected by the local time zone when it changes.
+        final IntentFilter timeZoneBroadcastFilter =
+                new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED);
+        context.registerReceiver(mTimeZoneChangedReceiver, timeZoneBroadcastFilter);
     }
 
     /**
@@ -183,6 +209,31 @@ final class FormattedStringModel {
         return mLongWeekdayNames.get(calendarDay);
     }
 
+    /**
+     * The strings describing a city change at most once per minute, when its day or time
+     * difference changes, so they are formatted at most once per minute and shared by all callers.
+     *
+     * @param city the city to describe
+     * @return strings describing the time in the {@code city} relative to the local time
+     */
+    CityStrings getCityStrings(City city) {
+        final long now = System.currentTimeMillis();
+        final long minute = now / DateUtils.MINUTE_IN_MILLIS;
+        if (minute != mCityStringsMinute) {
+            mCityStrings.clear();
+            mCityStringsMinute = minute;
+        }
+
+        final String timeZoneId = city.getTimeZone().getID();
+        CityStrings cityStrings = mCityStrings.get(timeZoneId);
+        if (cityStrings == null) {
+            cityStrings = CityStrings.create(mContext, city.getTimeZone(), now);
+            mCityStrings.put(timeZoneId, cityStrings);
+        }
+
+        return cityStrings;
+    }
+
     /**
      * Cached information that is locale-sensitive must be cleared in response to locale changes.
      */
@@ -192,6 +243,17 @@ final class FormattedStringModel {
             mNumberFormatCache.clear();
             mShortWeekdayNames = null;
             mLongWeekdayNames = null;
+            mCityStrings.clear();
+        }
+    }
+
+    /**
+     * Cached information relative to the local time zone must be cleared when it changes.
+     */
+    private final class TimeZoneChangedReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mCityStrings.clear();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.uidata;
+
+/**
+ * The interface through which views that display a changing time are told, at the start of a
+ * display frame, that the value they display has changed.
+ */
+public interface TickListener {
+
+    /** Granularity of a display that changes every hundredth of a second. */
+    long CENTISECOND = 10;
+
+    /** Granularity of a display that blinks twice a second. */
+    long HALF_SECOND = 500;
+
+    /** Granularity of a display that changes every second. */
+    long SECOND = 1000;
+
+    /** Granularity of a display that changes every minute. */
+    long MINUTE = 60000;
+
+    /**
+     * The displayed value changes each time the tick time crosses a multiple of the granularity
+     * with which the listener was added, so the time must be measured on a clock that lines up
+     * with what is displayed; e.g. the elapsed time of a stopwatch.
+     *
+     * @return the current time of this listener in milliseconds
+     */
+    long getTickTime();
+
+    /**
+     * Called when the tick time has crossed into a new multiple of the granularity.
+     */
+    void onTick();
+}
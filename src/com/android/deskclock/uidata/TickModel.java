@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.uidata;
+
+import android.content.Context;
+import android.util.ArrayMap;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.view.WindowManager;
+
+import com.android.deskclock.LogUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static android.view.View.VISIBLE;
+
+/**
+ * A single tick source shared by every view that displays a changing time. Ticks are driven by
+ * {@link Choreographer} so they land at the start of a display frame, and each listener is called
+ * only in the frames in which its displayed value changes. Between changes the next frame callback
+ * is delayed until the earliest moment any listener's value will change, so a display that changes
+ * once a second wakes the main thread once a second rather than once per frame.
+ *
+ * <p>Listeners whose view is not shown, or whose window is not visible, are paused. A paused
+ * listener is resumed by the next pass that draws its window, so nothing is posted while every
+ * listener is paused, e.g. while the app is in the background. The number of frames in which
+ * the model woke, the ticks delivered and the frames missed because the main thread was busy are
+ * counted and logged each time the last listener is removed.</p>
+ */
+final class TickModel implements Choreographer.FrameCallback {
+
+    private static final LogUtils.Logger LOGGER = new LogUtils.Logger("Tick");
+
+    /** Refresh rate assumed if the display does not report one. */
+    private static final float DEFAULT_REFRESH_RATE = 60f;
+
+    /** Each listener mapped to its view, granularity and last displayed value. */
+    private final ArrayMap<TickListener, Subscription> mSubscriptions = new ArrayMap<>();
+
+    /** The subscriptions being ticked in the current frame; reused to avoid allocation. */
+    private final List<Subscription> mTicking = new ArrayList<>();
+
+    /** Duration of one display frame. */
+    private final long mFrameIntervalNanos;
+
+    private Choreographer mChoreographer;
+
+    /** {@code true} if a frame callback is posted. */
+    private boolean mScheduled;
+
+    /** The time at which the posted frame callback was due. */
+    private long mDueTimeNanos;
+
+    /** The time at which the first listener was added. */
+    private long mActiveSinceNanos;
+
+    /** Number of frames in which this model woke the main thread. */
+    private long mFrameCount;
+
+    /** Number of ticks delivered to listeners. */
+    private long mTickCount;
+
+    /** Number of frames by which frame callbacks ran later than they were due. */
+    private long mMissedFrameCount;
+
+    TickModel(Context context) {
+        final WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        final Display display = wm.getDefaultDisplay();
+        final float refreshRate = display.getRefreshRate();
+        final float rate = refreshRate >= 1f ? refreshRate : DEFAULT_REFRESH_RATE;
+        mFrameIntervalNanos = (long) (1000000000L / rate);
+    }
+
+    /**
+     * Adds the {@code listener}, or changes its view and granularity if it was already added, and
+     * ticks it in the next frame.
+     *
+     * @param listener to be ticked when its displayed value changes
+     * @param view the view displaying the value; the listener is paused while it is not shown
+     * @param granularity the number of milliseconds between changes of the displayed value
+     */
+    void addTickListener(TickListener listener, View view, long granularity) {
+        if (granularity <= 0) {
+            throw new IllegalArgumentException("granularity must be positive: " + granularity);
+        }
+
+        if (mSubscriptions.isEmpty()) {
+            mActiveSinceNanos = System.nanoTime();
+            mFrameCount = 0;
+            mTickCount = 0;
+            mMissedFrameCount = 0;
+        }
+
+        Subscription subscription = mSubscriptions.get(listener);
+        if (subscription == null) {
+            subscription = new Subscription(listener);
+            mSubscriptions.put(listener, subscription);
+        }
+        subscription.resume();
+        subscription.mView = view;
+        subscription.mGranularity = granularity;
+        subscription.mLastValue = Long.MIN_VALUE;
+
+        schedule(0);
+    }
+
+    /**
+     * @param listener to no longer be ticked
+     */
+    void removeTickListener(TickListener listener) {
+        final Subscription subscription = mSubscriptions.remove(listener);
+        if (subscription == null) {
+            return;
+        }
+        subscription.resume();
+        subscription.mView = null;
+
+        if (mSubscriptions.isEmpty()) {
+            if (mScheduled) {
+                getChoreographer().removeFrameCallback(this);
+                mScheduled = false;
+            }
+            logStatistics();
+        }
+    }
+
+    /**
+     * @return the number of frames in which this model woke the main thread since it last became
+     *      active
+     */
+    long getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return the number of ticks delivered to listeners since this model last became active
+     */
+    long getTickCount() {
+        return mTickCount;
+    }
+
+    /**
+     * @return the number of frames missed because ticks ran late since this model last became
+     *      active
+     */
+    long getMissedFrameCount() {
+        return mMissedFrameCount;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mScheduled = false;
+        mFrameCount++;
+
+        final long lateNanos = frameTimeNanos - mDueTimeNanos;
+        if (lateNanos > mFrameIntervalNanos) {
+            mMissedFrameCount += lateNanos / mFrameIntervalNanos;
+        }
+
+        // Listeners may add or remove listeners while they are ticked.
+        for (int i = 0; i < mSubscriptions.size(); i++) {
+            mTicking.add(mSubscriptions.valueAt(i));
+        }
+
+        long delay = Long.MAX_VALUE;
+        for (int i = 0; i < mTicking.size(); i++) {
+            final Subscription subscription = mTicking.get(i);
+            if (subscription.mView == null || subscription.isPaused()) {
+                // Removed by an earlier listener in this frame, or waiting to be drawn again.
+                continue;
+            }
+
+            if (!isVisible(subscription.mView)) {
+                subscription.pause();
+                continue;
+            }
+
+            final long granularity = subscription.mGranularity;
+            final long time = subscription.mListener.getTickTime();
+            final long value = floorDiv(time, granularity);
+            if (value != subscription.mLastValue) {
+                subscription.mLastValue = value;
+                mTickCount++;
+                subscription.mListener.onTick();
+            }
+
+            // A listener added again while it was ticked has already scheduled the next frame.
+            if (subscription.mLastValue == value && subscription.mGranularity == granularity) {
+                delay = Math.min(delay, (value + 1) * granularity - time);
+            }
+        }
+        mTicking.clear();
+
+        // Nothing is due while every listener is paused.
+        if (delay != Long.MAX_VALUE && !mScheduled) {
+            schedule(delay);
+        }
+    }
+
+    private void schedule(long delay) {
+        final Choreographer choreographer = getChoreographer();
+        if (mScheduled) {
+            choreographer.removeFrameCallback(this);
+        }
+
+        mScheduled = true;
+        mDueTimeNanos = System.nanoTime() + Math.max(0, delay) * 1000000L;
+        if (delay <= 0) {
+            choreographer.postFrameCallback(this);
+        } else {
+            choreographer.postFrameCallbackDelayed(this, delay);
+        }
+    }
+
+    private Choreographer getChoreographer() {
+        if (mChoreographer == null) {
+            mChoreographer = Choreographer.getInstance();
+        }
+        return mChoreographer;
+    }
+
+    private void logStatistics() {
+        final long activeMillis = (System.nanoTime() - mActiveSinceNanos) / 1000000L;
+        final float wakeupsPerSecond = activeMillis == 0 ? 0 : mFrameCount * 1000f / activeMillis;
+        LOGGER.i("Woke in %d frames over %d ms (%.1f per second), delivered %d ticks, missed %d"
+                + " frames", mFrameCount, activeMillis, wakeupsPerSecond, mTickCount,
+                mMissedFrameCount);
+    }
+
+    private static boolean isVisible(View view) {
+        return view.isShown() && view.getWindowVisibility() == VISIBLE;
+    }
+
+    /**
+     * @return the largest multiple of {@code granularity}, in units of the granularity, that is
+     *      not greater than {@code time}
+     */
+    private static long floorDiv(long time, long granularity) {
+        final long quotient = time / granularity;
+        return (time % granularity != 0 && time < 0) ? quotient - 1 : quotient;
+    }
+
+    /**
+     * The view, granularity and last displayed value of a single listener.
+     */
+    private final class Subscription implements ViewTreeObserver.OnPreDrawListener {
+
+        private final TickListener mListener;
+
+        /** The view displaying the value; {@code null} once the listener is removed. */
+        private View mView;
+
+        /** The number of milliseconds between changes of the displayed value. */
+        private long mGranularity;
+
+        /** The value last displayed, or {@link Long#MIN_VALUE} if the display must be ticked. */
+        private long mLastValue = Long.MIN_VALUE;
+
+        /** The observer notifying this paused listener of draws; {@code null} if not paused. */
+        private ViewTreeObserver mPausedObserver;
+
+        private Subscription(TickListener listener) {
+            mListener = listener;
+        }
+
+        private boolean isPaused() {
+            return mPausedObserver != null;
+        }
+
+        /**
+         * Stops ticking until the window of the view is drawn while the view is shown.
+         */
+        private void pause() {
+            // Redraw as soon as the view can be seen again.
+            mLastValue = Long.MIN_VALUE;
+            mPausedObserver = mView.getViewTreeObserver();
+            mPausedObserver.addOnPreDrawListener(this);
+        }
+
+        private void resume() {
+            if (mPausedObserver == null) {
+                return;
+            }
+
+            // The observer of a view that was not attached when paused is merged into the
+            // observer of its window once attached.
+            final ViewTreeObserver observer = mPausedObserver.isAlive()
+                    ? mPausedObserver : mView.getViewTreeObserver();
+            if (observer.isAlive()) {
+                observer.removeOnPreDrawListener(this);
+            }
+            mPausedObserver = null;
+        }
+
+        @Override
+        public boolean onPreDraw() {
+            if (mView != null && isPaused() && isVisible(mView)) {
+                resume();
+                schedule(0);
+            }
+            return true;
+        }
+    }
+}
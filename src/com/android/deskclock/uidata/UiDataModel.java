@@ -21,10 +21,12 @@ import android.content.SharedPreferences;
 import android.graphics.Typeface;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.StringRes;
+import android.view.View;
 
 import com.android.deskclock.AlarmClockFragment;
 import com.android.deskclock.ClockFragment;
 import com.android.deskclock.R;
+import com.android.deskclock.data.City;
 import com.android.deskclock.stopwatch.StopwatchFragment;
 import com.android.deskclock.timer.TimerFragment;
 
@@ -77,6 +79,9 @@ public final class UiDataModel {
     /** The model from which timed callbacks originate. */
     private PeriodicCallbackModel mPeriodicCallbackModel;
 
+    /** The model from which display ticks originate. */
+    private TickModel mTickModel;
+
     private UiDataModel() {}
 
     /**
@@ -87,6 +92,7 @@ public final class UiDataModel {
             mContext = context.getApplicationContext();
 
             mPeriodicCallbackModel = new PeriodicCallbackModel(mContext);
+            mTickModel = new TickModel(mContext);
             mFormattedStringModel = new FormattedStringModel(mContext);
             mTabModel = new TabModel(prefs);
         }
@@ -190,6 +196,19 @@ public final class UiDataModel {
         return mFormattedStringModel.getLongWeekday(calendarDay);
     }
 
+    /**
+     * The strings are formatted at most once per minute for each city time zone and shared by
+     * every caller within that minute. Callers on other threads must fetch them via
+     * {@link com.android.deskclock.data.DataModel#run} and may then read them from any thread.
+     *
+     * @param city the city to describe
+     * @return strings describing the time in the {@code city} relative to the local time
+     */
+    public CityStrings getCityStrings(City city) {
+        enforceMainLooper();
+        return mFormattedStringModel.getCityStrings(city);
+    }
+
     //
     // Animations
     //
@@ -370,4 +389,58 @@ public final class UiDataModel {
         enforceMainLooper();
         mPeriodicCallbackModel.removePeriodicCallback(runnable);
     }
+
+    //
+    // Display Ticks
+    //
+
+    /**
+     * Ticks the {@code listener} at the start of each display frame in which the value it displays
+     * changes, while its {@code view} is shown. Adding a listener again replaces its view and
+     * granularity and ticks it in the next frame.
+     *
+     * @param listener to be ticked when its displayed value changes
+     * @param view the view displaying the value
+     * @param granularity the milliseconds between changes of the displayed value; e.g.
+     *      {@link TickListener#SECOND}
+     */
+    public void addTickListener(TickListener listener, View view, long granularity) {
+        enforceMainLooper();
+        mTickModel.addTickListener(listener, view, granularity);
+    }
+
+    /**
+     * @param listener to no longer be ticked
+     */
+    public void removeTickListener(TickListener listener) {
+        enforceMainLooper();
+        mTickModel.removeTickListener(listener);
+    }
+
+    /**
+     * @return the number of frames in which display ticks woke the main thread since the first
+     *      current tick listener was added
+     */
+    public long getTickFrameCount() {
+        enforceMainLooper();
+        return mTickModel.getFrameCount();
+    }
+
+    /**
+     * @return the number of ticks delivered to tick listeners since the first current tick
+     *      listener was added
+     */
+    public long getTickCount() {
+        enforceMainLooper();
+        return mTickModel.getTickCount();
+    }
+
+    /**
+     * @return the number of display frames missed because ticks ran late since the first current
+     *      tick listener was added
+     */
+    public long getTickMissedFrameCount() {
+        enforceMainLooper();
+        return mTickModel.getMissedFrameCount();
+    }
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.ArraySet;
+
+import com.android.deskclock.LogUtils;
+import com.android.deskclock.data.AlarmRepository;
+import com.android.deskclock.data.Weekdays;
+import com.android.deskclock.provider.Alarm;
+import com.android.deskclock.provider.AlarmInstance;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import static android.text.format.DateUtils.DAY_IN_MILLIS;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+import static android.text.format.DateUtils.SECOND_IN_MILLIS;
+import static com.android.deskclock.alarms.AlarmStateManager.ALARM_FIRE_BUFFER;
+
+/**
+ * Drives the alarm state machine through simulated time. The simulator replaces the clock and the
+ * state change scheduler of {@link AlarmStateManager} with a virtual clock and a
+ * {@link MultiplexedStateChangeScheduler} whose single wakeup is observed rather than armed, then
+ * jumps the virtual clock from one wakeup to the next, delivering every due state change exactly as
+ * {@link AlarmService} would. Fired alarms are dismissed by a simulated user or left to time out,
+ * and the default time zone is changed periodically, so a run exercises every transition along
+ * with daylight saving shifts and time zone changes.
+ *
+ * <p>The simulation reads and writes the real clock provider of the given context, changes the
+ * default time zone and posts alarm notifications. It creates its own alarms and deletes them
+ * afterwards, but it must only be run on a test device, through
+ * {@link AlarmStateSimulatorInstrumentation}.</p>
+ */
+final class AlarmStateSimulator implements AlarmStateManager.CurrentTimeFactory,
+        MultiplexedStateChangeScheduler.Wakeup {
+
+    /** Time zones visited in turn; each observes daylight saving differently. */
+    private static final String[] TIME_ZONE_IDS = {
+            "America/Los_Angeles", "Europe/London", "Australia/Lord_Howe", "Asia/Kolkata"
+    };
+
+    /** Fraction of fired alarms the simulated user dismisses before they time out. */
+    private static final float DISMISS_PROBABILITY = 0.8f;
+
+    /** Fired alarms still ringing after this long are dismissed regardless. */
+    private static final long MAX_RINGING_MILLIS = HOUR_IN_MILLIS;
+
+    private final Context mContext;
+    private final AlarmRepository mRepository;
+    private final Random mRandom;
+
+    /** The state changes delivered, indexed by the state entered. */
+    private final int[] mTransitionCounts = new int[AlarmInstance.PREDISMISSED_STATE + 1];
+
+    /** Pending simulated dismissals by time; fired alarms the user stops. */
+    private final TreeMap<Long, Long> mDismissals = new TreeMap<>();
+
+    /** Ids of the upcoming instances already reported as having missed their fire window. */
+    private final Set<Long> mMissedWindows = new ArraySet<>();
+
+    /** The current simulated time. */
+    private long mNowMillis;
+
+    /** The time at which the scheduler's wakeup is armed, or {@link Long#MAX_VALUE}. */
+    private long mWakeupMillis = Long.MAX_VALUE;
+
+    /** The longest delay observed between an alarm's fire time and its firing. */
+    private long mMaxFireDelayMillis;
+
+    /**
+     * @param context a context whose clock provider may be freely modified
+     * @param seed determines the alarms created and the simulated user's behavior
+     */
+    AlarmStateSimulator(Context context, long seed) {
+        mContext = context.getApplicationContext();
+        mRepository = AlarmRepository.getAlarmRepository(mContext);
+        mRandom = new Random(seed);
+    }
+
+    @Override
+    public Calendar getCurrentTime() {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(mNowMillis);
+        return calendar;
+    }
+
+    @Override
+    public void set(Context context, long timeInMillis) {
+        mWakeupMillis = timeInMillis;
+    }
+
+    @Override
+    public void cancel(Context context) {
+        mWakeupMillis = Long.MAX_VALUE;
+    }
+
+    /**
+     * Creates {@code alarmCount} random repeating and one-time alarms and runs the state machine
+     * from {@code startMillis} for {@code durationMillis}.
+     *
+     * @return a summary of the run
+     */
+    Report run(int alarmCount, long startMillis, long durationMillis) {
+        final TimeZone defaultTimeZone = TimeZone.getDefault();
+        final MultiplexedStateChangeScheduler scheduler =
+                new MultiplexedStateChangeScheduler(this, this);
+        // Every simulated instance is registered with the new scheduler below.
+        scheduler.setTimelineRestored();
+
+        mNowMillis = startMillis;
+        AlarmStateManager.setCurrentTimeFactory(this);
+        AlarmStateManager.setStateChangeScheduler(scheduler);
+
+        final List<Alarm> alarms = new ArrayList<>(alarmCount);
+        try {
+            for (int i = 0; i < alarmCount; i++) {
+                alarms.add(createAlarm());
+            }
+
+            final long startNanos = System.nanoTime();
+            final long startOperations = mRepository.getProviderOperationCount();
+            simulate(scheduler, startMillis + durationMillis);
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            final long operations = mRepository.getProviderOperationCount() - startOperations;
+
+            return new Report(mTransitionCounts.clone(), elapsedNanos, operations,
+                    mMissedWindows.size(), mMaxFireDelayMillis);
+        } finally {
+            for (Alarm alarm : alarms) {
+                AlarmStateManager.deleteAllInstances(mContext, alarm.id);
+                mRepository.deleteAlarm(alarm.id);
+            }
+            AlarmStateManager.setStateChangeScheduler(null);
+            AlarmStateManager.setCurrentTimeFactory(null);
+            TimeZone.setDefault(defaultTimeZone);
+        }
+    }
+
+    private Alarm createAlarm() {
+        final Alarm alarm = new Alarm(mRandom.nextInt(24), mRandom.nextInt(60));
+        // Roughly one alarm in eight fires only once.
+        alarm.daysOfWeek = Weekdays.fromBits(mRandom.nextInt(8) == 0 ? 0 : mRandom.nextInt(0x80));
+        alarm.enabled = true;
+        mRepository.addAlarm(alarm);
+
+        final AlarmInstance instance = mRepository.addInstance(
+                alarm.createInstanceAfter(getCurrentTime()));
+        AlarmStateManager.registerInstance(mContext, instance, false /* updateNextAlarm */);
+        return alarm;
+    }
+
+    private void simulate(MultiplexedStateChangeScheduler scheduler, long endMillis) {
+        int timeZoneIndex = 0;
+        long nextTimeZoneChange = mNowMillis + 30 * DAY_IN_MILLIS;
+
+        while (true) {
+            long next = Math.min(mWakeupMillis, nextTimeZoneChange);
+            if (!mDismissals.isEmpty()) {
+                next = Math.min(next, mDismissals.firstKey());
+            }
+            if (next > endMillis) {
+                break;
+            }
+            mNowMillis = Math.max(mNowMillis, next);
+            checkFireWindow();
+
+            if (mNowMillis >= nextTimeZoneChange) {
+                timeZoneIndex = (timeZoneIndex + 1) % TIME_ZONE_IDS.length;
+                TimeZone.setDefault(TimeZone.getTimeZone(TIME_ZONE_IDS[timeZoneIndex]));
+                AlarmStateManager.fixAlarmInstances(mContext);
+                nextTimeZoneChange += 30 * DAY_IN_MILLIS;
+            }
+
+            while (!mDismissals.isEmpty() && mDismissals.firstKey() <= mNowMillis) {
+                dismiss(mDismissals.pollFirstEntry().getValue());
+            }
+
+            if (mWakeupMillis <= mNowMillis) {
+                // The wakeup has been delivered; the scheduler re-arms it for the next change.
+                mWakeupMillis = Long.MAX_VALUE;
+                for (Intent intent : scheduler.removeDueStateChanges(mContext)) {
+                    deliver(intent);
+                }
+            }
+        }
+    }
+
+    private void deliver(Intent intent) {
+        final int state = intent.getIntExtra(AlarmStateManager.ALARM_STATE_EXTRA, -1);
+        final long instanceId = AlarmInstance.getId(intent.getData());
+        AlarmStateManager.handleIntent(mContext, intent);
+        mTransitionCounts[state]++;
+
+        if (state == AlarmInstance.FIRED_STATE) {
+            final AlarmInstance instance = mRepository.getInstance(instanceId);
+            if (instance == null) {
+                return;
+            }
+
+            final long delay = mNowMillis - instance.getAlarmTime().getTimeInMillis();
+            mMaxFireDelayMillis = Math.max(mMaxFireDelayMillis, delay);
+
+            final long ringingMillis = mRandom.nextFloat() < DISMISS_PROBABILITY
+                    ? mRandom.nextInt(60) * SECOND_IN_MILLIS
+                    : MAX_RINGING_MILLIS;
+            long dismissMillis = mNowMillis + ringingMillis;
+            while (mDismissals.containsKey(dismissMillis)) {
+                dismissMillis++;
+            }
+            mDismissals.put(dismissMillis, instanceId);
+        }
+    }
+
+    /**
+     * Dismisses the instance if it is still ringing; missed instances are left alone.
+     */
+    private void dismiss(long instanceId) {
+        final AlarmInstance instance = mRepository.getInstance(instanceId);
+        if (instance != null && instance.mAlarmState == AlarmInstance.FIRED_STATE) {
+            AlarmStateManager.deleteInstanceAndUpdateParent(mContext, instance);
+            mTransitionCounts[AlarmInstance.DISMISSED_STATE]++;
+        }
+    }
+
+    /**
+     * Records the next upcoming instance if its fire window has passed without it firing.
+     */
+    private void checkFireWindow() {
+        final AlarmInstance next = mRepository.getNextFiringInstance();
+        if (next == null) {
+            return;
+        }
+
+        final long windowEnd = next.getAlarmTime().getTimeInMillis()
+                + ALARM_FIRE_BUFFER * SECOND_IN_MILLIS;
+        if (windowEnd < mNowMillis && mMissedWindows.add(next.mId)) {
+            LogUtils.w("Simulated instance %d missed its fire window: %s", next.mId, next);
+        }
+    }
+
+    /**
+     * The outcome of a simulation run.
+     */
+    static final class Report {
+
+        /** The state changes delivered, indexed by the state entered. */
+        final int[] transitionCounts;
+
+        /** Wall clock time spent simulating, excluding setup and cleanup. */
+        final long elapsedNanos;
+
+        /** Queries and writes sent to the provider while simulating. */
+        final long providerOperations;
+
+        /** Instances whose fire window passed without them firing. */
+        final int missedFireWindows;
+
+        /** The longest delay between an alarm's fire time and its firing. */
+        final long maxFireDelayMillis;
+
+        private Report(int[] transitionCounts, long elapsedNanos, long providerOperations,
+                int missedFireWindows, long maxFireDelayMillis) {
+            this.transitionCounts = transitionCounts;
+            this.elapsedNanos = elapsedNanos;
+            this.providerOperations = providerOperations;
+            this.missedFireWindows = missedFireWindows;
+            this.maxFireDelayMillis = maxFireDelayMillis;
+        }
+
+        int getTransitionCount() {
+            int count = 0;
+            for (int transitionCount : transitionCounts) {
+                count += transitionCount;
+            }
+            return count;
+        }
+
+        double getTransitionsPerSecond() {
+            return elapsedNanos == 0 ? 0 : getTransitionCount() * 1e9 / elapsedNanos;
+        }
+
+        double getProviderOperationsPerTransition() {
+            final int count = getTransitionCount();
+            return count == 0 ? 0 : (double) providerOperations / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%d transitions (%.1f/s), %.2f provider operations"
+                            + " per transition, %d missed fire windows, max fire delay %d ms",
+                    getTransitionCount(), getTransitionsPerSecond(),
+                    getProviderOperationsPerTransition(), missedFireWindows, maxFireDelayMillis);
+        }
+    }
+}
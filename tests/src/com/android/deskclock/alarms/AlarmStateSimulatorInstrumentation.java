@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.alarms;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.os.Bundle;
+
+import com.android.deskclock.LogUtils;
+
+import static android.text.format.DateUtils.DAY_IN_MILLIS;
+
+/**
+ * Runs the {@link AlarmStateSimulator} inside the DeskClock process and reports the outcome:
+ *
+ * <pre>
+ * adb shell am instrument -w -e alarms 2000 -e days 365 -e seed 1 \
+ *     com.android.deskclock.tests/com.android.deskclock.alarms.AlarmStateSimulatorInstrumentation
+ * </pre>
+ *
+ * <p>All arguments are optional. The run fails if any instance misses its fire window.</p>
+ */
+public final class AlarmStateSimulatorInstrumentation extends Instrumentation {
+
+    private static final String ARG_ALARMS = "alarms";
+    private static final String ARG_DAYS = "days";
+    private static final String ARG_SEED = "seed";
+
+    private int mAlarmCount;
+    private int mDays;
+    private long mSeed;
+
+    @Override
+    public void onCreate(Bundle arguments) {
+        super.onCreate(arguments);
+        mAlarmCount = Integer.parseInt(arguments.getString(ARG_ALARMS, "2000"));
+        mDays = Integer.parseInt(arguments.getString(ARG_DAYS, "365"));
+        mSeed = Long.parseLong(arguments.getString(ARG_SEED, "1"));
+        start();
+    }
+
+    @Override
+    public void onStart() {
+        final AlarmStateSimulator simulator = new AlarmStateSimulator(getTargetContext(), mSeed);
+        final AlarmStateSimulator.Report report =
+                simulator.run(mAlarmCount, System.currentTimeMillis(), mDays * DAY_IN_MILLIS);
+        LogUtils.i("Alarm state simulation: %s", report);
+
+        final Bundle results = new Bundle();
+        results.putString(REPORT_KEY_STREAMRESULT, report + "\n");
+        results.putInt("transitions", report.getTransitionCount());
+        results.putDouble("transitions_per_second", report.getTransitionsPerSecond());
+        results.putDouble("provider_operations_per_transition",
+                report.getProviderOperationsPerTransition());
+        results.putInt("missed_fire_windows", report.missedFireWindows);
+        results.putLong("max_fire_delay_millis", report.maxFireDelayMillis);
+        finish(report.missedFireWindows == 0 ? Activity.RESULT_OK : Activity.RESULT_CANCELED,
+                results);
+    }
+}
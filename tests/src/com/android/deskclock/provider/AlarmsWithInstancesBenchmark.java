@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.deskclock.provider;
+
+import android.app.Activity;
+import android.app.Instrumentation;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.android.deskclock.LogUtils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.android.deskclock.provider.ClockContract.AlarmsColumns;
+import static com.android.deskclock.provider.ClockContract.InstancesColumns;
+import static com.android.deskclock.provider.ClockDatabaseHelper.ALARMS_TABLE_NAME;
+import static com.android.deskclock.provider.ClockDatabaseHelper.INSTANCES_TABLE_NAME;
+
+/**
+ * Times the alarms_with_instances query that backs the alarm list against a throwaway in-memory
+ * database built by {@link ClockDatabaseHelper}, and reports the median latency and query plan:
+ *
+ * <pre>
+ * adb shell am instrument -w -e alarms 10000 -e instances 50000 -e baseline true \
+ *     com.android.deskclock.tests/com.android.deskclock.provider.AlarmsWithInstancesBenchmark
+ * </pre>
+ *
+ * <p>All arguments are optional. With {@code baseline} the version 8 join, which has no instance
+ * indexes to use, is timed as well; it scans the instances table once per alarm and takes
+ * minutes at the default sizes.</p>
+ */
+public final class AlarmsWithInstancesBenchmark extends Instrumentation {
+
+    private static final String ARG_ALARMS = "alarms";
+    private static final String ARG_INSTANCES = "instances";
+    private static final String ARG_ITERATIONS = "iterations";
+    private static final String ARG_BASELINE = "baseline";
+    private static final String ARG_SEED = "seed";
+
+    /** The join shipped by database version 8, which picked an instance per joined row. */
+    private static final String VERSION_8_JOIN_STATEMENT =
+            ALARMS_TABLE_NAME + " LEFT JOIN " + INSTANCES_TABLE_NAME + " ON (" +
+            ALARMS_TABLE_NAME + "." + AlarmsColumns._ID + " = " +
+                    InstancesColumns.ALARM_ID + ")";
+
+    private static final String VERSION_8_JOIN_SELECTION =
+            INSTANCES_TABLE_NAME + "." + InstancesColumns._ID + " IS NULL OR " +
+            INSTANCES_TABLE_NAME + "." + InstancesColumns._ID + " = (" +
+                    "SELECT " + InstancesColumns._ID +
+                    " FROM " + INSTANCES_TABLE_NAME +
+                    " WHERE " + InstancesColumns.ALARM_ID +
+                    " = " + ALARMS_TABLE_NAME + "." + AlarmsColumns._ID +
+                    " ORDER BY " + InstancesColumns.ALARM_STATE + ", " +
+                    InstancesColumns.YEAR + ", " + InstancesColumns.MONTH + ", " +
+                    InstancesColumns.DAY + " LIMIT 1)";
+
+    private int mAlarmCount;
+    private int mInstanceCount;
+    private int mIterations;
+    private boolean mBaseline;
+    private long mSeed;
+
+    @Override
+    public void onCreate(Bundle arguments) {
+        super.onCreate(arguments);
+        mAlarmCount = Integer.parseInt(arguments.getString(ARG_ALARMS, "10000"));
+        mInstanceCount = Integer.parseInt(arguments.getString(ARG_INSTANCES, "50000"));
+        mIterations = Integer.parseInt(arguments.getString(ARG_ITERATIONS, "5"));
+        mBaseline = Boolean.parseBoolean(arguments.getString(ARG_BASELINE, "false"));
+        mSeed = Long.parseLong(arguments.getString(ARG_SEED, "1"));
+        start();
+    }
+
+    @Override
+    public void onStart() {
+        final SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            new ClockDatabaseHelper(getTargetContext()).onCreate(db);
+            populate(db);
+
+            final StringBuilder report = new StringBuilder();
+            final Bundle results = new Bundle();
+            final Result current = time(db, ClockProvider.ALARM_JOIN_INSTANCE_TABLE_STATEMENT,
+                    null, mIterations);
+            report.append("current: ").append(current).append('\n');
+            results.putDouble("median_millis", current.medianMillis);
+            results.putInt("rows", current.rows);
+
+            if (mBaseline) {
+                // Version 8 had no instance indexes; without them its plan is what shipped.
+                db.execSQL("DROP INDEX alarm_instances_alarm_id_state_time");
+                db.execSQL("DROP INDEX alarm_instances_state_time");
+                final Result baseline = time(db, VERSION_8_JOIN_STATEMENT,
+                        VERSION_8_JOIN_SELECTION, 1);
+                report.append("version 8: ").append(baseline).append('\n');
+                results.putDouble("baseline_median_millis", baseline.medianMillis);
+            }
+
+            LogUtils.i("Alarms with instances benchmark: %s", report);
+            results.putString(REPORT_KEY_STREAMRESULT, report.toString());
+            finish(Activity.RESULT_OK, results);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Inserts the alarms, then spreads the instances across them at random, as the alarm list
+     * would see after many snoozes, dismissals and edits.
+     */
+    private void populate(SQLiteDatabase db) {
+        final Random random = new Random(mSeed);
+        db.beginTransaction();
+        try {
+            final SQLiteStatement alarm = db.compileStatement("INSERT INTO " + ALARMS_TABLE_NAME +
+                    " (" + AlarmsColumns.HOUR + ", " + AlarmsColumns.MINUTES + ", " +
+                    AlarmsColumns.DAYS_OF_WEEK + ", " + AlarmsColumns.ENABLED + ", " +
+                    AlarmsColumns.VIBRATE + ", " + AlarmsColumns.LABEL +
+                    ") VALUES (?, ?, ?, 1, 1, '')");
+            for (int i = 0; i < mAlarmCount; i++) {
+                alarm.bindLong(1, random.nextInt(24));
+                alarm.bindLong(2, random.nextInt(60));
+                alarm.bindLong(3, random.nextInt(128));
+                alarm.executeInsert();
+            }
+
+            final SQLiteStatement instance = db.compileStatement("INSERT INTO " +
+                    INSTANCES_TABLE_NAME + " (" + InstancesColumns.YEAR + ", " +
+                    InstancesColumns.MONTH + ", " + InstancesColumns.DAY + ", " +
+                    InstancesColumns.HOUR + ", " + InstancesColumns.MINUTES + ", " +
+                    InstancesColumns.VIBRATE + ", " + InstancesColumns.LABEL + ", " +
+                    InstancesColumns.ALARM_STATE + ", " + InstancesColumns.ALARM_ID + ", " +
+                    InstancesColumns.FIRE_TIME_MILLIS +
+                    ") VALUES (2017, ?, ?, ?, ?, 1, '', ?, ?, ?)");
+            // The two default alarms inserted by the helper are joined too.
+            final int alarmIds = mAlarmCount + 2;
+            for (int i = 0; i < mInstanceCount; i++) {
+                final int month = random.nextInt(12);
+                final int day = 1 + random.nextInt(28);
+                final int hour = random.nextInt(24);
+                final int minutes = random.nextInt(60);
+                instance.bindLong(1, month);
+                instance.bindLong(2, day);
+                instance.bindLong(3, hour);
+                instance.bindLong(4, minutes);
+                instance.bindLong(5, random.nextInt(AlarmInstance.MISSED_STATE + 1));
+                instance.bindLong(6, 1 + random.nextInt(alarmIds));
+                instance.bindLong(7, (((month * 31L + day) * 24 + hour) * 60 + minutes) * 60000);
+                instance.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Runs the query exactly as {@link ClockProvider} builds it for
+     * {@link Alarm#queryAlarmsWithInstances} and reads every row.
+     */
+    private static Result time(SQLiteDatabase db, String tables, String selection,
+            int iterations) {
+        final SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        qb.setTables(tables);
+        final String sql = qb.buildQuery(Alarm.QUERY_ALARMS_WITH_INSTANCES_COLUMNS, selection,
+                null, null, Alarm.DEFAULT_SORT_ORDER, null);
+
+        final StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null)) {
+            final int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append(" / ");
+                }
+                plan.append(cursor.getString(detail));
+            }
+        }
+
+        final long[] elapsed = new long[iterations];
+        int rows = 0;
+        for (int i = 0; i < iterations; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            try (Cursor cursor = db.rawQuery(sql, null)) {
+                rows = 0;
+                while (cursor.moveToNext()) {
+                    rows++;
+                }
+            }
+            elapsed[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        Arrays.sort(elapsed);
+        return new Result(rows, elapsed[iterations / 2] / 1e6, plan.toString());
+    }
+
+    private static final class Result {
+
+        final int rows;
+        final double medianMillis;
+        final String plan;
+
+        Result(int rows, double medianMillis, String plan) {
+            this.rows = rows;
+            this.medianMillis = medianMillis;
+            this.plan = plan;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d rows, median %.1f ms, plan: %s", rows, medianMillis, plan);
+        }
+    }
+}